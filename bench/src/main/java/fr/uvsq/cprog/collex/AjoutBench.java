@@ -0,0 +1,58 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Débit de {@link Dns#addItem} sur une base de 10 000 entrées : vérification
+ * d'unicité, écriture dans le journal et compactions périodiques comprises.
+ * Les entrées ajoutées sont celles qui suivent la base dans la numérotation du
+ * générateur, donc toujours nouvelles.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AjoutBench {
+
+  private static final int TAILLE = 10_000;
+
+  @Param({"false", "true"})
+  public boolean fsync;
+
+  private Dns dns;
+  private long suivant = TAILLE;
+
+  @Setup
+  public void prepare() throws IOException {
+    final Properties p = new Properties();
+    p.setProperty("journal.fsync", Boolean.toString(fsync));
+    dns = new Dns(GenerateurBase.copie(TAILLE), DnsConfig.depuis(p));
+  }
+
+  @TearDown
+  public void ferme() {
+    dns.close();
+  }
+
+  @Benchmark
+  public void ajoute() {
+    final long i = suivant++;
+    dns.addItem(new AdresseIP(GenerateurBase.ip(i)), new NomMachine(GenerateurBase.nom(i)));
+  }
+}
@@ -0,0 +1,121 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare l'analyse des adresses, des noms et des lignes de la base avant et après
+ * le passage aux analyseurs écrits à la main. Les méthodes "ancien..." reprennent
+ * telles quelles les versions à expressions régulières qu'ils remplacent.
+ *
+ * Lancement : java -jar bench/target/benchmarks.jar AnalyseBench -prof gc
+ * (le profileur gc donne les octets alloués par opération).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AnalyseBench {
+
+  private static final Pattern IPV4 =
+      Pattern.compile("^((25[0-5]|2[0-4]\\d|1?\\d?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1?\\d?\\d)$");
+
+  private final String ip = "193.51.31.154";
+  private final String nom = "ecampus.informatique.uvsq.fr";
+  private final String ligne = "ecampus.informatique.uvsq.fr 193.51.31.154";
+  private final NomMachine machine = new NomMachine(nom);
+
+  @Benchmark
+  public long ipAncien() {
+    return ancienneIp(ip);
+  }
+
+  @Benchmark
+  public long ipNouveau() {
+    return AdresseIP.analyse(ip);
+  }
+
+  @Benchmark
+  public boolean nomAncien() {
+    return ancienNomValide(nom);
+  }
+
+  @Benchmark
+  public boolean nomNouveau() {
+    return NomMachine.estValide(nom, 0, nom.length());
+  }
+
+  @Benchmark
+  public Object ligneAncienne() {
+    final String[] parts = ligne.strip().split("\\s+");
+    final String fqdn = parts[0].toLowerCase(Locale.ROOT);
+    if (!ancienNomValide(fqdn) || ancienneIp(parts[1]) < 0) {
+      throw new IllegalStateException();
+    }
+    return fqdn;
+  }
+
+  @Benchmark
+  public DnsItem ligneNouvelle() {
+    return DnsItem.analyse(ligne);
+  }
+
+  @Benchmark
+  public String domaineAncien() {
+    final String v = machine.value();
+    return v.substring(v.indexOf('.') + 1);
+  }
+
+  @Benchmark
+  public String domaineNouveau() {
+    return machine.domaine();
+  }
+
+  /** Ancienne analyse d'adresse : expression régulière puis second parcours. */
+  private static long ancienneIp(final String ip) {
+    final String t = ip.trim();
+    if (!IPV4.matcher(t).matches()) {
+      return -1;
+    }
+    long v = 0;
+    int octet = 0;
+    for (int i = 0; i < t.length(); i++) {
+      final char c = t.charAt(i);
+      if (c == '.') {
+        v = (v << 8) | octet;
+        octet = 0;
+      } else {
+        octet = octet * 10 + (c - '0');
+      }
+    }
+    return (v << 8) | octet;
+  }
+
+  /** Ancienne validation de nom : découpage puis String.matches par label. */
+  private static boolean ancienNomValide(final String s) {
+    final String t = s.trim();
+    if (t.isEmpty() || t.startsWith(".") || t.endsWith(".") || !t.contains(".")
+        || t.contains("..")) {
+      return false;
+    }
+    for (String label : t.split("\\.")) {
+      if (label.isEmpty() || label.startsWith("-") || label.endsWith("-")
+          || !label.matches("[A-Za-z0-9-]{1,63}")) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
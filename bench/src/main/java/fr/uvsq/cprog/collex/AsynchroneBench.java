@@ -0,0 +1,102 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Débit de {@link DnsAsynchrone}, avec et sans regroupement des lectures identiques,
+ * pour des requêtes tirées selon une loi de Zipf d'exposant donné (0 : uniforme) :
+ * la requête de rang r est tirée avec une probabilité proportionnelle à 1 / r^zipf.
+ * Une requête sur deux liste le petit domaine de son entrée, les autres cherchent
+ * son nom. Chacun des 8 clients soumet ses requêtes par rafales de {@link #RAFALE}
+ * sans attendre les réponses, puis attend la rafale entière.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class AsynchroneBench {
+
+  private static final int TAILLE = 100_000;
+
+  /** Requêtes soumises avant d'attendre les réponses. */
+  private static final int RAFALE = 64;
+
+  /** Nombre de requêtes tirées d'avance, parcourues en boucle. */
+  private static final int REQUETES = 1 << 16;
+
+  @Param({"0", "0.99", "1.2"})
+  public double zipf;
+
+  @Param({"false", "true"})
+  public boolean regroupe;
+
+  private Dns dns;
+  private DnsAsynchrone async;
+  private final String[] requetes = new String[REQUETES];
+
+  /** Position courante dans les requêtes, propre à chaque client. */
+  @State(Scope.Thread)
+  public static class Curseur {
+    int i;
+    final CompletableFuture<?>[] reponses = new CompletableFuture<?>[RAFALE];
+  }
+
+  @Setup
+  public void prepare() throws IOException {
+    dns = new Dns(GenerateurBase.copie(TAILLE));
+    async = new DnsAsynchrone(dns, Runtime.getRuntime().availableProcessors(), 1024, regroupe);
+    // Fonction de répartition des rangs, puis tirage par recherche dichotomique
+    final double[] cumul = new double[TAILLE];
+    double somme = 0;
+    for (int r = 0; r < TAILLE; r++) {
+      somme += 1 / Math.pow(r + 1, zipf);
+      cumul[r] = somme;
+    }
+    final SplittableRandom alea = new SplittableRandom(42);
+    for (int k = 0; k < REQUETES; k++) {
+      final int pos = Arrays.binarySearch(cumul, alea.nextDouble() * somme);
+      final int i = Math.min(pos < 0 ? -pos - 1 : pos, TAILLE - 1);
+      requetes[k] = k % 2 == 0 && i % 10 != 0
+          ? "ls " + GenerateurBase.petitDomaine(i)
+          : GenerateurBase.nom(i);
+    }
+  }
+
+  @TearDown
+  public void ferme() {
+    System.out.printf("%n%,d exécutées, %,d regroupées%n", async.executees(), async.regroupees());
+    async.close();
+    dns.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RAFALE)
+  public void rafale(final Curseur c) {
+    for (int k = 0; k < RAFALE; k++) {
+      c.reponses[k] = async.soumet(requetes[c.i]);
+      c.i = (c.i + 1) & (REQUETES - 1);
+    }
+    CompletableFuture.allOf(c.reponses).join();
+  }
+}
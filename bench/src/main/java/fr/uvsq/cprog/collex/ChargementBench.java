@@ -0,0 +1,57 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction de {@link Dns}, c'est-à-dire chargement complet de la base.
+ * En mode instantané, l'itération de chauffe construit l'instantané ; les
+ * itérations mesurées le projettent seulement.
+ *
+ * 10 M d'entrées demandent un tas de plusieurs gigaoctets : -jvmArgs -Xmx8g.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChargementBench {
+
+  @Param({"10000", "1000000", "10000000"})
+  public int taille;
+
+  @Param({"memoire", "instantane", "disque", "colonnes"})
+  public String stockage;
+
+  private Path db;
+  private DnsConfig config;
+
+  @Setup
+  public void prepare() throws IOException {
+    db = GenerateurBase.copie(taille);
+    final Properties p = new Properties();
+    p.setProperty("stockage", stockage);
+    config = DnsConfig.depuis(p);
+  }
+
+  @Benchmark
+  public int charge() {
+    try (Dns dns = new Dns(db, config)) {
+      return dns.size();
+    }
+  }
+}
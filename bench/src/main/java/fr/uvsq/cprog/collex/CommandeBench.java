@@ -0,0 +1,106 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coût de l'analyse des commandes : {@link DnsTUI#analyse} pour chaque forme de
+ * commande, et {@link DnsTUI#nextCommande()} complet (lecture de la ligne par le
+ * Scanner comprise) sur une entrée standard qui répète indéfiniment un script.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandeBench {
+
+  private static final String SCRIPT = "www.uvsq.fr\n193.51.31.90\nls -a uvsq.fr\n"
+      + "add 193.51.25.24 pikachu.uvsq.fr\n";
+
+  private InputStream entree;
+  private PrintStream sortie;
+  private DnsTUI tui;
+
+  @Setup
+  public void prepare() {
+    entree = System.in;
+    sortie = System.out;
+    System.setIn(new Repetition(SCRIPT.getBytes(StandardCharsets.US_ASCII)));
+    // L'invite "> " écrite à chaque commande ne doit pas inonder la sortie de JMH
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    tui = new DnsTUI();
+  }
+
+  @TearDown
+  public void restaure() {
+    System.setIn(entree);
+    System.setOut(sortie);
+  }
+
+  @Benchmark
+  public Commande rechercheNom() {
+    return DnsTUI.analyse("www.uvsq.fr");
+  }
+
+  @Benchmark
+  public Commande rechercheIp() {
+    return DnsTUI.analyse("193.51.31.90");
+  }
+
+  @Benchmark
+  public Commande liste() {
+    return DnsTUI.analyse("ls -a uvsq.fr");
+  }
+
+  @Benchmark
+  public Commande ajout() {
+    return DnsTUI.analyse("add 193.51.25.24 pikachu.uvsq.fr");
+  }
+
+  @Benchmark
+  public Commande nextCommande() {
+    return tui.nextCommande();
+  }
+
+  /** Flux qui répète sans fin les mêmes octets. */
+  private static final class Repetition extends InputStream {
+    private final byte[] octets;
+    private int pos;
+
+    Repetition(final byte[] octets) {
+      this.octets = octets;
+    }
+
+    @Override
+    public int read() {
+      final int b = octets[pos];
+      pos = (pos + 1) % octets.length;
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      for (int i = 0; i < len; i++) {
+        b[off + i] = octets[pos];
+        pos = (pos + 1) % octets.length;
+      }
+      return len;
+    }
+  }
+}
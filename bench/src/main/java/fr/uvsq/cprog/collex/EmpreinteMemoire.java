@@ -0,0 +1,61 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tas occupé par une base chargée, en octets par entrée, pour chaque mode de stockage :
+ * tas utilisé après chargement moins tas utilisé avant, mesurés après des GC complets.
+ * Les modes sont mesurés l'un après l'autre dans la même JVM, chaque base étant fermée
+ * et libérée avant la suivante.
+ *
+ * Utilisation : java -Xmx8g -cp bench/target/benchmarks.jar
+ * fr.uvsq.cprog.collex.EmpreinteMemoire 10000000 [memoire colonnes ...]
+ */
+public final class EmpreinteMemoire {
+
+  private EmpreinteMemoire() {
+  }
+
+  /**
+   * Mesure le tas occupé par la base de la taille donnée.
+   *
+   * @param args taille de la base, puis modes de stockage (par défaut : tous)
+   * @throws IOException en cas d'erreur d'écriture de la base
+   */
+  public static void main(final String[] args) throws IOException {
+    final int taille = Integer.parseInt(args[0]);
+    final List<String> modes = args.length > 1
+        ? Arrays.asList(args).subList(1, args.length)
+        : List.of("memoire", "instantane", "disque", "colonnes");
+    for (String mode : modes) {
+      final Path db = GenerateurBase.copie(taille);
+      final Properties p = new Properties();
+      p.setProperty("stockage", mode);
+      final DnsConfig config = DnsConfig.depuis(p);
+      if (!"memoire".equals(mode) && !"colonnes".equals(mode)) {
+        // Fichier binaire construit hors mesure
+        new Dns(db, config).close();
+      }
+      final long avant = tasUtilise();
+      final Dns dns = new Dns(db, config);
+      final long apres = tasUtilise();
+      System.out.printf("%-10s %,d entrées : %,d octets de tas, %.1f octets par entrée%n",
+          mode, dns.size(), apres - avant, (double) (apres - avant) / taille);
+      dns.close();
+    }
+  }
+
+  private static long tasUtilise() {
+    final MemoryMXBean memoire = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      memoire.gc();
+    }
+    return memoire.getHeapMemoryUsage().getUsed();
+  }
+}
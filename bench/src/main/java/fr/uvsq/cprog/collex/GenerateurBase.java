@@ -0,0 +1,118 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Générateur de bases synthétiques, déterministe : une taille donne toujours le
+ * même fichier, ce qui rend les mesures reproductibles d'une machine à l'autre.
+ *
+ * L'entrée i s'appelle "h{i}.d{i/10}.bench.fr", sauf une sur dix qui appartient
+ * au grand domaine "grand.bench.fr" : on obtient ainsi des petits domaines de
+ * 9 entrées et un domaine contenant 10 % de la base. L'adresse de l'entrée i est
+ * i multiplié par une constante impaire (modulo 2^32) : les adresses sont toutes
+ * distinctes, dispersées, et celles des indices ≥ taille sont garanties absentes.
+ *
+ * Les fichiers sont écrits une fois dans le répertoire donné par la propriété
+ * {@code bench.donnees} (par défaut target/donnees), puis réutilisés.
+ *
+ * Utilisation directe : java -cp bench/target/benchmarks.jar
+ * fr.uvsq.cprog.collex.GenerateurBase 1000000
+ */
+public final class GenerateurBase {
+
+  /** Domaine regroupant une entrée sur dix. */
+  public static final String GRAND_DOMAINE = "grand.bench.fr";
+
+  private static final long MULTIPLICATEUR = 0x9E3779B1L;
+
+  private GenerateurBase() {
+  }
+
+  /**
+   * Nom de l'entrée i.
+   *
+   * @param i numéro de l'entrée
+   * @return nom qualifié
+   */
+  public static String nom(final long i) {
+    return i % 10 == 0 ? "h" + i + "." + GRAND_DOMAINE : "h" + i + ".d" + i / 10 + ".bench.fr";
+  }
+
+  /**
+   * Adresse de l'entrée i.
+   *
+   * @param i numéro de l'entrée (au-delà de la taille de la base : adresse absente)
+   * @return forme entière de l'adresse
+   */
+  public static int ip(final long i) {
+    return (int) (i * MULTIPLICATEUR);
+  }
+
+  /**
+   * Petit domaine contenant l'entrée i (i non multiple de 10).
+   *
+   * @param i numéro de l'entrée
+   * @return le domaine
+   */
+  public static String petitDomaine(final long i) {
+    return "d" + i / 10 + ".bench.fr";
+  }
+
+  /**
+   * Retourne le fichier de la base de la taille donnée, généré au premier appel.
+   *
+   * @param taille nombre d'entrées
+   * @return chemin du fichier
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  public static Path base(final int taille) throws IOException {
+    final Path dir = Path.of(System.getProperty("bench.donnees", "target/donnees"));
+    final Path fichier = dir.resolve("base-" + taille + ".txt");
+    if (Files.exists(fichier)) {
+      return fichier;
+    }
+    Files.createDirectories(dir);
+    final Path tmp = dir.resolve("base-" + taille + ".txt.tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(tmp)) {
+      for (int i = 0; i < taille; i++) {
+        out.write(nom(i));
+        out.write(' ');
+        out.write(new AdresseIP(ip(i)).value());
+        out.newLine();
+      }
+    }
+    Files.move(tmp, fichier, StandardCopyOption.ATOMIC_MOVE);
+    return fichier;
+  }
+
+  /**
+   * Copie la base de la taille donnée dans un répertoire neuf, pour une mesure
+   * qui l'écrit (journal, instantané) sans toucher au fichier de référence.
+   *
+   * @param taille nombre d'entrées
+   * @return chemin de la copie
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  public static Path copie(final int taille) throws IOException {
+    final Path dir = Files.createTempDirectory("dns-bench");
+    final Path copie = dir.resolve("dns.txt");
+    Files.copy(base(taille), copie);
+    return copie;
+  }
+
+  /**
+   * Génère les bases dont les tailles sont données en argument.
+   *
+   * @param args tailles
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  public static void main(final String[] args) throws IOException {
+    for (String a : args) {
+      System.out.println(base(Integer.parseInt(a)));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package fr.uvsq.cprog.collex;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare la représentation des adresses IPv6 (deux {@code long}, index à clés
+ * primitives) à une représentation textuelle (adresse gardée en {@code String},
+ * index {@link HashMap} par texte) : analyse, recherche et mémoire.
+ *
+ * Lancement : java -jar bench/target/benchmarks.jar Ipv6Bench -prof gc
+ * Mémoire par entrée : java -cp bench/target/benchmarks.jar fr.uvsq.cprog.collex.Ipv6Bench 1000000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Ipv6Bench {
+
+  private static final int N = 1 << 16;
+
+  private final String texte = "2001:0DB8:0:0:0:0:0:1c";
+  private final IndexIp6 index = new IndexIp6();
+  private final Map<String, DnsItem> parTexte = new HashMap<>();
+
+  public Ipv6Bench() {
+    for (int i = 0; i < N; i++) {
+      final DnsItem item = item(i);
+      index.put(item);
+      parTexte.put(item.ip().value(), item);
+    }
+  }
+
+  /** Entrée numéro i, d'adresse 2001:db8::i. */
+  private static DnsItem item(final long i) {
+    return new DnsItem(NomMachine.deConfiance(GenerateurBase.nom(i)),
+        new AdresseIPv6(0x20010db8_00000000L, i + 1));
+  }
+
+  @Benchmark
+  public AdresseIP analyseNouveau() {
+    return AdresseIP.de(texte, 0, texte.length());
+  }
+
+  @Benchmark
+  public String analyseTexte() throws UnknownHostException {
+    // Validation et mise en forme canonique par la bibliothèque standard
+    return InetAddress.getByName(texte).getHostAddress();
+  }
+
+  @Benchmark
+  public DnsItem rechercheNouveau() {
+    final AdresseIP ip = AdresseIP.de(texte, 0, texte.length());
+    return index.get(ip.haut(), ip.bas());
+  }
+
+  @Benchmark
+  public DnsItem rechercheTexte() throws UnknownHostException {
+    return parTexte.get(InetAddress.getByName(texte).getHostAddress());
+  }
+
+  /** Entrée d'une représentation textuelle : nom et adresse en texte. */
+  private record EntreeTexte(NomMachine nom, String ip) {
+  }
+
+  /**
+   * Mesure le tas occupé par entrée dans les deux représentations, adresse et index
+   * compris (les noms, partagés, ne sont pas comptés).
+   *
+   * @param args nombre d'entrées (1 000 000 par défaut)
+   */
+  public static void main(final String[] args) {
+    final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    final NomMachine nom = NomMachine.deConfiance("h.bench.fr");
+
+    long avant = utilise();
+    final IndexIp6 index = new IndexIp6();
+    for (int i = 0; i < n; i++) {
+      index.put(new DnsItem(nom, new AdresseIPv6(0x20010db8_00000000L, i + 1L)));
+    }
+    final long primitif = utilise() - avant;
+
+    avant = utilise();
+    final Map<String, EntreeTexte> parTexte = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      final String ip = new AdresseIPv6(0x20010db8_00000000L, i + 1L).value();
+      parTexte.put(ip, new EntreeTexte(nom, ip));
+    }
+    final long textuel = utilise() - avant;
+
+    System.out.printf("deux long + IndexIp6 : %,d entrées, %.1f octets/entrée%n",
+        index.size(), (double) primitif / n);
+    System.out.printf("String + HashMap : %,d entrées, %.1f octets/entrée%n",
+        parTexte.size(), (double) textuel / n);
+  }
+
+  /** Tas occupé après ramasse-miettes. */
+  private static long utilise() {
+    final Runtime r = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return r.totalMemory() - r.freeMemory();
+  }
+}
@@ -0,0 +1,97 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Débit des lectures de {@link Dns} (par nom puis par adresse) selon le nombre de
+ * threads lecteurs, seules ou pendant les ajouts d'un écrivain. Le nombre de threads
+ * se choisit à l'exécution : {@code -t 4} pour {@code lectures}, {@code -tg 4,1} pour
+ * le groupe {@code mixte} (4 lecteurs, 1 écrivain).
+ *
+ * La base, en mémoire, est reconstruite à chaque itération : les entrées ajoutées
+ * par l'écrivain ne s'accumulent pas d'une itération à l'autre.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LectureConcurrenteBench {
+
+  private static final int TAILLE = 50_000;
+
+  private final NomMachine[] noms = new NomMachine[TAILLE];
+  private final List<DnsItem> lot = new ArrayList<>(TAILLE);
+  private Dns dns;
+  private final AtomicLong suivant = new AtomicLong();
+
+  /** Position courante dans les noms, propre à chaque lecteur. */
+  @State(Scope.Thread)
+  public static class Curseur {
+    int i;
+  }
+
+  @Setup
+  public void prepare() {
+    for (int i = 0; i < TAILLE; i++) {
+      noms[i] = new NomMachine(GenerateurBase.nom(i));
+      lot.add(new DnsItem(noms[i], new AdresseIP(GenerateurBase.ip(i))));
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void remplit() {
+    dns = new Dns(null);
+    dns.addItems(lot);
+    suivant.set(TAILLE);
+  }
+
+  @TearDown(Level.Iteration)
+  public void ferme() {
+    dns.close();
+  }
+
+  private DnsItem lit(final Curseur c) {
+    c.i = (c.i + 7) % TAILLE;
+    final DnsItem item = dns.getItem(noms[c.i]);
+    return dns.getItem(item.ip());
+  }
+
+  @Benchmark
+  public DnsItem lectures(final Curseur c) {
+    return lit(c);
+  }
+
+  @Benchmark
+  @Group("mixte")
+  @GroupThreads(3)
+  public DnsItem lecturesPendantAjouts(final Curseur c) {
+    return lit(c);
+  }
+
+  @Benchmark
+  @Group("mixte")
+  @GroupThreads(1)
+  public void ajouts() {
+    final long i = suivant.getAndIncrement();
+    dns.addItem(new AdresseIP(GenerateurBase.ip(i)), new NomMachine(GenerateurBase.nom(i)));
+  }
+}
@@ -0,0 +1,101 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Dns#getItems} (commande ls) sur un petit domaine (9 entrées) et sur le
+ * grand domaine de la base synthétique (10 % des entrées), dans les deux ordres,
+ * et la première page de 100 entrées du grand domaine lue par {@link Dns#streamItems} ;
+ * {@link Dns#getItems(PlageIP)} (ls -r) sur un /16 et {@link Dns#getAdresseLibre}
+ * sur un /24, {@link Dns#getItemsMotif} sur le petit domaine et {@link Dns#completions}
+ * (ces quatre-là ne dépendent pas de parAdresse).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListeBench {
+
+  @Param({"10000", "1000000"})
+  public int taille;
+
+  @Param({"memoire", "instantane", "disque", "colonnes"})
+  public String stockage;
+
+  @Param({"false", "true"})
+  public boolean parAdresse;
+
+  private Dns dns;
+  private String petit;
+  private String motifPetit;
+  private String debutPetit;
+  private final PlageIP reseau16 = PlageIP.cidr("10.42.0.0/16");
+  private final PlageIP reseau24 = PlageIP.cidr("10.42.7.0/24");
+
+  @Setup
+  public void prepare() throws IOException {
+    final Properties p = new Properties();
+    p.setProperty("stockage", stockage);
+    dns = new Dns(GenerateurBase.copie(taille), DnsConfig.depuis(p));
+    petit = GenerateurBase.petitDomaine(taille / 2 + 1);
+    motifPetit = "*." + petit;
+    debutPetit = "h" + (taille / 2 + 1) / 10 + "." + petit;
+  }
+
+  @TearDown
+  public void ferme() {
+    dns.close();
+  }
+
+  @Benchmark
+  public List<DnsItem> petitDomaine() {
+    return dns.getItems(petit, parAdresse);
+  }
+
+  @Benchmark
+  public List<DnsItem> grandDomaine() {
+    return dns.getItems(GenerateurBase.GRAND_DOMAINE, parAdresse);
+  }
+
+  @Benchmark
+  public long pageGrandDomaine() {
+    return dns.streamItems(GenerateurBase.GRAND_DOMAINE, parAdresse, null).limit(100).count();
+  }
+
+  @Benchmark
+  public List<DnsItem> plage() {
+    return dns.getItems(reseau16);
+  }
+
+  @Benchmark
+  public AdresseIP adresseLibre() {
+    return dns.getAdresseLibre(reseau24);
+  }
+
+  @Benchmark
+  public List<DnsItem> motif() {
+    return dns.getItemsMotif(motifPetit);
+  }
+
+  @Benchmark
+  public List<String> completion() {
+    return dns.completions(debutPetit, 20);
+  }
+}
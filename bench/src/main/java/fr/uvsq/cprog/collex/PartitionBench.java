@@ -0,0 +1,80 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Débit d'ajout de 8 threads sur une base de 10 000 entrées, selon le nombre de
+ * partitions de {@link DnsPartitionne} (0 : une seule instance de {@link Dns}, sans
+ * partition). Les entrées ajoutées sont toujours nouvelles et réparties entre de
+ * nombreux domaines, donc entre toutes les partitions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PartitionBench {
+
+  private static final int TAILLE = 10_000;
+
+  @Param({"0", "1", "2", "4", "8"})
+  public int partitions;
+
+  @Param({"false", "true"})
+  public boolean fsync;
+
+  private Dns dns;
+  private DnsPartitionne partitionne;
+  private final AtomicLong suivant = new AtomicLong(TAILLE);
+
+  @Setup
+  public void prepare() throws IOException {
+    final Properties p = new Properties();
+    p.setProperty("journal.fsync", Boolean.toString(fsync));
+    if (partitions == 0) {
+      dns = new Dns(GenerateurBase.copie(TAILLE), DnsConfig.depuis(p));
+    } else {
+      partitionne = new DnsPartitionne(GenerateurBase.copie(TAILLE), partitions,
+          DnsConfig.depuis(p));
+    }
+  }
+
+  @TearDown
+  public void ferme() {
+    if (dns != null) {
+      dns.close();
+    } else {
+      partitionne.close();
+    }
+  }
+
+  @Benchmark
+  public void ajoute() {
+    final long i = suivant.getAndIncrement();
+    final AdresseIP ip = new AdresseIP(GenerateurBase.ip(i));
+    final NomMachine nom = new NomMachine(GenerateurBase.nom(i));
+    if (dns != null) {
+      dns.addItem(ip, nom);
+    } else {
+      partitionne.addItem(ip, nom);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Dns#getItem} par nom et par adresse, pour des clés présentes et absentes.
+ * Les clés sont tirées d'avance (graine fixe) et parcourues en boucle : la mesure
+ * ne contient ni tirage ni construction de {@link NomMachine} ou d'{@link AdresseIP}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RechercheBench {
+
+  /** Nombre de clés parcourues : assez pour sortir des caches pour les grandes bases. */
+  private static final int CLES = 1 << 16;
+
+  @Param({"10000", "1000000"})
+  public int taille;
+
+  @Param({"memoire", "instantane", "disque", "colonnes"})
+  public String stockage;
+
+  private Dns dns;
+  private final NomMachine[] nomsPresents = new NomMachine[CLES];
+  private final NomMachine[] nomsAbsents = new NomMachine[CLES];
+  private final AdresseIP[] ipsPresentes = new AdresseIP[CLES];
+  private final AdresseIP[] ipsAbsentes = new AdresseIP[CLES];
+
+  /** Position courante dans les clés, propre à chaque thread de mesure. */
+  @State(Scope.Thread)
+  public static class Curseur {
+    int i;
+
+    int suivant() {
+      i = (i + 1) & (CLES - 1);
+      return i;
+    }
+  }
+
+  @Setup
+  public void prepare() throws IOException {
+    final Properties p = new Properties();
+    p.setProperty("stockage", stockage);
+    dns = new Dns(GenerateurBase.copie(taille), DnsConfig.depuis(p));
+    final SplittableRandom alea = new SplittableRandom(42);
+    for (int k = 0; k < CLES; k++) {
+      final int present = alea.nextInt(taille);
+      nomsPresents[k] = new NomMachine(GenerateurBase.nom(present));
+      ipsPresentes[k] = new AdresseIP(GenerateurBase.ip(present));
+      final long absent = taille + (long) alea.nextInt(taille);
+      nomsAbsents[k] = new NomMachine(GenerateurBase.nom(absent));
+      ipsAbsentes[k] = new AdresseIP(GenerateurBase.ip(absent));
+    }
+  }
+
+  @TearDown
+  public void ferme() {
+    dns.close();
+  }
+
+  @Benchmark
+  public DnsItem nomPresent(final Curseur c) {
+    return dns.getItem(nomsPresents[c.suivant()]);
+  }
+
+  @Benchmark
+  public DnsItem nomAbsent(final Curseur c) {
+    return dns.getItem(nomsAbsents[c.suivant()]);
+  }
+
+  @Benchmark
+  public DnsItem ipPresente(final Curseur c) {
+    return dns.getItem(ipsPresentes[c.suivant()]);
+  }
+
+  @Benchmark
+  public DnsItem ipAbsente(final Curseur c) {
+    return dns.getItem(ipsAbsentes[c.suivant()]);
+  }
+}
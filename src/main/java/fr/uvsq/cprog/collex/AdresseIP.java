@@ -1,39 +1,222 @@
 package fr.uvsq.cprog.collex;
 
-import java.util.Objects;
-import java.util.regex.Pattern;
+/**
+ * Adresse IP. Une adresse IPv4 est conservée sous forme d'un entier 32 bits ;
+ * une adresse IPv6 est une {@link AdresseIPv6}, obtenue avec {@link #de(String)}.
+ *
+ * L'ordre naturel est l'ordre numérique des adresses (193.51.31.90 avant 193.51.31.154),
+ * sur 128 bits entre familles : une adresse IPv4 y prend la place de sa forme
+ * ::ffff:a.b.c.d, si bien que ::1 la précède et 2001:db8::1 la suit.
+ */
+public sealed class AdresseIP implements Comparable<AdresseIP> permits AdresseIPv6 {
+    /** Les quatre octets de l'adresse, le premier dans les bits de poids fort. */
+    private final int valeur;
 
+    /**
+     * Construit une adresse IPv4 à partir de son texte.
+     *
+     * @param ip le texte (ex : "193.51.31.90")
+     * @throws IllegalArgumentException si le texte n'est pas une adresse IPv4
+     */
+    public AdresseIP(final String ip) {
+        final long v = analyse(ip);
+        if (v < 0) {
+            throw new IllegalArgumentException("Adresse IP invalide : " + ip);
+        }
+        this.valeur = (int) v;
+    }
 
-public final class AdresseIP {
-    private static final Pattern IPV4 =
-        Pattern.compile("^((25[0-5]|2[0-4]\\d|1?\\d?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1?\\d?\\d)$");
-
-    private final String value;
+    /**
+     * Construit une adresse à partir de sa forme entière.
+     *
+     * @param valeur les 32 bits de l'adresse
+     */
+    public AdresseIP(final int valeur) {
+        this.valeur = valeur;
+    }
 
-    public AdresseIP(final String ip) {
-        if (ip == null || !IPV4.matcher(ip.trim()).matches()) {
+    /**
+     * Analyse une adresse IPv4 ou IPv6.
+     *
+     * @param ip le texte (ex : "193.51.31.90" ou "2001:db8::1")
+     * @return l'adresse ; une adresse IPv6 de la forme ::ffff:a.b.c.d donne l'adresse IPv4 a.b.c.d
+     * @throws IllegalArgumentException si le texte n'est pas une adresse valide
+     */
+    public static AdresseIP de(final String ip) {
+        final AdresseIP r = ip == null ? null : de(ip, 0, ip.length());
+        if (r == null) {
             throw new IllegalArgumentException("Adresse IP invalide : " + ip);
         }
-        this.value = ip.trim();
+        return r;
+    }
+
+    /**
+     * Analyse une adresse IPv4 ou IPv6 sans expression régulière (voir {@link #de(String)}).
+     *
+     * @param s le texte contenant l'adresse
+     * @param debut début de l'adresse dans le texte
+     * @param fin fin (exclue) de l'adresse dans le texte
+     * @return l'adresse, ou null si le texte est invalide
+     */
+    static AdresseIP de(final CharSequence s, final int debut, final int fin) {
+        for (int i = debut; i < fin; i++) {
+            if (s.charAt(i) == ':') {
+                return AdresseIPv6.analyseV6(s, debut, fin);
+            }
+        }
+        final long v = analyse(s, debut, fin);
+        return v < 0 ? null : new AdresseIP((int) v);
+    }
+
+    /**
+     * Analyse une adresse IPv4 textuelle.
+     *
+     * @param ip le texte à analyser (peut être null)
+     * @return la valeur 32 bits non signée de l'adresse, ou -1 si le texte est invalide
+     */
+    static long analyse(final String ip) {
+        return ip == null ? -1 : analyse(ip, 0, ip.length());
+    }
+
+    /**
+     * Analyse une adresse IPv4 textuelle en une seule passe, sans allocation.
+     * Les blancs qui l'entourent sont ignorés. Chaque octet compte de 1 à 3 chiffres,
+     * au plus 255 ; un octet à 3 chiffres ne commence pas par 0.
+     *
+     * @param s le texte contenant l'adresse
+     * @param debut début de l'adresse dans le texte
+     * @param fin fin (exclue) de l'adresse dans le texte
+     * @return la valeur 32 bits non signée de l'adresse, ou -1 si le texte est invalide
+     */
+    static long analyse(final CharSequence s, final int debut, final int fin) {
+        int i = debut;
+        int j = fin;
+        while (i < j && s.charAt(i) <= ' ') {
+            i++;
+        }
+        while (j > i && s.charAt(j - 1) <= ' ') {
+            j--;
+        }
+        long v = 0;
+        int octets = 0;
+        while (octets < 4) {
+            final int premier = i;
+            int octet = 0;
+            while (i < j && i - premier < 3 && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                octet = octet * 10 + (s.charAt(i) - '0');
+                i++;
+            }
+            final int chiffres = i - premier;
+            if (chiffres == 0 || octet > 255 || (chiffres == 3 && s.charAt(premier) == '0')) {
+                return -1;
+            }
+            v = (v << 8) | octet;
+            octets++;
+            if (octets < 4) {
+                if (i >= j || s.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return i == j ? v : -1;
+    }
+
+    /**
+     * Retourne l'adresse IPv4 sous forme entière.
+     *
+     * @return les 32 bits de l'adresse
+     * @throws IllegalStateException pour une adresse IPv6
+     */
+    public int toInt() {
+        return valeur;
+    }
+
+    /**
+     * Indique si l'adresse est une adresse IPv6.
+     *
+     * @return true pour IPv6, false pour IPv4
+     */
+    public boolean estIpv6() {
+        return false;
+    }
+
+    /**
+     * Retourne les 64 bits de poids fort de l'adresse sur 128 bits (nuls pour IPv4).
+     *
+     * @return les bits 127 à 64
+     */
+    public long haut() {
+        return 0;
+    }
+
+    /**
+     * Retourne les 64 bits de poids faible de l'adresse sur 128 bits
+     * (0000:ffff:a.b.c.d pour l'adresse IPv4 a.b.c.d).
+     *
+     * @return les bits 63 à 0
+     */
+    public long bas() {
+        return 0xFFFF_0000_0000L | (valeur & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Place de l'adresse parmi les adresses IPv4, pour reprendre un parcours trié par
+     * adresse dans un index qui ne contient que des adresses IPv4.
+     *
+     * @return l'adresse non signée pour IPv4 ; -1 pour une adresse IPv6 qui précède
+     *     toutes les adresses IPv4, 2^32 pour une adresse IPv6 qui les suit
+     */
+    long rangIpv4() {
+        return valeur & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Nom de la requête DNS inverse de l'adresse.
+     *
+     * @return "d.c.b.a.in-addr.arpa" pour a.b.c.d
+     */
+    public String nomInverse() {
+        return (valeur & 0xFF) + "." + ((valeur >>> 8) & 0xFF) + "." + ((valeur >>> 16) & 0xFF)
+            + "." + (valeur >>> 24) + ".in-addr.arpa";
     }
 
     public String value() {
-        return value;
+        return (valeur >>> 24) + "." + ((valeur >>> 16) & 0xFF) + "."
+            + ((valeur >>> 8) & 0xFF) + "." + (valeur & 0xFF);
     }
 
     @Override
     public String toString() {
-        return value;
+        return value();
+    }
+
+    /**
+     * Ordre numérique des 128 bits ({@link #haut()}, puis {@link #bas()}), une adresse IPv4
+     * a.b.c.d valant ::ffff:a.b.c.d. Les adresses IPv6 de ::/96 (dont :: et ::1), et plus
+     * généralement celles inférieures à ::ffff:0:0, précèdent donc toutes les adresses IPv4 ;
+     * les autres adresses IPv6 (2001:db8::1, fe80::1...) les suivent. C'est l'ordre de
+     * "ls -a" et de sa clé de reprise "after".
+     *
+     * @param o l'adresse à comparer
+     * @return un entier négatif, nul ou positif selon que l'adresse précède, égale ou suit o
+     */
+    @Override
+    public int compareTo(final AdresseIP o) {
+        if (!estIpv6() && !o.estIpv6()) {
+            return Integer.compareUnsigned(valeur, o.valeur);
+        }
+        final int c = Long.compareUnsigned(haut(), o.haut());
+        return c != 0 ? c : Long.compareUnsigned(bas(), o.bas());
     }
 
     @Override
     public boolean equals(final Object o) {
-        return (o instanceof AdresseIP other) && value.equals(other.value);
+        return (o instanceof AdresseIP other) && !other.estIpv6() && valeur == other.valeur;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        return Integer.hashCode(valeur);
     }
 }
-
@@ -0,0 +1,261 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Adresse IPv6, conservée sous forme de deux {@code long} : les 128 bits de l'adresse,
+ * sans tableau ni texte. Elle s'écrit sous la forme canonique de la RFC 5952
+ * (chiffres hexadécimaux en minuscules, sans zéros en tête, plus longue suite d'au
+ * moins deux groupes nuls remplacée par "::"), quelle que soit la forme analysée :
+ * les différentes écritures d'une même adresse sont égales.
+ */
+public final class AdresseIPv6 extends AdresseIP {
+
+  /** Bits 127 à 64. */
+  private final long haut;
+
+  /** Bits 63 à 0. */
+  private final long bas;
+
+  /**
+   * Construit une adresse à partir de ses 128 bits.
+   *
+   * @param haut les bits 127 à 64
+   * @param bas les bits 63 à 0
+   * @throws IllegalArgumentException pour une adresse de la forme ::ffff:a.b.c.d,
+   *     représentée par l'adresse IPv4 a.b.c.d
+   */
+  public AdresseIPv6(final long haut, final long bas) {
+    super(0);
+    if (estIpv4(haut, bas)) {
+      throw new IllegalArgumentException("Adresse IPv4 : " + new AdresseIP((int) bas));
+    }
+    this.haut = haut;
+    this.bas = bas;
+  }
+
+  /** Vrai pour les adresses ::ffff:a.b.c.d, qui désignent l'adresse IPv4 a.b.c.d. */
+  private static boolean estIpv4(final long haut, final long bas) {
+    return haut == 0 && (bas >>> 32) == 0xFFFF;
+  }
+
+  /**
+   * Analyse une adresse IPv6 textuelle en une seule passe, sans allocation autre que
+   * celle du résultat. Les blancs qui l'entourent sont ignorés. Les groupes comptent
+   * de 1 à 4 chiffres hexadécimaux ; un "::" au plus remplace un ou plusieurs groupes
+   * nuls ; les 32 derniers bits peuvent s'écrire comme une adresse IPv4.
+   *
+   * @param s le texte contenant l'adresse
+   * @param debut début de l'adresse dans le texte
+   * @param fin fin (exclue) de l'adresse dans le texte
+   * @return l'adresse (l'adresse IPv4 a.b.c.d pour ::ffff:a.b.c.d), ou null si le
+   *     texte est invalide
+   */
+  static AdresseIP analyseV6(final CharSequence s, final int debut, final int fin) {
+    int i = debut;
+    int j = fin;
+    while (i < j && s.charAt(i) <= ' ') {
+      i++;
+    }
+    while (j > i && s.charAt(j - 1) <= ' ') {
+      j--;
+    }
+    // Groupes lus avant le "::" (avantHaut, avantBas), puis après (apresHaut, apresBas)
+    long avantHaut = 0;
+    long avantBas = 0;
+    int avant = 0;
+    long apresHaut = 0;
+    long apresBas = 0;
+    int apres = 0;
+    boolean compresse = false;
+    if (i + 1 < j && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+      compresse = true;
+      i += 2;
+    } else if (i < j && s.charAt(i) == ':') {
+      return null;
+    }
+    while (i < j) {
+      final int premier = i;
+      int groupe = 0;
+      int chiffre;
+      while (i < j && i - premier < 4 && (chiffre = hexa(s.charAt(i))) >= 0) {
+        groupe = (groupe << 4) | chiffre;
+        i++;
+      }
+      final int groupes;
+      long valeur;
+      if (i < j && s.charAt(i) == '.') {
+        // Adresse IPv4 finale : deux groupes
+        final long ipv4 = AdresseIP.analyse(s, premier, j);
+        if (ipv4 < 0) {
+          return null;
+        }
+        groupes = 2;
+        valeur = ipv4;
+        i = j;
+      } else if (i == premier) {
+        return null;
+      } else {
+        groupes = 1;
+        valeur = groupe;
+      }
+      if (avant + apres + groupes > 8) {
+        return null;
+      }
+      final int decalage = 16 * groupes;
+      if (compresse) {
+        apresHaut = (apresHaut << decalage) | (apresBas >>> (64 - decalage));
+        apresBas = (apresBas << decalage) | valeur;
+        apres += groupes;
+      } else {
+        avantHaut = (avantHaut << decalage) | (avantBas >>> (64 - decalage));
+        avantBas = (avantBas << decalage) | valeur;
+        avant += groupes;
+      }
+      if (i == j) {
+        break;
+      }
+      if (s.charAt(i) != ':' || ++i == j) {
+        return null;
+      }
+      if (s.charAt(i) == ':') {
+        if (compresse) {
+          return null;
+        }
+        compresse = true;
+        i++;
+      }
+    }
+    if (compresse ? avant + apres > 7 : avant != 8) {
+      return null;
+    }
+
+    // Les groupes lus avant le "::" occupent les bits de poids fort
+    final int decalage = 16 * (8 - avant);
+    long haut;
+    long bas;
+    if (decalage == 0) {
+      haut = avantHaut;
+      bas = avantBas;
+    } else if (decalage < 64) {
+      haut = (avantHaut << decalage) | (avantBas >>> (64 - decalage));
+      bas = avantBas << decalage;
+    } else if (decalage < 128) {
+      haut = avantBas << (decalage - 64);
+      bas = 0;
+    } else {
+      haut = 0;
+      bas = 0;
+    }
+    haut |= apresHaut;
+    bas |= apresBas;
+    return estIpv4(haut, bas) ? new AdresseIP((int) bas) : new AdresseIPv6(haut, bas);
+  }
+
+  /** Valeur d'un chiffre hexadécimal ASCII, ou -1. */
+  private static int hexa(final char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    final char minuscule = (char) (c | 0x20);
+    return minuscule >= 'a' && minuscule <= 'f' ? minuscule - 'a' + 10 : -1;
+  }
+
+  /**
+   * Une adresse IPv6 n'a pas de forme entière 32 bits.
+   *
+   * @throws IllegalStateException toujours
+   */
+  @Override
+  public int toInt() {
+    throw new IllegalStateException("Adresse IPv6 sans forme 32 bits : " + value());
+  }
+
+  @Override
+  public boolean estIpv6() {
+    return true;
+  }
+
+  @Override
+  public long haut() {
+    return haut;
+  }
+
+  @Override
+  public long bas() {
+    return bas;
+  }
+
+  @Override
+  long rangIpv4() {
+    return haut == 0 && Long.compareUnsigned(bas, 0xFFFF_0000_0000L) < 0 ? -1 : 1L << 32;
+  }
+
+  /**
+   * Nom de la requête DNS inverse de l'adresse.
+   *
+   * @return les 32 chiffres hexadécimaux de l'adresse, du dernier au premier, suivis de ".ip6.arpa"
+   */
+  @Override
+  public String nomInverse() {
+    final StringBuilder sb = new StringBuilder(73);
+    for (int k = 0; k < 32; k++) {
+      final long mot = k < 16 ? bas : haut;
+      sb.append(Character.forDigit((int) (mot >>> (4 * (k & 15))) & 0xF, 16)).append('.');
+    }
+    return sb.append("ip6.arpa").toString();
+  }
+
+  /** Groupe de 16 bits numéro k (0 pour les bits de poids fort). */
+  private int groupe(final int k) {
+    return (int) ((k < 4 ? haut : bas) >>> (16 * (3 - (k & 3)))) & 0xFFFF;
+  }
+
+  /**
+   * Forme canonique de la RFC 5952.
+   *
+   * @return le texte de l'adresse (ex : "2001:db8::1")
+   */
+  @Override
+  public String value() {
+    // Plus longue suite d'au moins deux groupes nuls, la première en cas d'égalité
+    int debutZeros = -1;
+    int longueurZeros = 1;
+    for (int k = 0; k < 8; ) {
+      if (groupe(k) != 0) {
+        k++;
+        continue;
+      }
+      int l = k;
+      while (l < 8 && groupe(l) == 0) {
+        l++;
+      }
+      if (l - k > longueurZeros) {
+        debutZeros = k;
+        longueurZeros = l - k;
+      }
+      k = l;
+    }
+    final StringBuilder sb = new StringBuilder(39);
+    for (int k = 0; k < 8; k++) {
+      if (k == debutZeros) {
+        sb.append("::");
+        k += longueurZeros - 1;
+        continue;
+      }
+      if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+        sb.append(':');
+      }
+      sb.append(Integer.toHexString(groupe(k)));
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    return (o instanceof AdresseIPv6 other) && haut == other.haut && bas == other.bas;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(haut * 31 + bas);
+  }
+}
@@ -0,0 +1,108 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache de taille bornée qui évince l'élément utilisé le moins récemment.
+ *
+ * Le cache est découpé en segments, chacun une {@link LinkedHashMap} en ordre
+ * d'accès protégée par son propre verrou : des lecteurs concurrents ne se gênent
+ * que s'ils tombent sur le même segment. L'éviction est faite par segment, ce qui
+ * approche l'ordre LRU global dès que les clés sont bien réparties.
+ *
+ * @param <K> type des clés
+ * @param <V> type des valeurs
+ */
+final class CacheLru<K, V> {
+
+  /** Nombre de segments (puissance de 2). */
+  private static final int SEGMENTS = 16;
+
+  /** Un segment : table en ordre d'accès qui évince au-delà de sa capacité. */
+  private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+    private final int capacite;
+
+    Segment(final int capacite) {
+      super(16, 0.75f, true);
+      this.capacite = capacite;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, V> plusAncien) {
+      return size() > capacite;
+    }
+  }
+
+  private final Segment<K, V>[] segments;
+
+  /**
+   * Cache vide.
+   *
+   * @param capacite nombre maximal d'éléments (0 : cache désactivé)
+   */
+  @SuppressWarnings("unchecked")
+  CacheLru(final int capacite) {
+    if (capacite < 0) {
+      throw new IllegalArgumentException("Capacité de cache négative : " + capacite);
+    }
+    final int nb = capacite == 0 ? 0 : Math.min(SEGMENTS, Integer.highestOneBit(capacite));
+    this.segments = new Segment[nb];
+    for (int i = 0; i < nb; i++) {
+      segments[i] = new Segment<>((capacite + i) / nb);
+    }
+  }
+
+  /**
+   * Cherche un élément, qui devient le plus récemment utilisé.
+   *
+   * @param cle la clé
+   * @return la valeur, ou null si absente
+   */
+  V get(final K cle) {
+    if (segments.length == 0) {
+      return null;
+    }
+    final Segment<K, V> s = segment(cle);
+    synchronized (s) {
+      return s.get(cle);
+    }
+  }
+
+  /**
+   * Ajoute ou remplace un élément, en évinçant au besoin le moins récemment utilisé
+   * de son segment.
+   *
+   * @param cle la clé
+   * @param valeur la valeur
+   */
+  void put(final K cle, final V valeur) {
+    if (segments.length == 0) {
+      return;
+    }
+    final Segment<K, V> s = segment(cle);
+    synchronized (s) {
+      s.put(cle, valeur);
+    }
+  }
+
+  /**
+   * Nombre d'éléments en cache.
+   *
+   * @return nombre d'éléments
+   */
+  int size() {
+    int n = 0;
+    for (Segment<K, V> s : segments) {
+      synchronized (s) {
+        n += s.size();
+      }
+    }
+    return n;
+  }
+
+  private Segment<K, V> segment(final K cle) {
+    final int h = cle.hashCode() * 0x9E3779B9;
+    return segments[(h >>> 28) & (segments.length - 1)];
+  }
+}
@@ -0,0 +1,223 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Lecture parallèle d'une base texte ("nom ip" par ligne).
+ *
+ * Le fichier est découpé en tranches d'octets alignées sur les fins de ligne ;
+ * chaque tranche est projetée en mémoire et analysée sur un thread du pool
+ * {@link ForkJoinPool#commonPool()}. Seule l'analyse est parallèle : les entrées
+ * sont remises à la cible sur le thread appelant, dans l'ordre du fichier, tranche
+ * par tranche. Au plus {@link #FENETRE} tranches par thread du pool sont analysées
+ * d'avance, si bien que la mémoire des tranches prêtes mais pas encore remises reste
+ * bornée même si l'indexation est plus lente que l'analyse. Le fichier n'est jamais
+ * matérialisé en liste de lignes, et la première erreur signalée est bien la première
+ * du fichier, avec son numéro de ligne.
+ */
+final class ChargeurTexte {
+
+  /** Taille minimale d'une tranche : en deçà, le découpage coûte plus qu'il ne rapporte. */
+  private static final long TRANCHE_MIN = 1 << 20;
+
+  /** Taille maximale d'une tranche, pour rester loin de la limite d'une projection (2 Go). */
+  private static final long TRANCHE_MAX = 1 << 28;
+
+  /** Tranches analysées d'avance, par thread du pool. */
+  private static final int FENETRE = 2;
+
+  private ChargeurTexte() {
+  }
+
+  /** Entrées d'une tranche, avec leur numéro de ligne dans la tranche. */
+  private record Tranche(List<DnsItem> items, int[] numeros, int lignes, RuntimeException erreur) {
+  }
+
+  /**
+   * Lit le fichier et remet chaque entrée à la cible, dans l'ordre du fichier.
+   * La cible est appelée pour une entrée à la fois, sur le thread appelant.
+   *
+   * @param fichier la base texte
+   * @param cible reçoit chaque entrée et son numéro de ligne ; peut lever une
+   *     RuntimeException (doublon...), complétée alors par le numéro de ligne
+   * @throws IOException en cas d'erreur de lecture
+   * @throws RuntimeException à la première ligne invalide ou refusée par la cible
+   */
+  static void lit(final Path fichier, final ObjIntConsumer<DnsItem> cible) throws IOException {
+    try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+      final long[] bornes = bornes(canal);
+      final int tranches = bornes.length - 1;
+      // Fenêtre glissante : la tranche k + fenetre n'est lancée qu'une fois k remise
+      final int fenetre = FENETRE * ForkJoinPool.getCommonPoolParallelism();
+      final List<CompletableFuture<Tranche>> enCours = new ArrayList<>(tranches);
+      final IntFunction<CompletableFuture<Tranche>> lance = k ->
+          CompletableFuture.supplyAsync(() -> analyse(canal, bornes[k], bornes[k + 1]));
+      for (int k = 0; k < Math.min(fenetre, tranches); k++) {
+        enCours.add(lance.apply(k));
+      }
+      int decalage = 0;
+      for (int k = 0; k < tranches; k++) {
+        final Tranche t = attends(enCours.get(k));
+        enCours.set(k, null);
+        if (k + fenetre < tranches) {
+          enCours.add(lance.apply(k + fenetre));
+        }
+        for (int i = 0; i < t.items().size(); i++) {
+          final int ligne = decalage + t.numeros()[i];
+          try {
+            cible.accept(t.items().get(i), ligne);
+          } catch (RuntimeException e) {
+            throw erreur(fichier, ligne, e);
+          }
+        }
+        if (t.erreur() != null) {
+          throw erreur(fichier, decalage + t.lignes(), t.erreur());
+        }
+        decalage += t.lignes();
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Attend l'analyse d'une tranche ; son exception éventuelle est levée telle quelle. */
+  private static Tranche attends(final CompletableFuture<Tranche> f) {
+    try {
+      return f.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException r) {
+        throw r;
+      }
+      throw e;
+    }
+  }
+
+  private static RuntimeException erreur(final Path fichier, final int ligne,
+                                         final RuntimeException cause) {
+    return new RuntimeException(fichier + ", ligne " + ligne + " : " + cause.getMessage(), cause);
+  }
+
+  /**
+   * Découpe le fichier en tranches d'environ size / (4 x parallélisme) octets,
+   * chaque borne étant déplacée au début de la ligne suivante.
+   *
+   * @return les bornes, de 0 à la taille du fichier
+   */
+  private static long[] bornes(final FileChannel canal) throws IOException {
+    final long taille = canal.size();
+    final long cible = Math.min(TRANCHE_MAX, Math.max(TRANCHE_MIN,
+        taille / (4L * ForkJoinPool.getCommonPoolParallelism())));
+    final List<Long> bornes = new ArrayList<>();
+    bornes.add(0L);
+    final ByteBuffer tampon = ByteBuffer.allocate(4096);
+    long precedente = 0;
+    while (precedente + cible < taille) {
+      // Première position après un saut de ligne, à partir de la borne visée
+      long pos = precedente + cible - 1;
+      long borne = taille;
+      lecture:
+      while (pos < taille) {
+        tampon.clear();
+        final int lus = canal.read(tampon, pos);
+        for (int i = 0; i < lus; i++) {
+          if (tampon.get(i) == '\n') {
+            borne = pos + i + 1;
+            break lecture;
+          }
+        }
+        pos += Math.max(lus, 0);
+      }
+      if (borne >= taille) {
+        break;
+      }
+      bornes.add(borne);
+      precedente = borne;
+    }
+    bornes.add(taille);
+    return bornes.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /** Analyse les lignes de la tranche [debut, fin), qui commence et finit en début de ligne. */
+  private static Tranche analyse(final FileChannel canal, final long debut, final long fin) {
+    final MappedByteBuffer m;
+    try {
+      m = canal.map(FileChannel.MapMode.READ_ONLY, debut, fin - debut);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final Octets texte = new Octets(m);
+    final List<DnsItem> items = new ArrayList<>();
+    int[] numeros = new int[64];
+    int lignes = 0;
+    int pos = 0;
+    while (pos < m.limit()) {
+      int eol = pos;
+      while (eol < m.limit() && m.get(eol) != '\n') {
+        eol++;
+      }
+      lignes++;
+      try {
+        final DnsItem item = DnsItem.analyse(texte, pos, eol);
+        if (item != null) {
+          if (items.size() == numeros.length) {
+            numeros = Arrays.copyOf(numeros, 2 * numeros.length);
+          }
+          numeros[items.size()] = lignes;
+          items.add(item);
+        }
+      } catch (RuntimeException e) {
+        return new Tranche(items, numeros, lignes, e);
+      }
+      pos = eol + 1;
+    }
+    return new Tranche(items, numeros, lignes, null);
+  }
+
+  /**
+   * Vue {@link CharSequence} sur les octets d'une tranche, pour les analyser sans
+   * les copier : un octet non ASCII ne peut figurer dans une ligne valide.
+   */
+  private static final class Octets implements CharSequence {
+    private final ByteBuffer octets;
+
+    Octets(final ByteBuffer octets) {
+      this.octets = octets;
+    }
+
+    @Override
+    public int length() {
+      return octets.limit();
+    }
+
+    @Override
+    public char charAt(final int index) {
+      return (char) (octets.get(index) & 0xFF);
+    }
+
+    /** Décode la sous-séquence : utilisé seulement pour les messages d'erreur. */
+    @Override
+    public CharSequence subSequence(final int debut, final int fin) {
+      return StandardCharsets.UTF_8.decode(octets.slice(debut, fin - debut)).toString();
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length()).toString();
+    }
+  }
+}
@@ -1,13 +1,69 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.IOException;
+
 @FunctionalInterface
 public interface Commande {
   /** Exécute la commande et renvoie le texte à afficher */
   String execute(Dns dns);
 
+  /**
+   * Exécute la commande en écrivant le texte à afficher dans une sortie, sans fin de ligne
+   * finale. Une commande dont le résultat peut être volumineux l'écrit au fur et à mesure ;
+   * par défaut, le texte de {@link #execute(Dns)} est écrit d'un bloc.
+   *
+   * @param dns la base
+   * @param sortie la sortie (de préférence tamponnée)
+   * @throws IOException en cas d'erreur d'écriture sur la sortie
+   */
+  default void execute(Dns dns, Appendable sortie) throws IOException {
+    final String out = execute(dns);
+    if (out != null) {
+      sortie.append(out);
+    }
+  }
+
+  /**
+   * Commence une exécution par étapes, pour une sortie qui ne peut pas toujours recevoir
+   * la suite du texte ({@link DnsServeurTcp}) : chaque appel de {@link Etapes#avance}
+   * en écrit une partie, et l'appelant peut s'interrompre entre deux appels. Par défaut,
+   * une seule étape écrit tout le texte de {@link #execute(Dns, Appendable)}.
+   *
+   * @param dns la base
+   * @return les étapes de l'exécution
+   */
+  default Etapes etapes(Dns dns) {
+    return sortie -> {
+      execute(dns, sortie);
+      return false;
+    };
+  }
+
+  /** Suite d'une exécution par étapes ({@link #etapes(Dns)}). */
+  @FunctionalInterface
+  interface Etapes {
+    /**
+     * Écrit la partie suivante du texte.
+     *
+     * @param sortie la sortie
+     * @return true s'il reste une partie à écrire
+     * @throws IOException en cas d'erreur d'écriture sur la sortie
+     */
+    boolean avance(Appendable sortie) throws IOException;
+  }
+
+  /**
+   * Indique si la commande ne fait que lire la base : elle peut alors être exécutée
+   * en même temps que d'autres lectures, dans n'importe quel ordre ({@link DnsLot}).
+   *
+   * @return true pour une commande sans effet sur la base ; false par défaut
+   */
+  default boolean lectureSeule() {
+    return false;
+  }
+
   /** true si cette commande doit terminer l'application */
   default boolean shouldQuit() {
     return false;
   }
 }
-
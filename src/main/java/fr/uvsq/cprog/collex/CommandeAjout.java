@@ -6,15 +6,30 @@ public class CommandeAjout implements Commande {
   private final AdresseIP ip;
   private final NomMachine nom;
 
+  /** Durée de vie en secondes, 0 pour une entrée permanente. */
+  private final long ttl;
+
   public CommandeAjout(final String ipStr, final String fqdn) {
-    this.ip = new AdresseIP(ipStr);
+    this(ipStr, fqdn, 0);
+  }
+
+  public CommandeAjout(final String ipStr, final String fqdn, final long ttl) {
+    if (ttl < 0 || ttl > Dns.TTL_MAX) {
+      throw new IllegalArgumentException("Durée de vie invalide : " + ttl);
+    }
+    this.ip = AdresseIP.de(ipStr);
     this.nom = new NomMachine(fqdn);
+    this.ttl = ttl;
   }
 
   @Override
   public String execute(final Dns dns) {
     try {
-      dns.addItem(ip, nom);
+      if (ttl > 0) {
+        dns.addItem(ip, nom, ttl);
+      } else {
+        dns.addItem(ip, nom);
+      }
       return "OK";
     } catch (RuntimeException e) {
       return e.getMessage();
@@ -0,0 +1,118 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Commande : importe un fichier d'entrées au format de la base ("nom ip").
+ * Le fichier est lu ligne à ligne et ajouté par lots via {@link Dns#addItems},
+ * de sorte que la mémoire utilisée ne dépend pas de sa taille.
+ * Les lignes invalides ou en conflit sont rejetées individuellement ; le compte rendu
+ * donne leur numéro et la raison du rejet, jamais leur contenu.
+ */
+public class CommandeImport implements Commande {
+
+  /** Nombre d'entrées ajoutées à la base en une opération. */
+  static final int TAILLE_LOT = 10_000;
+
+  /** Nombre maximal de rejets détaillés dans le compte rendu. */
+  private static final int REJETS_AFFICHES = 20;
+
+  private final Path fichier;
+
+  public CommandeImport(final Path fichier) {
+    this.fichier = fichier;
+  }
+
+  @Override
+  public String execute(final Dns dns) {
+    final long debut = System.nanoTime();
+    final List<String> rejets = new ArrayList<>();
+    int nbRejets = 0;
+    int ajouts = 0;
+
+    final List<DnsItem> lot = new ArrayList<>();
+    final Set<String> nomsDuLot = new HashSet<>();
+    final Set<AdresseIP> ipsDuLot = new HashSet<>();
+    try (BufferedReader r = Files.newBufferedReader(fichier, StandardCharsets.UTF_8)) {
+      String ligne;
+      int numero = 0;
+      while ((ligne = r.readLine()) != null) {
+        numero++;
+        final String raison = verifie(dns, ligne, lot, nomsDuLot, ipsDuLot);
+        if (raison != null) {
+          nbRejets++;
+          if (rejets.size() < REJETS_AFFICHES) {
+            rejets.add("  ligne " + numero + " : " + raison);
+          }
+        }
+        if (lot.size() == TAILLE_LOT) {
+          ajouts += vide(dns, lot, nomsDuLot, ipsDuLot);
+        }
+      }
+      ajouts += vide(dns, lot, nomsDuLot, ipsDuLot);
+    } catch (IOException e) {
+      return "ERREUR : lecture impossible de " + fichier + " (" + e.getMessage() + ")";
+    } catch (RuntimeException e) {
+      return e.getMessage() + " (" + ajouts + " entrée(s) déjà importée(s))";
+    }
+
+    final long ms = Math.max(1, (System.nanoTime() - debut) / 1_000_000);
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Import de ").append(fichier).append(" : ")
+        .append(ajouts).append(" ajoutée(s), ")
+        .append(nbRejets).append(" rejetée(s) en ").append(ms).append(" ms (")
+        .append(ajouts * 1000L / ms).append(" entrées/s)");
+    for (String rejet : rejets) {
+      sb.append('\n').append(rejet);
+    }
+    if (nbRejets > rejets.size()) {
+      sb.append("\n  ... (").append(nbRejets - rejets.size()).append(" autre(s))");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Analyse une ligne et l'ajoute au lot si elle est acceptable.
+   *
+   * @return null si la ligne est acceptée ou ignorée, la raison du rejet sinon
+   */
+  private static String verifie(final Dns dns, final String ligne, final List<DnsItem> lot,
+                                final Set<String> noms, final Set<AdresseIP> ips) {
+    final DnsItem item;
+    try {
+      item = DnsItem.analyse(ligne);
+    } catch (RuntimeException e) {
+      return "ligne invalide";
+    }
+    if (item == null) {
+      return null;
+    }
+    if (dns.getItem(item.nom()) != null || !noms.add(item.nom().value())) {
+      return "nom déjà présent";
+    }
+    if (dns.getItem(item.ip()) != null || !ips.add(item.ip())) {
+      noms.remove(item.nom().value());
+      return "IP déjà présente";
+    }
+    lot.add(item);
+    return null;
+  }
+
+  private static int vide(final Dns dns, final List<DnsItem> lot,
+                          final Set<String> noms, final Set<AdresseIP> ips) {
+    final int n = lot.size();
+    dns.addItems(lot);
+    lot.clear();
+    noms.clear();
+    ips.clear();
+    return n;
+  }
+}
@@ -1,31 +1,115 @@
 package fr.uvsq.cprog.collex;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 
-/** Commande : liste les machines appartenant à un domaine donné */
+/**
+ * Commande : liste les machines appartenant à un domaine donné.
+ * Les entrées sont écrites une à une sur la sortie à mesure qu'elles sont lues
+ * ({@link Dns#streamItems}) : aucune liste ni aucun texte complet n'est construit.
+ * Une limite et une clé de reprise permettent de lire un grand domaine par pages ;
+ * une page incomplète se termine par la commande qui donne la suivante.
+ */
 public class CommandeListeDomaine implements Commande {
 
   private final String domaine;
   private final boolean trierParAdresse;
+  private final int limite;
+  private final String apres;
 
   public CommandeListeDomaine(final String domaine, final boolean trierParAdresse) {
+    this(domaine, trierParAdresse, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * Liste une page d'un domaine.
+   *
+   * @param domaine le domaine
+   * @param trierParAdresse true pour l'ordre des IP ({@link AdresseIP#compareTo}, sur 128 bits)
+   * @param limite nombre maximal d'entrées écrites
+   * @param apres clé de la dernière entrée de la page précédente, ou null
+   */
+  public CommandeListeDomaine(final String domaine, final boolean trierParAdresse,
+                              final int limite, final String apres) {
+    if (limite <= 0) {
+      throw new IllegalArgumentException("Limite invalide : " + limite);
+    }
     this.domaine = domaine;
     this.trierParAdresse = trierParAdresse;
+    this.limite = limite;
+    this.apres = apres;
   }
 
   @Override
   public String execute(final Dns dns) {
-    List<DnsItem> items = dns.getItems(domaine, trierParAdresse);
-    if (items.isEmpty()) {
-      return "(aucune entrée pour le domaine " + domaine + ")";
+    final StringBuilder sb = new StringBuilder();
+    try {
+      execute(dns, sb);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
+    return sb.toString();
+  }
 
-    return items.stream()
-        .map(it -> trierParAdresse
-            ? it.ip().value() + " " + it.nom().value()
-            : it.nom().value() + " " + it.ip().value())
-        .collect(Collectors.joining("\n"));
+  @Override
+  public boolean lectureSeule() {
+    return true;
   }
-}
 
+  @Override
+  public void execute(final Dns dns, final Appendable sortie) throws IOException {
+    final Etapes etapes = etapes(dns);
+    while (etapes.avance(sortie)) {
+      // Une entrée par étape
+    }
+  }
+
+  /** Écrit une entrée par étape : la lecture du domaine peut s'interrompre entre deux. */
+  @Override
+  public Etapes etapes(final Dns dns) {
+    final Iterator<DnsItem> items;
+    try {
+      items = dns.streamItems(domaine, trierParAdresse, apres).iterator();
+    } catch (IllegalArgumentException e) {
+      return sortie -> {
+        sortie.append(e.getMessage());
+        return false;
+      };
+    }
+    if (!items.hasNext()) {
+      return sortie -> {
+        sortie.append("(aucune entrée pour le domaine ").append(domaine).append(')');
+        return false;
+      };
+    }
+    return new Etapes() {
+      private int n;
+      private DnsItem it;
+
+      @Override
+      public boolean avance(final Appendable sortie) throws IOException {
+        if (n < limite && items.hasNext()) {
+          if (n > 0) {
+            sortie.append('\n');
+          }
+          n++;
+          it = items.next();
+          if (trierParAdresse) {
+            sortie.append(it.ip().value()).append(' ').append(it.nom().value());
+          } else {
+            sortie.append(it.nom().value()).append(' ').append(it.ip().value());
+          }
+          return true;
+        }
+        if (items.hasNext()) {
+          sortie.append("\n(suite : ls ").append(trierParAdresse ? "-a " : "").append(domaine)
+              .append(" limit ").append(String.valueOf(limite))
+              .append(" after ").append(trierParAdresse ? it.ip().value() : it.nom().value())
+              .append(')');
+        }
+        return false;
+      }
+    };
+  }
+}
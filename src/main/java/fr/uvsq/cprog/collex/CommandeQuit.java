@@ -5,7 +5,7 @@ public class CommandeQuit implements Commande {
 
   @Override
   public String execute(final Dns dns) {
-    return "Fermeture de l'application DNS.";
+    return "Fermeture de l'application DNS. Bye !";
   }
 
   @Override
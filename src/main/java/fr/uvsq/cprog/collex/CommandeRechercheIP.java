@@ -17,5 +17,10 @@ public class CommandeRechercheIP implements Commande {
     }
     return item.ip().value();
   }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
 }
 
@@ -6,7 +6,7 @@ public class CommandeRechercheNom implements Commande {
   private final AdresseIP ip;
 
   public CommandeRechercheNom(final String ipStr) {
-    this.ip = new AdresseIP(ipStr);
+    this.ip = AdresseIP.de(ipStr);
   }
 
   @Override
@@ -17,5 +17,10 @@ public class CommandeRechercheNom implements Commande {
     }
     return item.nom().value();
   }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
 }
 
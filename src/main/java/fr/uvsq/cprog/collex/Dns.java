@@ -1,82 +1,537 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
-
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Service DNS : base de correspondances nom de machine / adresse IP.
+ *
+ * La base est persistée dans un fichier texte (la base) complété par un journal
+ * d'ajouts. Chaque ajout est écrit à la fin du journal ; au-delà d'un seuil, une
+ * compaction en tâche de fond intègre le journal à une nouvelle version de la base.
+ * Au chargement, la base (analysée en parallèle par {@link ChargeurTexte}) puis
+ * le journal sont relus.
+ *
+ * En mode instantané ({@link DnsConfig#instantane()}), la base est servie depuis
+ * un instantané binaire projeté en mémoire ({@link Instantane}), reconstruit
+ * seulement quand la base texte a changé : le démarrage ne relit ni ne valide
+ * plus chaque ligne. Les index du tas ne contiennent alors que les entrées
+ * ajoutées depuis (journal et nouveaux ajouts), consultées en plus de l'instantané.
+ *
+ * En mode disque ({@link DnsConfig#disque()}), la base est servie de la même façon
+ * depuis un fichier lu par blocs ({@link StockageDisque}) : seuls un index clairsemé
+ * et un cache des entrées récemment lues restent dans le tas, quelle que soit la
+ * taille de la base. Le fichier est construit par tri externe ({@link TriExterne}),
+ * au chargement comme à la compaction, sans charger la base dans le tas.
+ *
+ * En mode colonnes ({@link DnsConfig#colonnes()}), la base est servie de la même façon
+ * depuis des tableaux primitifs construits au chargement ({@link StockageColonnes}) :
+ * tout reste dans le tas, mais sans objet par entrée.
+ *
+ * Dans ces trois modes, une recherche de nom ou d'adresse absente du tas est écartée
+ * par un filtre de Bloom sur le stockage ({@link FiltreBloom}), construit en tâche de
+ * fond à l'ouverture, sans lecture de l'instantané, des colonnes ou du disque.
+ *
+ * Une base modifiée par un autre programme est relue sans redémarrage par
+ * {@link #recharge()}, appelé par exemple par {@link SurveillanceBase}.
+ *
+ * Une entrée peut avoir une durée de vie ({@link #addItem(AdresseIP, NomMachine, long)}) :
+ * son instant d'expiration est écrit avec elle dans la base. Les entrées sont planifiées
+ * dans une roue temporelle ({@link RoueExpiration}) avancée chaque seconde par un thread
+ * dédié, qui les retire de tous les index à la fois. Une entrée expirée n'est plus relue
+ * au chargement ; la base est réécrite (compaction) dès que le nombre d'entrées expirées
+ * depuis la dernière réécriture atteint le seuil de compaction.
+ *
+ * Les ajouts peuvent être publiés vers des répliques ({@link ReplicationMaitre}) : une
+ * instance sans fichier devient alors, par {@link ReplicationSuiveur}, une copie en
+ * lecture seule tenue à jour dans l'ordre des ajouts du maître.
+ *
+ * Une même instance peut être partagée entre plusieurs threads. Les lectures
+ * ({@code getItem}, {@code getItems}) ne prennent aucun verrou ; les ajouts sont
+ * sérialisés par un verrou d'écriture qui garantit l'unicité des noms et des IP.
+ */
+public class Dns implements AutoCloseable {
 
-public class Dns {
+  /**
+   * Plus grande durée de vie d'un ajout, en secondes (100 ans) : {@code maintenant() + ttl}
+   * ne déborde pas et reste bien en deçà de {@link DnsItem#EXPIRATION_MAX}, si bien que
+   * l'expiration écrite dans le journal est toujours relue.
+   */
+  public static final long TTL_MAX = 100L * 365 * 24 * 3600;
 
   /** Chemin vers le fichier texte de la base DNS. */
   private final Path dbPath;
 
-  /** Index des entrées par nom de machine. */
-  private final Map<String, DnsItem> byName = new HashMap<>();
+  /** Journal des ajouts (null si la base n'a pas de fichier). */
+  private final Journal journal;
+
+  /** Nombre d'enregistrements journalisés déclenchant une compaction. */
+  private final int seuilCompaction;
+
+  /** Vrai si la base est servie depuis un instantané projeté ou depuis le disque. */
+  private final boolean avecStockage;
+
+  /** Vrai si la base est servie depuis le disque plutôt que depuis un instantané. */
+  private final boolean surDisque;
+
+  /** Nombre d'entrées gardées en cache en mode disque. */
+  private final int cacheDisque;
+
+  /** Vrai si la base est rangée en colonnes dans le tas ({@link StockageColonnes}). */
+  private final boolean enColonnes;
+
+  /**
+   * Version courante des index, remplacée d'un bloc par {@link #recharge()} : chaque
+   * lecture travaille sur la version lue au début de l'appel.
+   */
+  private volatile Etat etat = new Etat(null);
+
+  /** Signature du fichier de base tel que lu ou écrit par cette instance. */
+  private volatile Signature signatureBase;
+
+  /** Vrai tant qu'une compaction est en cours. */
+  private final AtomicBoolean compactionEnCours = new AtomicBoolean();
+
+  /** Exécute les compactions, créé à la première d'entre elles. */
+  private ExecutorService compacteur;
+
+  /** Dernière compaction lancée. */
+  private volatile CompletableFuture<Void> derniereCompaction =
+      CompletableFuture.completedFuture(null);
+
+  /**
+   * Verrou des écrivains : la vérification d'unicité et la mise à jour des
+   * index se font sous ce verrou, ce qui maintient les deux contraintes
+   * d'unicité. Les lecteurs ne le prennent jamais.
+   */
+  private final ReentrantLock verrou = new ReentrantLock();
+
+  /** Entrées journalisées en attente de fsync, par nom (sous le verrou). */
+  private final Map<String, DnsItem> nomsEnAttente = new HashMap<>();
+
+  /** Entrées journalisées en attente de fsync, par IP (sous le verrou). */
+  private final Map<AdresseIP, DnsItem> ipsEnAttente = new HashMap<>();
+
+  /** Lignes de journal illisibles ignorées au chargement, avec la raison du refus. */
+  private final List<String> lignesIgnorees = new CopyOnWriteArrayList<>();
+
+  /** Compteurs d'activité (recherches, listes, ajouts, chargement, sauvegardes). */
+  private final Metriques metriques = new Metriques();
+
+  /** Avance la roue d'expiration chaque seconde, créé à la première entrée planifiée. */
+  private volatile ScheduledExecutorService expirateur;
+
+  /** Vrai dès que le thread d'expiration est lancé. */
+  private final AtomicBoolean expirationLancee = new AtomicBoolean();
+
+  /** Entrées expirées depuis la dernière compaction (sous le verrou). */
+  private int expireesNonCompactees;
 
-  /** Index des entrées par adresse IP. */
-  private final Map<String, DnsItem> byIp = new HashMap<>();
+  /** Publication des ajouts vers les répliques (null sans réplication). */
+  private volatile ReplicationMaitre replication;
+
+  /** Vrai pour une réplique : la base vient du maître, les ajouts sont refusés. */
+  private volatile boolean replique;
 
   /**
-   * Construit le service DNS et charge la base de données texte.
+   * Construit le service DNS avec la configuration par défaut et charge la base de données texte.
    *
    * @param dbPath chemin du fichier texte (ex : Path.of("data/dns.txt"))
    * @throws RuntimeException si une erreur d'E/S survient ou si une ligne est invalide
    */
   public Dns(final Path dbPath) {
+    this(dbPath, DnsConfig.parDefaut());
+  }
+
+  /**
+   * Construit le service DNS et charge la base de données texte et son journal.
+   *
+   * @param dbPath chemin du fichier texte (ex : Path.of("data/dns.txt"))
+   * @param config options de journalisation
+   * @throws RuntimeException si une erreur d'E/S survient ou si une ligne est invalide
+   */
+  public Dns(final Path dbPath, final DnsConfig config) {
     this.dbPath = dbPath;
-    load(); 
+    this.journal = dbPath == null ? null : new Journal(cheminJournal(), config.journalFsync());
+    this.seuilCompaction = config.seuilCompaction();
+    this.surDisque = config.disque();
+    this.avecStockage = dbPath != null && (config.instantane() || surDisque);
+    this.cacheDisque = config.cacheDisque();
+    this.enColonnes = dbPath != null && config.colonnes();
+    load();
   }
 
-  
   private void load() {
-    byName.clear();
-    byIp.clear();
-
-    if (dbPath == null || !Files.exists(dbPath)) {
-      
+    final long debut = System.nanoTime();
+    if (dbPath == null) {
       return;
     }
 
     try {
-      for (String raw : Files.readAllLines(dbPath)) {
-        final String line = raw.strip();
+      signatureBase = Signature.de(dbPath);
+      final Etat e = lisBase();
+      etat = e;
 
-        
-        if (line.isEmpty() || line.startsWith("#")) {
-          continue;
-        }
+      // Segment figé par une compaction interrompue, puis journal courant
+      final Path segment = cheminSegment();
+      final boolean compactionInterrompue = Files.exists(segment);
+      Journal.rejoue(segment, ligne -> rejoueLigne(e, ligne));
+      Journal.rejoue(cheminJournal(), ligne -> rejoueLigne(e, ligne));
+
+      if (compactionInterrompue) {
+        // Termine la compaction avant d'accepter de nouveaux ajouts
+        ecritBase(etat, List.of());
+        Files.delete(segment);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Erreur de lecture du fichier " + dbPath, e);
+    }
+    lanceExpiration();
+    metriques.chargement(System.nanoTime() - debut);
+  }
+
+  /**
+   * Lit le fichier de base dans une nouvelle version des index, sans le journal :
+   * l'instantané ou le stockage sur disque est ouvert s'il est à jour, sinon le
+   * fichier texte est analysé (puis l'instantané ou le stockage reconstruit).
+   *
+   * @throws RuntimeException si une ligne est invalide ou en double
+   */
+  private Etat lisBase() throws IOException {
+    if (!Files.exists(dbPath)) {
+      return new Etat(null);
+    }
+    if (enColonnes) {
+      return litColonnes();
+    }
+    if (avecStockage) {
+      final Stockage stockage = ouvreStockage();
+      if (stockage != null) {
+        return avecAnnexe(stockage);
+      }
+      if (surDisque) {
+        return litDisque();
+      }
+    }
+    final Etat e = litTexte();
+    if (avecStockage) {
+      // Instantané absent ou périmé : on le reconstruit et on libère le tas
+      Instantane.ecrit(cheminInstantane(), dbPath, e.byName.values());
+      final Stockage stockage = ouvreStockage();
+      if (stockage != null) {
+        return avecAnnexe(stockage);
+      }
+    }
+    return e;
+  }
+
+  /** Analyse le fichier de base dans les index du tas, en vérifiant l'unicité ligne à ligne. */
+  private Etat litTexte() throws IOException {
+    final Etat e = new Etat(null);
+    final long maintenant = maintenant();
+    ChargeurTexte.lit(dbPath, (item, ligne) -> {
+      if (!item.estExpiree(maintenant)) {
+        verifieUnicite(e, item);
+        e.indexe(item);
+      }
+    });
+    return e;
+  }
 
-        
-        final String[] parts = line.split("\\s+");
-        if (parts.length != 2) {
-          throw new RuntimeException("Ligne invalide dans la base DNS : '" + line + "'");
+  /**
+   * Construit le stockage sur disque à partir du fichier texte par tri externe, sans
+   * charger la base dans le tas, puis l'ouvre ; seule l'annexe est indexée dans le tas,
+   * et vérifiée contre le stockage.
+   */
+  private Etat litDisque() throws IOException {
+    final long maintenant = maintenant();
+    Stockage stockage = null;
+    try {
+      StockageDisque.ecrit(cheminDisque(), dbPath, cible -> ChargeurTexte.lit(dbPath,
+          (item, ligne) -> {
+            if (!item.estExpiree(maintenant)) {
+              cible.accept(item);
+            }
+          }));
+      stockage = ouvreStockage();
+      if (stockage == null) {
+        // Base réécrite pendant la construction : lue dans le tas, comme sans stockage
+        return litTexte();
+      }
+      final Etat e = new Etat(stockage);
+      for (DnsItem item : stockage.annexe()) {
+        if (!item.estExpiree(maintenant)) {
+          verifieUnicite(e, item);
+          e.indexe(item);
         }
+      }
+      return e;
+    } catch (RuntimeException doublon) {
+      if (stockage != null) {
+        stockage.close();
+        Files.deleteIfExists(cheminDisque());
+      }
+      // Le tri ne sait pas de quelle ligne vient un doublon : relecture ligne à ligne
+      litTexte();
+      throw doublon;
+    }
+  }
 
-        final NomMachine nom = new NomMachine(parts[0].toLowerCase(Locale.ROOT));
-        final AdresseIP ip = new AdresseIP(parts[1]);
+  /**
+   * Lit le fichier de base directement en colonnes : seules les entrées de l'annexe
+   * sont indexées dans le tas, et vérifiées contre les colonnes.
+   */
+  private Etat litColonnes() throws IOException {
+    final List<DnsItem> entrees = new ArrayList<>();
+    final long maintenant = maintenant();
+    ChargeurTexte.lit(dbPath, (item, ligne) -> {
+      if (!item.estExpiree(maintenant)) {
+        entrees.add(item);
+      }
+    });
+    try {
+      final Etat e = new Etat(StockageColonnes.construit(entrees));
+      for (DnsItem item : e.stockage.annexe()) {
+        verifieUnicite(e, item);
+        e.indexe(item);
+      }
+      return e;
+    } catch (RuntimeException doublon) {
+      // Les colonnes ne savent pas de quelle ligne vient un doublon : relecture ligne à ligne
+      entrees.clear();
+      litTexte();
+      throw doublon;
+    }
+  }
 
-        
-        if (byName.containsKey(nom.value())) {
-          throw new RuntimeException("Doublon de nom détecté : " + nom.value());
+  /**
+   * Version des index servie par un stockage, avec son annexe (sans les entrées
+   * expirées) chargée dans le tas.
+   */
+  private static Etat avecAnnexe(final Stockage stockage) {
+    final Etat e = new Etat(stockage);
+    final long maintenant = maintenant();
+    for (DnsItem item : stockage.annexe()) {
+      if (!item.estExpiree(maintenant)) {
+        e.indexe(item);
+      }
+    }
+    return e;
+  }
+
+  private static void verifieUnicite(final Etat e, final DnsItem item) {
+    if (e.nom(item.nom().value()) != null) {
+      throw new RuntimeException("Doublon de nom détecté : " + item.nom().value());
+    }
+    if (e.ip(item.ip()) != null) {
+      throw new RuntimeException("Doublon d'adresse IP détecté : " + item.ip().value());
+    }
+  }
+
+  /**
+   * Rejoue un enregistrement du journal. Une entrée identique déjà présente
+   * provient d'une compaction qui a réécrit la base sans avoir pu supprimer
+   * son segment : elle est ignorée. Une entrée en attente de fsync l'est aussi :
+   * son écrivain l'indexera lui-même. Une entrée expirée est ignorée.
+   */
+  private void rejoueLigne(final Etat e, final String raw) {
+    final DnsItem item;
+    try {
+      item = DnsItem.analyse(raw);
+    } catch (RuntimeException ex) {
+      // Une ligne illisible ne doit pas empêcher d'ouvrir la base : elle est signalée
+      lignesIgnorees.add(ex.getMessage());
+      return;
+    }
+    if (item == null || nomsEnAttente.containsKey(item.nom().value())
+        || item.estExpiree(maintenant())) {
+      return;
+    }
+    final DnsItem existant = e.nom(item.nom().value());
+    if (existant != null && existant.ip().equals(item.ip())) {
+      return;
+    }
+    verifieUnicite(e, item);
+    e.indexe(item);
+  }
+
+  /**
+   * Relit le fichier de base s'il a été modifié par un autre programme depuis son
+   * dernier chargement ou sa dernière réécriture par cette instance.
+   *
+   * Le fichier est analysé en dehors du verrou d'écriture, dans une nouvelle version
+   * des index ; le journal y est ensuite rejoué sous le verrou, puis la nouvelle
+   * version remplace l'ancienne d'une seule écriture. Les lectures en cours finissent
+   * sur l'ancienne version, les suivantes voient la nouvelle : aucune n'attend ni ne
+   * voit une base à moitié chargée. Un fichier invalide, absent, ou en conflit avec un
+   * ajout journalisé est refusé et l'ancienne version reste servie. Les rechargements
+   * sont exécutés l'un après l'autre, jamais pendant une compaction.
+   *
+   * @return les différences avec la version précédente, ou null si le fichier n'a pas
+   *     changé (ou si la base n'a pas de fichier)
+   * @throws RuntimeException si le fichier est refusé
+   */
+  public synchronized Rechargement recharge() {
+    if (dbPath == null) {
+      return null;
+    }
+    // Pas de rechargement pendant qu'une compaction réécrit la base
+    while (!compactionEnCours.compareAndSet(false, true)) {
+      try {
+        attends(derniereCompaction);
+      } catch (RuntimeException e) {
+        // L'échec de la compaction ne concerne pas le rechargement
+      }
+    }
+    final long debut = System.nanoTime();
+    boolean ok = false;
+    try {
+      final Signature signature = Signature.de(dbPath);
+      if (signature == null) {
+        throw new RuntimeException("ERREUR : Fichier de base absent : " + dbPath);
+      }
+      if (signature.equals(signatureBase)) {
+        ok = true;
+        return null;
+      }
+      final Etat nouveau = lisBase();
+      final Etat ancien;
+      verrou.lock();
+      try {
+        try {
+          // Comme au chargement : segment d'une compaction en échec, puis journal courant
+          Journal.rejoue(cheminSegment(), ligne -> rejoueLigne(nouveau, ligne));
+          Journal.rejoue(cheminJournal(), ligne -> rejoueLigne(nouveau, ligne));
+          for (DnsItem item : nomsEnAttente.values()) {
+            verifieUnicite(nouveau, item);
+          }
+        } catch (RuntimeException refus) {
+          abandonne(nouveau);
+          throw refus;
         }
-        if (byIp.containsKey(ip.value())) {
-          throw new RuntimeException("Doublon d'adresse IP détecté : " + ip.value());
+        ancien = etat;
+        etat = nouveau;
+        signatureBase = signature;
+        final ReplicationMaitre r = replication;
+        if (r != null) {
+          r.reinitialise();
         }
-
-        final DnsItem item = new DnsItem(nom, ip);
-        byName.put(nom.value(), item);
-        byIp.put(ip.value(), item);
+      } finally {
+        verrou.unlock();
       }
+      // L'ancien stockage n'est pas fermé : un flux paresseux (ls, filtre de Bloom) peut
+      // encore le lire ; il est libéré par le ramasse-miettes avec la dernière référence
+      lanceExpiration();
+
+      final Rechargement r = difference(ancien, nouveau, System.nanoTime() - debut);
+      metriques.rechargement(r);
+      ok = true;
+      return r;
     } catch (IOException e) {
       throw new RuntimeException("Erreur de lecture du fichier " + dbPath, e);
+    } finally {
+      compactionEnCours.set(false);
+      metriques.rechargement.enregistre(debut, ok);
+    }
+  }
+
+  /**
+   * Ferme et supprime le stockage construit pour une version refusée : un fichier de
+   * base réécrit dans la même milliseconde, à la même taille, le ferait passer pour à jour.
+   */
+  private void abandonne(final Etat refuse) throws IOException {
+    if (refuse.stockage == null || enColonnes) {
+      return;
+    }
+    refuse.stockage.close();
+    Files.deleteIfExists(surDisque ? cheminDisque() : cheminInstantane());
+  }
+
+  /** Compte les entrées ajoutées, supprimées et modifiées (même nom, autre IP). */
+  private static Rechargement difference(final Etat ancien, final Etat nouveau,
+                                         final long nanos) {
+    final int[] n = new int[3];
+    nouveau.forEach(item -> {
+      final DnsItem avant = ancien.nom(item.nom().value());
+      if (avant == null) {
+        n[0]++;
+      } else {
+        n[2]++;
+        if (!avant.ip().equals(item.ip())) {
+          n[1]++;
+        }
+      }
+    });
+    return new Rechargement(n[0], ancien.size() - n[2], n[1], nanos);
+  }
+
+  /**
+   * Résultat d'un rechargement.
+   *
+   * @param ajouts nombre d'entrées apparues
+   * @param suppressions nombre d'entrées disparues
+   * @param modifications nombre de noms dont l'adresse a changé
+   * @param nanos durée du rechargement, en nanosecondes
+   */
+  public record Rechargement(int ajouts, int suppressions, int modifications, long nanos) {
+    @Override
+    public String toString() {
+      return String.format("+%d -%d ~%d en %d ms", ajouts, suppressions, modifications,
+          nanos / 1_000_000);
+    }
+  }
+
+  /**
+   * Identité (inode), taille et date de modification d'un fichier, pour détecter
+   * sa réécriture ou son remplacement.
+   */
+  private record Signature(Object cle, long taille, FileTime modification) {
+    /** Signature du fichier, ou null s'il n'existe pas. */
+    static Signature de(final Path fichier) throws IOException {
+      try {
+        final BasicFileAttributes a = Files.readAttributes(fichier, BasicFileAttributes.class);
+        return new Signature(a.fileKey(), a.size(), a.lastModifiedTime());
+      } catch (NoSuchFileException e) {
+        return null;
+      }
     }
   }
 
@@ -90,7 +545,7 @@ public class Dns {
     if (nom == null) {
       throw new IllegalArgumentException("Nom de machine nul");
     }
-    return byName.get(nom.value());
+    return getItemParNom(nom.value());
   }
 
   /**
@@ -103,47 +558,558 @@ public class Dns {
     if (ip == null) {
       throw new IllegalArgumentException("Adresse IP nulle");
     }
-    return byIp.get(ip.value());
+    return ip.estIpv6() ? getItemParIp6(ip.haut(), ip.bas()) : getItemParIp(ip.toInt());
   }
 
   /**
-    * Retourne la liste des entrées DNS appartenant à un domaine donné.
-    *
-    * @param domaine          le domaine recherché (ex: "uvsq.fr")
-    * @param trierParAdresse  true pour trier par IP, false pour trier par nom
-    * @return liste triée des entrées correspondant au domaine
-    */
-    public List<DnsItem> getItems(final String domaine, final boolean trierParAdresse) {
-        if (domaine == null || domaine.isBlank()) {
-            throw new IllegalArgumentException("Domaine vide ou nul");
-        }
+   * Recherche par nom déjà normalisé (minuscules), sans construire de {@link NomMachine}.
+   * Un nom invalide n'est simplement pas trouvé.
+   *
+   * @param fqdn le nom qualifié, en minuscules
+   * @return l'entrée, ou null si non trouvée
+   */
+  DnsItem getItemParNom(final String fqdn) {
+    final long debut = metriques.rechercheNom.debut();
+    final Etat e = etat;
+    final DnsItem item = e.nom(fqdn);
+    metriques.rechercheNom.enregistre(debut, item != null);
+    if (item == null && e.stockage != null) {
+      metriques.absence.enregistre(debut, e.ecarte(FiltreBloom.hacheNom(fqdn)));
+    }
+    return item;
+  }
 
-        // Normalise le domaine (en minuscules)
-        final String domaineLower = domaine.toLowerCase(Locale.ROOT).trim();
+  /**
+   * Recherche par forme entière d'adresse, sans construire d'{@link AdresseIP}.
+   *
+   * @param ip les 32 bits de l'adresse
+   * @return l'entrée, ou null si non trouvée
+   */
+  DnsItem getItemParIp(final int ip) {
+    final long debut = metriques.rechercheIp.debut();
+    final Etat e = etat;
+    final DnsItem item = e.ip(ip);
+    metriques.rechercheIp.enregistre(debut, item != null);
+    if (item == null && e.stockage != null) {
+      metriques.absence.enregistre(debut, e.ecarte(FiltreBloom.hacheIp(ip)));
+    }
+    return item;
+  }
 
-        // Filtrage des entrées correspondant au domaine
-        List<DnsItem> resultat = byName.values().stream()
-            .filter(item -> item.nom().domaine().equals(domaineLower))
-            .collect(Collectors.toCollection(ArrayList::new));
+  /**
+   * Recherche par adresse IPv6, sans construire d'{@link AdresseIP} : la clé de l'index
+   * est formée des 128 bits de l'adresse, et non de l'une de ses écritures.
+   *
+   * @param haut les 64 bits de poids fort de l'adresse
+   * @param bas les 64 bits de poids faible (::ffff:a.b.c.d désigne l'adresse IPv4 a.b.c.d)
+   * @return l'entrée, ou null si non trouvée
+   */
+  DnsItem getItemParIp6(final long haut, final long bas) {
+    if (haut == 0 && (bas >>> 32) == 0xFFFF) {
+      return getItemParIp((int) bas);
+    }
+    final long debut = metriques.rechercheIp.debut();
+    final DnsItem item = etat.byIp6.get(haut, bas);
+    metriques.rechercheIp.enregistre(debut, item != null);
+    return item;
+  }
 
-        // Tri en fonction du paramètre
-        if (trierParAdresse) {
-            resultat.sort(Comparator.comparing(i -> i.ip().value()));
-        } else {
-            resultat.sort(Comparator.comparing(i -> i.nom().value()));
+  /** Recherche par nom dans le tas puis dans l'instantané, sans compter la recherche. */
+  private DnsItem trouveNom(final String fqdn) {
+    return etat.nom(fqdn);
+  }
+
+  /**
+   * Retourne la liste des entrées DNS appartenant à un domaine donné.
+   * La liste est lue directement dans l'index du domaine, déjà trié
+   * (en mode instantané, fusionnée avec celle de l'instantané, triée elle aussi).
+   *
+   * @param domaine          le domaine recherché (ex: "uvsq.fr")
+   * @param trierParAdresse  true pour trier par IP, false pour trier par nom
+   * @return liste triée des entrées correspondant au domaine
+   */
+  public List<DnsItem> getItems(final String domaine, final boolean trierParAdresse) {
+    if (domaine == null || domaine.isBlank()) {
+      throw new IllegalArgumentException("Domaine vide ou nul");
+    }
+
+    final long debut = System.nanoTime();
+    final Etat e = etat;
+    // Normalise le domaine (en minuscules)
+    final String d = domaine.trim().toLowerCase(Locale.ROOT);
+    final IndexDomaine index = e.byDomain.get(d);
+    List<DnsItem> r = index == null ? new ArrayList<>() : index.items(trierParAdresse);
+    if (e.stockage != null) {
+      final Comparator<DnsItem> ordre = trierParAdresse
+          ? Comparator.comparing(DnsItem::ip)
+          : Comparator.comparing(item -> item.nom().value());
+      r = fusionne(e.stockage.domaine(d, trierParAdresse), r, ordre);
+    }
+    metriques.liste.enregistre(debut, !r.isEmpty());
+    return r;
+  }
+
+  /**
+   * Parcourt les entrées d'un domaine dans l'ordre demandé, sans construire de liste :
+   * elles sont lues dans l'index du domaine (et dans l'instantané) au fur et à mesure
+   * que le flux est consommé, si bien que la mémoire utilisée ne dépend pas de la
+   * taille du domaine. Avec {@link Stream#limit} et la clé de la dernière entrée reçue,
+   * un grand domaine se lit page par page.
+   *
+   * Le flux voit ou non les ajouts concurrents à son parcours.
+   *
+   * @param domaine          le domaine recherché (ex: "uvsq.fr")
+   * @param trierParAdresse  true pour l'ordre des IP, false pour l'ordre des noms
+   * @param apres            clé de reprise, exclue : le nom (ordre des noms) ou l'adresse
+   *                         (ordre des IP) de la dernière entrée déjà lue ; null pour
+   *                         commencer au début
+   * @return flux séquentiel et ordonné des entrées du domaine
+   * @throws IllegalArgumentException si le domaine est vide, ou si la clé n'est pas une
+   *     adresse valide alors que l'ordre des IP est demandé
+   */
+  public Stream<DnsItem> streamItems(final String domaine, final boolean trierParAdresse,
+                                     final String apres) {
+    if (domaine == null || domaine.isBlank()) {
+      throw new IllegalArgumentException("Domaine vide ou nul");
+    }
+    final String d = domaine.trim().toLowerCase(Locale.ROOT);
+    final Etat e = etat;
+    final IndexDomaine index = e.byDomain.get(d);
+    Iterator<DnsItem> r;
+    if (trierParAdresse) {
+      final AdresseIP cle = apres == null ? null : AdresseIP.de(apres);
+      r = index == null ? Collections.emptyIterator() : index.suiteParIp(cle);
+      if (e.stockage != null) {
+        r = new Fusion(e.stockage.suiteParIp(d, cle), r, Comparator.comparing(DnsItem::ip));
+      }
+    } else {
+      final String cle = apres == null ? null : apres.trim().toLowerCase(Locale.ROOT);
+      r = index == null ? Collections.emptyIterator() : index.suiteParNom(cle);
+      if (e.stockage != null) {
+        r = new Fusion(e.stockage.suiteParNom(d, cle), r,
+            Comparator.comparing(item -> item.nom().value()));
+      }
+    }
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(r,
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * Une version des index : les entrées ajoutées, dans le tas, et la base figée
+   * éventuelle. Complétée par l'unique écrivain, au chargement ou sous le verrou
+   * d'écriture, et lue sans verrou.
+   */
+  private static final class Etat {
+
+    /** Index des entrées par nom de machine. */
+    final Map<String, DnsItem> byName = new ConcurrentHashMap<>();
+
+    /** Index des entrées par adresse IPv4 (forme entière, sans boîte). */
+    final IndexIp byIp = new IndexIp();
+
+    /** Index des entrées par adresse IPv6 (deux {@code long}, sans texte). */
+    final IndexIp6 byIp6 = new IndexIp6();
+
+    /** Index des entrées IPv4 ordonné par adresse, pour les requêtes par plage. */
+    final IndexPlages byRange = new IndexPlages();
+
+    /** Index hiérarchique des noms, pour les sous-domaines, motifs et complétions. */
+    final IndexHierarchie byHierarchy = new IndexHierarchie();
+
+    /** Index des entrées par domaine, tenu trié par nom et par IP. */
+    final Map<String, IndexDomaine> byDomain = new ConcurrentHashMap<>();
+
+    /** Base figée hors du tas (null en mode mémoire). */
+    final Stockage stockage;
+
+    /**
+     * Échéances des entrées à durée de vie limitée, toutes dans le tas (les formats
+     * binaires les rangent dans leur annexe).
+     */
+    final RoueExpiration roue = new RoueExpiration(maintenant());
+
+    /**
+     * Noms et adresses du stockage, construit en tâche de fond pour que l'ouverture
+     * reste immédiate : null tant qu'il n'est pas prêt (ou sans stockage), le
+     * stockage est alors consulté à chaque absence du tas.
+     */
+    volatile FiltreBloom filtre;
+
+    Etat(final Stockage stockage) {
+      this.stockage = stockage;
+      if (stockage != null) {
+        CompletableFuture.runAsync(() -> {
+          final FiltreBloom f = new FiltreBloom(stockage.size());
+          stockage.remplit(f);
+          filtre = f;
+        });
+      }
+    }
+
+    DnsItem nom(final String fqdn) {
+      final DnsItem item = byName.get(fqdn);
+      return item != null || ecarte(FiltreBloom.hacheNom(fqdn)) ? item : stockage.parNom(fqdn);
+    }
+
+    DnsItem ip(final int ip) {
+      final DnsItem item = byIp.get(ip);
+      return item != null || ecarte(FiltreBloom.hacheIp(ip)) ? item : stockage.parIp(ip);
+    }
+
+    /** Recherche par adresse de l'une ou l'autre famille (les IPv6 sont toutes dans le tas). */
+    DnsItem ip(final AdresseIP ip) {
+      return ip.estIpv6() ? byIp6.get(ip.haut(), ip.bas()) : ip(ip.toInt());
+    }
+
+    /**
+     * Indique si le stockage n'a certainement pas une clé : sans stockage, ou clé
+     * écartée par son filtre.
+     *
+     * @param h hachage du nom ou de l'adresse
+     * @return true si le stockage n'est pas à consulter
+     */
+    boolean ecarte(final long h) {
+      if (stockage == null) {
+        return true;
+      }
+      final FiltreBloom f = filtre;
+      return f != null && !f.peutContenir(h);
+    }
+
+    /** Enregistre une entrée dans tous les index (nom, IP, plages, hiérarchie et domaine). */
+    void indexe(final DnsItem item) {
+      if (item.ip().estIpv6()) {
+        byIp6.put(item);
+      } else {
+        byIp.put(item.ip().toInt(), item);
+        byRange.put(item);
+      }
+      byHierarchy.put(item);
+      byDomain.computeIfAbsent(item.nom().domaine(), d -> new IndexDomaine()).ajoute(item);
+      byName.put(item.nom().value(), item);
+      if (item.expiration() != 0) {
+        roue.planifie(item);
+      }
+    }
+
+    /**
+     * Retire une entrée du tas de tous les index. Le nom disparaît en dernier : une
+     * lecture qui ne le trouve plus ne trouve plus l'entrée ailleurs.
+     */
+    void retire(final DnsItem item) {
+      if (item.ip().estIpv6()) {
+        byIp6.supprime(item.ip().haut(), item.ip().bas());
+      } else {
+        byIp.supprime(item.ip().toInt());
+        byRange.supprime(item);
+      }
+      byHierarchy.supprime(item);
+      final IndexDomaine domaine = byDomain.get(item.nom().domaine());
+      if (domaine != null) {
+        domaine.retire(item);
+        if (domaine.size() == 0) {
+          byDomain.remove(item.nom().domaine(), domaine);
         }
+      }
+      byName.remove(item.nom().value(), item);
+    }
+
+    int size() {
+      return byName.size() + (stockage == null ? 0 : stockage.size());
+    }
+
+    void forEach(final Consumer<DnsItem> action) {
+      byName.values().forEach(action);
+      if (stockage != null) {
+        stockage.forEach(action);
+      }
+    }
+  }
+
+  /** Fusion paresseuse de deux parcours triés selon le même ordre. */
+  private static final class Fusion implements Iterator<DnsItem> {
+    private final Iterator<DnsItem> a;
+    private final Iterator<DnsItem> b;
+    private final Comparator<DnsItem> ordre;
+    private DnsItem teteA;
+    private DnsItem teteB;
+
+    Fusion(final Iterator<DnsItem> a, final Iterator<DnsItem> b,
+           final Comparator<DnsItem> ordre) {
+      this.a = a;
+      this.b = b;
+      this.ordre = ordre;
+      this.teteA = a.hasNext() ? a.next() : null;
+      this.teteB = b.hasNext() ? b.next() : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return teteA != null || teteB != null;
+    }
+
+    @Override
+    public DnsItem next() {
+      final DnsItem r;
+      if (teteA != null && (teteB == null || ordre.compare(teteA, teteB) <= 0)) {
+        r = teteA;
+        teteA = a.hasNext() ? a.next() : null;
+      } else if (teteB != null) {
+        r = teteB;
+        teteB = b.hasNext() ? b.next() : null;
+      } else {
+        throw new NoSuchElementException();
+      }
+      return r;
+    }
+  }
+
+  /**
+   * Retourne les entrées dont l'adresse appartient à une plage, dans l'ordre des
+   * adresses, en O(log N + k) : l'arbre radix des ajouts et l'index trié de
+   * l'instantané sont parcourus à partir de la première adresse de la plage.
+   *
+   * @param plage la plage d'adresses (ex : {@code PlageIP.cidr("193.51.0.0/16")})
+   * @return liste des entrées de la plage, triée par adresse
+   */
+  public List<DnsItem> getItems(final PlageIP plage) {
+    if (plage == null) {
+      throw new IllegalArgumentException("Plage nulle");
+    }
+    final long debut = System.nanoTime();
+    final Etat e = etat;
+    List<DnsItem> r = new ArrayList<>();
+    e.byRange.plage(plage.debut().toInt(), plage.fin().toInt(), r::add);
+    if (e.stockage != null) {
+      r = fusionne(e.stockage.plage(plage.debut().toInt() & 0xFFFFFFFFL,
+          plage.fin().toInt() & 0xFFFFFFFFL), r, Comparator.comparing(DnsItem::ip));
+    }
+    metriques.plage.enregistre(debut, !r.isEmpty());
+    return r;
+  }
+
+  /**
+   * Cherche la première adresse libre d'une plage, pour attribuer une adresse à une
+   * nouvelle machine. Pour un réseau CIDR, les adresses du réseau et de diffusion
+   * ne sont pas proposées. Les suites d'adresses occupées sont sautées d'un bloc
+   * (sous-arbres pleins de l'arbre radix, dichotomie dans l'instantané) : la base
+   * n'est pas parcourue.
+   *
+   * L'adresse rendue n'est pas réservée : un ajout concurrent peut la prendre avant
+   * l'appelant, dont l'ajout échoue alors comme pour tout doublon d'adresse.
+   *
+   * @param plage la plage d'adresses
+   * @return la première adresse libre, ou null si la plage est pleine
+   */
+  public AdresseIP getAdresseLibre(final PlageIP plage) {
+    if (plage == null) {
+      throw new IllegalArgumentException("Plage nulle");
+    }
+    final long debut = System.nanoTime();
+    final Etat e = etat;
+    final long fin = plage.derniereHote();
+    AdresseIP libre = null;
+    long ip = plage.premiereHote();
+    while (ip <= fin) {
+      // Saute les adresses prises dans le tas, puis celles prises dans l'instantané
+      final long suivante = e.byRange.premiereLibre(ip);
+      if (suivante > fin) {
+        break;
+      }
+      ip = e.stockage == null ? suivante : e.stockage.premiereLibre(suivante);
+      if (ip == suivante) {
+        libre = new AdresseIP((int) ip);
+        break;
+      }
+    }
+    metriques.libre.enregistre(debut, libre != null);
+    return libre;
+  }
+
+  /**
+   * Retourne les entrées situées sous un domaine, à toute profondeur : a.b.uvsq.fr
+   * comme www.uvsq.fr pour uvsq.fr. L'éventuelle entrée qui porte le nom du domaine
+   * n'en fait pas partie. Les entrées sont dans l'ordre hiérarchique
+   * ({@link NomMachine#compareHierarchique}), qui regroupe chaque sous-domaine.
+   *
+   * @param domaine le domaine (ex : "uvsq.fr")
+   * @return les entrées, en O(log N + k)
+   * @throws IllegalArgumentException si le domaine est invalide
+   */
+  public List<DnsItem> getItemsRecursif(final String domaine) {
+    if (domaine == null || domaine.isBlank()) {
+      throw new IllegalArgumentException("Domaine vide ou nul");
+    }
+    final String[] labels = IndexHierarchie.analyse(domaine, false);
+    final long debut = System.nanoTime();
+    final Etat e = etat;
+    List<DnsItem> r = new ArrayList<>();
+    e.byHierarchy.sousArbre(labels, r::add);
+    if (e.stockage != null) {
+      r = fusionne(e.stockage.sousArbre(labels), r, ORDRE_HIERARCHIQUE);
+    }
+    metriques.hierarchie.enregistre(debut, !r.isEmpty());
+    return r;
+  }
+
+  /**
+   * Retourne les entrées dont le nom correspond à un motif. Chaque label du motif
+   * correspond à un seul label du nom : {@code *} à n'importe lequel, {@code web*}
+   * à ceux qui commencent par web. Ainsi {@code *.uvsq.fr} désigne les machines de
+   * uvsq.fr et {@code www.*.fr} les serveurs www des domaines de fr.
+   *
+   * @param motif le motif (ex : "*.uvsq.fr")
+   * @return les entrées, dans l'ordre hiérarchique
+   * @throws IllegalArgumentException si le motif est invalide
+   */
+  public List<DnsItem> getItemsMotif(final String motif) {
+    if (motif == null || motif.isBlank()) {
+      throw new IllegalArgumentException("Motif vide ou nul");
+    }
+    final String[] labels = IndexHierarchie.analyse(motif, true);
+    final long debut = System.nanoTime();
+    final Etat e = etat;
+    List<DnsItem> r = new ArrayList<>();
+    e.byHierarchy.motif(labels, r::add);
+    if (e.stockage != null) {
+      r = fusionne(e.stockage.motif(labels), r, ORDRE_HIERARCHIQUE);
+    }
+    metriques.hierarchie.enregistre(debut, !r.isEmpty());
+    return r;
+  }
+
+  /**
+   * Complète le premier label d'un nom dont le domaine est connu : "po.uvsq.fr"
+   * propose les noms de uvsq.fr dont le premier label commence par "po", machines
+   * ou sous-domaines ("poste.uvsq.fr"). Un premier label vide (".uvsq.fr") propose
+   * tous les labels de uvsq.fr ; un texte sans point complète un domaine de premier niveau.
+   *
+   * @param debut le nom en cours de saisie
+   * @param max nombre maximal de propositions
+   * @return les propositions, triées, sans doublon
+   * @throws IllegalArgumentException si le domaine est invalide
+   */
+  public List<String> completions(final String debut, final int max) {
+    if (debut == null) {
+      throw new IllegalArgumentException("Texte nul");
+    }
+    final String texte = debut.trim().toLowerCase(Locale.ROOT);
+    final Etat e = etat;
+    final int point = texte.indexOf('.');
+    final String prefixe = point < 0 ? texte : texte.substring(0, point);
+    final String[] domaine = point < 0
+        ? new String[0] : IndexHierarchie.analyse(texte.substring(point + 1), false);
+    final String suffixe = point < 0 ? "" : texte.substring(point);
+    final TreeSet<String> labels = new TreeSet<>();
+    e.byHierarchy.labels(domaine, prefixe, max, labels::add);
+    if (e.stockage != null) {
+      e.stockage.labels(domaine, prefixe, max, labels::add);
+    }
+    final List<String> r = new ArrayList<>(Math.min(max, labels.size()));
+    for (String label : labels) {
+      if (r.size() == max) {
+        break;
+      }
+      r.add(label + suffixe);
+    }
+    return r;
+  }
+
+  /**
+   * Nombre d'entrées de chaque domaine.
+   *
+   * @return les domaines et leur nombre d'entrées, triés par domaine
+   */
+  Map<String, Integer> entreesParDomaine() {
+    final Map<String, Integer> r = new TreeMap<>();
+    final Etat e = etat;
+    e.byDomain.forEach((d, index) -> r.merge(d, index.size(), Integer::sum));
+    if (e.stockage != null) {
+      e.stockage.forEachDomaine((d, n) -> r.merge(d, n, Integer::sum));
+    }
+    return r;
+  }
+
+  /**
+   * Compteurs d'activité de cette instance.
+   *
+   * @return les métriques
+   */
+  Metriques metriques() {
+    return metriques;
+  }
+
+  /**
+   * Nombre d'entrées indexées dans le tas : ajouts depuis l'ouverture du stockage et
+   * annexe, ou toute la base sans stockage.
+   *
+   * @return entrées du tas
+   */
+  int entreesTas() {
+    return etat.byName.size();
+  }
+
+  /**
+   * Taille du filtre de Bloom du stockage.
+   *
+   * @return taille en octets, 0 sans stockage ou tant que le filtre n'est pas prêt
+   */
+  long octetsFiltre() {
+    final FiltreBloom f = etat.filtre;
+    return f == null ? 0 : f.octets();
+  }
+
+  /** Ordre (domaine, nom) de la base texte et de {@link Stockage#parcours()}. */
+  private static final Comparator<DnsItem> PAR_DOMAINE =
+      Comparator.comparing((DnsItem d) -> d.nom().domaine()).thenComparing(d -> d.nom().value());
 
-        return resultat;
+  /** Ordre de {@link NomMachine#compareHierarchique} sur les noms des entrées. */
+  private static final Comparator<DnsItem> ORDRE_HIERARCHIQUE =
+      (a, b) -> NomMachine.compareHierarchique(a.nom().value(), b.nom().value());
+
+  /** Fusionne deux listes triées selon le même ordre. */
+  private static List<DnsItem> fusionne(final List<DnsItem> a, final List<DnsItem> b,
+                                        final Comparator<DnsItem> ordre) {
+    final List<DnsItem> r = new ArrayList<>(a.size() + b.size());
+    int i = 0;
+    int j = 0;
+    while (i < a.size() && j < b.size()) {
+      r.add(ordre.compare(a.get(i), b.get(j)) <= 0 ? a.get(i++) : b.get(j++));
     }
+    r.addAll(a.subList(i, a.size()));
+    r.addAll(b.subList(j, b.size()));
+    return r;
+  }
 
 
+  /**
+   * Retourne une copie de toutes les entrées, dans un ordre quelconque.
+   *
+   * @return les entrées présentes
+   */
+  List<DnsItem> items() {
+    final Etat e = etat;
+    final List<DnsItem> r = new ArrayList<>(e.size());
+    e.forEach(r::add);
+    return r;
+  }
+
+  /**
+   * Lignes de journal illisibles ignorées lors du chargement ou d'un rechargement.
+   *
+   * @return la raison du refus de chaque ligne ignorée, dans l'ordre de lecture
+   */
+  public List<String> lignesIgnorees() {
+    return List.copyOf(lignesIgnorees);
+  }
+
   /**
    * Retourne le nombre total d’entrées chargées.
    *
    * @return nombre d’entrées
    */
   public int size() {
-    return byName.size();
+    return etat.size();
   }
 
   /**
@@ -153,7 +1119,7 @@ public class Dns {
    * @return true si présent, false sinon
    */
   public boolean containsName(final String fqdn) {
-    return byName.containsKey(fqdn.toLowerCase(Locale.ROOT));
+    return trouveNom(fqdn.toLowerCase(Locale.ROOT)) != null;
   }
 
   /**
@@ -163,66 +1129,589 @@ public class Dns {
    * @return true si présente, false sinon
    */
   public boolean containsIp(final String ip) {
-    return byIp.containsKey(ip);
+    final AdresseIP adresse = ip == null ? null : AdresseIP.de(ip, 0, ip.length());
+    return adresse != null && etat.ip(adresse) != null;
   }
 
   /**
-   * Retourne le chemin du fichier de base DNS.
+   * Ajoute une nouvelle entrée (nom, IP) à la base DNS.
+   * L'entrée est d'abord écrite dans le journal, puis rendue visible.
    *
-   * @return chemin du fichier de base
+   * @param ip  l'adresse IP à ajouter
+   * @param nom le nom de machine à ajouter
+   * @throws RuntimeException si le nom ou l'IP existe déjà, ou en cas d'erreur d'écriture
    */
-  
+  public void addItem(final AdresseIP ip, final NomMachine nom) {
+    if (ip == null || nom == null) {
+      throw new IllegalArgumentException("Nom ou IP nul");
+    }
+    ajoute(List.of(new DnsItem(nom, ip)), false);
+  }
+
   /**
-     * Ajoute une nouvelle entrée (nom, IP) à la base DNS et sauvegarde la base.
-     *
-     * @param ip  l'adresse IP à ajouter
-     * @param nom le nom de machine à ajouter
-     * @throws RuntimeException si le nom ou l'IP existe déjà, ou en cas d'erreur d'écriture
-     */
-    public void addItem(final AdresseIP ip, final NomMachine nom) {
-        if (ip == null || nom == null) {
-            throw new IllegalArgumentException("Nom ou IP nul");
+   * Ajoute une entrée à durée de vie limitée : elle est retirée de la base à
+   * l'expiration de sa durée de vie.
+   *
+   * @param ip  l'adresse IP à ajouter
+   * @param nom le nom de machine à ajouter
+   * @param ttl durée de vie, en secondes (strictement positive, au plus {@link #TTL_MAX})
+   * @throws RuntimeException si le nom ou l'IP existe déjà, ou en cas d'erreur d'écriture
+   */
+  public void addItem(final AdresseIP ip, final NomMachine nom, final long ttl) {
+    if (ip == null || nom == null) {
+      throw new IllegalArgumentException("Nom ou IP nul");
+    }
+    if (!ttlValide(ttl)) {
+      throw new IllegalArgumentException("Durée de vie invalide : " + ttl);
+    }
+    ajoute(List.of(new DnsItem(nom, ip, maintenant() + ttl)), false);
+  }
+
+  /**
+   * Ajoute un lot d'entrées en une seule opération : soit toutes les entrées
+   * sont ajoutées, soit aucune. Le lot est vérifié contre la base et contre
+   * lui-même, puis écrit dans le journal en une seule écriture.
+   *
+   * @param items les entrées à ajouter
+   * @throws RuntimeException si un nom ou une IP existe déjà ou apparaît deux fois
+   *     dans le lot, ou en cas d'erreur d'écriture
+   */
+  public void addItems(final Collection<DnsItem> items) {
+    if (items == null) {
+      throw new IllegalArgumentException("Lot nul");
+    }
+    for (DnsItem item : items) {
+      if (item == null) {
+        throw new IllegalArgumentException("Entrée nulle dans le lot");
+      }
+    }
+    if (!items.isEmpty()) {
+      ajoute(items, true);
+    }
+  }
+
+  /** Ajoute un lot (voir {@link #ajouteLot}) en comptant l'ajout et sa durée. */
+  private void ajoute(final Collection<DnsItem> items, final boolean precise) {
+    final long debut = System.nanoTime();
+    boolean ok = false;
+    try {
+      ajouteLot(items, precise);
+      ok = true;
+    } finally {
+      metriques.ajout.enregistre(debut, ok);
+    }
+  }
+
+  /**
+   * Vérifie, journalise et indexe un lot sous le verrou d'écriture.
+   * Si fsync est demandé, le lot est seulement réservé sous le verrou, le temps
+   * que son écriture atteigne le disque hors verrou (ce qui permet aux écrivains
+   * concurrents de partager un même fsync), puis il est indexé.
+   *
+   * @param precise true pour nommer l'entrée en conflit dans le message d'erreur
+   */
+  private void ajouteLot(final Collection<DnsItem> items, final boolean precise) {
+    if (replique) {
+      throw new RuntimeException("ERREUR : Réplique en lecture seule, ajout à faire sur le maître");
+    }
+    final Journal.Jeton jeton;
+    final boolean reserve;
+    verrou.lock();
+    try {
+      verifieLot(items, precise);
+      jeton = journalise(items);
+      reserve = jeton != null && journal.fsync();
+      for (DnsItem item : items) {
+        if (reserve) {
+          nomsEnAttente.put(item.nom().value(), item);
+          ipsEnAttente.put(item.ip(), item);
+        } else {
+          indexe(item);
         }
+      }
+    } finally {
+      verrou.unlock();
+    }
 
-        // Vérifie l’unicité
-        if (byName.containsKey(nom.value())) {
-            throw new RuntimeException("ERREUR : Le nom de machine existe déjà !");
+    if (reserve) {
+      boolean durable = false;
+      try {
+        journal.force(jeton);
+        durable = true;
+      } catch (IOException e) {
+        throw new RuntimeException("Erreur lors de l'écriture du journal " + cheminJournal(), e);
+      } finally {
+        verrou.lock();
+        try {
+          for (DnsItem item : items) {
+            nomsEnAttente.remove(item.nom().value());
+            ipsEnAttente.remove(item.ip());
+            if (durable) {
+              indexe(item);
+            }
+          }
+        } finally {
+          verrou.unlock();
         }
-        if (byIp.containsKey(ip.value())) {
-            throw new RuntimeException("ERREUR : L'adresse IP existe déjà !");
+      }
+    }
+
+    for (DnsItem item : items) {
+      if (item.expiration() != 0) {
+        lanceExpiration();
+        break;
+      }
+    }
+    if (journal != null && journal.enregistrements() >= seuilCompaction) {
+      lanceCompaction();
+    }
+  }
+
+  /** Vérifie l'unicité des noms et des IP du lot, contre la base et contre lui-même. */
+  private void verifieLot(final Collection<DnsItem> items, final boolean precise) {
+    final Set<String> noms = new HashSet<>();
+    final Set<AdresseIP> ips = new HashSet<>();
+    for (DnsItem item : items) {
+      final String nom = item.nom().value();
+      if (trouveNom(nom) != null || nomsEnAttente.containsKey(nom) || !noms.add(nom)) {
+        throw new RuntimeException("ERREUR : Le nom de machine existe déjà !"
+            + (precise ? " (" + nom + ")" : ""));
+      }
+      final AdresseIP ip = item.ip();
+      if (etat.ip(ip) != null || ipsEnAttente.containsKey(ip) || !ips.add(ip)) {
+        throw new RuntimeException("ERREUR : L'adresse IP existe déjà !"
+            + (precise ? " (" + item.ip() + ")" : ""));
+      }
+    }
+  }
+
+  /**
+   * Intègre immédiatement le journal à la base et attend la fin de la compaction.
+   *
+   * @throws RuntimeException en cas d'erreur d'écriture
+   */
+  public void compacte() {
+    if (journal == null) {
+      return;
+    }
+    CompletableFuture<Void> compaction = lanceCompaction();
+    if (compaction == null) {
+      // Une compaction est déjà en cours : on l'attend puis on recommence
+      attends(derniereCompaction);
+      compaction = lanceCompaction();
+    }
+    if (compaction != null) {
+      attends(compaction);
+    }
+  }
+
+  /**
+   * Retire les entrées arrivées à expiration, en un seul passage sous le verrou
+   * d'écriture, puis lance une compaction si assez d'entrées ont expiré depuis la
+   * dernière : la base n'est pas réécrite à chaque expiration.
+   *
+   * @param maintenant l'instant atteint, en secondes depuis l'époque Unix
+   * @return nombre d'entrées retirées
+   */
+  int expire(final long maintenant) {
+    final long debut = System.nanoTime();
+    int retirees = 0;
+    boolean compaction;
+    verrou.lock();
+    try {
+      final Etat e = etat;
+      final List<DnsItem> echues = new ArrayList<>();
+      e.roue.avance(maintenant, echues::add);
+      for (DnsItem item : echues) {
+        // L'entrée a pu être remplacée depuis sa planification (rechargement)
+        if (e.byName.get(item.nom().value()) == item) {
+          e.retire(item);
+          retirees++;
         }
+      }
+      expireesNonCompactees += retirees;
+      compaction = journal != null && expireesNonCompactees >= seuilCompaction;
+    } finally {
+      verrou.unlock();
+    }
+    if (retirees > 0) {
+      metriques.expiration(retirees);
+      metriques.expiration.enregistre(debut, true);
+    }
+    if (compaction) {
+      lanceCompaction();
+    }
+    return retirees;
+  }
 
-        // Ajout en mémoire
-        DnsItem item = new DnsItem(nom, ip);
-        byName.put(nom.value(), item);
-        byIp.put(ip.value(), item);
+  /** Lance le thread d'expiration s'il ne l'est pas et si des entrées sont planifiées. */
+  private void lanceExpiration() {
+    if (etat.roue.size() == 0 || !expirationLancee.compareAndSet(false, true)) {
+      return;
+    }
+    final ScheduledExecutorService e = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread t = new Thread(r, "dns-expiration");
+      t.setDaemon(true);
+      return t;
+    });
+    e.scheduleAtFixedRate(() -> {
+      try {
+        expire(maintenant());
+      } catch (RuntimeException ex) {
+        // Une compaction en échec sera retentée à la prochaine expiration
+        metriques.expiration.compte(false);
+      }
+    }, 1, 1, TimeUnit.SECONDS);
+    expirateur = e;
+  }
 
-        
-        save();
+  /** Instant présent, en secondes depuis l'époque Unix. */
+  static long maintenant() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  /**
+   * Indique si une durée de vie est acceptée par {@link #addItem(AdresseIP, NomMachine, long)}.
+   *
+   * @param ttl durée de vie, en secondes
+   * @return true si ttl est strictement positive et au plus {@link #TTL_MAX}
+   */
+  public static boolean ttlValide(final long ttl) {
+    return ttl > 0 && ttl <= TTL_MAX;
+  }
+
+  /**
+   * Enregistre une entrée dans la version courante des index, sous le verrou d'écriture,
+   * puis la publie vers les répliques.
+   */
+  private void indexe(final DnsItem item) {
+    final Etat e = etat;
+    // Une entrée en attente de fsync a pu être écrite dans le stockage par une compaction
+    if (e.stockage == null || !item.equals(e.nom(item.nom().value()))) {
+      e.indexe(item);
+    }
+    final ReplicationMaitre r = replication;
+    if (r != null) {
+      r.publie(item);
     }
+  }
 
-    /**
-     * Sauvegarde toutes les entrées de la base DNS dans le fichier texte.
-     */
-    private void save() {
-        try {
-            List<String> lignes = byName.values().stream()
-                .sorted(Comparator.comparing(d -> d.nom().value()))
-                .map(DnsItem::toString)
-                .collect(Collectors.toList());
+  /**
+   * Publie les ajouts suivants vers les répliques d'un maître, ou cesse de les publier.
+   *
+   * @param maitre la publication (null pour l'arrêter)
+   */
+  void publie(final ReplicationMaitre maitre) {
+    verrou.lock();
+    try {
+      replication = maitre;
+    } finally {
+      verrou.unlock();
+    }
+  }
+
+  /** Fait de cette instance une réplique : ses ajouts sont refusés. */
+  void devientReplique() {
+    replique = true;
+  }
+
+  /**
+   * Remplace d'un bloc les index d'une réplique par un instantané du maître, sans les
+   * entrées déjà expirées. Les lectures en cours finissent sur l'ancienne version.
+   *
+   * @param items les entrées du maître
+   * @param sequence numéro du dernier changement compris dans l'instantané
+   */
+  void remplaceReplique(final Collection<DnsItem> items, final long sequence) {
+    final long debut = System.nanoTime();
+    final Etat nouveau = new Etat(null);
+    final long maintenant = maintenant();
+    for (DnsItem item : items) {
+      if (!item.estExpiree(maintenant)) {
+        nouveau.indexe(item);
+      }
+    }
+    final Etat ancien;
+    verrou.lock();
+    try {
+      ancien = etat;
+      etat = nouveau;
+    } finally {
+      verrou.unlock();
+    }
+    metriques.rechargement(difference(ancien, nouveau, System.nanoTime() - debut));
+    metriques.sequenceReplication(sequence);
+    lanceExpiration();
+  }
 
-            Files.createDirectories(dbPath.getParent());
-            Files.write(dbPath, lignes);
+  /**
+   * Applique à une réplique un changement reçu du maître. Une entrée déjà présente
+   * (reçue avec l'instantané) est ignorée. Le maître fait foi : une entrée en conflit
+   * a expiré chez lui mais pas encore ici, elle est retirée.
+   *
+   * @param item l'entrée ajoutée sur le maître
+   * @param sequence numéro du changement
+   */
+  void appliqueReplique(final DnsItem item, final long sequence) {
+    verrou.lock();
+    try {
+      final Etat e = etat;
+      final DnsItem existant = e.byName.get(item.nom().value());
+      if (!item.equals(existant) && !item.estExpiree(maintenant())) {
+        if (existant != null) {
+          e.retire(existant);
+        }
+        final DnsItem autre = e.ip(item.ip());
+        if (autre != null) {
+          e.retire(autre);
+        }
+        e.indexe(item);
+      }
+      metriques.sequenceReplication(sequence);
+    } finally {
+      verrou.unlock();
+    }
+    if (item.expiration() != 0) {
+      lanceExpiration();
+    }
+  }
+
+  /** Écrit le lot dans le journal ; renvoie null si la base n'a pas de fichier. */
+  private Journal.Jeton journalise(final Collection<DnsItem> items) {
+    if (journal == null) {
+      return null;
+    }
+    final List<String> lignes = new ArrayList<>(items.size());
+    for (DnsItem item : items) {
+      lignes.add(item.toString());
+    }
+    try {
+      return journal.ecrit(lignes);
+    } catch (IOException e) {
+      throw new RuntimeException("Erreur lors de l'écriture du journal " + cheminJournal(), e);
+    }
+  }
+
+  /**
+   * Fige le journal courant et lance sa compaction en tâche de fond.
+   * Les index sont lus par la tâche de fond, sans bloquer les écrivains : ils
+   * contiennent déjà toutes les entrées du segment figé, à l'exception de celles
+   * qui attendent leur fsync, copiées ici. Avec un stockage, la compaction le
+   * réécrit puis le rouvre ({@link #remplaceBase}) : le tas est vidé des entrées
+   * intégrées.
+   *
+   * @return la compaction lancée, ou null si une compaction est déjà en cours
+   */
+  private CompletableFuture<Void> lanceCompaction() {
+    verrou.lock();
+    try {
+      if (!compactionEnCours.compareAndSet(false, true)) {
+        return null;
+      }
+      expireesNonCompactees = 0;
+      final List<DnsItem> enAttente = new ArrayList<>(nomsEnAttente.values());
+      try {
+        journal.bascule(cheminSegment());
+      } catch (IOException e) {
+        compactionEnCours.set(false);
+        throw new RuntimeException("Erreur lors de la bascule du journal " + cheminJournal(), e);
+      }
+
+      if (compacteur == null) {
+        compacteur = Executors.newSingleThreadExecutor(r -> {
+          final Thread t = new Thread(r, "dns-compaction");
+          t.setDaemon(true);
+          return t;
+        });
+      }
+      derniereCompaction = CompletableFuture.runAsync(() -> {
+        try {
+          ecritBase(etat, enAttente);
+          Files.deleteIfExists(cheminSegment());
         } catch (IOException e) {
-            throw new RuntimeException("Erreur lors de la sauvegarde du fichier " + dbPath, e);
+          // Le segment est conservé : rejoué au prochain chargement, et complété par le
+          // journal à la prochaine compaction (Journal#bascule ne le remplace jamais)
+          throw new UncheckedIOException(e);
+        } finally {
+          compactionEnCours.set(false);
         }
+      }, compacteur);
+      return derniereCompaction;
+    } finally {
+      verrou.unlock();
     }
+  }
 
-  
-   public Path getDbPath() {
-    return dbPath;
+  /** Réécrit la base (voir {@link #remplaceBase}) en comptant la sauvegarde et sa durée. */
+  private void ecritBase(final Etat e, final Collection<DnsItem> enAttente) throws IOException {
+    final long debut = System.nanoTime();
+    boolean ok = false;
+    try {
+      remplaceBase(e, enAttente);
+      ok = true;
+    } finally {
+      metriques.sauvegarde.enregistre(debut, ok);
+    }
   }
 
-  
-}
+  /**
+   * Écrit une nouvelle version de la base, triée par domaine puis par nom, dans un
+   * fichier temporaire qui remplace ensuite l'ancienne de façon atomique : une
+   * interruption ne peut pas laisser une base tronquée.
+   *
+   * Les entrées viennent de la fusion du stockage, lu dans l'ordre au fur et à mesure,
+   * et des entrées du tas (ajouts depuis son ouverture et entrées en attente de fsync),
+   * triées à part : seules ces dernières sont copiées. En mode instantané ou disque, le
+   * fichier binaire est ensuite réécrit pour la nouvelle base puis rouvert
+   * ({@link #rouvreStockage}).
+   */
+  private void remplaceBase(final Etat e, final Collection<DnsItem> enAttente)
+      throws IOException {
+    final long maintenant = maintenant();
+    final List<DnsItem> tas = new ArrayList<>(e.byName.values());
+    tas.addAll(enAttente);
+    tas.removeIf(item -> item.estExpiree(maintenant));
+    tas.sort(PAR_DOMAINE);
+
+    if (dbPath.getParent() != null) {
+      Files.createDirectories(dbPath.getParent());
+    }
+    final Path tmp = dbPath.resolveSibling(dbPath.getFileName() + ".tmp");
+    try (BufferedWriter w = Files.newBufferedWriter(tmp)) {
+      final Iterator<DnsItem> entrees = fusion(e, tas);
+      while (entrees.hasNext()) {
+        w.write(entrees.next().toString());
+        w.newLine();
+      }
+    }
+    try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      c.force(true);
+    }
+    Files.move(tmp, dbPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    // Notre propre réécriture ne doit pas déclencher de rechargement
+    signatureBase = Signature.de(dbPath);
+    if (avecStockage) {
+      if (surDisque) {
+        StockageDisque.ecrit(cheminDisque(), dbPath,
+            cible -> fusion(e, tas).forEachRemaining(cible));
+      } else {
+        final List<DnsItem> entrees = new ArrayList<>(e.size());
+        fusion(e, tas).forEachRemaining(entrees::add);
+        Instantane.ecrit(cheminInstantane(), dbPath, entrees);
+      }
+      rouvreStockage();
+    }
+  }
+
+  /** Entrées d'une version dans l'ordre (domaine, nom) : son stockage fusionné avec le tas trié. */
+  private static Iterator<DnsItem> fusion(final Etat e, final List<DnsItem> tas) {
+    return e.stockage == null ? tas.iterator() : new Fusion(e.stockage.parcours(), tas.iterator(),
+        PAR_DOMAINE);
+  }
+
+  /**
+   * Ouvre le stockage qui vient d'être réécrit et en fait la version courante : les
+   * entrées qu'il contient quittent le tas, où ne restent que son annexe et les ajouts
+   * arrivés pendant la réécriture. L'ancien stockage est laissé au ramasse-miettes.
+   */
+  private void rouvreStockage() throws IOException {
+    final Stockage stockage = ouvreStockage();
+    if (stockage == null) {
+      // Base réécrite par un autre programme entre-temps : le rechargement s'en chargera
+      return;
+    }
+    verrou.lock();
+    try {
+      final Etat nouveau = avecAnnexe(stockage);
+      for (DnsItem item : etat.byName.values()) {
+        if (nouveau.nom(item.nom().value()) == null) {
+          nouveau.indexe(item);
+        }
+      }
+      etat = nouveau;
+    } finally {
+      verrou.unlock();
+    }
+    lanceExpiration();
+  }
+
+  /** Ouvre l'instantané ou le stockage sur disque s'il est à jour, null sinon. */
+  private Stockage ouvreStockage() throws IOException {
+    return surDisque
+        ? StockageDisque.ouvre(cheminDisque(), dbPath, cacheDisque, metriques)
+        : Instantane.ouvre(cheminInstantane(), dbPath);
+  }
+
+  private void attends(final CompletableFuture<Void> compaction) {
+    try {
+      compaction.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Compaction interrompue", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Erreur lors de la compaction de " + dbPath, e.getCause());
+    }
+  }
 
+  private Path cheminJournal() {
+    return dbPath.resolveSibling(dbPath.getFileName() + ".journal");
+  }
+
+  private Path cheminInstantane() {
+    return dbPath.resolveSibling(dbPath.getFileName() + ".snap");
+  }
+
+  private Path cheminDisque() {
+    return dbPath.resolveSibling(dbPath.getFileName() + ".disque");
+  }
+
+  private Path cheminSegment() {
+    return dbPath.resolveSibling(dbPath.getFileName() + ".journal.compaction");
+  }
+
+  /**
+   * Attend la fin de la compaction en cours et ferme le journal.
+   *
+   * @throws RuntimeException en cas d'erreur d'écriture
+   */
+  @Override
+  public void close() {
+    final ScheduledExecutorService roue = expirateur;
+    if (roue != null) {
+      // Pas d'interruption : elle fermerait le journal en cours d'écriture
+      roue.shutdown();
+      try {
+        roue.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    final Stockage stockage = etat.stockage;
+    if (stockage != null) {
+      stockage.close();
+    }
+    if (journal == null) {
+      return;
+    }
+    try {
+      if (compacteur != null) {
+        compacteur.shutdown();
+        compacteur.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      journal.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      throw new RuntimeException("Erreur lors de la fermeture du journal " + cheminJournal(), e);
+    }
+  }
+
+  /**
+   * Retourne le chemin du fichier de base DNS.
+   *
+   * @return chemin du fichier de base
+   */
+  public Path getDbPath() {
+    return dbPath;
+  }
+}
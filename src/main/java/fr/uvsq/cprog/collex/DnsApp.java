@@ -1,63 +1,273 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Objects;
-import java.util.Properties;
+import java.time.Duration;
 
 /**
  * Point d'entrée de l'application DNS en ligne de commande.
- * - Charge la configuration (db.path) si disponible.
- * - Instancie le service Dns.
+ * - Charge la configuration (db.path, journal.*, udp.*, tcp.*) si disponible.
+ * - Instancie le service Dns et publie ses statistiques en JMX ({@link DnsStats}).
+ * - Recharge la base quand un autre programme la modifie ({@link SurveillanceBase}).
+ * - Publie les ajouts vers des répliques, ou réplique un maître (replication.*).
  * - Boucle IHM : nextCommande -> execute -> affiche, jusqu'à Quit.
+ *
+ * Modes (premier argument) :
+ *   - (aucun)                          -> interface texte
+ *   - --batch <fichier|->              -> exécute un script de commandes (- : entrée standard)
+ *   - --udp                            -> serveur DNS UDP sur udp.adresse:udp.port
+ *   - --banc-udp [secondes] [threads]  -> mesure du serveur UDP sur la boucle locale
+ *   - --tcp                            -> serveur de commandes TCP sur tcp.adresse:tcp.port
+ *   - --banc-tcp [secondes] [connexions] [actives] [profondeur]
+ *                                      -> mesure du serveur TCP sur la boucle locale
+ *   - --banc-replication [secondes] [répliques] [ajouts/s]
+ *                                      -> retard et débit de lecture de répliques lancées
+ *                                         dans d'autres processus sur cette machine
  */
 public class DnsApp {
 
-  /** Lance la boucle applicative. */
-  public void run() {
-    
-    Properties props = loadProperties();
-
+  /**
+   * Lance la boucle applicative.
+   *
+   * @throws IOException si l'adresse de publication des ajouts ne peut pas être liée
+   */
+  public void run() throws IOException {
     
-    String dbPathStr = props.getProperty("db.path", "src/main/resources/data/dns.txt");
-    Path dbPath = Path.of(dbPathStr);
+    DnsConfig config = DnsConfig.charge();
 
     
-    Dns dns = new Dns(dbPath);
-    DnsTUI ui = new DnsTUI();
+    try (Dns dns = ouvre(config);
+         DnsStats stats = DnsStats.publie(dns);
+         SurveillanceBase surveillance = surveille(dns, config);
+         Closeable replication = replique(dns, config)) {
+      DnsTUI ui = new DnsTUI();
 
-    
-    while (true) {
-      Commande cmd = ui.nextCommande();
-      String out = cmd.execute(dns);
-      ui.affiche(out);
-      if (cmd.shouldQuit()) {
-        break;
+      
+      while (true) {
+        Commande cmd = ui.nextCommande();
+        ui.affiche(cmd, dns);
+        if (cmd.shouldQuit()) {
+          break;
+        }
       }
     }
   }
 
   /**
-   * Charge un fichier config.properties présent sur le classpath (optionnel).
-   * Clés possibles :
-   *   - db.path = chemin vers la base texte (ex: data/dns.txt)
+   * Exécute un script de commandes sans invite ({@link DnsLot}) : les réponses sont
+   * écrites sur la sortie standard, le débit obtenu sur la sortie d'erreur.
+   *
+   * @param source chemin du script, ou "-" pour l'entrée standard
+   * @throws IOException en cas d'erreur de lecture ou d'écriture
    */
-  private Properties loadProperties() {
-    Properties p = new Properties();
-    try (InputStream is = DnsApp.class.getClassLoader().getResourceAsStream("config.properties")) {
-      if (is != null) {
-        p.load(is);
-      }
-    } catch (IOException ignored) {
-      
+  public void lot(final String source) throws IOException {
+    DnsConfig config = DnsConfig.charge();
+    try (Dns dns = new Dns(config.dbPath(), config);
+         DnsLot lot = new DnsLot(dns, config.threadsLot());
+         BufferedReader entree = "-".equals(source)
+             ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+             : Files.newBufferedReader(Path.of(source))) {
+      Writer sortie = new BufferedWriter(
+          new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+      DnsLot.Resultat r = lot.execute(entree, sortie);
+      sortie.flush();
+      System.err.println(r);
+    }
+  }
+
+  /**
+   * Sert les requêtes DNS UDP jusqu'à l'arrêt du processus.
+   *
+   * @throws IOException si l'adresse d'écoute ne peut pas être liée
+   */
+  public void serveurUdp() throws IOException {
+    DnsConfig config = DnsConfig.charge();
+    try (Dns dns = ouvre(config);
+         DnsStats stats = DnsStats.publie(dns);
+         SurveillanceBase surveillance = surveille(dns, config);
+         Closeable replication = replique(dns, config);
+         DnsServeurUdp serveur = new DnsServeurUdp(dns, config.adresseUdp(), config.ttlUdp())) {
+      System.out.println("Serveur DNS UDP à l'écoute sur " + serveur.adresse());
+      serveur.run();
+    }
+  }
+
+  /**
+   * Démarre un serveur UDP sur la boucle locale et le mesure avec {@link DnsBancUdp},
+   * en demandant toutes les entrées de la base.
+   *
+   * @param duree durée de la mesure
+   * @param threads nombre de clients simultanés
+   * @throws IOException si le serveur ne peut pas démarrer
+   * @throws InterruptedException si la mesure est interrompue
+   */
+  public void bancUdp(final Duration duree, final int threads)
+      throws IOException, InterruptedException {
+    DnsConfig config = DnsConfig.charge();
+    try (Dns dns = new Dns(config.dbPath(), config);
+         DnsServeurUdp serveur = new DnsServeurUdp(dns,
+             new InetSocketAddress("127.0.0.1", 0), config.ttlUdp())) {
+      Thread fil = new Thread(serveur, "dns-udp");
+      fil.setDaemon(true);
+      fil.start();
+      System.out.println(DnsBancUdp.lance(serveur.adresse(), dns.items(), threads, duree));
+    }
+  }
+
+  /**
+   * Sert les commandes TCP jusqu'à l'arrêt du processus.
+   *
+   * @throws IOException si l'adresse d'écoute ne peut pas être liée
+   * @throws InterruptedException si l'attente est interrompue
+   */
+  public void serveurTcp() throws IOException, InterruptedException {
+    DnsConfig config = DnsConfig.charge();
+    try (Dns dns = ouvre(config);
+         DnsStats stats = DnsStats.publie(dns);
+         SurveillanceBase surveillance = surveille(dns, config);
+         Closeable replication = replique(dns, config);
+         DnsServeurTcp serveur = new DnsServeurTcp(dns, config.adresseTcp(), config.bouclesTcp())) {
+      serveur.demarre();
+      System.out.println("Serveur de commandes TCP à l'écoute sur " + serveur.adresse());
+      serveur.attends();
+    }
+  }
+
+  /**
+   * Démarre un serveur TCP sur la boucle locale et le mesure avec {@link DnsBancTcp}.
+   *
+   * @param duree durée de la phase de requêtes
+   * @param connexions nombre total de connexions ouvertes
+   * @param actives nombre de connexions actives
+   * @param profondeur nombre de commandes par rafale
+   * @throws IOException si le serveur ne peut pas démarrer
+   * @throws InterruptedException si la mesure est interrompue
+   */
+  public void bancTcp(final Duration duree, final int connexions, final int actives,
+                      final int profondeur) throws IOException, InterruptedException {
+    DnsConfig config = DnsConfig.charge();
+    try (Dns dns = new Dns(config.dbPath(), config);
+         DnsServeurTcp serveur = new DnsServeurTcp(dns,
+             new InetSocketAddress("127.0.0.1", 0), config.bouclesTcp())) {
+      serveur.demarre();
+      System.out.println(DnsBancTcp.lance(serveur.adresse(), dns.items(),
+          connexions, actives, profondeur, duree));
+    }
+  }
+
+  /**
+   * Mesure la réplication : le maître tourne dans ce processus, sur une copie en mémoire
+   * de la base, et chaque réplique dans un processus {@code --tcp} lancé avec le même
+   * classpath ({@link DnsBancReplication}).
+   *
+   * @param duree durée de la mesure
+   * @param repliques nombre de répliques
+   * @param debit ajouts par seconde sur le maître pendant la mesure
+   * @throws IOException si un serveur ou une réplique ne peut pas démarrer
+   * @throws InterruptedException si la mesure est interrompue
+   */
+  public void bancReplication(final Duration duree, final int repliques, final int debit)
+      throws IOException, InterruptedException {
+    DnsConfig config = DnsConfig.charge();
+    try (Dns dns = new Dns(config.dbPath(), config)) {
+      System.out.println(DnsBancReplication.lance(dns.items(), repliques, debit, duree));
+    }
+  }
+
+  /**
+   * Ouvre la base : celle du fichier configuré, ou une base vide pour une réplique. Les
+   * lignes de journal illisibles, ignorées, sont signalées sur la sortie d'erreur.
+   */
+  private static Dns ouvre(final DnsConfig config) {
+    final Dns dns = new Dns(config.maitreReplication() != null ? null : config.dbPath(), config);
+    for (String raison : dns.lignesIgnorees()) {
+      System.err.println("ERREUR : Ligne de journal ignorée : " + raison);
+    }
+    return dns;
+  }
+
+  /**
+   * Démarre la réplication si la configuration la demande : réplique d'un maître, ou
+   * publication des ajouts. Les connexions au maître sont signalées sur la sortie d'erreur.
+   *
+   * @return la réplication, ou null si elle n'est pas demandée
+   * @throws IOException si l'adresse de publication ne peut pas être liée
+   */
+  private static Closeable replique(final Dns dns, final DnsConfig config) throws IOException {
+    if (config.maitreReplication() != null) {
+      return new ReplicationSuiveur(dns, config.maitreReplication(), System.err::println);
+    }
+    if (config.ecouteReplication() != null) {
+      final ReplicationMaitre maitre = new ReplicationMaitre(dns, config.ecouteReplication(),
+          config.historiqueReplication());
+      System.err.println("Ajouts publiés pour les répliques sur " + maitre.adresse());
+      return maitre;
+    }
+    return null;
+  }
+
+  /**
+   * Démarre la surveillance de la base si la configuration la demande. Les rechargements
+   * sont signalés sur la sortie d'erreur, à part des réponses aux commandes.
+   *
+   * @return la surveillance, ou null si elle n'est pas demandée ou impossible
+   */
+  private static SurveillanceBase surveille(final Dns dns, final DnsConfig config) {
+    if (!config.surveillance() || dns.getDbPath() == null) {
+      return null;
+    }
+    try {
+      return new SurveillanceBase(dns, System.err::println);
+    } catch (IOException e) {
+      System.err.println("ERREUR : Surveillance de la base impossible : " + e.getMessage());
+      return null;
     }
-    return p;
   }
 
   /** Méthode main : lance l'application. */
-  public static void main(String[] args) {
-    new DnsApp().run();
+  public static void main(String[] args) throws Exception {
+    final String mode = args.length > 0 ? args[0] : "";
+    switch (mode) {
+      case "--batch":
+        if (args.length != 2) {
+          System.err.println("Usage : DnsApp --batch <fichier|->");
+          return;
+        }
+        new DnsApp().lot(args[1]);
+        break;
+      case "--udp":
+        new DnsApp().serveurUdp();
+        break;
+      case "--banc-udp":
+        new DnsApp().bancUdp(Duration.ofSeconds(args.length > 1 ? Integer.parseInt(args[1]) : 10),
+            args.length > 2 ? Integer.parseInt(args[2]) : 4);
+        break;
+      case "--tcp":
+        new DnsApp().serveurTcp();
+        break;
+      case "--banc-tcp":
+        new DnsApp().bancTcp(Duration.ofSeconds(args.length > 1 ? Integer.parseInt(args[1]) : 10),
+            args.length > 2 ? Integer.parseInt(args[2]) : 10_000,
+            args.length > 3 ? Integer.parseInt(args[3]) : 4,
+            args.length > 4 ? Integer.parseInt(args[4]) : 16);
+        break;
+      case "--banc-replication":
+        new DnsApp().bancReplication(
+            Duration.ofSeconds(args.length > 1 ? Integer.parseInt(args[1]) : 10),
+            args.length > 2 ? Integer.parseInt(args[2]) : 2,
+            args.length > 3 ? Integer.parseInt(args[3]) : 10_000);
+        break;
+      default:
+        new DnsApp().run();
+    }
   }
 }
-
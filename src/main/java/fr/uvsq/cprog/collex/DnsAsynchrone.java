@@ -0,0 +1,237 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exécution asynchrone de commandes (même syntaxe que {@link DnsTUI}) sur un groupe de
+ * threads : chaque soumission rend aussitôt un {@link CompletableFuture} de la réponse,
+ * ce qui permet à un frontal d'enchaîner les requêtes sans attendre les réponses.
+ *
+ * Regroupement : une commande en lecture seule ({@link Commande#lectureSeule()}) dont
+ * la ligne est identique à celle d'une commande soumise et pas encore commencée ne
+ * s'exécute pas une seconde fois : les deux reçoivent la même réponse. Une commande
+ * déjà commencée n'est jamais rejointe, si bien qu'une réponse tient compte de tous
+ * les ajouts acquittés avant la soumission. Sous une rafale de requêtes identiques
+ * (un nom très demandé), la file ne contient ainsi qu'une exécution par ligne.
+ *
+ * File bornée : au plus {@code capacite} commandes attendent ou s'exécutent. Au-delà,
+ * {@link #soumet} attend qu'une place se libère et {@link #offre} refuse la commande ;
+ * une commande qui rejoint une exécution en attente ne prend pas de place.
+ *
+ * Les commandes soumises s'exécutent en parallèle, dans n'importe quel ordre : un
+ * client qui veut qu'une lecture suive un ajout attend la réponse de l'ajout. Une
+ * commande qui lève une exception répond "ERREUR : " suivi de son message.
+ */
+public final class DnsAsynchrone implements AutoCloseable {
+
+  private final Dns dns;
+  private final ExecutorService executeur;
+  private final Semaphore places;
+  private final int capacite;
+  private final boolean regroupe;
+
+  /** Commandes en lecture seule soumises et pas encore commencées, par ligne. */
+  private final Map<String, CompletableFuture<String>> enAttente = new ConcurrentHashMap<>();
+
+  private final LongAdder executees = new LongAdder();
+  private final LongAdder regroupees = new LongAdder();
+
+  /**
+   * Prépare l'exécution asynchrone, avec regroupement des lectures identiques.
+   *
+   * @param dns la base
+   * @param threads nombre de threads d'exécution
+   * @param capacite nombre maximal de commandes en attente ou en cours
+   */
+  public DnsAsynchrone(final Dns dns, final int threads, final int capacite) {
+    this(dns, threads, capacite, true);
+  }
+
+  /**
+   * Prépare l'exécution asynchrone.
+   *
+   * @param dns la base
+   * @param threads nombre de threads d'exécution
+   * @param capacite nombre maximal de commandes en attente ou en cours
+   * @param regroupe true pour regrouper les lectures identiques en attente
+   */
+  public DnsAsynchrone(final Dns dns, final int threads, final int capacite,
+                       final boolean regroupe) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Nombre de threads invalide : " + threads);
+    }
+    if (capacite < 1) {
+      throw new IllegalArgumentException("Capacité invalide : " + capacite);
+    }
+    this.dns = dns;
+    this.capacite = capacite;
+    this.places = new Semaphore(capacite);
+    this.regroupe = regroupe;
+    this.executeur = Executors.newFixedThreadPool(threads, r -> {
+      final Thread t = new Thread(r, "dns-async");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Soumet une ligne de commande, en attendant une place dans la file si elle est pleine.
+   *
+   * @param ligne la commande
+   * @return la réponse à venir, sans fin de ligne finale
+   * @throws RuntimeException si l'attente est interrompue
+   */
+  public CompletableFuture<String> soumet(final String ligne) {
+    return soumet(ligne, true);
+  }
+
+  /**
+   * Soumet une ligne de commande sans attendre : la commande est refusée si la file est
+   * pleine, et le frontal peut alors cesser de lire ses requêtes.
+   *
+   * @param ligne la commande
+   * @return la réponse à venir, sans fin de ligne finale, ou null si la file est pleine
+   */
+  public CompletableFuture<String> offre(final String ligne) {
+    return soumet(ligne, false);
+  }
+
+  /**
+   * Soumet une commande déjà construite, en attendant une place dans la file si elle est
+   * pleine. Faute de ligne à comparer, elle n'est jamais regroupée.
+   *
+   * @param cmd la commande
+   * @return la réponse à venir
+   * @throws RuntimeException si l'attente est interrompue
+   */
+  public CompletableFuture<String> soumet(final Commande cmd) {
+    return lance(null, cmd, true);
+  }
+
+  private CompletableFuture<String> soumet(final String ligne, final boolean attend) {
+    final String cle = ligne.trim();
+    if (regroupe) {
+      final CompletableFuture<String> existante = enAttente.get(cle);
+      if (existante != null) {
+        regroupees.increment();
+        return existante.copy();
+      }
+    }
+    final Commande cmd = DnsTUI.analyse(cle);
+    return lance(regroupe && cmd.lectureSeule() ? cle : null, cmd, attend);
+  }
+
+  /**
+   * Place une commande dans la file.
+   *
+   * @param cle ligne sous laquelle la commande peut être rejointe, ou null
+   * @param cmd la commande
+   * @param attend true pour attendre une place, false pour refuser si la file est pleine
+   * @return la réponse à venir, ou null si la commande est refusée
+   */
+  private CompletableFuture<String> lance(final String cle, final Commande cmd,
+                                          final boolean attend) {
+    if (!prendPlace(attend)) {
+      return null;
+    }
+    final CompletableFuture<String> reponse = new CompletableFuture<>();
+    if (cle != null) {
+      final CompletableFuture<String> existante = enAttente.putIfAbsent(cle, reponse);
+      if (existante != null) {
+        // Soumise entre-temps par un autre thread
+        places.release();
+        regroupees.increment();
+        return existante.copy();
+      }
+    }
+    try {
+      executeur.execute(() -> {
+        if (cle != null) {
+          // Commencée : une soumission suivante ne doit plus la rejoindre
+          enAttente.remove(cle, reponse);
+        }
+        String r = null;
+        try {
+          r = repond(cmd);
+        } finally {
+          // Compteurs et place mis à jour avant que l'appelant ne voie la réponse
+          executees.increment();
+          places.release();
+          reponse.complete(r);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      if (cle != null) {
+        enAttente.remove(cle, reponse);
+      }
+      places.release();
+      reponse.complete("ERREUR : exécution arrêtée");
+    }
+    return reponse.copy();
+  }
+
+  private boolean prendPlace(final boolean attend) {
+    if (!attend) {
+      return places.tryAcquire();
+    }
+    try {
+      places.acquire();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Soumission interrompue", e);
+    }
+  }
+
+  /** Exécute une commande et rend sa réponse, ou le message de son exception. */
+  private String repond(final Commande cmd) {
+    final StringBuilder r = new StringBuilder();
+    try {
+      cmd.execute(dns, r);
+      return r.toString();
+    } catch (RuntimeException | IOException e) {
+      return "ERREUR : " + e.getMessage();
+    }
+  }
+
+  /**
+   * Nombre de commandes exécutées.
+   *
+   * @return commandes exécutées depuis la création
+   */
+  public long executees() {
+    return executees.sum();
+  }
+
+  /**
+   * Nombre de soumissions servies par une exécution déjà en attente.
+   *
+   * @return soumissions regroupées depuis la création
+   */
+  public long regroupees() {
+    return regroupees.sum();
+  }
+
+  /**
+   * Nombre de commandes en attente ou en cours.
+   *
+   * @return occupation de la file
+   */
+  public int enCours() {
+    return capacite - places.availablePermits();
+  }
+
+  /** Arrête les threads d'exécution après les commandes déjà soumises. */
+  @Override
+  public void close() {
+    executeur.shutdown();
+  }
+}
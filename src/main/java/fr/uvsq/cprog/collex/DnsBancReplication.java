@@ -0,0 +1,224 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mesure de la réplication sur une seule machine. Le maître tourne dans ce processus,
+ * sur une copie en mémoire de la base ; chaque réplique est un processus
+ * {@code DnsApp --tcp} lancé avec le même classpath et {@code -Ddns.replication.maitre}.
+ *
+ * Une fois les répliques à jour, un thread ajoute des entrées au maître au débit demandé
+ * pendant que {@link DnsBancTcp} interroge chaque réplique en lecture. À la fin, la
+ * commande stats de chaque réplique donne le retard de ses changements (de la validation
+ * sur le maître à l'application), ligne "replication".
+ */
+public final class DnsBancReplication {
+
+  /** Nombre de commandes par rafale des clients de lecture. */
+  private static final int PROFONDEUR = 16;
+
+  /** Délai maximal d'attente d'une réplique (démarrage, rattrapage). */
+  private static final long ATTENTE_MAX_MS = 60_000;
+
+  private DnsBancReplication() {
+  }
+
+  /** Résultat d'une campagne de mesure. */
+  public record Resultat(long ajouts, double secondes, List<String> repliques) {
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder(String.format(
+          "Maître : %,d ajouts en %.1f s (%,.0f ajouts/s)", ajouts, secondes, ajouts / secondes));
+      for (int i = 0; i < repliques.size(); i++) {
+        sb.append(String.format("%nRéplique %d : %s", i + 1, repliques.get(i)));
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Mesure la réplication d'une base.
+   *
+   * @param base entrées initiales du maître
+   * @param repliques nombre de processus répliques
+   * @param debit ajouts par seconde sur le maître
+   * @param duree durée de la mesure
+   * @return débit d'ajout, puis débit de lecture et retard de chaque réplique
+   * @throws IOException si un processus ou une connexion échoue
+   * @throws InterruptedException si la mesure est interrompue
+   */
+  public static Resultat lance(final List<DnsItem> base, final int repliques, final int debit,
+                               final Duration duree) throws IOException, InterruptedException {
+    if (base.isEmpty() || repliques < 1 || debit < 1) {
+      throw new IllegalArgumentException("Base vide, ou nombre de répliques ou débit invalide");
+    }
+    try (Dns maitre = new Dns(null)) {
+      maitre.addItems(base);
+      final List<Process> processus = new ArrayList<>();
+      try (ReplicationMaitre publication = new ReplicationMaitre(maitre,
+          new InetSocketAddress("127.0.0.1", 0), 1 << 20)) {
+        final List<InetSocketAddress> adresses = new ArrayList<>();
+        for (int i = 0; i < repliques; i++) {
+          final Process p = demarre(publication.adresse());
+          processus.add(p);
+          adresses.add(adresse(p));
+        }
+        for (InetSocketAddress a : adresses) {
+          attends(a, "Entrées : " + String.format("%,d", maitre.size()));
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final LongAdder ajouts = new LongAdder();
+        final Thread ecrivain = new Thread(() -> ecrit(maitre, debit, stop, ajouts),
+            "dns-banc-replication");
+        final List<String> lectures = new ArrayList<>();
+        final List<Thread> clients = new ArrayList<>();
+        for (InetSocketAddress a : adresses) {
+          final int k = lectures.size();
+          lectures.add(null);
+          clients.add(new Thread(() -> {
+            try {
+              lectures.set(k, DnsBancTcp.lance(a, base, 4, 4, PROFONDEUR, duree).toString());
+            } catch (IOException e) {
+              lectures.set(k, "ERREUR : " + e.getMessage());
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }, "dns-banc-replique-" + k));
+        }
+        final long t0 = System.nanoTime();
+        ecrivain.start();
+        for (Thread c : clients) {
+          c.start();
+        }
+        for (Thread c : clients) {
+          c.join();
+        }
+        stop.set(true);
+        ecrivain.join();
+        final double secondes = (System.nanoTime() - t0) / 1e9;
+
+        final List<String> r = new ArrayList<>();
+        final String fin = String.format("changement %,d",
+            maitre.metriques().sequenceReplication());
+        for (int i = 0; i < adresses.size(); i++) {
+          final String stats = attends(adresses.get(i), fin);
+          r.add(lectures.get(i) + " ; retard : " + retard(stats));
+        }
+        return new Resultat(ajouts.sum(), secondes, r);
+      } finally {
+        // Répliques arrêtées avant le maître : elles ne signalent pas sa disparition
+        for (Process p : processus) {
+          p.destroy();
+          p.waitFor(5, TimeUnit.SECONDS);
+        }
+      }
+    }
+  }
+
+  /** Lance un processus réplique servant les commandes TCP sur un port libre. */
+  private static Process demarre(final InetSocketAddress maitre) throws IOException {
+    final String java = ProcessHandle.current().info().command().orElse("java");
+    return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        "-Ddns.replication.maitre=127.0.0.1:" + maitre.getPort(),
+        "-Ddns.tcp.adresse=127.0.0.1", "-Ddns.tcp.port=0",
+        DnsApp.class.getName(), "--tcp")
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  /** Lit l'adresse annoncée par un processus réplique au démarrage de son serveur TCP. */
+  private static InetSocketAddress adresse(final Process p) throws IOException {
+    final BufferedReader sortie = new BufferedReader(
+        new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+    String ligne;
+    while ((ligne = sortie.readLine()) != null) {
+      if (ligne.startsWith("Serveur de commandes TCP")) {
+        return new InetSocketAddress("127.0.0.1",
+            Integer.parseInt(ligne.substring(ligne.lastIndexOf(':') + 1).trim()));
+      }
+    }
+    throw new IOException("La réplique s'est arrêtée au démarrage (code " + p.exitValue() + ")");
+  }
+
+  /**
+   * Ajoute des entrées au maître au débit demandé, dans 100.64.0.0/10, jusqu'à l'arrêt.
+   */
+  private static void ecrit(final Dns maitre, final int debit, final AtomicBoolean stop,
+                            final LongAdder ajouts) {
+    final long intervalle = 1_000_000_000L / debit;
+    long prochain = System.nanoTime();
+    for (int i = 0; !stop.get(); i++) {
+      try {
+        maitre.addItem(new AdresseIP(0x64400000 + (i & 0x3FFFFF)),
+            NomMachine.deConfiance("r" + i + ".replication.banc"));
+        ajouts.increment();
+      } catch (RuntimeException e) {
+        // Adresse déjà prise : on passe à la suivante
+      }
+      prochain += intervalle;
+      final long attente = prochain - System.nanoTime();
+      if (attente > 0) {
+        LockSupport.parkNanos(attente);
+      }
+    }
+  }
+
+  /**
+   * Interroge les statistiques d'une réplique jusqu'à ce qu'elles contiennent un texte.
+   *
+   * @return le dernier compte rendu de la commande stats
+   */
+  private static String attends(final InetSocketAddress replique, final String attendu)
+      throws IOException, InterruptedException {
+    final long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ATTENTE_MAX_MS);
+    try (Socket s = new Socket()) {
+      s.connect(replique);
+      final OutputStream out = s.getOutputStream();
+      final BufferedReader in = new BufferedReader(
+          new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      while (true) {
+        out.write("stats\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        final StringBuilder stats = new StringBuilder();
+        String ligne;
+        while ((ligne = in.readLine()) != null && !ligne.isEmpty()) {
+          stats.append(ligne).append('\n');
+        }
+        if (stats.indexOf(attendu) >= 0) {
+          return stats.toString();
+        }
+        if (ligne == null || System.nanoTime() > limite) {
+          throw new IOException("Réplique " + replique + " pas à jour (" + attendu + ")");
+        }
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  /** Extrait les percentiles de l'opération "replication" d'un compte rendu stats. */
+  private static String retard(final String stats) {
+    for (String ligne : stats.split("\n")) {
+      final String[] t = ligne.trim().split("\\s+");
+      if (t.length == 7 && "replication".equals(t[0])) {
+        return String.format("%s changements, p50 %s µs, p99 %s µs, p999 %s µs",
+            t[1], t[4], t[5], t[6]);
+      }
+    }
+    return "aucun changement";
+  }
+}
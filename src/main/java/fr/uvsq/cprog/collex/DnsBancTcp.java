@@ -0,0 +1,134 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client de charge pour {@link DnsServeurTcp}.
+ * Ouvre d'abord un grand nombre de connexions, qui restent ensuite inactives,
+ * puis fait travailler quelques-unes d'entre elles en envoyant des rafales de
+ * commandes sans attendre les réponses (pipelining).
+ */
+public final class DnsBancTcp {
+
+  private DnsBancTcp() {
+  }
+
+  /** Résultat d'une campagne de mesure. */
+  public record Resultat(int connexions, double secondesConnexion,
+                         long requetes, double secondes) {
+
+    @Override
+    public String toString() {
+      return String.format("%,d connexions en %.2f s (%,.0f connexions/s) ; "
+              + "%,d requêtes en %.1f s (%,.0f requêtes/s)",
+          connexions, secondesConnexion, connexions / secondesConnexion,
+          requetes, secondes, requetes / secondes);
+    }
+  }
+
+  /**
+   * Mesure un serveur.
+   *
+   * @param serveur adresse du serveur
+   * @param items entrées à demander (par nom et par adresse en alternance)
+   * @param connexions nombre total de connexions ouvertes
+   * @param actives nombre de connexions qui envoient des requêtes, une par thread
+   * @param profondeur nombre de commandes envoyées par rafale
+   * @param duree durée de la phase de requêtes
+   * @return débits de connexion et de requêtes
+   * @throws IOException si une connexion échoue
+   * @throws InterruptedException si la mesure est interrompue
+   */
+  public static Resultat lance(final InetSocketAddress serveur, final List<DnsItem> items,
+                               final int connexions, final int actives, final int profondeur,
+                               final Duration duree)
+      throws IOException, InterruptedException {
+    if (items.isEmpty() || actives > connexions) {
+      throw new IllegalArgumentException("Aucune entrée à demander ou trop de connexions actives");
+    }
+    final List<Socket> sockets = new ArrayList<>(connexions);
+    try {
+      final long t0 = System.nanoTime();
+      for (int i = 0; i < connexions; i++) {
+        final Socket s = new Socket();
+        s.setTcpNoDelay(true);
+        s.connect(serveur);
+        sockets.add(s);
+      }
+      final double secondesConnexion = (System.nanoTime() - t0) / 1e9;
+
+      final AtomicBoolean stop = new AtomicBoolean();
+      final LongAdder requetes = new LongAdder();
+      final List<Thread> fils = new ArrayList<>();
+      for (int t = 0; t < actives; t++) {
+        final Socket s = sockets.get(t);
+        final String rafale = rafale(items, t * profondeur, profondeur);
+        fils.add(new Thread(() -> travaille(s, rafale, profondeur, stop, requetes),
+            "dns-banc-tcp-" + t));
+      }
+      final long t1 = System.nanoTime();
+      for (Thread f : fils) {
+        f.start();
+      }
+      Thread.sleep(duree.toMillis());
+      stop.set(true);
+      for (Thread f : fils) {
+        f.join();
+      }
+      final double secondes = (System.nanoTime() - t1) / 1e9;
+      return new Resultat(connexions, secondesConnexion, requetes.sum(), secondes);
+    } finally {
+      for (Socket s : sockets) {
+        s.close();
+      }
+    }
+  }
+
+  /** Construit une rafale de commandes, alternant recherches par nom et par adresse. */
+  private static String rafale(final List<DnsItem> items, final int debut, final int n) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      final DnsItem item = items.get((debut + i) % items.size());
+      sb.append(i % 2 == 0 ? item.nom().value() : item.ip().value()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static void travaille(final Socket s, final String rafale, final int profondeur,
+                                final AtomicBoolean stop, final LongAdder requetes) {
+    final byte[] octets = rafale.getBytes(StandardCharsets.UTF_8);
+    try {
+      final OutputStream out = s.getOutputStream();
+      final BufferedReader in = new BufferedReader(
+          new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      while (!stop.get()) {
+        out.write(octets);
+        out.flush();
+        int recues = 0;
+        while (recues < profondeur) {
+          final String ligne = in.readLine();
+          if (ligne == null) {
+            throw new IOException("Connexion fermée par le serveur");
+          }
+          if (ligne.isEmpty()) {
+            recues++;
+          }
+        }
+        requetes.add(profondeur);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Erreur du client de charge TCP", e);
+    }
+  }
+}
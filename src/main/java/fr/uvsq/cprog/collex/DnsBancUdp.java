@@ -0,0 +1,205 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client de charge pour {@link DnsServeurUdp} : envoie en boucle des requêtes A
+ * ou AAAA (et PTR) depuis plusieurs threads et mesure le débit et la latence.
+ * Chaque thread attend sa réponse avant d'envoyer la requête suivante.
+ */
+public final class DnsBancUdp {
+
+  /** Délai au-delà duquel une requête est comptée comme perdue. */
+  private static final int DELAI_MS = 1000;
+
+  /** Nombre maximal de latences conservées par thread pour les percentiles. */
+  private static final int ECHANTILLONS = 1 << 20;
+
+  private DnsBancUdp() {
+  }
+
+  /** Résultat d'une campagne de mesure. */
+  public record Resultat(long reponses, long pertes, double secondes,
+                         long p50Micros, long p99Micros) {
+
+    /**
+     * Débit obtenu.
+     *
+     * @return réponses par seconde
+     */
+    public double qps() {
+      return reponses / secondes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%,d réponses, %,d pertes en %.1f s : %,.0f requêtes/s, "
+          + "p50 = %d µs, p99 = %d µs", reponses, pertes, secondes, qps(), p50Micros, p99Micros);
+    }
+  }
+
+  /**
+   * Interroge un serveur pendant une durée donnée.
+   *
+   * @param serveur adresse du serveur
+   * @param items entrées à demander (par nom, puis par adresse en alternance)
+   * @param threads nombre de clients simultanés
+   * @param duree durée de la mesure
+   * @return débit et percentiles de latence
+   * @throws IOException si un socket ne peut pas être ouvert
+   * @throws InterruptedException si l'attente des clients est interrompue
+   */
+  public static Resultat lance(final InetSocketAddress serveur, final List<DnsItem> items,
+                               final int threads, final Duration duree)
+      throws IOException, InterruptedException {
+    if (items.isEmpty()) {
+      throw new IllegalArgumentException("Aucune entrée à demander");
+    }
+    final List<byte[]> requetes = new ArrayList<>();
+    for (DnsItem item : items) {
+      requetes.add(requete(item.nom().value(),
+          item.ip().estIpv6() ? DnsServeurUdp.TYPE_AAAA : DnsServeurUdp.TYPE_A));
+      requetes.add(requete(item.ip().nomInverse(), DnsServeurUdp.TYPE_PTR));
+    }
+
+    final AtomicBoolean stop = new AtomicBoolean();
+    final Client[] clients = new Client[threads];
+    final Thread[] fils = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      clients[t] = new Client(serveur, requetes, t);
+      final Client c = clients[t];
+      fils[t] = new Thread(() -> c.boucle(stop), "dns-banc-" + t);
+    }
+    final long debut = System.nanoTime();
+    for (Thread f : fils) {
+      f.start();
+    }
+    Thread.sleep(duree.toMillis());
+    stop.set(true);
+    for (Thread f : fils) {
+      f.join();
+    }
+    final double secondes = (System.nanoTime() - debut) / 1e9;
+
+    long reponses = 0;
+    long pertes = 0;
+    int n = 0;
+    for (Client c : clients) {
+      reponses += c.reponses;
+      pertes += c.pertes;
+      n += c.echantillons;
+    }
+    final long[] latences = new long[n];
+    int k = 0;
+    for (Client c : clients) {
+      System.arraycopy(c.latences, 0, latences, k, c.echantillons);
+      k += c.echantillons;
+    }
+    Arrays.sort(latences);
+    return new Resultat(reponses, pertes, secondes,
+        percentile(latences, 0.50) / 1000, percentile(latences, 0.99) / 1000);
+  }
+
+  private static long percentile(final long[] tries, final double p) {
+    if (tries.length == 0) {
+      return 0;
+    }
+    return tries[(int) Math.min(tries.length - 1, Math.ceil(p * tries.length) - 1)];
+  }
+
+  /**
+   * Encode une requête DNS récursive à une question, d'identifiant 0.
+   *
+   * @param nom le nom demandé
+   * @param type le type demandé (A, PTR...)
+   * @return le message encodé
+   */
+  static byte[] requete(final String nom, final int type) {
+    final ByteBuffer b = ByteBuffer.allocate(DnsServeurUdp.TAILLE_MAX);
+    b.putShort((short) 0);
+    b.putShort((short) 0x0100);
+    b.putShort((short) 1);
+    b.putShort((short) 0);
+    b.putShort((short) 0);
+    b.putShort((short) 0);
+    DnsServeurUdp.ecritNom(b, nom);
+    b.putShort((short) type);
+    b.putShort((short) DnsServeurUdp.CLASSE_IN);
+    return Arrays.copyOf(b.array(), b.position());
+  }
+
+  /** Un client : un socket, une requête en vol à la fois. */
+  private static final class Client {
+    private final InetSocketAddress serveur;
+    private final List<byte[]> requetes;
+    private final int decalage;
+    private final long[] latences = new long[ECHANTILLONS];
+    private int echantillons;
+    private long reponses;
+    private long pertes;
+
+    Client(final InetSocketAddress serveur, final List<byte[]> requetes, final int decalage) {
+      this.serveur = serveur;
+      this.requetes = requetes;
+      this.decalage = decalage;
+    }
+
+    void boucle(final AtomicBoolean stop) {
+      final byte[] recu = new byte[DnsServeurUdp.TAILLE_MAX];
+      final DatagramPacket reponse = new DatagramPacket(recu, recu.length);
+      try (DatagramSocket socket = new DatagramSocket()) {
+        socket.setSoTimeout(DELAI_MS);
+        socket.connect(serveur);
+        int i = decalage;
+        short id = 0;
+        while (!stop.get()) {
+          final byte[] q = requetes.get(i % requetes.size()).clone();
+          id++;
+          q[0] = (byte) (id >>> 8);
+          q[1] = (byte) id;
+          final long t0 = System.nanoTime();
+          socket.send(new DatagramPacket(q, q.length));
+          if (attend(socket, reponse, id)) {
+            final long dt = System.nanoTime() - t0;
+            reponses++;
+            if (echantillons < latences.length) {
+              latences[echantillons++] = dt;
+            }
+          } else {
+            pertes++;
+          }
+          i++;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Erreur du client de charge UDP", e);
+      }
+    }
+
+    /** Attend la réponse portant l'identifiant donné ; false si le délai expire. */
+    private static boolean attend(final DatagramSocket socket, final DatagramPacket reponse,
+                                  final short id) throws IOException {
+      try {
+        while (true) {
+          reponse.setLength(reponse.getData().length);
+          socket.receive(reponse);
+          final byte[] d = reponse.getData();
+          if (reponse.getLength() >= 2 && d[0] == (byte) (id >>> 8) && d[1] == (byte) id) {
+            return true;
+          }
+        }
+      } catch (SocketTimeoutException e) {
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,303 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Configuration de l'application DNS, lue dans un fichier de propriétés.
+ * Chaque clé absente prend sa valeur par défaut.
+ *
+ * Clés reconnues :
+ *   - db.path                   = chemin vers la base texte
+ *   - db.surveillance           = true pour recharger la base modifiée par un autre programme
+ *   - journal.fsync             = true pour forcer chaque ajout sur disque (commit groupé)
+ *   - journal.compaction.seuil  = nombre d'ajouts journalisés déclenchant une compaction
+ *   - stockage                  = memoire (tout dans le tas), instantane (fichier projeté),
+ *                                 disque (fichier lu par blocs, tas borné) ou colonnes
+ *                                 (tableaux primitifs dans le tas, grandes bases)
+ *   - disque.cache              = nombre d'entrées gardées en cache en mode disque
+ *   - udp.adresse, udp.port     = adresse d'écoute du serveur DNS UDP
+ *   - udp.ttl                   = durée de vie (s) annoncée dans les réponses DNS
+ *   - tcp.adresse, tcp.port     = adresse d'écoute du serveur de commandes TCP
+ *   - tcp.boucles               = nombre de boucles d'événements TCP (0 : une par cœur)
+ *   - lot.threads               = nombre de threads du mode script (0 : un par cœur)
+ *   - replication.ecoute        = hôte:port où publier les ajouts vers les répliques
+ *   - replication.historique    = nombre de changements gardés pour les répliques en retard
+ *   - replication.maitre        = hôte:port du maître dont cette instance est une réplique
+ *   - partitions.file           = ajouts en attente par partition d'une base partitionnée
+ *
+ * Une propriété système "dns.cle" (ex : -Ddns.tcp.port=0) remplace la clé du fichier,
+ * ce qui permet de lancer plusieurs instances d'un même classpath.
+ */
+public final class DnsConfig {
+
+  private final Properties props;
+
+  private DnsConfig(final Properties props) {
+    this.props = props;
+  }
+
+  /**
+   * Configuration sans aucune propriété : toutes les valeurs par défaut.
+   *
+   * @return la configuration par défaut
+   */
+  public static DnsConfig parDefaut() {
+    return new DnsConfig(new Properties());
+  }
+
+  /**
+   * Configuration construite à partir de propriétés déjà chargées.
+   *
+   * @param props les propriétés (copiées)
+   * @return la configuration
+   */
+  public static DnsConfig depuis(final Properties props) {
+    final Properties copie = new Properties();
+    copie.putAll(props);
+    return new DnsConfig(copie);
+  }
+
+  /**
+   * Charge le fichier config.properties présent sur le classpath (optionnel), puis les
+   * propriétés système préfixées par "dns.".
+   *
+   * @return la configuration lue, ou la configuration par défaut si le fichier est absent
+   */
+  public static DnsConfig charge() {
+    final Properties p = new Properties();
+    try (InputStream is = DnsConfig.class.getClassLoader().getResourceAsStream("config.properties")) {
+      if (is != null) {
+        p.load(is);
+      }
+    } catch (IOException ignored) {
+      // Fichier illisible : on garde les valeurs par défaut
+    }
+    for (String cle : System.getProperties().stringPropertyNames()) {
+      if (cle.startsWith("dns.")) {
+        p.setProperty(cle.substring(4), System.getProperty(cle));
+      }
+    }
+    return new DnsConfig(p);
+  }
+
+  /**
+   * Retourne le chemin de la base texte.
+   *
+   * @return chemin du fichier de base
+   */
+  public Path dbPath() {
+    return Path.of(props.getProperty("db.path", "src/main/resources/data/dns.txt"));
+  }
+
+  /**
+   * Indique si la base doit être rechargée quand un autre programme la modifie
+   * ({@link SurveillanceBase}).
+   *
+   * @return true si la base est surveillée
+   */
+  public boolean surveillance() {
+    return Boolean.parseBoolean(props.getProperty("db.surveillance", "true").trim());
+  }
+
+  /**
+   * Indique si chaque ajout journalisé doit être forcé sur disque avant d'être acquitté.
+   *
+   * @return true si fsync est demandé
+   */
+  public boolean journalFsync() {
+    return Boolean.parseBoolean(props.getProperty("journal.fsync", "false").trim());
+  }
+
+  /**
+   * Nombre d'enregistrements du journal au-delà duquel une compaction est lancée.
+   *
+   * @return seuil de compaction (strictement positif)
+   */
+  public int seuilCompaction() {
+    return entier("journal.compaction.seuil", 1000, 1);
+  }
+
+  /**
+   * Indique si la base est servie depuis un instantané binaire projeté en mémoire
+   * ({@code stockage = instantane}) plutôt qu'entièrement chargée dans le tas
+   * ({@code stockage = memoire}, par défaut).
+   *
+   * @return true pour le mode instantané
+   */
+  public boolean instantane() {
+    return "instantane".equals(stockage());
+  }
+
+  /**
+   * Indique si la base est servie depuis un fichier lu par blocs, dont seuls un index
+   * clairsemé et les entrées récemment lues restent dans le tas ({@code stockage = disque}).
+   *
+   * @return true pour le mode disque
+   */
+  public boolean disque() {
+    return "disque".equals(stockage());
+  }
+
+  /**
+   * Indique si la base est rangée dans le tas en colonnes de tableaux primitifs, sans
+   * objet par entrée ({@code stockage = colonnes}).
+   *
+   * @return true pour le mode colonnes
+   */
+  public boolean colonnes() {
+    return "colonnes".equals(stockage());
+  }
+
+  /**
+   * Nombre d'entrées gardées en cache en mode disque.
+   *
+   * @return taille du cache (0 : pas de cache)
+   */
+  public int cacheDisque() {
+    return entier("disque.cache", 100_000, 0);
+  }
+
+  /** Mode de stockage, vérifié. */
+  private String stockage() {
+    final String mode = props.getProperty("stockage", "memoire").trim();
+    switch (mode) {
+      case "memoire":
+      case "instantane":
+      case "disque":
+      case "colonnes":
+        return mode;
+      default:
+        throw new IllegalArgumentException("Valeur inconnue pour stockage : " + mode);
+    }
+  }
+
+  /**
+   * Adresse d'écoute du serveur DNS UDP.
+   *
+   * @return adresse et port
+   */
+  public InetSocketAddress adresseUdp() {
+    return new InetSocketAddress(props.getProperty("udp.adresse", "127.0.0.1").trim(),
+        entier("udp.port", 5353, 0));
+  }
+
+  /**
+   * Durée de vie annoncée dans les réponses DNS.
+   *
+   * @return TTL en secondes
+   */
+  public int ttlUdp() {
+    return entier("udp.ttl", 300, 0);
+  }
+
+  /**
+   * Adresse d'écoute du serveur de commandes TCP.
+   *
+   * @return adresse et port
+   */
+  public InetSocketAddress adresseTcp() {
+    return new InetSocketAddress(props.getProperty("tcp.adresse", "127.0.0.1").trim(),
+        entier("tcp.port", 5354, 0));
+  }
+
+  /**
+   * Nombre de boucles d'événements du serveur TCP.
+   *
+   * @return nombre de boucles (au moins 1)
+   */
+  public int bouclesTcp() {
+    final int n = entier("tcp.boucles", 0, 0);
+    return n == 0 ? Runtime.getRuntime().availableProcessors() : n;
+  }
+
+  /**
+   * Nombre de threads exécutant les commandes en lecture seule du mode script ({@link DnsLot}).
+   *
+   * @return nombre de threads (au moins 1)
+   */
+  public int threadsLot() {
+    final int n = entier("lot.threads", 0, 0);
+    return n == 0 ? Runtime.getRuntime().availableProcessors() : n;
+  }
+
+  /**
+   * Adresse où publier les ajouts vers les répliques ({@link ReplicationMaitre}).
+   *
+   * @return adresse et port, ou null si les ajouts ne sont pas publiés
+   */
+  public InetSocketAddress ecouteReplication() {
+    return hotePort("replication.ecoute");
+  }
+
+  /**
+   * Nombre de changements gardés par le maître : une réplique plus en retard reçoit
+   * un nouvel instantané de la base.
+   *
+   * @return taille de l'historique (au moins 1)
+   */
+  public int historiqueReplication() {
+    return entier("replication.historique", 100_000, 1);
+  }
+
+  /**
+   * Adresse du maître dont cette instance est une réplique ({@link ReplicationSuiveur}) :
+   * la base vient alors du maître et {@code db.path} est ignorée.
+   *
+   * @return adresse et port, ou null pour une instance autonome
+   */
+  public InetSocketAddress maitreReplication() {
+    return hotePort("replication.maitre");
+  }
+
+  /**
+   * Nombre d'ajouts en attente dans la file de l'écrivain de chaque partition d'une base
+   * partitionnée ({@link DnsPartitionne}) : au-delà, les appelants attendent.
+   *
+   * @return capacité de chaque file (au moins 1)
+   */
+  public int filePartition() {
+    return entier("partitions.file", 1024, 1);
+  }
+
+  /** Lit une propriété "hôte:port", absente ou vide pour null. */
+  private InetSocketAddress hotePort(final String cle) {
+    final String brut = props.getProperty(cle, "").trim();
+    if (brut.isEmpty()) {
+      return null;
+    }
+    final int i = brut.lastIndexOf(':');
+    try {
+      if (i <= 0) {
+        throw new NumberFormatException();
+      }
+      final int port = Integer.parseInt(brut.substring(i + 1));
+      if (port < 0 || port > 0xFFFF) {
+        throw new NumberFormatException();
+      }
+      return new InetSocketAddress(brut.substring(0, i), port);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Valeur hôte:port attendue pour " + cle + " : " + brut, e);
+    }
+  }
+
+  /** Lit une propriété entière, en vérifiant sa borne inférieure. */
+  private int entier(final String cle, final int defaut, final int min) {
+    final String brut = props.getProperty(cle);
+    if (brut == null) {
+      return defaut;
+    }
+    try {
+      final int v = Integer.parseInt(brut.trim());
+      if (v < min) {
+        throw new IllegalArgumentException("Valeur trop petite pour " + cle + " : " + brut);
+      }
+      return v;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Valeur entière attendue pour " + cle + " : " + brut, e);
+    }
+  }
+}
@@ -8,9 +8,107 @@ public final class DnsItem {
     private final NomMachine nom;
     private final AdresseIP ip;
 
+    /**
+     * Plus grand instant d'expiration accepté : le plus grand nombre de
+     * {@link #CHIFFRES_EXPIRATION} chiffres, que {@link #analyse} relit sans débordement.
+     */
+    static final long EXPIRATION_MAX = 999_999_999_999_999_999L;
+
+    /** Nombre maximal de chiffres de l'instant d'expiration dans la base et le journal. */
+    static final int CHIFFRES_EXPIRATION = 18;
+
+    /** Instant d'expiration, en secondes depuis l'époque Unix ; 0 pour une entrée permanente. */
+    private final long expiration;
+
     public DnsItem(final NomMachine nom, final AdresseIP ip) {
+        this(nom, ip, 0);
+    }
+
+    /**
+     * Construit une entrée à durée de vie limitée.
+     *
+     * @param nom le nom de machine
+     * @param ip l'adresse
+     * @param expiration instant d'expiration, en secondes depuis l'époque Unix
+     *     (0 pour une entrée permanente, au plus {@link #EXPIRATION_MAX})
+     */
+    public DnsItem(final NomMachine nom, final AdresseIP ip, final long expiration) {
+        if (expiration < 0 || expiration > EXPIRATION_MAX) {
+            throw new IllegalArgumentException("Expiration invalide : " + expiration);
+        }
         this.nom = Objects.requireNonNull(nom, "nom");
         this.ip = Objects.requireNonNull(ip, "ip");
+        this.expiration = expiration;
+    }
+
+    /**
+     * Analyse une ligne au format de la base ("nom ip", suivi de l'instant
+     * d'expiration en secondes depuis l'époque Unix pour une entrée à durée de vie limitée).
+     *
+     * @param ligne la ligne à analyser
+     * @return l'entrée lue, ou null pour une ligne vide ou un commentaire
+     * @throws RuntimeException si la ligne est invalide
+     */
+    static DnsItem analyse(final String ligne) {
+        return analyse(ligne, 0, ligne.length());
+    }
+
+    /**
+     * Analyse une ligne au format de la base ("nom ip [expiration]") en une seule passe :
+     * seul le nom, mis en minuscules, donne lieu à une allocation.
+     *
+     * @param s le texte contenant la ligne
+     * @param debut début de la ligne
+     * @param fin fin (exclue) de la ligne, sans le saut de ligne
+     * @return l'entrée lue, ou null pour une ligne vide ou un commentaire
+     * @throws RuntimeException si la ligne est invalide
+     */
+    static DnsItem analyse(final CharSequence s, final int debut, final int fin) {
+        int i = saute(s, debut, fin, true);
+        if (i == fin || s.charAt(i) == '#') {
+            return null;
+        }
+        final int debutNom = i;
+        final int finNom = saute(s, debutNom, fin, false);
+        final int debutIp = saute(s, finNom, fin, true);
+        final int finIp = saute(s, debutIp, fin, false);
+        final int debutExp = saute(s, finIp, fin, true);
+        final int finExp = saute(s, debutExp, fin, false);
+        if (debutIp == fin || saute(s, finExp, fin, true) != fin) {
+            throw new RuntimeException("Ligne invalide dans la base DNS : '"
+                + s.subSequence(debut, fin).toString().strip() + "'");
+        }
+        if (!NomMachine.estValide(s, debutNom, finNom)) {
+            throw new IllegalArgumentException("Nom de machine invalide : " + s.subSequence(debutNom, finNom));
+        }
+        final AdresseIP ip = AdresseIP.de(s, debutIp, finIp);
+        if (ip == null) {
+            throw new IllegalArgumentException("Adresse IP invalide : " + s.subSequence(debutIp, finIp));
+        }
+        long expiration = 0;
+        for (int k = debutExp; k < finExp; k++) {
+            final char c = s.charAt(k);
+            if (c < '0' || c > '9' || k - debutExp >= CHIFFRES_EXPIRATION) {
+                throw new IllegalArgumentException("Expiration invalide : "
+                    + s.subSequence(debutExp, finExp));
+            }
+            expiration = expiration * 10 + (c - '0');
+        }
+        final char[] nom = new char[finNom - debutNom];
+        for (int k = 0; k < nom.length; k++) {
+            final char c = s.charAt(debutNom + k);
+            nom[k] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new DnsItem(NomMachine.deConfiance(new String(nom)), ip, expiration);
+    }
+
+    /** Avance sur les blancs (ou sur les non-blancs) et renvoie la première position suivante. */
+    private static int saute(final CharSequence s, final int debut, final int fin, final boolean blancs) {
+        int i = debut;
+        while (i < fin && (s.charAt(i) <= ' ') == blancs) {
+            i++;
+        }
+        return i;
     }
 
     public NomMachine nom() {
@@ -21,9 +119,41 @@ public final class DnsItem {
         return ip;
     }
 
+    /**
+     * Instant d'expiration de l'entrée.
+     *
+     * @return secondes depuis l'époque Unix, ou 0 pour une entrée permanente
+     */
+    public long expiration() {
+        return expiration;
+    }
+
+    /**
+     * Indique si l'entrée a expiré à un instant donné.
+     *
+     * @param maintenant l'instant, en secondes depuis l'époque Unix
+     * @return true si l'entrée a une expiration et qu'elle est atteinte
+     */
+    public boolean estExpiree(final long maintenant) {
+        return expiration != 0 && expiration <= maintenant;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return (o instanceof DnsItem other) && nom.equals(other.nom) && ip.equals(other.ip)
+            && expiration == other.expiration;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * nom.hashCode() + ip.hashCode()) + Long.hashCode(expiration);
+    }
+
+    /** Ligne de la base : "nom ip", suivi de l'instant d'expiration s'il y en a un. */
     @Override
     public String toString() {
-        return nom.value() + " " + ip.value();
+        return expiration == 0 ? nom.value() + " " + ip.value()
+            : nom.value() + " " + ip.value() + " " + expiration;
     }
 }
 
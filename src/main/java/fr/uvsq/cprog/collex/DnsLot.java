@@ -0,0 +1,203 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exécution non interactive d'un script de commandes (même syntaxe que {@link DnsTUI}),
+ * une par ligne, sans invite et avec des entrées-sorties tamponnées.
+ *
+ * Les lignes sont lues par tranches de {@link #TRANCHE}. Dans une tranche, chaque suite
+ * de commandes en lecture seule ({@link Commande#lectureSeule()}) est découpée en
+ * parts exécutées en parallèle, chacune dans son propre tampon ; les tampons sont
+ * écrits dans l'ordre des lignes. Les autres commandes (add, import) sont exécutées
+ * seules, à leur place : les lectures qui les suivent voient leur effet. La commande
+ * quit termine le script. Les lignes vides et celles qui commencent par # sont ignorées.
+ *
+ * Chaque réponse est suivie d'une fin de ligne, comme dans l'interface texte ; une
+ * commande qui lève une exception répond "ERREUR : " suivi de son message.
+ */
+public final class DnsLot implements AutoCloseable {
+
+  /** Nombre de lignes lues avant exécution. */
+  static final int TRANCHE = 8192;
+
+  /** Nombre minimal de commandes d'une part exécutée en parallèle. */
+  private static final int PART_MIN = 256;
+
+  private final Dns dns;
+  private final int threads;
+  private final ExecutorService executeur;
+
+  /** Résultat de l'exécution d'un script. */
+  public record Resultat(long commandes, double secondes) {
+
+    /**
+     * Débit obtenu.
+     *
+     * @return commandes par seconde
+     */
+    public double debit() {
+      return commandes / secondes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%,d commandes en %.2f s : %,.0f commandes/s",
+          commandes, secondes, debit());
+    }
+  }
+
+  /**
+   * Prépare l'exécution de scripts sur une base.
+   *
+   * @param dns la base
+   * @param threads nombre de threads pour les commandes en lecture seule
+   */
+  public DnsLot(final Dns dns, final int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Nombre de threads invalide : " + threads);
+    }
+    this.dns = dns;
+    this.threads = threads;
+    this.executeur = Executors.newFixedThreadPool(threads, r -> {
+      final Thread t = new Thread(r, "dns-lot");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Exécute les commandes lues jusqu'à la fin de l'entrée ou jusqu'à quit.
+   *
+   * @param entree les commandes, une par ligne
+   * @param sortie reçoit les réponses, dans l'ordre des commandes (non vidée)
+   * @return nombre de commandes exécutées et durée
+   * @throws IOException en cas d'erreur de lecture ou d'écriture
+   */
+  public Resultat execute(final BufferedReader entree, final Writer sortie) throws IOException {
+    final long debut = System.nanoTime();
+    long commandes = 0;
+    final List<String> lignes = new ArrayList<>(TRANCHE);
+    boolean fin = false;
+    while (!fin) {
+      lignes.clear();
+      String ligne;
+      while (lignes.size() < TRANCHE && (ligne = entree.readLine()) != null) {
+        if (!ligne.isBlank() && !ligne.startsWith("#")) {
+          lignes.add(ligne);
+        }
+      }
+      if (lignes.isEmpty()) {
+        break;
+      }
+      final int lues = lignes.size();
+      final Commande[] tranche = new Commande[lues];
+      parallele(lues, (debutPart, finPart) -> {
+        for (int i = debutPart; i < finPart; i++) {
+          tranche[i] = DnsTUI.analyse(lignes.get(i));
+        }
+        return null;
+      });
+      int i = 0;
+      while (i < lues && !fin) {
+        if (tranche[i].lectureSeule()) {
+          int j = i;
+          while (j < lues && tranche[j].lectureSeule()) {
+            j++;
+          }
+          final int suite = i;
+          for (StringBuilder r : parallele(j - i,
+              (a, b) -> reponses(tranche, suite + a, suite + b))) {
+            sortie.append(r);
+          }
+          commandes += j - i;
+          i = j;
+        } else {
+          final StringBuilder r = new StringBuilder();
+          repond(tranche[i], r);
+          sortie.append(r);
+          fin = tranche[i].shouldQuit();
+          commandes++;
+          i++;
+        }
+      }
+    }
+    return new Resultat(commandes, (System.nanoTime() - debut) / 1e9);
+  }
+
+  /** Travail sur les indices [debut, fin) d'une part. */
+  @FunctionalInterface
+  private interface Part<T> {
+    T traite(int debut, int fin);
+  }
+
+  /**
+   * Découpe [0, n) en parts exécutées en parallèle (la dernière par le thread appelant)
+   * et rend leurs résultats dans l'ordre.
+   */
+  private <T> List<T> parallele(final int n, final Part<T> part) {
+    final int parts = Math.max(1, Math.min(threads, n / PART_MIN));
+    final List<Future<T>> futurs = new ArrayList<>(parts - 1);
+    for (int k = 0; k < parts - 1; k++) {
+      final int a = (int) ((long) n * k / parts);
+      final int b = (int) ((long) n * (k + 1) / parts);
+      futurs.add(executeur.submit(() -> part.traite(a, b)));
+    }
+    final T derniere = part.traite((int) ((long) n * (parts - 1) / parts), n);
+    final List<T> r = new ArrayList<>(parts);
+    try {
+      for (Future<T> f : futurs) {
+        r.add(f.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Exécution du lot interrompue", e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException
+          ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+    }
+    r.add(derniere);
+    return r;
+  }
+
+  /** Réponses des commandes [debut, fin) d'une tranche, à la suite. */
+  private StringBuilder reponses(final Commande[] tranche, final int debut, final int fin) {
+    final StringBuilder r = new StringBuilder((fin - debut) * 24);
+    for (int i = debut; i < fin; i++) {
+      repond(tranche[i], r);
+    }
+    return r;
+  }
+
+  /** Exécute une commande et ajoute sa réponse, suivie d'une fin de ligne, au tampon. */
+  private void repond(final Commande cmd, final StringBuilder r) {
+    final int avant = r.length();
+    try {
+      cmd.execute(dns, r);
+    } catch (RuntimeException e) {
+      r.setLength(avant);
+      r.append("ERREUR : ").append(e.getMessage());
+    } catch (IOException e) {
+      // Impossible : la sortie est un StringBuilder
+      throw new UncheckedIOException(e);
+    }
+    if (r.length() > avant) {
+      r.append('\n');
+    }
+  }
+
+  /** Arrête les threads d'exécution. */
+  @Override
+  public void close() {
+    executeur.shutdown();
+  }
+}
@@ -0,0 +1,390 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Base DNS partitionnée par domaine : les entrées sont réparties entre plusieurs instances
+ * de {@link Dns} (les partitions) selon un hachage de {@link NomMachine#domaine()}.
+ * Chaque partition a ses propres index, son fichier ({@code <base>.partie-<k>-sur-<n>}),
+ * son journal et ses compactions : les ajouts de partitions différentes ne partagent
+ * ni verrou ni fichier.
+ *
+ * Chaque partition n'a qu'un écrivain, un thread dédié alimenté par une file bornée
+ * ({@link DnsConfig#filePartition()}) : un appelant qui la trouve pleine attend. L'écrivain
+ * vide la file par lots ; il vérifie chaque entrée contre sa partition, dont il est le seul
+ * à modifier le contenu, puis ajoute les entrées acceptées en un seul
+ * {@link Dns#addItems} : une seule écriture de journal, et un seul fsync si
+ * {@code journal.fsync} est demandé, par lot.
+ *
+ * Un nom appartient à la partition de son domaine, dont l'écrivain garantit l'unicité.
+ * L'unicité des adresses entre partitions est garantie par un répertoire commun
+ * ({@link RepertoireIp}), lui-même découpé par adresse, où chaque écrivain réserve
+ * l'adresse d'une entrée avant de l'ajouter, puis confirme la réservation si l'ajout
+ * réussit ou la libère s'il échoue. Le répertoire dit aussi dans quelle partition
+ * chercher une adresse.
+ *
+ * Les recherches par nom et les listes d'un domaine ne consultent qu'une partition ; les
+ * lectures ne prennent aucun verrou, comme celles de {@link Dns}.
+ *
+ * Au premier lancement avec n partitions, la base texte est découpée une fois pour toutes
+ * entre les n fichiers de partition, qui sont ensuite seuls lus et écrits.
+ */
+public final class DnsPartitionne implements AutoCloseable {
+
+  /** Nombre maximal d'ajouts traités en un lot par un écrivain. */
+  static final int LOT = 256;
+
+  private final Dns[] partitions;
+  private final Ecrivain[] ecrivains;
+  private final RepertoireIp repertoire = new RepertoireIp();
+
+  /** Un ajout en attente dans la file d'un écrivain. */
+  private record Ajout(DnsItem item, CompletableFuture<Void> fait) {
+  }
+
+  /** Marque de fin de file : l'écrivain s'arrête après les ajouts qui la précèdent. */
+  private static final Ajout FIN = new Ajout(null, null);
+
+  private volatile boolean fermee;
+
+  /**
+   * Ouvre une base partitionnée, en découpant la base texte si ses partitions
+   * n'existent pas encore.
+   *
+   * @param base chemin de la base texte (ex : Path.of("data/dns.txt"))
+   * @param n nombre de partitions
+   * @param config options des partitions (journal, stockage...) et taille des files
+   * @throws RuntimeException si une erreur d'E/S survient ou si une ligne est invalide
+   */
+  public DnsPartitionne(final Path base, final int n, final DnsConfig config) {
+    if (n < 1) {
+      throw new IllegalArgumentException("Nombre de partitions invalide : " + n);
+    }
+    final Path[] fichiers = new Path[n];
+    for (int k = 0; k < n; k++) {
+      fichiers[k] = base.resolveSibling(base.getFileName() + ".partie-" + k + "-sur-" + n);
+    }
+    try {
+      decoupe(base, fichiers);
+    } catch (IOException e) {
+      throw new RuntimeException("Erreur lors du découpage de " + base, e);
+    }
+    this.partitions = new Dns[n];
+    this.ecrivains = new Ecrivain[n];
+    try {
+      for (int k = 0; k < n; k++) {
+        partitions[k] = new Dns(fichiers[k], config);
+        for (DnsItem item : partitions[k].items()) {
+          if (repertoire.get(item.ip()) != null) {
+            throw new RuntimeException("Doublon d'adresse IP détecté entre partitions : "
+                + item.ip().value());
+          }
+          repertoire.ajoute(item);
+        }
+      }
+    } catch (RuntimeException e) {
+      for (Dns d : partitions) {
+        if (d != null) {
+          d.close();
+        }
+      }
+      throw e;
+    }
+    for (int k = 0; k < n; k++) {
+      ecrivains[k] = new Ecrivain(k, config.filePartition());
+    }
+  }
+
+  /**
+   * Répartit les entrées de la base texte entre les fichiers de partition, s'ils
+   * n'existent pas encore. Chaque fichier est écrit à part puis renommé.
+   */
+  private static void decoupe(final Path base, final Path[] fichiers) throws IOException {
+    int existants = 0;
+    for (Path f : fichiers) {
+      if (Files.exists(f)) {
+        existants++;
+      }
+    }
+    if (existants == fichiers.length) {
+      return;
+    }
+    if (existants > 0) {
+      throw new RuntimeException("ERREUR : Partitions incomplètes pour " + base
+          + " (" + existants + " sur " + fichiers.length + ")");
+    }
+    final List<List<DnsItem>> parties = new ArrayList<>();
+    for (int k = 0; k < fichiers.length; k++) {
+      parties.add(new ArrayList<>());
+    }
+    if (Files.exists(base)) {
+      ChargeurTexte.lit(base, (item, ligne) ->
+          parties.get(partition(item.nom().domaine(), fichiers.length)).add(item));
+    }
+    for (int k = 0; k < fichiers.length; k++) {
+      final List<String> lignes = parties.get(k).stream()
+          .sorted(Comparator.comparing(item -> item.nom().value()))
+          .map(DnsItem::toString)
+          .collect(Collectors.toList());
+      final Path tmp = fichiers[k].resolveSibling(fichiers[k].getFileName() + ".tmp");
+      Files.write(tmp, lignes);
+      try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        c.force(true);
+      }
+      Files.move(tmp, fichiers[k], StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  /**
+   * Partition d'un domaine.
+   *
+   * @param domaine le domaine
+   * @param n nombre de partitions
+   * @return numéro de partition, entre 0 et n - 1
+   */
+  static int partition(final String domaine, final int n) {
+    final int h = domaine.hashCode() * 0x9E3779B9;
+    return (int) (((h ^ (h >>> 16)) & 0xFFFFFFFFL) % n);
+  }
+
+  private Dns partition(final NomMachine nom) {
+    return partitions[partition(nom.domaine(), partitions.length)];
+  }
+
+  /**
+   * Nombre de partitions.
+   *
+   * @return nombre de partitions
+   */
+  public int partitions() {
+    return partitions.length;
+  }
+
+  /**
+   * Recherche une entrée par nom, dans la partition de son domaine.
+   *
+   * @param nom le nom de machine
+   * @return l'entrée, ou null si absente
+   */
+  public DnsItem getItem(final NomMachine nom) {
+    return partition(nom).getItem(nom);
+  }
+
+  /**
+   * Recherche une entrée par adresse, dans la partition indiquée par le répertoire.
+   *
+   * @param ip l'adresse
+   * @return l'entrée, ou null si absente
+   */
+  public DnsItem getItem(final AdresseIP ip) {
+    final DnsItem reservee = repertoire.get(ip);
+    // La réservation précède l'ajout, et survit à l'expiration : la partition fait foi
+    return reservee == null ? null : partition(reservee.nom()).getItem(ip);
+  }
+
+  /**
+   * Liste les entrées d'un domaine, depuis sa seule partition.
+   *
+   * @param domaine le domaine
+   * @param trierParAdresse true pour trier par adresse, false par nom
+   * @return les entrées du domaine
+   * @throws IllegalArgumentException si le domaine est nul ou vide
+   */
+  public List<DnsItem> getItems(final String domaine, final boolean trierParAdresse) {
+    if (domaine == null || domaine.isBlank()) {
+      throw new IllegalArgumentException("Domaine nul ou vide");
+    }
+    final String d = domaine.trim().toLowerCase(Locale.ROOT);
+    return partitions[partition(d, partitions.length)].getItems(d, trierParAdresse);
+  }
+
+  /**
+   * Nombre total d'entrées.
+   *
+   * @return somme des tailles des partitions
+   */
+  public int size() {
+    int n = 0;
+    for (Dns d : partitions) {
+      n += d.size();
+    }
+    return n;
+  }
+
+  /**
+   * Ajoute une entrée et attend que son écrivain l'ait acceptée ou refusée.
+   *
+   * @param ip l'adresse IP
+   * @param nom le nom de machine
+   * @throws RuntimeException si le nom ou l'IP existe déjà, ou en cas d'erreur d'écriture
+   */
+  public void addItem(final AdresseIP ip, final NomMachine nom) {
+    if (ip == null || nom == null) {
+      throw new IllegalArgumentException("Nom ou IP nul");
+    }
+    try {
+      ajoute(new DnsItem(nom, ip)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Ajout interrompu", e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException
+          ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Confie une entrée à l'écrivain de sa partition, en attendant une place dans sa file
+   * si elle est pleine.
+   *
+   * @param item l'entrée à ajouter
+   * @return achevé quand l'entrée est ajoutée, ou en erreur si elle est refusée
+   */
+  public CompletableFuture<Void> ajoute(final DnsItem item) {
+    final Ajout a = new Ajout(item, new CompletableFuture<>());
+    if (fermee) {
+      a.fait().completeExceptionally(fermee());
+      return a.fait();
+    }
+    try {
+      ecrivains[partition(item.nom().domaine(), partitions.length)].file.put(a);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      a.fait().completeExceptionally(new RuntimeException("Ajout interrompu", e));
+    }
+    return a.fait();
+  }
+
+  /** Unique écrivain d'une partition : vide sa file par lots. */
+  private final class Ecrivain implements Runnable {
+    final BlockingQueue<Ajout> file;
+    final Thread fil;
+    private final Dns dns;
+
+    Ecrivain(final int k, final int capacite) {
+      this.dns = partitions[k];
+      this.file = new ArrayBlockingQueue<>(capacite);
+      this.fil = new Thread(this, "dns-partition-" + k);
+      fil.setDaemon(true);
+      fil.start();
+    }
+
+    @Override
+    public void run() {
+      final List<Ajout> lot = new ArrayList<>(LOT);
+      boolean fin = false;
+      try {
+        while (!fin) {
+          lot.add(file.take());
+          file.drainTo(lot, LOT - 1);
+          final int arret = lot.indexOf(FIN);
+          fin = arret >= 0;
+          if (fin) {
+            lot.subList(arret + 1, lot.size())
+                .forEach(a -> a.fait().completeExceptionally(fermee()));
+            lot.subList(arret, lot.size()).clear();
+          }
+          traite(lot);
+          lot.clear();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        Ajout a;
+        while ((a = file.poll()) != null) {
+          a.fait().completeExceptionally(fermee());
+        }
+      }
+    }
+
+    /** Vérifie, réserve et ajoute un lot ; chaque ajout est achevé ou refusé. */
+    private void traite(final List<Ajout> lot) {
+      final List<Ajout> acceptes = new ArrayList<>(lot.size());
+      final Set<String> noms = new HashSet<>();
+      final long maintenant = Dns.maintenant();
+      // Le répertoire tient déjà pour libre une adresse échue : la partition aussi
+      dns.expire(maintenant);
+      for (Ajout a : lot) {
+        final DnsItem item = a.item();
+        if (dns.getItem(item.nom()) != null || !noms.add(item.nom().value())) {
+          a.fait().completeExceptionally(
+              new RuntimeException("ERREUR : Le nom de machine existe déjà !"));
+        } else if (!repertoire.reserve(item, maintenant)) {
+          a.fait().completeExceptionally(
+              new RuntimeException("ERREUR : L'adresse IP existe déjà !"));
+        } else {
+          acceptes.add(a);
+        }
+      }
+      if (acceptes.isEmpty()) {
+        return;
+      }
+      try {
+        dns.addItems(acceptes.stream().map(Ajout::item).collect(Collectors.toList()));
+        for (Ajout a : acceptes) {
+          repertoire.confirme(a.item());
+          a.fait().complete(null);
+        }
+      } catch (RuntimeException e) {
+        // Lot refusé en bloc : chaque ajout est retenté seul, un conflit n'écarte que le sien
+        for (Ajout a : acceptes) {
+          try {
+            dns.addItems(List.of(a.item()));
+            repertoire.confirme(a.item());
+            a.fait().complete(null);
+          } catch (RuntimeException ex) {
+            repertoire.libere(a.item());
+            a.fait().completeExceptionally(ex);
+          }
+        }
+      }
+    }
+  }
+
+  private static RuntimeException fermee() {
+    return new RuntimeException("ERREUR : Base partitionnée fermée");
+  }
+
+  /**
+   * Arrête les écrivains après les ajouts déjà en file, puis ferme les partitions.
+   *
+   * @throws RuntimeException en cas d'erreur d'écriture
+   */
+  @Override
+  public void close() {
+    fermee = true;
+    for (Ecrivain e : ecrivains) {
+      try {
+        e.file.put(FIN);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (Ecrivain e : ecrivains) {
+      try {
+        e.fil.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (Dns d : partitions) {
+      d.close();
+    }
+  }
+}
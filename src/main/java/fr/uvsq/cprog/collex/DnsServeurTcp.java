@@ -0,0 +1,590 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serveur TCP acceptant, ligne par ligne, la syntaxe de commandes de {@link DnsTUI}.
+ * Toutes les connexions partagent la même instance de {@link Dns}.
+ *
+ * Protocole : le client envoie une commande par ligne ; chaque réponse est suivie
+ * d'une ligne vide. Un client peut envoyer plusieurs commandes sans attendre les
+ * réponses : elles sont traitées et renvoyées dans l'ordre. "quit" ferme la connexion.
+ *
+ * Seules les lectures de la base et quit sont acceptées ({@link DnsTUI#analyseReseau}) :
+ * un client ne peut ni ajouter d'entrée ni faire lire un fichier du serveur.
+ *
+ * Les connexions sont multiplexées sur quelques boucles d'événements NIO (une par
+ * cœur par défaut) : une connexion inactive ne coûte qu'une clé de sélection et
+ * ne mobilise aucun thread, ce qui permet d'en garder des dizaines de milliers
+ * ouvertes. Les boucles ne font que lire les lignes et écrire les réponses : les
+ * commandes s'exécutent sur un groupe de threads séparé, une à la fois et dans
+ * l'ordre pour une même connexion, si bien qu'une commande longue ne retarde que
+ * la connexion qui l'a envoyée.
+ *
+ * Les réponses partent par blocs de {@link #BLOC} octets pendant l'exécution de la
+ * commande : une longue liste n'est jamais construite en entier. Quand plus de
+ * {@link #SORTIE_MAX} octets attendent d'être envoyés, la connexion n'est plus lue et
+ * la commande en cours est suspendue entre deux étapes ({@link Commande#etapes}) : son
+ * thread retourne au groupe, et la boucle la relance quand le client a lu assez de
+ * réponses. Un client lent n'immobilise donc aucun thread d'exécution.
+ */
+public class DnsServeurTcp implements Closeable {
+
+  /** Longueur maximale d'une ligne de commande. */
+  static final int LIGNE_MAX = 8192;
+
+  /** Au-delà de ce volume de réponses en attente, la lecture de la connexion est suspendue. */
+  static final int SORTIE_MAX = 1 << 20;
+
+  /** Volume de réponses au-delà duquel elles sont passées à la file d'envoi sans attendre. */
+  static final int BLOC = 64 << 10;
+
+  /** Au-delà de ce nombre de commandes en attente d'exécution, la lecture est suspendue. */
+  static final int COMMANDES_MAX = 4096;
+
+  /** Réponse à une ligne trop longue, après laquelle la connexion est fermée. */
+  private static final Commande LIGNE_TROP_LONGUE = new Commande() {
+    @Override
+    public String execute(final Dns dns) {
+      return "ERREUR : ligne trop longue";
+    }
+
+    @Override
+    public boolean shouldQuit() {
+      return true;
+    }
+  };
+
+  private final Dns dns;
+  private final ServerSocketChannel ecoute;
+  private final Boucle[] boucles;
+  private final ExecutorService executeur;
+  private final Thread accepteur;
+  private volatile boolean ferme;
+
+  private final AtomicInteger connexionsOuvertes = new AtomicInteger();
+  private final LongAdder requetes = new LongAdder();
+
+  /**
+   * Ouvre le serveur sur l'adresse donnée ; {@link #demarre()} lance le service.
+   *
+   * @param dns la base partagée par toutes les connexions
+   * @param adresse adresse d'écoute (port 0 pour un port libre)
+   * @param nbBoucles nombre de boucles d'événements
+   * @throws IOException si l'adresse ne peut pas être liée
+   */
+  public DnsServeurTcp(final Dns dns, final InetSocketAddress adresse, final int nbBoucles)
+      throws IOException {
+    this.dns = dns;
+    this.ecoute = ServerSocketChannel.open();
+    ecoute.bind(adresse, 4096);
+    this.boucles = new Boucle[Math.max(1, nbBoucles)];
+    for (int i = 0; i < boucles.length; i++) {
+      boucles[i] = new Boucle(i);
+    }
+    this.executeur = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+          final Thread t = new Thread(r, "dns-tcp-exec");
+          t.setDaemon(true);
+          return t;
+        });
+    this.accepteur = new Thread(this::accepte, "dns-tcp-accept");
+  }
+
+  /** Démarre le thread d'acceptation et les boucles d'événements. */
+  public void demarre() {
+    for (Boucle b : boucles) {
+      b.fil.start();
+    }
+    accepteur.start();
+  }
+
+  /**
+   * Retourne l'adresse effectivement liée.
+   *
+   * @return adresse locale du serveur
+   */
+  public InetSocketAddress adresse() {
+    try {
+      return (InetSocketAddress) ecoute.getLocalAddress();
+    } catch (IOException e) {
+      throw new RuntimeException("Adresse du serveur TCP indisponible", e);
+    }
+  }
+
+  /**
+   * Nombre de connexions actuellement ouvertes.
+   *
+   * @return connexions ouvertes
+   */
+  public int connexionsOuvertes() {
+    return connexionsOuvertes.get();
+  }
+
+  /**
+   * Nombre de commandes traitées depuis le démarrage.
+   *
+   * @return commandes traitées
+   */
+  public long requetes() {
+    return requetes.sum();
+  }
+
+  /** Attend la fin du thread d'acceptation, c'est-à-dire la fermeture du serveur. */
+  public void attends() throws InterruptedException {
+    accepteur.join();
+  }
+
+  /** Ferme l'écoute et toutes les connexions, puis attend l'arrêt des boucles. */
+  @Override
+  public void close() throws IOException {
+    ferme = true;
+    ecoute.close();
+    for (Boucle b : boucles) {
+      b.selecteur.wakeup();
+    }
+    try {
+      for (Boucle b : boucles) {
+        b.fil.join(1000);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executeur.shutdownNow();
+  }
+
+  /**
+   * Exécute, dans l'ordre, les commandes en attente d'une connexion (sur un thread du
+   * groupe d'exécution, jamais sur la boucle). Les réponses passent à la file d'envoi
+   * par blocs de {@link #BLOC} pendant l'exécution, et au plus tard quand la file de
+   * commandes est vide. Une commande suspendue ({@link #poursuit}) garde la connexion
+   * en cours d'exécution jusqu'à sa reprise par la boucle.
+   */
+  private void executeCommandes(final Connexion cx) {
+    try {
+      do {
+        if (cx.commande != null && !poursuit(cx)) {
+          return;
+        }
+        Commande cmd;
+        while (!cx.fermee && !cx.fermerApresEnvoi && (cmd = cx.commandes.poll()) != null) {
+          cx.commande = cmd;
+          cx.debutReponse = cx.flux.position();
+          if (!poursuit(cx)) {
+            return;
+          }
+        }
+        cx.enCours.set(false);
+        // Une commande arrivée juste avant la fin de la boucle est reprise ici
+      } while (!cx.fermee && !cx.fermerApresEnvoi && !cx.commandes.isEmpty()
+          && cx.enCours.compareAndSet(false, true));
+    } catch (IOException e) {
+      // Connexion fermée pendant l'écriture de la réponse
+      cx.abandonnee = true;
+      cx.boucle.signale(cx);
+    }
+  }
+
+  /**
+   * Poursuit la commande en cours et écrit sa réponse, suivie d'une ligne vide. Tant
+   * que plus de {@link #SORTIE_MAX} octets attendent d'être envoyés, la commande est
+   * suspendue entre deux étapes plutôt que d'attendre le client.
+   *
+   * @return false si la commande est suspendue ou la connexion fermée
+   */
+  private boolean poursuit(final Connexion cx) throws IOException {
+    final Flux flux = cx.flux;
+    try {
+      if (cx.etapes == null) {
+        cx.etapes = cx.commande.etapes(dns);
+      }
+      while (cx.etapes.avance(flux)) {
+        if (cx.fermee) {
+          return false;
+        }
+        if (cx.octetsEnSortie.get() >= SORTIE_MAX) {
+          // Signalée après coup : la boucle a pu vider la file avant de voir l'indicateur
+          cx.suspendue = true;
+          cx.boucle.signale(cx);
+          return false;
+        }
+      }
+    } catch (RuntimeException e) {
+      if (!flux.efface(cx.debutReponse)) {
+        // Le début de la réponse est déjà parti : l'erreur suit sur sa propre ligne
+        flux.append('\n');
+      }
+      flux.append("ERREUR : ").append(e.getMessage());
+    }
+    if (flux.position() > cx.debutReponse) {
+      flux.append('\n');
+    }
+    flux.append('\n');
+    final Commande cmd = cx.commande;
+    cx.commande = null;
+    cx.etapes = null;
+    cx.enAttente.decrementAndGet();
+    if (cmd.shouldQuit()) {
+      flux.vide();
+      cx.fermerApresEnvoi = true;
+      cx.boucle.signale(cx);
+    } else if (cx.commandes.isEmpty()) {
+      flux.vide();
+    }
+    return true;
+  }
+
+  /**
+   * Sortie des réponses d'une connexion, écrite par le thread qui exécute ses commandes :
+   * le texte passe à la file d'envoi dès qu'il atteint {@link #BLOC}, si bien qu'une
+   * longue liste n'est jamais construite en entier. L'écriture n'attend jamais le
+   * client : c'est {@link #poursuit} qui suspend la commande quand la file est pleine.
+   */
+  private static final class Flux implements Appendable {
+    private final Connexion cx;
+    private final StringBuilder tampon = new StringBuilder();
+    /** Caractères déjà passés à la file d'envoi. */
+    private long vides;
+
+    Flux(final Connexion cx) {
+      this.cx = cx;
+    }
+
+    @Override
+    public Appendable append(final CharSequence cs) {
+      tampon.append(cs);
+      return plein();
+    }
+
+    @Override
+    public Appendable append(final CharSequence cs, final int debut, final int fin) {
+      tampon.append(cs, debut, fin);
+      return plein();
+    }
+
+    @Override
+    public Appendable append(final char c) {
+      tampon.append(c);
+      return plein();
+    }
+
+    private Appendable plein() {
+      if (tampon.length() >= BLOC) {
+        vide();
+      }
+      return this;
+    }
+
+    /** Nombre de caractères écrits depuis la création. */
+    long position() {
+      return vides + tampon.length();
+    }
+
+    /**
+     * Efface le texte écrit depuis une position, s'il n'est pas encore parti.
+     *
+     * @return false si une partie du texte est déjà dans la file d'envoi
+     */
+    boolean efface(final long position) {
+      if (position < vides) {
+        return false;
+      }
+      tampon.setLength((int) (position - vides));
+      return true;
+    }
+
+    /** Passe le texte écrit à la file d'envoi. */
+    void vide() {
+      // Un caractère coupé en deux (paire de substitution) attend sa seconde moitié
+      int n = tampon.length();
+      if (n > 0 && Character.isHighSurrogate(tampon.charAt(n - 1))) {
+        n--;
+      }
+      if (n > 0) {
+        final byte[] octets = tampon.substring(0, n).getBytes(StandardCharsets.UTF_8);
+        tampon.delete(0, n);
+        vides += n;
+        cx.octetsEnSortie.addAndGet(octets.length);
+        cx.sortie.add(ByteBuffer.wrap(octets));
+        cx.boucle.signale(cx);
+      }
+    }
+  }
+
+  private void accepte() {
+    int suivante = 0;
+    while (!ferme) {
+      try {
+        final SocketChannel canal = ecoute.accept();
+        canal.configureBlocking(false);
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connexionsOuvertes.incrementAndGet();
+        boucles[suivante].confie(canal);
+        suivante = (suivante + 1) % boucles.length;
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        // Connexion refusée ou interrompue : on continue d'accepter les suivantes
+      }
+    }
+  }
+
+  /**
+   * État d'une connexion, partagé entre sa boucle (lecture des lignes, écriture des
+   * réponses) et le thread qui exécute ses commandes.
+   */
+  private static final class Connexion {
+    final Boucle boucle;
+    SelectionKey cle;
+    /** Début d'une ligne dont la fin n'est pas encore arrivée (boucle seule). */
+    byte[] partiel = new byte[0];
+    /** Commandes lues et pas encore exécutées, dans l'ordre. */
+    final Queue<Commande> commandes = new ConcurrentLinkedQueue<>();
+    final AtomicInteger enAttente = new AtomicInteger();
+    /** Vrai tant qu'un thread exécute les commandes de la connexion. */
+    final AtomicBoolean enCours = new AtomicBoolean();
+    /** Réponses en attente d'écriture, dans l'ordre. */
+    final Queue<ByteBuffer> sortie = new ConcurrentLinkedQueue<>();
+    final AtomicLong octetsEnSortie = new AtomicLong();
+    /** Vrai si la connexion est déjà signalée à sa boucle. */
+    final AtomicBoolean signalee = new AtomicBoolean();
+    /** Plus aucune ligne n'est lue (quit, ligne trop longue). */
+    volatile boolean finLecture;
+    /** Fermer la connexion dès que les réponses sont envoyées. */
+    volatile boolean fermerApresEnvoi;
+    /** Fermer la connexion sans attendre : l'écriture d'une réponse a échoué. */
+    volatile boolean abandonnee;
+    volatile boolean fermee;
+    /** Une commande attend, suspendue, que la file d'envoi repasse sous SORTIE_MAX. */
+    volatile boolean suspendue;
+
+    /**
+     * Sortie, commande en cours et sa suite : lues et écrites par le seul thread qui
+     * exécute les commandes, passées de l'un à l'autre par {@link #enCours} ou
+     * {@link #suspendue}.
+     */
+    final Flux flux;
+    Commande commande;
+    Commande.Etapes etapes;
+    /** Position dans {@link #flux} du début de la réponse en cours. */
+    long debutReponse;
+
+    Connexion(final Boucle boucle) {
+      this.boucle = boucle;
+      this.flux = new Flux(this);
+    }
+  }
+
+  /** Boucle d'événements : un sélecteur et un thread pour une part des connexions. */
+  private final class Boucle implements Runnable {
+    final Selector selecteur;
+    final Thread fil;
+    final Queue<SocketChannel> nouvelles = new ConcurrentLinkedQueue<>();
+
+    /** Connexions dont les réponses ou la file de commandes ont changé. */
+    final Queue<Connexion> signalees = new ConcurrentLinkedQueue<>();
+
+    /** Tampon de lecture partagé par toutes les connexions de la boucle. */
+    final ByteBuffer lecture = ByteBuffer.allocateDirect(64 * 1024);
+
+    Boucle(final int numero) throws IOException {
+      this.selecteur = Selector.open();
+      this.fil = new Thread(this, "dns-tcp-" + numero);
+      fil.setDaemon(true);
+    }
+
+    void confie(final SocketChannel canal) {
+      nouvelles.add(canal);
+      selecteur.wakeup();
+    }
+
+    /** Demande à la boucle d'écrire les réponses d'une connexion et de revoir sa lecture. */
+    void signale(final Connexion cx) {
+      if (cx.signalee.compareAndSet(false, true)) {
+        signalees.add(cx);
+        selecteur.wakeup();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!ferme) {
+          selecteur.select();
+          SocketChannel canal;
+          while ((canal = nouvelles.poll()) != null) {
+            final Connexion cx = new Connexion(this);
+            cx.cle = canal.register(selecteur, SelectionKey.OP_READ, cx);
+          }
+          Connexion signalee;
+          while ((signalee = signalees.poll()) != null) {
+            signalee.signalee.set(false);
+            traiteEvenement(signalee.cle, false);
+          }
+          for (SelectionKey cle : selecteur.selectedKeys()) {
+            traiteEvenement(cle, cle.isValid() && cle.isReadable());
+          }
+          selecteur.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Erreur de la boucle d'événements TCP", e);
+      } finally {
+        fermeTout();
+      }
+    }
+
+    private void traiteEvenement(final SelectionKey cle, final boolean lisible) {
+      try {
+        if (cle.isValid() && lisible) {
+          lit(cle);
+        }
+        if (cle.isValid()) {
+          ecrit(cle);
+        }
+      } catch (IOException e) {
+        fermeConnexion(cle);
+      }
+    }
+
+    private void lit(final SelectionKey cle) throws IOException {
+      final SocketChannel canal = (SocketChannel) cle.channel();
+      final Connexion cx = (Connexion) cle.attachment();
+      lecture.clear();
+      if (canal.read(lecture) < 0) {
+        fermeConnexion(cle);
+        return;
+      }
+      lecture.flip();
+
+      while (lecture.hasRemaining() && !cx.finLecture) {
+        final int debut = lecture.position();
+        int fin = debut;
+        while (fin < lecture.limit() && lecture.get(fin) != '\n') {
+          fin++;
+        }
+        if (fin == lecture.limit()) {
+          // Ligne incomplète : on garde son début pour la prochaine lecture
+          cx.partiel = concatene(cx.partiel, debut, fin);
+          lecture.position(fin);
+          if (cx.partiel.length > LIGNE_MAX) {
+            soumet(cx, LIGNE_TROP_LONGUE);
+          }
+          break;
+        }
+        final byte[] complete = concatene(cx.partiel, debut, fin);
+        cx.partiel = new byte[0];
+        lecture.position(fin + 1);
+        requetes.increment();
+        soumet(cx, DnsTUI.analyseReseau(
+            new String(complete, 0, complete.length, StandardCharsets.UTF_8)));
+      }
+    }
+
+    /** Ajoute une commande à la file de la connexion et lance son exécution si besoin. */
+    private void soumet(final Connexion cx, final Commande cmd) {
+      if (cmd.shouldQuit()) {
+        cx.finLecture = true;
+      }
+      cx.commandes.add(cmd);
+      cx.enAttente.incrementAndGet();
+      if (cx.enCours.compareAndSet(false, true)) {
+        executeur.execute(() -> executeCommandes(cx));
+      }
+    }
+
+    /** Concatène le début de ligne déjà reçu et les octets [debut, fin) du tampon de lecture. */
+    private byte[] concatene(final byte[] partiel, final int debut, final int fin) {
+      final byte[] r = Arrays.copyOf(partiel, partiel.length + fin - debut);
+      lecture.get(debut, r, partiel.length, fin - debut);
+      return r;
+    }
+
+    /**
+     * Écrit autant de réponses en attente que possible et ajuste l'intérêt de la clé :
+     * la lecture est suspendue tant que trop de réponses ou de commandes attendent.
+     */
+    private void ecrit(final SelectionKey cle) throws IOException {
+      final SocketChannel canal = (SocketChannel) cle.channel();
+      final Connexion cx = (Connexion) cle.attachment();
+      ByteBuffer tete;
+      while ((tete = cx.sortie.peek()) != null) {
+        final int avant = tete.remaining();
+        canal.write(tete);
+        cx.octetsEnSortie.addAndGet(tete.remaining() - avant);
+        if (tete.hasRemaining()) {
+          break;
+        }
+        cx.sortie.poll();
+      }
+      if (cx.suspendue && cx.octetsEnSortie.get() < SORTIE_MAX) {
+        // Le client a lu : la commande suspendue reprend sur le groupe d'exécution
+        cx.suspendue = false;
+        executeur.execute(() -> executeCommandes(cx));
+      }
+      if (cx.abandonnee || cx.sortie.isEmpty() && cx.fermerApresEnvoi) {
+        fermeConnexion(cle);
+        return;
+      }
+      int interet = cx.sortie.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+      if (!cx.finLecture && cx.octetsEnSortie.get() < SORTIE_MAX
+          && cx.enAttente.get() < COMMANDES_MAX) {
+        interet |= SelectionKey.OP_READ;
+      }
+      cle.interestOps(interet);
+    }
+
+    private void fermeConnexion(final SelectionKey cle) {
+      if (!cle.channel().isOpen()) {
+        return;
+      }
+      final Connexion cx = (Connexion) cle.attachment();
+      cx.fermee = true;
+      cle.cancel();
+      try {
+        cle.channel().close();
+      } catch (IOException ignored) {
+        // Déjà fermée
+      }
+      connexionsOuvertes.decrementAndGet();
+    }
+
+    private void fermeTout() {
+      for (SelectionKey cle : selecteur.keys()) {
+        fermeConnexion(cle);
+      }
+      SocketChannel canal;
+      while ((canal = nouvelles.poll()) != null) {
+        try {
+          canal.close();
+        } catch (IOException ignored) {
+          // Arrêt du serveur
+        }
+        connexionsOuvertes.decrementAndGet();
+      }
+      try {
+        selecteur.close();
+      } catch (IOException ignored) {
+        // Arrêt du serveur
+      }
+    }
+  }
+}
@@ -0,0 +1,344 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Serveur DNS UDP répondant aux requêtes RFC 1035 à partir d'une instance de {@link Dns}.
+ *
+ * Requêtes prises en charge (classe IN) :
+ *   - type A    : nom qualifié -> adresse IPv4 ;
+ *   - type AAAA : nom qualifié -> adresse IPv6 ;
+ *   - type PTR  : "d.c.b.a.in-addr.arpa" ou les 32 chiffres hexadécimaux inversés
+ *                 suivis de ".ip6.arpa" -> nom qualifié.
+ * Un nom inconnu donne NXDOMAIN, un autre type sur un nom connu (dont A pour une
+ * entrée IPv6 et AAAA pour une entrée IPv4) une réponse vide, une autre classe ou
+ * un autre opcode NOTIMP.
+ *
+ * Le serveur traite les datagrammes un par un sur un seul thread, avec des tampons
+ * alloués une fois pour toutes : seul le nom d'une requête A ou AAAA est matérialisé
+ * en {@code String}, pour interroger l'index des noms.
+ */
+public class DnsServeurUdp implements Runnable, Closeable {
+
+  /** Taille maximale d'un message DNS sur UDP sans EDNS. */
+  static final int TAILLE_MAX = 512;
+
+  /** Drapeau TC : la réponse a été tronquée. */
+  static final int DRAPEAU_TC = 0x0200;
+
+  /** Taille d'un enregistrement de réponse sans ses données (nom compressé, type... longueur). */
+  private static final int ENREGISTREMENT = 12;
+
+  static final int TYPE_A = 1;
+  static final int TYPE_PTR = 12;
+  static final int TYPE_AAAA = 28;
+  static final int CLASSE_IN = 1;
+
+  static final int RCODE_FORMERR = 1;
+  static final int RCODE_NXDOMAIN = 3;
+  static final int RCODE_NOTIMP = 4;
+
+  private static final String SUFFIXE_PTR = ".in-addr.arpa";
+  private static final String SUFFIXE_PTR6 = ".ip6.arpa";
+
+  private final Dns dns;
+  private final DatagramChannel canal;
+  private final int ttl;
+
+  private final ByteBuffer requete = ByteBuffer.allocateDirect(TAILLE_MAX);
+  private final ByteBuffer reponse = ByteBuffer.allocateDirect(TAILLE_MAX);
+
+  /** Nom de la question en cours, en minuscules, sans point final. */
+  private final StringBuilder nom = new StringBuilder(255);
+
+  /** Adresse lue par {@link #ip6Inverse} : bits 127 à 64, puis 63 à 0. */
+  private long haut6;
+  private long bas6;
+
+  /**
+   * Ouvre le serveur sur l'adresse donnée.
+   *
+   * @param dns la base interrogée
+   * @param adresse adresse d'écoute (port 0 pour un port libre)
+   * @param ttl durée de vie annoncée dans les réponses, en secondes
+   * @throws IOException si l'adresse ne peut pas être liée
+   */
+  public DnsServeurUdp(final Dns dns, final InetSocketAddress adresse, final int ttl)
+      throws IOException {
+    this.dns = dns;
+    this.ttl = ttl;
+    this.canal = DatagramChannel.open();
+    canal.bind(adresse);
+  }
+
+  /**
+   * Retourne l'adresse effectivement liée.
+   *
+   * @return adresse locale du serveur
+   */
+  public InetSocketAddress adresse() {
+    try {
+      return (InetSocketAddress) canal.getLocalAddress();
+    } catch (IOException e) {
+      throw new RuntimeException("Adresse du serveur UDP indisponible", e);
+    }
+  }
+
+  /** Traite les requêtes jusqu'à la fermeture du serveur. */
+  @Override
+  public void run() {
+    while (canal.isOpen()) {
+      try {
+        requete.clear();
+        final SocketAddress client = canal.receive(requete);
+        requete.flip();
+        reponse.clear();
+        if (repond(requete, reponse)) {
+          reponse.flip();
+          canal.send(reponse, client);
+        }
+      } catch (AsynchronousCloseException e) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        // Un datagramme en erreur ne doit pas arrêter le serveur
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    canal.close();
+  }
+
+  /**
+   * Construit la réponse à une requête.
+   *
+   * @param q la requête, de la position 0 à sa limite
+   * @param r tampon de réponse, vide
+   * @return false si la requête doit être ignorée (trop courte, ou déjà une réponse)
+   */
+  boolean repond(final ByteBuffer q, final ByteBuffer r) {
+    if (q.limit() < 12) {
+      return false;
+    }
+    final int drapeaux = q.getShort(2) & 0xFFFF;
+    if ((drapeaux & 0x8000) != 0) {
+      return false;
+    }
+    final int opcode = (drapeaux >>> 11) & 0xF;
+    final int questions = q.getShort(4) & 0xFFFF;
+    final int finNom = opcode == 0 && questions == 1 ? lisNom(q, 12) : -1;
+    final int finQuestion = finNom + 4;
+    if (finNom < 0 || finQuestion > q.limit()) {
+      entete(q, r, drapeaux, opcode == 0 ? RCODE_FORMERR : RCODE_NOTIMP, 0, 0);
+      return true;
+    }
+
+    final int type = q.getShort(finNom) & 0xFFFF;
+    final int classe = q.getShort(finNom + 2) & 0xFFFF;
+    if (classe != CLASSE_IN) {
+      entete(q, r, drapeaux, RCODE_NOTIMP, 1, 0);
+      copieQuestion(q, r, finQuestion);
+      return true;
+    }
+
+    final DnsItem item;
+    final boolean inverse4 = finitPar(nom, SUFFIXE_PTR);
+    final boolean inverse = inverse4 || finitPar(nom, SUFFIXE_PTR6);
+    if (inverse4) {
+      final long ip = ipInverse(nom, nom.length() - SUFFIXE_PTR.length());
+      item = ip < 0 ? null : dns.getItemParIp((int) ip);
+    } else if (inverse) {
+      item = ip6Inverse(nom, nom.length() - SUFFIXE_PTR6.length())
+          ? dns.getItemParIp6(haut6, bas6) : null;
+    } else {
+      item = dns.getItemParNom(nom.toString());
+    }
+
+    if (item == null) {
+      entete(q, r, drapeaux, RCODE_NXDOMAIN, 1, 0);
+      copieQuestion(q, r, finQuestion);
+      return true;
+    }
+
+    final boolean ipv6 = item.ip().estIpv6();
+    final boolean reponduA = !inverse && type == TYPE_A && !ipv6;
+    final boolean reponduAaaa = !inverse && type == TYPE_AAAA && ipv6;
+    final boolean reponduPtr = inverse && type == TYPE_PTR;
+    entete(q, r, drapeaux, 0, 1, reponduA || reponduAaaa || reponduPtr ? 1 : 0);
+    copieQuestion(q, r, finQuestion);
+    final int donnees = reponduA ? 4 : reponduAaaa ? 16
+        : reponduPtr ? item.nom().value().length() + 2 : 0;
+    if (donnees > 0 && r.remaining() < ENREGISTREMENT + donnees) {
+      // La réponse ne tient pas dans le datagramme : tronquée (TC), sans enregistrement
+      r.putShort(2, (short) (r.getShort(2) | DRAPEAU_TC));
+      r.putShort(6, (short) 0);
+      return true;
+    }
+    if (reponduA) {
+      enregistrement(r, TYPE_A, 4, item);
+      r.putInt(item.ip().toInt());
+    } else if (reponduAaaa) {
+      enregistrement(r, TYPE_AAAA, 16, item);
+      r.putLong(item.ip().haut());
+      r.putLong(item.ip().bas());
+    } else if (reponduPtr) {
+      final String cible = item.nom().value();
+      enregistrement(r, TYPE_PTR, cible.length() + 2, item);
+      ecritNom(r, cible);
+    }
+    return true;
+  }
+
+  /**
+   * Lit le nom de la question dans {@link #nom}, en minuscules.
+   *
+   * @return la position qui suit le nom, ou -1 si le nom est mal formé
+   */
+  private int lisNom(final ByteBuffer q, final int debut) {
+    nom.setLength(0);
+    int pos = debut;
+    while (pos < q.limit()) {
+      final int longueur = q.get(pos++) & 0xFF;
+      if (longueur == 0) {
+        return nom.length() == 0 ? -1 : pos;
+      }
+      // Pas de pointeur de compression dans une question ; 63 octets au plus par label
+      if (longueur > 63 || pos + longueur > q.limit() || nom.length() + longueur >= 254) {
+        return -1;
+      }
+      if (nom.length() > 0) {
+        nom.append('.');
+      }
+      for (int i = 0; i < longueur; i++) {
+        final char c = (char) (q.get(pos++) & 0xFF);
+        nom.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+      }
+    }
+    return -1;
+  }
+
+  /** Écrit l'en-tête de la réponse : identifiant et RD repris de la requête, AA levé. */
+  private static void entete(final ByteBuffer q, final ByteBuffer r, final int drapeaux,
+                             final int rcode, final int questions, final int reponses) {
+    r.putShort(q.getShort(0));
+    r.putShort((short) (0x8000 | (drapeaux & 0x7800) | 0x0400 | (drapeaux & 0x0100) | rcode));
+    r.putShort((short) questions);
+    r.putShort((short) reponses);
+    r.putShort((short) 0);
+    r.putShort((short) 0);
+  }
+
+  private static void copieQuestion(final ByteBuffer q, final ByteBuffer r, final int fin) {
+    for (int i = 12; i < fin; i++) {
+      r.put(q.get(i));
+    }
+  }
+
+  /**
+   * Début d'un enregistrement de réponse, dont le nom pointe sur celui de la question.
+   * Le TTL annoncé est celui du serveur, borné par la durée de vie restante de l'entrée.
+   */
+  private void enregistrement(final ByteBuffer r, final int type, final int longueur,
+                              final DnsItem item) {
+    r.putShort((short) 0xC00C);
+    r.putShort((short) type);
+    r.putShort((short) CLASSE_IN);
+    r.putInt(item.expiration() == 0 ? ttl
+        : (int) Math.max(0, Math.min(ttl, item.expiration() - Dns.maintenant())));
+    r.putShort((short) longueur);
+  }
+
+  /** Encode un nom qualifié sous forme de labels. */
+  static void ecritNom(final ByteBuffer r, final CharSequence fqdn) {
+    int debut = 0;
+    for (int i = 0; i <= fqdn.length(); i++) {
+      if (i == fqdn.length() || fqdn.charAt(i) == '.') {
+        r.put((byte) (i - debut));
+        for (int j = debut; j < i; j++) {
+          r.put((byte) fqdn.charAt(j));
+        }
+        debut = i + 1;
+      }
+    }
+    r.put((byte) 0);
+  }
+
+  private static boolean finitPar(final CharSequence s, final String suffixe) {
+    final int decalage = s.length() - suffixe.length();
+    if (decalage < 0) {
+      return false;
+    }
+    for (int i = 0; i < suffixe.length(); i++) {
+      if (s.charAt(decalage + i) != suffixe.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lit les quatre octets inversés d'un nom "d.c.b.a" (avant le suffixe in-addr.arpa).
+   *
+   * @return l'adresse a.b.c.d sous forme entière non signée, ou -1 si le nom est invalide
+   */
+  static long ipInverse(final CharSequence s, final int fin) {
+    long ip = 0;
+    int octets = 0;
+    int valeur = 0;
+    int chiffres = 0;
+    for (int i = 0; i <= fin; i++) {
+      final char c = i == fin ? '.' : s.charAt(i);
+      if (c == '.') {
+        if (chiffres == 0 || valeur > 255 || octets == 4) {
+          return -1;
+        }
+        ip |= (long) valeur << (8 * octets);
+        octets++;
+        valeur = 0;
+        chiffres = 0;
+      } else if (c >= '0' && c <= '9' && chiffres < 3) {
+        valeur = valeur * 10 + (c - '0');
+        chiffres++;
+      } else {
+        return -1;
+      }
+    }
+    return octets == 4 ? ip : -1;
+  }
+
+  /**
+   * Lit les 32 chiffres hexadécimaux inversés d'un nom (avant le suffixe ip6.arpa)
+   * dans {@link #haut6} et {@link #bas6}.
+   *
+   * @return false si le nom n'est pas formé de 32 chiffres séparés par des points
+   */
+  private boolean ip6Inverse(final CharSequence s, final int fin) {
+    if (fin != 63) {
+      return false;
+    }
+    long haut = 0;
+    long bas = 0;
+    for (int k = 0; k < 32; k++) {
+      final char c = s.charAt(2 * k);
+      final int chiffre = Character.digit(c, 16);
+      if (chiffre < 0 || c > 'f' || k < 31 && s.charAt(2 * k + 1) != '.') {
+        return false;
+      }
+      if (k < 16) {
+        bas |= (long) chiffre << (4 * k);
+      } else {
+        haut |= (long) chiffre << (4 * (k - 16));
+      }
+    }
+    haut6 = haut;
+    bas6 = bas;
+    return true;
+  }
+}
@@ -0,0 +1,239 @@
+package fr.uvsq.cprog.collex;
+
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Lecture des {@link Metriques} d'une instance de {@link Dns} : compte rendu texte
+ * (commande stats) et MXBean JMX.
+ */
+public final class DnsStats implements DnsStatsMXBean, AutoCloseable {
+
+  /** Nombre de domaines détaillés dans le compte rendu texte. */
+  private static final int DOMAINES_RAPPORT = 10;
+
+  /** Nombre de domaines publiés en JMX. */
+  private static final int DOMAINES_JMX = 100;
+
+  private final Dns dns;
+  private ObjectName nom;
+
+  /**
+   * Statistiques d'une instance.
+   *
+   * @param dns l'instance observée
+   */
+  public DnsStats(final Dns dns) {
+    this.dns = dns;
+  }
+
+  /**
+   * Publie les statistiques d'une instance sur le serveur JMX de la plateforme,
+   * jusqu'à la fermeture de l'objet rendu.
+   *
+   * @param dns l'instance observée
+   * @return les statistiques publiées
+   * @throws RuntimeException si la publication échoue (nom déjà utilisé...)
+   */
+  public static DnsStats publie(final Dns dns) {
+    final DnsStats stats = new DnsStats(dns);
+    try {
+      final MBeanServer serveur = ManagementFactory.getPlatformMBeanServer();
+      stats.nom = new ObjectName("fr.uvsq.cprog.collex:type=Dns,base="
+          + ObjectName.quote(String.valueOf(dns.getDbPath())));
+      serveur.registerMBean(stats, stats.nom);
+    } catch (JMException e) {
+      throw new RuntimeException("Publication JMX impossible : " + e.getMessage(), e);
+    }
+    return stats;
+  }
+
+  /** Retire les statistiques du serveur JMX, si elles y ont été publiées. */
+  @Override
+  public void close() {
+    if (nom == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(nom);
+    } catch (JMException ignored) {
+      // Déjà retirées
+    }
+    nom = null;
+  }
+
+  /** Mesures des opérations de la base puis des commandes, dans l'ordre d'affichage. */
+  private Map<String, Metriques.Mesure> mesures() {
+    final Metriques m = dns.metriques();
+    final Map<String, Metriques.Mesure> r = new LinkedHashMap<>();
+    r.put("recherche-nom", m.rechercheNom);
+    r.put("recherche-ip", m.rechercheIp);
+    if (m.absence.appels() > 0) {
+      r.put("recherche-absente", m.absence);
+    }
+    r.put("ls", m.liste);
+    r.put("ls-R", m.hierarchie);
+    r.put("range", m.plage);
+    r.put("free", m.libre);
+    r.put("add", m.ajout);
+    r.put("sauvegarde", m.sauvegarde);
+    if (m.cacheDisque.appels() > 0) {
+      r.put("cache-disque", m.cacheDisque);
+      r.put("lecture-disque", m.lectureDisque);
+    }
+    if (m.rechargement.appels() > 0) {
+      r.put("rechargement", m.rechargement);
+    }
+    if (m.expiration.appels() > 0) {
+      r.put("expiration", m.expiration);
+    }
+    if (m.replication.appels() > 0) {
+      r.put("replication", m.replication);
+    }
+    m.commandes().forEach((c, mesure) -> r.put("commande:" + c, mesure));
+    return r;
+  }
+
+  private <T> Map<String, T> parOperation(final Function<Metriques.Mesure, T> f) {
+    final Map<String, T> r = new LinkedHashMap<>();
+    mesures().forEach((op, mesure) -> r.put(op, f.apply(mesure)));
+    return r;
+  }
+
+  private Map<String, Double> percentile(final int rang) {
+    return parOperation(mesure -> mesure.percentiles()[rang] / 1e3);
+  }
+
+  @Override
+  public int getEntrees() {
+    return dns.size();
+  }
+
+  @Override
+  public long getDureeChargementMillis() {
+    return dns.metriques().chargementNanos() / 1_000_000;
+  }
+
+  @Override
+  public double getTauxCacheDisque() {
+    final Metriques.Mesure cache = dns.metriques().cacheDisque;
+    final long appels = cache.appels();
+    return appels == 0 ? 0 : (double) cache.succes() / appels;
+  }
+
+  @Override
+  public double getTauxFauxPositifsFiltre() {
+    final Metriques.Mesure absence = dns.metriques().absence;
+    final long appels = absence.appels();
+    return appels == 0 ? 0 : (double) absence.echecs() / appels;
+  }
+
+  @Override
+  public String getDernierRechargement() {
+    final Dns.Rechargement r = dns.metriques().dernierRechargement();
+    return r == null ? "" : r.toString();
+  }
+
+  @Override
+  public long getEntreesExpirees() {
+    return dns.metriques().expirees();
+  }
+
+  @Override
+  public long getSequenceReplication() {
+    return dns.metriques().sequenceReplication();
+  }
+
+  @Override
+  public Map<String, Long> getAppels() {
+    return parOperation(Metriques.Mesure::appels);
+  }
+
+  @Override
+  public Map<String, Long> getSucces() {
+    return parOperation(Metriques.Mesure::succes);
+  }
+
+  @Override
+  public Map<String, Long> getEchecs() {
+    return parOperation(Metriques.Mesure::echecs);
+  }
+
+  @Override
+  public Map<String, Double> getDureeTotaleMillis() {
+    return parOperation(mesure -> mesure.nanos() / 1e6);
+  }
+
+  @Override
+  public Map<String, Double> getP50Micros() {
+    return percentile(0);
+  }
+
+  @Override
+  public Map<String, Double> getP99Micros() {
+    return percentile(1);
+  }
+
+  @Override
+  public Map<String, Double> getP999Micros() {
+    return percentile(2);
+  }
+
+  @Override
+  public Map<String, Integer> getEntreesParDomaine() {
+    return plusGrandsDomaines(dns.entreesParDomaine(), DOMAINES_JMX);
+  }
+
+  private static Map<String, Integer> plusGrandsDomaines(final Map<String, Integer> domaines,
+                                                         final int n) {
+    return domaines.entrySet().stream()
+        .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())
+            .thenComparing(Map.Entry.comparingByKey()))
+        .limit(n)
+        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
+            (a, b) -> a, LinkedHashMap::new));
+  }
+
+  @Override
+  public String rapport() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Entrées : %,d (chargement en %,d ms)%n",
+        getEntrees(), getDureeChargementMillis()));
+    if (dns.metriques().cacheDisque.appels() > 0) {
+      sb.append(String.format("Cache disque : %.1f %% de succès%n", 100 * getTauxCacheDisque()));
+    }
+    if (dns.metriques().absence.appels() > 0) {
+      sb.append(String.format("Filtre de Bloom : %.2f %% de faux positifs, %,d Kio%n",
+          100 * getTauxFauxPositifsFiltre(), dns.octetsFiltre() / 1024));
+    }
+    if (dns.metriques().dernierRechargement() != null) {
+      sb.append(String.format("Dernier rechargement : %s%n", getDernierRechargement()));
+    }
+    if (getEntreesExpirees() > 0) {
+      sb.append(String.format("Entrées expirées : %,d%n", getEntreesExpirees()));
+    }
+    if (getSequenceReplication() >= 0) {
+      sb.append(String.format("Réplication : changement %,d%n", getSequenceReplication()));
+    }
+    sb.append(String.format("%-24s %10s %10s %10s %10s %10s %10s%n",
+        "opération", "appels", "succès", "échecs", "p50 µs", "p99 µs", "p999 µs"));
+    mesures().forEach((op, mesure) -> {
+      final long[] p = mesure.percentiles();
+      sb.append(String.format("%-24s %,10d %,10d %,10d %10.1f %10.1f %10.1f%n",
+          op, mesure.appels(), mesure.succes(), mesure.echecs(),
+          p[0] / 1e3, p[1] / 1e3, p[2] / 1e3));
+    });
+    final Map<String, Integer> domaines = dns.entreesParDomaine();
+    sb.append(String.format("Domaines : %,d", domaines.size()));
+    plusGrandsDomaines(domaines, DOMAINES_RAPPORT).forEach((d, n) ->
+        sb.append(String.format("%n  %-30s %,10d", d, n)));
+    return sb.toString();
+  }
+}
@@ -0,0 +1,78 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Map;
+
+/**
+ * Statistiques d'une instance de {@link Dns}, publiées en JMX
+ * (objet "fr.uvsq.cprog.collex:type=Dns", visible par exemple dans JConsole).
+ *
+ * Les opérations suivies sont "recherche-nom", "recherche-ip", "recherche-absente"
+ * (recherches sans résultat, hors mode mémoire ; succès : écartée par le filtre de
+ * Bloom du stockage), "ls", "add" et
+ * "sauvegarde", en mode disque "cache-disque" et "lecture-disque", après un
+ * rechargement de la base "rechargement", après une expiration "expiration", sur
+ * une réplique "replication" (retard de chaque changement reçu du maître), puis
+ * chaque commande exécutée, préfixée par "commande:".
+ * Un succès est une entrée trouvée, un domaine non vide, un ajout accepté ou
+ * une commande qui n'a pas répondu par une erreur.
+ */
+public interface DnsStatsMXBean {
+
+  /** Nombre d'entrées de la base. */
+  int getEntrees();
+
+  /** Durée du dernier chargement de la base, en millisecondes. */
+  long getDureeChargementMillis();
+
+  /** Part des recherches du mode disque servies par le cache, entre 0 et 1. */
+  double getTauxCacheDisque();
+
+  /**
+   * Part des recherches sans résultat que le filtre de Bloom du stockage n'a pas
+   * écartées (faux positifs), entre 0 et 1.
+   */
+  double getTauxFauxPositifsFiltre();
+
+  /**
+   * Différences et durée du dernier rechargement de la base
+   * (ex : "+3 -1 ~2 en 12 ms"), vide s'il n'y en a pas eu.
+   */
+  String getDernierRechargement();
+
+  /** Nombre d'entrées retirées de la base à l'expiration de leur durée de vie. */
+  long getEntreesExpirees();
+
+  /**
+   * Numéro du dernier changement publié (maître) ou appliqué (réplique) :
+   * l'écart entre les deux est le retard d'une réplique, en changements.
+   * -1 sans réplication.
+   */
+  long getSequenceReplication();
+
+  /** Nombre d'appels par opération. */
+  Map<String, Long> getAppels();
+
+  /** Nombre de succès par opération. */
+  Map<String, Long> getSucces();
+
+  /** Nombre d'échecs par opération. */
+  Map<String, Long> getEchecs();
+
+  /** Durée totale par opération, en millisecondes. */
+  Map<String, Double> getDureeTotaleMillis();
+
+  /** Percentile 50 des durées par opération, en microsecondes. */
+  Map<String, Double> getP50Micros();
+
+  /** Percentile 99 des durées par opération, en microsecondes. */
+  Map<String, Double> getP99Micros();
+
+  /** Percentile 99,9 des durées par opération, en microsecondes. */
+  Map<String, Double> getP999Micros();
+
+  /** Nombre d'entrées des plus grands domaines. */
+  Map<String, Integer> getEntreesParDomaine();
+
+  /** Compte rendu texte, identique à celui de la commande stats. */
+  String rapport();
+}
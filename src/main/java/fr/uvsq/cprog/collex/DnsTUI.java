@@ -1,32 +1,62 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 /**
  * IHM texte (Text User Interface) pour dialoguer avec l'utilisateur.
  * - nextCommande() lit et analyse une ligne saisie, et renvoie une Commande.
- * - affiche(String) affiche un message à l'utilisateur.
+ * - affiche(String) affiche un message à l'utilisateur ; affiche(Commande, Dns) affiche
+ *   le résultat d'une commande au fur et à mesure qu'il est produit.
  *
  * Commandes gérées :
  *   - "quit" | "exit"               -> termine l'application
  *   - "ls [-a] <domaine>"           -> liste les entrées du domaine (tri par nom ou par IP si -a)
- *   - "add <ip> <fqdn>"             -> ajoute une entrée
+ *   - "ls [-a] <domaine> [limit <n>] [after <clé>]"
+ *                                   -> au plus n entrées, à partir de celle qui suit la clé
+ *                                      (avec -a, ordre de {@link AdresseIP#compareTo} : ::1
+ *                                      avant les adresses IPv4, 2001:db8::1 après)
+ *   - "ls [-a] -R <domaine>"        -> liste les entrées du domaine et de ses sous-domaines
+ *   - "ls [-a] <motif>"             -> liste les noms correspondant au motif (ex : *.uvsq.fr, www.*.fr)
+ *   - "complete <debut>"            -> propose les noms qui complètent le premier label (ex : po.uvsq.fr)
+ *   - "ls -r <cidr>"                -> liste les entrées d'un réseau, par IP (ex : 193.51.0.0/16)
+ *   - "range <ip1> <ip2>"           -> liste les entrées de ip1 à ip2 incluses, par IP
+ *   - "free <cidr> | <ip1> <ip2>"   -> affiche la première adresse libre de la plage
+ *   - "add <ip> <fqdn> [ttl]"       -> ajoute une entrée, qui expire après ttl secondes si donné
+ *   - "import <fichier>"            -> ajoute les entrées d'un fichier "nom ip"
+ *   - "stats"                       -> affiche les compteurs et latences ({@link DnsStats})
  *   - "<fqdn>"                      -> affiche l'IP associée
  *   - "<ip>"                        -> affiche le nom associé
  */
 public class DnsTUI {
 
-  private static final Pattern IPV4 =
-      Pattern.compile("^((25[0-5]|2[0-4]\\d|1?\\d?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1?\\d?\\d)$");
+  /** Nombre maximal de propositions de la commande complete. */
+  private static final int COMPLETIONS = 20;
+
+  /**
+   * Premiers mots des commandes acceptées par les serveurs réseau, en plus des
+   * recherches (un nom ou une adresse seuls) : des lectures de la base, et quit.
+   */
+  private static final Set<String> COMMANDES_RESEAU =
+      Set.of("ls", "range", "free", "complete", "stats", "quit", "exit");
 
   private final Scanner in;
+  private final Writer out;
 
   /** Construit la TUI en lisant sur l'entrée standard. */
   public DnsTUI() {
     this.in = new Scanner(System.in);
+    this.out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
   }
 
   /**
@@ -34,7 +64,19 @@ public class DnsTUI {
    */
   public Commande nextCommande() {
     System.out.print("> ");
-    final String line = in.nextLine().trim();
+    return analyse(in.nextLine());
+  }
+
+  /**
+   * Analyse une ligne de commande et renvoie la Commande correspondante.
+   * Utilisée par la TUI et le mode script ; les serveurs réseau passent par
+   * {@link #analyseReseau(String)}, qui n'accepte qu'une partie des commandes.
+   *
+   * @param ligne la ligne saisie
+   * @return la commande prête à exécuter (un message d'erreur si la ligne est invalide)
+   */
+  public static Commande analyse(final String ligne) {
+    final String line = ligne.trim();
     if (line.isEmpty()) {
       return msg("Commande vide");
     }
@@ -43,39 +85,115 @@ public class DnsTUI {
 
     // Quitter
     if ("quit".equals(lower) || "exit".equals(lower)) {
-      return new Commande() {
+      return mesuree("quit", new Commande() {
         @Override
         public String execute(final Dns dns) {
-          return "Fermeture de l'application dns.";
+          return "Fermeture de l'application dns. Bye !";
         }
         @Override
         public boolean shouldQuit() {
           return true;
         }
-      };
+      });
+    }
+
+    if ("stats".equals(lower)) {
+      return mesuree("stats", true, dns -> new DnsStats(dns).rapport());
     }
 
     
     final String[] t = line.split("\\s+");
 
-    // ls [-a] domaine
+    // ls -r cidr, range ip1 ip2
+    if ("ls".equals(t[0]) && t.length >= 2 && "-r".equals(t[1])) {
+      if (t.length != 3) {
+        return msg("Usage : ls -r <cidr>");
+      }
+      return plage(t, 2);
+    }
+    if ("range".equals(t[0])) {
+      if (t.length != 3) {
+        return msg("Usage : range <ip1> <ip2>");
+      }
+      return plage(t, 1);
+    }
+
+    // free cidr | free ip1 ip2
+    if ("free".equals(t[0])) {
+      if (t.length != 2 && t.length != 3) {
+        return msg("Usage : free <cidr> | free <ip1> <ip2>");
+      }
+      final PlageIP plage;
+      try {
+        plage = analysePlage(t, 1);
+      } catch (IllegalArgumentException e) {
+        return msg(e.getMessage());
+      }
+      return mesuree("free", true, dns -> {
+        final AdresseIP ip = dns.getAdresseLibre(plage);
+        return ip == null ? "ERREUR : Aucune adresse libre dans " + plage : ip.value();
+      });
+    }
+
+    // ls [-a] [-R] domaine, ls [-a] motif
     if ("ls".equals(t[0])) {
-      final boolean triAdresse;
-      final int idxDomaine;
-
-      if (t.length >= 3 && "-a".equals(t[1])) {
-        triAdresse = true;
-        idxDomaine = 2;
-      } else if (t.length >= 2) {
-        triAdresse = false;
-        idxDomaine = 1;
-      } else {
-        return msg("Usage : ls [-a] <domaine>");
+      boolean tri = false;
+      boolean rec = false;
+      int idxDomaine = 1;
+      for (; idxDomaine < t.length - 1 && t[idxDomaine].startsWith("-"); idxDomaine++) {
+        if ("-a".equals(t[idxDomaine])) {
+          tri = true;
+        } else if ("-R".equals(t[idxDomaine])) {
+          rec = true;
+        } else {
+          return msg("Usage : ls [-a] [-R] <domaine>");
+        }
+      }
+      if (idxDomaine >= t.length || t[idxDomaine].startsWith("-")) {
+        return msg("Usage : ls [-a] [-R] <domaine>");
       }
 
+      final boolean triAdresse = tri;
+      final boolean recursif = rec;
       final String domaine = t[idxDomaine];
-      return dns -> {
-        final List<DnsItem> items = dns.getItems(domaine, triAdresse);
+      final boolean motif = domaine.indexOf('*') >= 0;
+
+      // Pagination : limit <n>, after <clé>
+      int limite = Integer.MAX_VALUE;
+      String apres = null;
+      for (int i = idxDomaine + 1; i < t.length; i += 2) {
+        if (i + 1 == t.length || recursif || motif) {
+          return msg("Usage : ls [-a] <domaine> [limit <n>] [after <clé>]");
+        }
+        if ("limit".equals(t[i])) {
+          try {
+            limite = Integer.parseInt(t[i + 1]);
+          } catch (NumberFormatException e) {
+            limite = 0;
+          }
+          if (limite <= 0) {
+            return msg("Limite invalide : " + t[i + 1]);
+          }
+        } else if ("after".equals(t[i])) {
+          apres = t[i + 1];
+        } else {
+          return msg("Usage : ls [-a] <domaine> [limit <n>] [after <clé>]");
+        }
+      }
+      if (!recursif && !motif) {
+        return mesuree("ls", new CommandeListeDomaine(domaine, triAdresse, limite, apres));
+      }
+      return mesuree(recursif ? "ls-R" : "ls-motif", true, dns -> {
+        List<DnsItem> items;
+        try {
+          items = recursif ? dns.getItemsRecursif(domaine) : dns.getItemsMotif(domaine);
+        } catch (IllegalArgumentException e) {
+          return e.getMessage();
+        }
+        if (triAdresse) {
+          items = new ArrayList<>(items);
+          items.sort(Comparator.comparing(DnsItem::ip));
+        }
         if (items.isEmpty()) {
           return "(aucune entrée pour le domaine " + domaine + ")";
         }
@@ -88,43 +206,81 @@ public class DnsTUI {
           }
         }
         return sb.toString().stripTrailing();
-      };
+      });
+    }
+
+    // complete debut
+    if ("complete".equals(t[0])) {
+      if (t.length != 2) {
+        return msg("Usage : complete <debut>");
+      }
+      return mesuree("complete", true, dns -> {
+        final List<String> noms;
+        try {
+          noms = dns.completions(t[1], COMPLETIONS);
+        } catch (IllegalArgumentException e) {
+          return e.getMessage();
+        }
+        return noms.isEmpty() ? "(aucune proposition pour " + t[1] + ")" : String.join("\n", noms);
+      });
     }
 
-    // add <ip> <fqdn>
+    // import <fichier>
+    if ("import".equals(t[0])) {
+      if (t.length != 2) {
+        return msg("Usage : import <fichier>");
+      }
+      return mesuree("import", new CommandeImport(Path.of(t[1])));
+    }
+
+    // add <ip> <fqdn> [ttl]
     if ("add".equals(t[0])) {
-      if (t.length != 3) {
-        return msg("Usage : add <ip> <fqdn>");
+      if (t.length != 3 && t.length != 4) {
+        return msg("Usage : add <ip> <fqdn> [ttl]");
       }
       final String ipStr = t[1];
       final String fqdnStr = t[2];
-      return dns -> {
+      final long ttl;
+      try {
+        ttl = t.length == 4 ? Long.parseLong(t[3]) : 0;
+      } catch (NumberFormatException e) {
+        return msg("Durée de vie invalide : " + t[3]);
+      }
+      if (t.length == 4 && !Dns.ttlValide(ttl)) {
+        return msg("Durée de vie invalide : " + t[3]);
+      }
+      return mesuree("add", dns -> {
         try {
-          final AdresseIP ip = new AdresseIP(ipStr);
+          final AdresseIP ip = AdresseIP.de(ipStr);
           final NomMachine nom = new NomMachine(fqdnStr);
-          dns.addItem(ip, nom);
+          if (t.length == 4) {
+            dns.addItem(ip, nom, ttl);
+          } else {
+            dns.addItem(ip, nom);
+          }
           return "OK";
         } catch (RuntimeException e) {
           return e.getMessage();
         }
-      };
+      });
     }
     
     
     if (t.length == 1) {
       final String token = t[0];
-      if (IPV4.matcher(token).matches()) {
+      final AdresseIP ip = AdresseIP.de(token, 0, token.length());
+      if (ip != null) {
         
-        return dns -> {
-          final DnsItem it = dns.getItem(new AdresseIP(token));
+        return mesuree("recherche-ip", true, dns -> {
+          final DnsItem it = dns.getItem(ip);
           return (it == null) ? "ERREUR : IP inconnue" : it.nom().value();
-        };
+        });
       } else {
         
-        return dns -> {
+        return mesuree("recherche-nom", true, dns -> {
           final DnsItem it = dns.getItem(new NomMachine(token));
           return (it == null) ? "ERREUR : Nom inconnu" : it.ip().value();
-        };
+        });
       }
     }
 
@@ -132,6 +288,60 @@ public class DnsTUI {
     return msg("Commande inconnue");
   }
 
+  /**
+   * Analyse une ligne reçue d'un client réseau : seules les lectures de la base et quit
+   * sont acceptées. Les ajouts et import (qui lit un fichier du serveur) sont refusés,
+   * comme toute commande qui ne figure pas dans la liste autorisée.
+   *
+   * @param ligne la ligne reçue
+   * @return la commande prête à exécuter (un message d'erreur si elle est refusée)
+   */
+  public static Commande analyseReseau(final String ligne) {
+    final String line = ligne.trim();
+    final String[] t = line.split("\\s+", 2);
+    final String mot = t[0].toLowerCase(Locale.ROOT);
+    if ("add".equals(mot) || "import".equals(mot)) {
+      return msg("Commande non autorisée : " + t[0]);
+    }
+    // Un mot seul est une recherche ; sinon, seules les commandes de la liste sont analysées
+    if (t.length > 1 && !COMMANDES_RESEAU.contains(mot)) {
+      return msg("Commande inconnue");
+    }
+    final Commande cmd = analyse(line);
+    return cmd.lectureSeule() || cmd.shouldQuit() ? cmd : msg("Commande non autorisée : " + t[0]);
+  }
+
+  /** Commande listant les entrées de la plage donnée à partir du mot {@code debut}. */
+  private static Commande plage(final String[] t, final int debut) {
+    final PlageIP plage;
+    try {
+      plage = analysePlage(t, debut);
+    } catch (IllegalArgumentException e) {
+      return msg(e.getMessage());
+    }
+    return mesuree("range", true, dns -> {
+      final List<DnsItem> items = dns.getItems(plage);
+      if (items.isEmpty()) {
+        return "(aucune entrée dans la plage " + plage + ")";
+      }
+      final StringBuilder sb = new StringBuilder();
+      for (DnsItem it : items) {
+        sb.append(it.ip().value()).append(' ').append(it.nom().value()).append('\n');
+      }
+      return sb.toString().stripTrailing();
+    });
+  }
+
+  /**
+   * Analyse une plage écrite à partir du mot {@code debut} : un réseau CIDR seul
+   * ou deux adresses.
+   */
+  private static PlageIP analysePlage(final String[] t, final int debut) {
+    return t.length == debut + 1
+        ? PlageIP.cidr(t[debut])
+        : new PlageIP(new AdresseIP(t[debut]), new AdresseIP(t[debut + 1]));
+  }
+
   /**
    * Affiche un message, si non vide.
    */
@@ -141,9 +351,139 @@ public class DnsTUI {
     }
   }
 
-  /** Petite commande utilitaire qui renvoie un message fixe. */
+  /**
+   * Exécute une commande et affiche son résultat au fur et à mesure qu'il est produit,
+   * sans le construire en entier.
+   *
+   * @param cmd la commande
+   * @param dns la base
+   */
+  public void affiche(final Commande cmd, final Dns dns) {
+    try {
+      final SortieSurveillee sortie = new SortieSurveillee(out);
+      cmd.execute(dns, sortie);
+      if (sortie.ecrits > 0) {
+        out.write('\n');
+      }
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Petite commande utilitaire qui renvoie un message fixe (comptée en échec). */
   private static Commande msg(final String message) {
-    return dns -> message;
+    return new Commande() {
+      @Override
+      public String execute(final Dns dns) {
+        dns.metriques().commande("invalide").enregistre(System.nanoTime(), false);
+        return message;
+      }
+
+      @Override
+      public boolean lectureSeule() {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Enveloppe une commande pour compter ses exécutions et mesurer leur durée
+   * dans les métriques de la base. Une exécution qui lève une exception ou
+   * répond par "ERREUR" est comptée en échec.
+   */
+  private static Commande mesuree(final String nom, final Commande commande) {
+    return mesuree(nom, commande.lectureSeule(), commande);
+  }
+
+  /**
+   * Enveloppe une commande (voir {@link #mesuree(String, Commande)}) en indiquant si
+   * elle ne fait que lire la base.
+   */
+  private static Commande mesuree(final String nom, final boolean lectureSeule,
+                                  final Commande commande) {
+    return new Commande() {
+      @Override
+      public String execute(final Dns dns) {
+        final long debut = System.nanoTime();
+        boolean ok = false;
+        try {
+          final String out = commande.execute(dns);
+          ok = out == null || !out.startsWith("ERREUR");
+          return out;
+        } finally {
+          dns.metriques().commande(nom).enregistre(debut, ok);
+        }
+      }
+
+      @Override
+      public void execute(final Dns dns, final Appendable sortie) throws IOException {
+        final long debut = System.nanoTime();
+        final SortieSurveillee surveillee = new SortieSurveillee(sortie);
+        boolean ok = false;
+        try {
+          commande.execute(dns, surveillee);
+          ok = !surveillee.erreur();
+        } finally {
+          dns.metriques().commande(nom).enregistre(debut, ok);
+        }
+      }
+
+      @Override
+      public boolean lectureSeule() {
+        return lectureSeule;
+      }
+
+      @Override
+      public boolean shouldQuit() {
+        return commande.shouldQuit();
+      }
+    };
+  }
+
+  /** Sortie qui compte les caractères écrits et retient si le texte commence par "ERREUR". */
+  private static final class SortieSurveillee implements Appendable {
+    private static final String ERREUR = "ERREUR";
+
+    private final Appendable sortie;
+    private long ecrits;
+    private boolean erreur = true;
+
+    SortieSurveillee(final Appendable sortie) {
+      this.sortie = sortie;
+    }
+
+    boolean erreur() {
+      return erreur && ecrits >= ERREUR.length();
+    }
+
+    @Override
+    public Appendable append(final CharSequence csq) throws IOException {
+      final CharSequence s = csq == null ? "null" : csq;
+      return append(s, 0, s.length());
+    }
+
+    @Override
+    public Appendable append(final CharSequence csq, final int debut, final int fin)
+        throws IOException {
+      final CharSequence s = csq == null ? "null" : csq;
+      for (int i = debut; i < fin && ecrits + i - debut < ERREUR.length(); i++) {
+        erreur &= s.charAt(i) == ERREUR.charAt((int) ecrits + i - debut);
+      }
+      ecrits += fin - debut;
+      sortie.append(s, debut, fin);
+      return this;
+    }
+
+    @Override
+    public Appendable append(final char c) throws IOException {
+      if (ecrits < ERREUR.length()) {
+        erreur &= c == ERREUR.charAt((int) ecrits);
+      }
+      ecrits++;
+      sortie.append(c);
+      return this;
+    }
   }
 }
 
@@ -0,0 +1,139 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Filtre de Bloom par blocs sur les noms et les adresses d'un {@link Stockage} : il
+ * répond "absent" à coup sûr, ou "peut-être présent". Une recherche qu'il écarte ne
+ * consulte ni l'instantané, ni les colonnes, ni le disque.
+ *
+ * Chaque clé (nom ou adresse) choisit un bloc de 512 bits, une ligne de cache, puis
+ * un bit dans chacun de ses 8 mots : une consultation ne lit qu'une ligne de cache.
+ * Avec {@link #BITS_PAR_CLE} bits par clé, la part de faux positifs attendue est de
+ * l'ordre de 0,1 %.
+ *
+ * Le hachage d'un nom est celui de {@link String#hashCode()}, déjà calculé et gardé
+ * par la chaîne pour l'index du tas : une recherche ne relit pas le nom une seconde
+ * fois. Le filtre est rempli une fois pour toutes, avant d'être publié.
+ */
+final class FiltreBloom {
+
+  /** Bits du filtre par clé ; chaque entrée apporte deux clés (nom et adresse). */
+  static final int BITS_PAR_CLE = 16;
+
+  /** Nombre minimal d'entrées prévues. */
+  static final int CAPACITE_MIN = 1024;
+
+  /** Mots de 64 bits par bloc. */
+  private static final int MOTS_PAR_BLOC = 8;
+
+  /**
+   * Poids fort des clés d'adresse : le hachage d'un nom, un int étendu, a ses 32 bits
+   * de poids fort tous à 0 ou tous à 1 et ne peut pas valoir une clé d'adresse.
+   */
+  private static final long CLE_IP = 0x632BE59BL << 32;
+
+  private final long[] mots;
+  private final int blocs;
+
+  /**
+   * Filtre vide.
+   *
+   * @param capacite nombre d'entrées prévues
+   */
+  FiltreBloom(final int capacite) {
+    final long bits = 2L * Math.max(capacite, CAPACITE_MIN) * BITS_PAR_CLE;
+    this.blocs = (int) Math.min((bits + 511) / 512, Integer.MAX_VALUE / MOTS_PAR_BLOC);
+    this.mots = new long[blocs * MOTS_PAR_BLOC];
+  }
+
+  /**
+   * Hachage d'un nom.
+   *
+   * @param fqdn le nom qualifié, en minuscules
+   * @return le hachage du nom
+   */
+  static long hacheNom(final String fqdn) {
+    return fqdn.hashCode();
+  }
+
+  /**
+   * Hachage d'une adresse IPv4.
+   *
+   * @param ip les 32 bits de l'adresse
+   * @return le hachage de l'adresse
+   */
+  static long hacheIp(final int ip) {
+    return CLE_IP | (ip & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Ajoute le nom et l'adresse d'une entrée.
+   *
+   * @param item l'entrée
+   */
+  void ajoute(final DnsItem item) {
+    ajoute(hacheNom(item.nom().value()), hacheIp(item.ip().toInt()));
+  }
+
+  /**
+   * Ajoute une entrée par les hachages de son nom et de son adresse : un stockage qui
+   * lit ses noms en octets ASCII calcule le hachage du nom comme {@link String#hashCode()}.
+   *
+   * @param nom hachage du nom
+   * @param ip hachage de l'adresse
+   */
+  void ajoute(final long nom, final long ip) {
+    ajoute(nom);
+    ajoute(ip);
+  }
+
+  private void ajoute(final long h) {
+    final long m = melange(h);
+    final int base = bloc(m);
+    long bits = melange(m);
+    for (int k = 0; k < MOTS_PAR_BLOC; k++, bits >>>= 6) {
+      mots[base + k] |= 1L << bits;
+    }
+  }
+
+  /**
+   * Indique si une clé peut avoir été ajoutée.
+   *
+   * @param h hachage de la clé ({@link #hacheNom} ou {@link #hacheIp})
+   * @return false si la clé n'a certainement pas été ajoutée
+   */
+  boolean peutContenir(final long h) {
+    final long m = melange(h);
+    final int base = bloc(m);
+    long bits = melange(m);
+    for (int k = 0; k < MOTS_PAR_BLOC; k++, bits >>>= 6) {
+      if ((mots[base + k] & (1L << bits)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Premier mot du bloc d'une clé, choisi par les 32 bits de poids fort de son mélange. */
+  private int bloc(final long m) {
+    return (int) (((m >>> 32) * blocs) >>> 32) * MOTS_PAR_BLOC;
+  }
+
+  /**
+   * Taille des bits du filtre.
+   *
+   * @return taille en octets
+   */
+  long octets() {
+    return 8L * mots.length;
+  }
+
+  private static long melange(final long x) {
+    long h = x;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
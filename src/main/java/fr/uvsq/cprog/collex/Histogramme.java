@@ -0,0 +1,94 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de durées, en nanosecondes, à enregistrement concurrent et sans verrou.
+ *
+ * Les classes sont logarithmiques : chaque puissance de 2 est découpée en 8 classes
+ * de même largeur, ce qui borne l'erreur relative d'un percentile à 1/16 (la valeur
+ * rendue est le milieu de sa classe). Chaque classe est un {@link LongAdder} :
+ * des threads qui enregistrent en même temps dans la même classe écrivent dans
+ * des cellules distinctes au lieu de se disputer une même ligne de cache.
+ * Les durées au-delà de 2^40 ns (environ 18 minutes) sont comptées dans la dernière classe.
+ */
+final class Histogramme {
+
+  /** Bits de mantisse conservés : 2^3 = 8 classes par puissance de 2. */
+  private static final int BITS = 3;
+  private static final int SOUS_CLASSES = 1 << BITS;
+  private static final int EXPOSANT_MAX = 40;
+  private static final int CLASSES = (EXPOSANT_MAX - BITS + 2) * SOUS_CLASSES;
+
+  private final LongAdder[] classes = new LongAdder[CLASSES];
+
+  Histogramme() {
+    for (int i = 0; i < CLASSES; i++) {
+      classes[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Enregistre une durée.
+   *
+   * @param nanos durée en nanosecondes (une valeur négative compte pour 0)
+   */
+  void enregistre(final long nanos) {
+    classes[classe(nanos)].increment();
+  }
+
+  /**
+   * Calcule des percentiles sur un instantané des compteurs. Les enregistrements
+   * concurrents au calcul peuvent y être partiellement pris en compte.
+   *
+   * @param quantiles quantiles demandés, entre 0 et 1 (ex : 0.5, 0.99, 0.999)
+   * @return la durée en nanosecondes de chaque quantile (0 si l'histogramme est vide)
+   */
+  long[] percentiles(final double... quantiles) {
+    final long[] comptes = new long[CLASSES];
+    long total = 0;
+    for (int i = 0; i < CLASSES; i++) {
+      comptes[i] = classes[i].sum();
+      total += comptes[i];
+    }
+    final long[] r = new long[quantiles.length];
+    if (total == 0) {
+      return r;
+    }
+    for (int q = 0; q < quantiles.length; q++) {
+      final long rang = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+      long cumul = 0;
+      for (int i = 0; i < CLASSES; i++) {
+        cumul += comptes[i];
+        if (cumul >= rang) {
+          r[q] = milieu(i);
+          break;
+        }
+      }
+    }
+    return r;
+  }
+
+  /** Numéro de la classe d'une durée. */
+  static int classe(final long nanos) {
+    if (nanos < SOUS_CLASSES) {
+      return (int) Math.max(0, nanos);
+    }
+    final int exposant = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exposant > EXPOSANT_MAX) {
+      return CLASSES - 1;
+    }
+    final int sousClasse = (int) (nanos >>> (exposant - BITS)) & (SOUS_CLASSES - 1);
+    return (exposant - BITS + 1) * SOUS_CLASSES + sousClasse;
+  }
+
+  /** Valeur représentative (milieu) d'une classe. */
+  static long milieu(final int classe) {
+    if (classe < SOUS_CLASSES) {
+      return classe;
+    }
+    final int decalage = classe / SOUS_CLASSES - 1;
+    final long bas = (long) (SOUS_CLASSES + classe % SOUS_CLASSES) << decalage;
+    return bas + ((1L << decalage) >>> 1);
+  }
+}
@@ -0,0 +1,83 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index des entrées d'un même domaine, maintenu trié par nom et par adresse IP.
+ * Les deux ordres sont mis à jour à chaque ajout, ce qui évite tout tri lors
+ * d'un {@code ls} : la liste est produite en O(k) pour k entrées du domaine.
+ * Les lectures ne bloquent pas et peuvent avoir lieu pendant un ajout ou un retrait.
+ */
+final class IndexDomaine {
+
+  /** Entrées du domaine triées par nom qualifié. */
+  private final ConcurrentSkipListMap<String, DnsItem> parNom = new ConcurrentSkipListMap<>();
+
+  /** Entrées du domaine triées par adresse IP (ordre numérique). */
+  private final ConcurrentSkipListMap<AdresseIP, DnsItem> parIp =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * Ajoute une entrée dans les deux ordres.
+   *
+   * @param item l'entrée à indexer
+   */
+  void ajoute(final DnsItem item) {
+    parNom.put(item.nom().value(), item);
+    parIp.put(item.ip(), item);
+  }
+
+  /**
+   * Retire une entrée des deux ordres.
+   *
+   * @param item l'entrée à retirer
+   */
+  void retire(final DnsItem item) {
+    parNom.remove(item.nom().value(), item);
+    parIp.remove(item.ip(), item);
+  }
+
+  /**
+   * Retourne les entrées du domaine dans l'ordre demandé.
+   *
+   * @param trierParAdresse true pour l'ordre des IP, false pour l'ordre des noms
+   * @return une copie de la liste triée
+   */
+  List<DnsItem> items(final boolean trierParAdresse) {
+    return new ArrayList<>(trierParAdresse ? parIp.values() : parNom.values());
+  }
+
+  /**
+   * Parcourt les entrées du domaine dans l'ordre des noms, sans copie.
+   * Le parcours voit ou non les ajouts qui lui sont concurrents.
+   *
+   * @param apres nom à partir duquel reprendre (exclu), ou null pour commencer au début
+   * @return un itérateur sur les entrées
+   */
+  Iterator<DnsItem> suiteParNom(final String apres) {
+    return (apres == null ? parNom : parNom.tailMap(apres, false)).values().iterator();
+  }
+
+  /**
+   * Parcourt les entrées du domaine dans l'ordre des adresses, sans copie.
+   * Le parcours voit ou non les ajouts qui lui sont concurrents.
+   *
+   * @param apres adresse à partir de laquelle reprendre (exclue), ou null pour commencer au début
+   * @return un itérateur sur les entrées
+   */
+  Iterator<DnsItem> suiteParIp(final AdresseIP apres) {
+    return (apres == null ? parIp : parIp.tailMap(apres, false)).values().iterator();
+  }
+
+  /**
+   * Retourne le nombre d'entrées du domaine.
+   *
+   * @return nombre d'entrées
+   */
+  int size() {
+    return parNom.size();
+  }
+}
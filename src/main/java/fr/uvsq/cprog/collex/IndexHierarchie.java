@@ -0,0 +1,241 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Index hiérarchique des noms : arbre dont chaque niveau est un label, en partant
+ * de la droite (fr, puis uvsq, puis www pour www.uvsq.fr). Les fils d'un nœud sont
+ * triés par label ; un parcours en profondeur rend donc les noms dans l'ordre de
+ * {@link NomMachine#compareHierarchique}.
+ *
+ * Une requête descend d'abord le long des labels connus, puis ne visite que les
+ * nœuds qui mènent à un résultat : son coût dépend du nombre de résultats, pas de
+ * la taille de la base.
+ *
+ * Les motifs sont des tableaux de labels en partant de la droite, où un label
+ * terminé par {@code *} désigne tout label commençant par ce qui précède
+ * ({@code *} seul : n'importe quel label).
+ *
+ * Un seul écrivain à la fois est admis ; les lectures ne prennent aucun verrou.
+ * Une suppression retire aussi les labels qui ne mènent plus à aucune entrée.
+ */
+final class IndexHierarchie {
+
+  /** Un label de l'arbre : l'entrée qui porte ce nom, s'il y en a une, et les sous-labels. */
+  private static final class Noeud {
+    /** Fils par label, créés au premier d'entre eux. */
+    volatile NavigableMap<String, Noeud> fils;
+    /** Entrée dont le nom s'arrête à ce nœud. */
+    volatile DnsItem item;
+
+    /** Fils d'un label donné, créé au besoin. Réservé à l'écrivain. */
+    Noeud fils(final String label) {
+      NavigableMap<String, Noeud> f = fils;
+      if (f == null) {
+        f = new ConcurrentSkipListMap<>();
+        final Noeud n = new Noeud();
+        f.put(label, n);
+        fils = f;
+        return n;
+      }
+      return f.computeIfAbsent(label, l -> new Noeud());
+    }
+  }
+
+  private volatile Noeud racine = new Noeud();
+
+  /**
+   * Découpe un nom ou un domaine en labels, en partant de la droite.
+   *
+   * @param nom le nom (ex : "www.uvsq.fr")
+   * @return ses labels (ex : fr, uvsq, www)
+   */
+  static String[] labelsInverses(final String nom) {
+    final String[] labels = nom.split("\\.", -1);
+    for (int i = 0, j = labels.length - 1; i < j; i++, j--) {
+      final String l = labels[i];
+      labels[i] = labels[j];
+      labels[j] = l;
+    }
+    return labels;
+  }
+
+  /**
+   * Analyse un domaine ou un motif saisi, en minuscules, et le découpe en labels
+   * en partant de la droite.
+   *
+   * @param texte le domaine (ex : "uvsq.fr") ou le motif (ex : "www*.*.fr")
+   * @param motif true pour accepter les labels génériques
+   * @return les labels, en partant de la droite
+   * @throws IllegalArgumentException si un label est vide ou contient un caractère invalide
+   */
+  static String[] analyse(final String texte, final boolean motif) {
+    final String[] labels = labelsInverses(texte.trim().toLowerCase(Locale.ROOT));
+    for (String label : labels) {
+      final int fin = motif && label.endsWith("*") ? label.length() - 1 : label.length();
+      boolean valide = !label.isEmpty() && fin <= 63;
+      for (int i = 0; i < fin && valide; i++) {
+        final char c = label.charAt(i);
+        valide = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-';
+      }
+      if (!valide) {
+        throw new IllegalArgumentException((motif ? "Motif invalide : " : "Domaine invalide : ")
+            + texte);
+      }
+    }
+    return labels;
+  }
+
+  /**
+   * Associe une entrée à son nom, en remplaçant l'éventuelle entrée existante.
+   * Réservé à l'écrivain.
+   *
+   * @param item l'entrée (non null)
+   */
+  void put(final DnsItem item) {
+    Noeud n = racine;
+    for (String label : labelsInverses(item.nom().value())) {
+      n = n.fils(label);
+    }
+    n.item = item;
+  }
+
+  /**
+   * Supprime l'entrée d'un nom. Réservé à l'écrivain.
+   *
+   * @param item l'entrée à supprimer (non null)
+   */
+  void supprime(final DnsItem item) {
+    final String[] labels = labelsInverses(item.nom().value());
+    final Noeud[] chemin = new Noeud[labels.length + 1];
+    chemin[0] = racine;
+    for (int i = 0; i < labels.length; i++) {
+      final NavigableMap<String, Noeud> f = chemin[i].fils;
+      chemin[i + 1] = f == null ? null : f.get(labels[i]);
+      if (chemin[i + 1] == null) {
+        return;
+      }
+    }
+    chemin[labels.length].item = null;
+    for (int i = labels.length; i > 0; i--) {
+      final Noeud n = chemin[i];
+      if (n.item != null || n.fils != null && !n.fils.isEmpty()) {
+        return;
+      }
+      chemin[i - 1].fils.remove(labels[i - 1]);
+    }
+  }
+
+  /** Vide l'index. Réservé à l'écrivain. */
+  void clear() {
+    racine = new Noeud();
+  }
+
+  /**
+   * Parcourt, dans l'ordre hiérarchique, les entrées situées sous un domaine,
+   * à toute profondeur (sans l'éventuelle entrée qui porte le nom du domaine).
+   *
+   * @param domaine les labels du domaine, en partant de la droite
+   * @param action traitement de chaque entrée
+   */
+  void sousArbre(final String[] domaine, final Consumer<DnsItem> action) {
+    final Noeud n = descend(domaine);
+    if (n != null) {
+      parcourtFils(n, action);
+    }
+  }
+
+  /**
+   * Parcourt, dans l'ordre hiérarchique, les entrées dont le nom correspond à un motif.
+   *
+   * @param motif les labels du motif, en partant de la droite
+   * @param action traitement de chaque entrée
+   */
+  void motif(final String[] motif, final Consumer<DnsItem> action) {
+    motif(racine, motif, 0, action);
+  }
+
+  /**
+   * Parcourt, dans l'ordre, les labels présents sous un domaine et commençant par
+   * un préfixe donné.
+   *
+   * @param domaine les labels du domaine, en partant de la droite
+   * @param prefixe début des labels recherchés
+   * @param max nombre maximal de labels rendus
+   * @param action traitement de chaque label
+   */
+  void labels(final String[] domaine, final String prefixe, final int max,
+              final Consumer<String> action) {
+    final Noeud n = descend(domaine);
+    if (n == null || n.fils == null) {
+      return;
+    }
+    int reste = max;
+    for (String label : commencantPar(n.fils, prefixe).keySet()) {
+      if (reste-- == 0) {
+        return;
+      }
+      action.accept(label);
+    }
+  }
+
+  private Noeud descend(final String[] labels) {
+    Noeud n = racine;
+    for (int i = 0; i < labels.length && n != null; i++) {
+      final NavigableMap<String, Noeud> f = n.fils;
+      n = f == null ? null : f.get(labels[i]);
+    }
+    return n;
+  }
+
+  private static void parcourtFils(final Noeud n, final Consumer<DnsItem> action) {
+    final NavigableMap<String, Noeud> f = n.fils;
+    if (f == null) {
+      return;
+    }
+    for (Noeud fils : f.values()) {
+      final DnsItem item = fils.item;
+      if (item != null) {
+        action.accept(item);
+      }
+      parcourtFils(fils, action);
+    }
+  }
+
+  private static void motif(final Noeud n, final String[] motif, final int niveau,
+                            final Consumer<DnsItem> action) {
+    if (niveau == motif.length) {
+      final DnsItem item = n.item;
+      if (item != null) {
+        action.accept(item);
+      }
+      return;
+    }
+    final NavigableMap<String, Noeud> f = n.fils;
+    if (f == null) {
+      return;
+    }
+    final String label = motif[niveau];
+    if (label.endsWith("*")) {
+      final String prefixe = label.substring(0, label.length() - 1);
+      for (Map.Entry<String, Noeud> e : commencantPar(f, prefixe).entrySet()) {
+        motif(e.getValue(), motif, niveau + 1, action);
+      }
+    } else {
+      final Noeud fils = f.get(label);
+      if (fils != null) {
+        motif(fils, motif, niveau + 1, action);
+      }
+    }
+  }
+
+  /** Fils dont le label commence par un préfixe : un intervalle de la table triée. */
+  private static NavigableMap<String, Noeud> commencantPar(final NavigableMap<String, Noeud> f,
+                                                           final String prefixe) {
+    return prefixe.isEmpty() ? f : f.subMap(prefixe, true, prefixe + Character.MAX_VALUE, false);
+  }
+}
@@ -0,0 +1,185 @@
+package fr.uvsq.cprog.collex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Table de hachage à adressage ouvert indexée par la forme entière d'une adresse IPv4.
+ * Les clés sont stockées dans un tableau de {@code int} : aucune boîte {@code Integer}
+ * n'est créée, ni à l'insertion ni à la recherche. Le sondage est linéaire et la table
+ * est agrandie dès qu'elle est remplie à moitié.
+ *
+ * Un seul écrivain à la fois est admis ; les lectures ne prennent aucun verrou et
+ * peuvent avoir lieu pendant une écriture. La clé d'une case est écrite avant sa
+ * valeur, publiée avec une sémantique release : un lecteur qui voit la valeur voit
+ * donc aussi la clé. Un agrandissement construit une nouvelle table complète avant
+ * de la publier.
+ *
+ * Une suppression remplace la valeur de la case par une marque ({@link #SUPPRIMEE}) que
+ * les recherches sautent : la suite de sondage reste intacte pour les lecteurs en cours.
+ * Les cases marquées comptent dans le remplissage et disparaissent à la reconstruction
+ * suivante de la table.
+ */
+final class IndexIp {
+
+  private static final int CAPACITE_INITIALE = 16;
+
+  private static final VarHandle CASES = MethodHandles.arrayElementVarHandle(DnsItem[].class);
+
+  /** Valeur d'une case dont l'entrée a été supprimée. */
+  private static final DnsItem SUPPRIMEE =
+      new DnsItem(NomMachine.deConfiance("supprimee.invalid"), new AdresseIP(0));
+
+  /** Clés et valeurs d'une génération de la table. */
+  private static final class Table {
+    /** Clés des cases ; une case est occupée si sa valeur est non nulle. */
+    final int[] cles;
+    /** Valeurs des cases. */
+    final DnsItem[] valeurs;
+
+    Table(final int capacite) {
+      cles = new int[capacite];
+      valeurs = new DnsItem[capacite];
+    }
+  }
+
+  private volatile Table table = new Table(CAPACITE_INITIALE);
+
+  /** Nombre d'entrées présentes. */
+  private volatile int taille;
+
+  /** Nombre de cases occupées, par une entrée ou par une marque de suppression. */
+  private int occupees;
+
+  /**
+   * Recherche l'entrée associée à une adresse.
+   *
+   * @param ip la forme entière de l'adresse
+   * @return l'entrée, ou null si absente
+   */
+  DnsItem get(final int ip) {
+    final Table t = table;
+    final int masque = t.cles.length - 1;
+    for (int i = melange(ip) & masque; ; i = (i + 1) & masque) {
+      final DnsItem v = (DnsItem) CASES.getAcquire(t.valeurs, i);
+      if (v == null) {
+        return null;
+      }
+      if (v != SUPPRIMEE && t.cles[i] == ip) {
+        return v;
+      }
+    }
+  }
+
+  /**
+   * Indique si une adresse est présente.
+   *
+   * @param ip la forme entière de l'adresse
+   * @return true si présente
+   */
+  boolean containsKey(final int ip) {
+    return get(ip) != null;
+  }
+
+  /**
+   * Associe une entrée à une adresse, en remplaçant l'éventuelle entrée existante.
+   * Réservé à l'écrivain.
+   *
+   * @param ip la forme entière de l'adresse
+   * @param item l'entrée (non null)
+   */
+  void put(final int ip, final DnsItem item) {
+    Table t = table;
+    if (2 * (occupees + 1) > t.cles.length) {
+      t = reconstruit(t);
+    }
+    if (insere(t, ip, item)) {
+      taille++;
+      occupees++;
+    }
+  }
+
+  /**
+   * Supprime l'entrée associée à une adresse. Réservé à l'écrivain.
+   *
+   * @param ip la forme entière de l'adresse
+   * @return l'entrée supprimée, ou null si absente
+   */
+  DnsItem supprime(final int ip) {
+    final Table t = table;
+    final int masque = t.cles.length - 1;
+    for (int i = melange(ip) & masque; t.valeurs[i] != null; i = (i + 1) & masque) {
+      final DnsItem v = t.valeurs[i];
+      if (v != SUPPRIMEE && t.cles[i] == ip) {
+        CASES.setRelease(t.valeurs, i, SUPPRIMEE);
+        taille--;
+        return v;
+      }
+    }
+    return null;
+  }
+
+  /** Vide la table. Réservé à l'écrivain. */
+  void clear() {
+    table = new Table(CAPACITE_INITIALE);
+    taille = 0;
+    occupees = 0;
+  }
+
+  /**
+   * Retourne le nombre d'entrées.
+   *
+   * @return nombre d'entrées
+   */
+  int size() {
+    return taille;
+  }
+
+  /**
+   * Reconstruit la table sans ses marques de suppression, deux fois plus grande si
+   * les entrées présentes la rempliraient encore à plus d'un quart.
+   */
+  private Table reconstruit(final Table ancienne) {
+    final int capacite = 4 * (taille + 1) > ancienne.cles.length
+        ? ancienne.cles.length * 2 : ancienne.cles.length;
+    final Table nouvelle = new Table(capacite);
+    for (int i = 0; i < ancienne.cles.length; i++) {
+      if (ancienne.valeurs[i] != null && ancienne.valeurs[i] != SUPPRIMEE) {
+        insere(nouvelle, ancienne.cles[i], ancienne.valeurs[i]);
+      }
+    }
+    table = nouvelle;
+    occupees = taille;
+    return nouvelle;
+  }
+
+  /**
+   * Insère dans la table donnée ; renvoie true si la clé était absente (l'entrée
+   * occupe alors une case vide : les cases marquées ne sont pas réutilisées).
+   */
+  private static boolean insere(final Table t, final int ip, final DnsItem item) {
+    final int masque = t.cles.length - 1;
+    int i = melange(ip) & masque;
+    while (t.valeurs[i] != null) {
+      if (t.valeurs[i] != SUPPRIMEE && t.cles[i] == ip) {
+        CASES.setRelease(t.valeurs, i, item);
+        return false;
+      }
+      i = (i + 1) & masque;
+    }
+    t.cles[i] = ip;
+    CASES.setRelease(t.valeurs, i, item);
+    return true;
+  }
+
+  /** Étape finale de MurmurHash3 : disperse les adresses voisines dans toute la table. */
+  private static int melange(final int ip) {
+    int h = ip;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,165 @@
+package fr.uvsq.cprog.collex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Table de hachage à adressage ouvert indexée par les 128 bits d'une adresse IPv6,
+ * sur le modèle d'{@link IndexIp} : les clés sont rangées dans deux tableaux de
+ * {@code long}, si bien qu'une recherche ne crée ni texte ni objet clé, quelle que
+ * soit l'écriture de l'adresse demandée.
+ *
+ * Un seul écrivain à la fois est admis ; les lectures ne prennent aucun verrou.
+ * Les clés d'une case sont écrites avant sa valeur, publiée avec une sémantique
+ * release, et un agrandissement construit une nouvelle table complète avant de la publier.
+ * Les suppressions laissent une marque dans la case, comme dans {@link IndexIp}.
+ */
+final class IndexIp6 {
+
+  private static final int CAPACITE_INITIALE = 16;
+
+  private static final VarHandle CASES = MethodHandles.arrayElementVarHandle(DnsItem[].class);
+
+  /** Valeur d'une case dont l'entrée a été supprimée. */
+  private static final DnsItem SUPPRIMEE =
+      new DnsItem(NomMachine.deConfiance("supprimee.invalid"), new AdresseIP(0));
+
+  /** Clés et valeurs d'une génération de la table. */
+  private static final class Table {
+    /** Bits de poids fort des clés. */
+    final long[] hauts;
+    /** Bits de poids faible des clés. */
+    final long[] bas;
+    /** Valeurs des cases ; une case est occupée si sa valeur est non nulle. */
+    final DnsItem[] valeurs;
+
+    Table(final int capacite) {
+      hauts = new long[capacite];
+      bas = new long[capacite];
+      valeurs = new DnsItem[capacite];
+    }
+  }
+
+  private volatile Table table = new Table(CAPACITE_INITIALE);
+
+  /** Nombre d'entrées présentes. */
+  private volatile int taille;
+
+  /** Nombre de cases occupées, par une entrée ou par une marque de suppression. */
+  private int occupees;
+
+  /**
+   * Recherche l'entrée associée à une adresse.
+   *
+   * @param haut les 64 bits de poids fort de l'adresse
+   * @param bas les 64 bits de poids faible
+   * @return l'entrée, ou null si absente
+   */
+  DnsItem get(final long haut, final long bas) {
+    final Table t = table;
+    final int masque = t.valeurs.length - 1;
+    for (int i = melange(haut, bas) & masque; ; i = (i + 1) & masque) {
+      final DnsItem v = (DnsItem) CASES.getAcquire(t.valeurs, i);
+      if (v == null) {
+        return null;
+      }
+      if (v != SUPPRIMEE && t.hauts[i] == haut && t.bas[i] == bas) {
+        return v;
+      }
+    }
+  }
+
+  /**
+   * Associe une entrée à son adresse, en remplaçant l'éventuelle entrée existante.
+   * Réservé à l'écrivain.
+   *
+   * @param item l'entrée (non null), d'adresse IPv6
+   */
+  void put(final DnsItem item) {
+    Table t = table;
+    if (2 * (occupees + 1) > t.valeurs.length) {
+      t = reconstruit(t);
+    }
+    if (insere(t, item.ip().haut(), item.ip().bas(), item)) {
+      taille++;
+      occupees++;
+    }
+  }
+
+  /**
+   * Supprime l'entrée associée à une adresse. Réservé à l'écrivain.
+   *
+   * @param haut les 64 bits de poids fort de l'adresse
+   * @param bas les 64 bits de poids faible
+   * @return l'entrée supprimée, ou null si absente
+   */
+  DnsItem supprime(final long haut, final long bas) {
+    final Table t = table;
+    final int masque = t.valeurs.length - 1;
+    for (int i = melange(haut, bas) & masque; t.valeurs[i] != null; i = (i + 1) & masque) {
+      final DnsItem v = t.valeurs[i];
+      if (v != SUPPRIMEE && t.hauts[i] == haut && t.bas[i] == bas) {
+        CASES.setRelease(t.valeurs, i, SUPPRIMEE);
+        taille--;
+        return v;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Retourne le nombre d'entrées.
+   *
+   * @return nombre d'entrées
+   */
+  int size() {
+    return taille;
+  }
+
+  /** Reconstruit la table sans ses marques de suppression (voir {@link IndexIp}). */
+  private Table reconstruit(final Table ancienne) {
+    final int capacite = 4 * (taille + 1) > ancienne.valeurs.length
+        ? ancienne.valeurs.length * 2 : ancienne.valeurs.length;
+    final Table nouvelle = new Table(capacite);
+    for (int i = 0; i < ancienne.valeurs.length; i++) {
+      if (ancienne.valeurs[i] != null && ancienne.valeurs[i] != SUPPRIMEE) {
+        insere(nouvelle, ancienne.hauts[i], ancienne.bas[i], ancienne.valeurs[i]);
+      }
+    }
+    table = nouvelle;
+    occupees = taille;
+    return nouvelle;
+  }
+
+  /** Insère dans la table donnée ; renvoie true si la clé était absente. */
+  private static boolean insere(final Table t, final long haut, final long bas,
+                                final DnsItem item) {
+    final int masque = t.valeurs.length - 1;
+    int i = melange(haut, bas) & masque;
+    while (t.valeurs[i] != null) {
+      if (t.valeurs[i] != SUPPRIMEE && t.hauts[i] == haut && t.bas[i] == bas) {
+        CASES.setRelease(t.valeurs, i, item);
+        return false;
+      }
+      i = (i + 1) & masque;
+    }
+    t.hauts[i] = haut;
+    t.bas[i] = bas;
+    CASES.setRelease(t.valeurs, i, item);
+    return true;
+  }
+
+  /**
+   * Étape finale de MurmurHash3 (64 bits) sur les deux moitiés : les adresses d'un même
+   * préfixe, qui ne diffèrent que par leurs derniers bits, sont dispersées dans toute la table.
+   */
+  private static int melange(final long haut, final long bas) {
+    long h = haut * 0x9E3779B97F4A7C15L ^ bas;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
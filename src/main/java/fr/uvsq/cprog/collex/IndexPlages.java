@@ -0,0 +1,229 @@
+package fr.uvsq.cprog.collex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+
+/**
+ * Index des entrées ordonné par adresse IPv4 : arbre radix binaire compressé
+ * (crit-bit) sur les 32 bits de l'adresse. Chaque nœud interne ne garde que le
+ * bit où ses deux sous-arbres divergent ; les feuilles sont les entrées elles-mêmes.
+ * La profondeur est bornée par 32 : une plage de k entrées se parcourt, dans l'ordre
+ * des adresses, en O(32 + k), et la première adresse libre d'une plage se trouve
+ * en sautant les sous-arbres pleins.
+ *
+ * Comme pour {@link IndexIp}, un seul écrivain à la fois est admis et les lectures
+ * ne prennent aucun verrou. Un nœud est entièrement construit avant d'être accroché
+ * à l'arbre par une écriture release ; un lecteur voit donc l'arbre avant ou après
+ * chaque ajout. Les tailles des sous-arbres sont mises à jour après la publication :
+ * un lecteur peut en voir une trop petite, jamais une trop grande. Une suppression
+ * remplace le parent de la feuille par son autre sous-arbre, après avoir diminué les
+ * tailles.
+ */
+final class IndexPlages {
+
+  private static final VarHandle FILS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+  /** Nœud interne : ses deux sous-arbres partagent les bits au-dessus de {@link #bit}. */
+  private static final class Noeud {
+    /** Position du bit critique (31 pour le bit de poids fort). */
+    final int bit;
+    /** Bits communs au sous-arbre, ceux du bit critique et en dessous à 0. */
+    final int prefixe;
+    /** Sous-arbres 0 et 1 : un {@link Noeud} ou un {@link DnsItem}. */
+    final Object[] fils = new Object[2];
+    /** Nombre d'entrées du sous-arbre. */
+    volatile int taille;
+
+    Noeud(final int bit, final int prefixe) {
+      this.bit = bit;
+      this.prefixe = prefixe;
+    }
+
+    /** Première adresse couverte, non signée. */
+    long debut() {
+      return prefixe & 0xFFFFFFFFL;
+    }
+
+    /** Dernière adresse couverte, non signée. */
+    long fin() {
+      return debut() + (1L << (bit + 1)) - 1;
+    }
+  }
+
+  private volatile Object racine;
+
+  /** Nombre d'entrées présentes. */
+  private volatile int taille;
+
+  /**
+   * Associe une entrée à son adresse, en remplaçant l'éventuelle entrée existante.
+   * Réservé à l'écrivain.
+   *
+   * @param item l'entrée (non null)
+   */
+  void put(final DnsItem item) {
+    final int ip = item.ip().toInt();
+    final Noeud[] chemin = new Noeud[32];
+    int profondeur = 0;
+    Noeud parent = null;
+    int cote = 0;
+    Object p = racine;
+    while (p instanceof Noeud n && ((ip ^ n.prefixe) & masqueHaut(n.bit)) == 0) {
+      chemin[profondeur++] = n;
+      parent = n;
+      cote = (ip >>> n.bit) & 1;
+      p = FILS.getAcquire(n.fils, cote);
+    }
+
+    final Object nouveau;
+    if (p == null) {
+      nouveau = item;
+    } else {
+      final int diff = p instanceof Noeud n
+          ? (ip ^ n.prefixe) & masqueHaut(n.bit)
+          : ip ^ ((DnsItem) p).ip().toInt();
+      if (diff == 0) {
+        // Même adresse : l'entrée est remplacée, les tailles ne changent pas
+        publie(parent, cote, item);
+        return;
+      }
+      final int bit = 31 - Integer.numberOfLeadingZeros(diff);
+      final Noeud n = new Noeud(bit, ip & masqueHaut(bit));
+      final int c = (ip >>> bit) & 1;
+      n.fils[c] = item;
+      n.fils[1 - c] = p;
+      n.taille = tailleDe(p) + 1;
+      nouveau = n;
+    }
+    publie(parent, cote, nouveau);
+    for (int i = 0; i < profondeur; i++) {
+      chemin[i].taille++;
+    }
+    taille++;
+  }
+
+  /**
+   * Supprime l'entrée d'une adresse. Réservé à l'écrivain.
+   *
+   * @param item l'entrée à supprimer (non null)
+   * @return true si l'adresse était présente
+   */
+  boolean supprime(final DnsItem item) {
+    final int ip = item.ip().toInt();
+    final Noeud[] chemin = new Noeud[32];
+    int profondeur = 0;
+    int cote = 0;
+    int coteParent = 0;
+    Object p = racine;
+    while (p instanceof Noeud n) {
+      chemin[profondeur++] = n;
+      coteParent = cote;
+      cote = (ip >>> n.bit) & 1;
+      p = FILS.getAcquire(n.fils, cote);
+    }
+    if (p == null || ((DnsItem) p).ip().toInt() != ip) {
+      return false;
+    }
+    if (profondeur == 0) {
+      racine = null;
+    } else {
+      // Tailles d'abord : un lecteur peut les voir trop petites, jamais trop grandes
+      for (int i = 0; i < profondeur - 1; i++) {
+        chemin[i].taille--;
+      }
+      final Object frere = chemin[profondeur - 1].fils[1 - cote];
+      publie(profondeur >= 2 ? chemin[profondeur - 2] : null, coteParent, frere);
+    }
+    taille--;
+    return true;
+  }
+
+  /** Vide l'index. Réservé à l'écrivain. */
+  void clear() {
+    racine = null;
+    taille = 0;
+  }
+
+  /**
+   * Retourne le nombre d'entrées.
+   *
+   * @return nombre d'entrées
+   */
+  int size() {
+    return taille;
+  }
+
+  /**
+   * Parcourt, dans l'ordre des adresses, les entrées d'une plage.
+   *
+   * @param debut première adresse de la plage
+   * @param fin dernière adresse de la plage (incluse, non inférieure à debut)
+   * @param action traitement de chaque entrée
+   */
+  void plage(final int debut, final int fin, final Consumer<DnsItem> action) {
+    parcourt(racine, debut & 0xFFFFFFFFL, fin & 0xFFFFFFFFL, action);
+  }
+
+  private static void parcourt(final Object p, final long debut, final long fin,
+                               final Consumer<DnsItem> action) {
+    if (p instanceof Noeud n) {
+      if (n.fin() < debut || n.debut() > fin) {
+        return;
+      }
+      parcourt(FILS.getAcquire(n.fils, 0), debut, fin, action);
+      parcourt(FILS.getAcquire(n.fils, 1), debut, fin, action);
+    } else if (p != null) {
+      final long ip = ((DnsItem) p).ip().toInt() & 0xFFFFFFFFL;
+      if (ip >= debut && ip <= fin) {
+        action.accept((DnsItem) p);
+      }
+    }
+  }
+
+  /**
+   * Cherche la première adresse absente de l'index à partir d'une adresse donnée.
+   *
+   * @param depuis adresse de départ, non signée
+   * @return la plus petite adresse absente non inférieure à depuis, non signée
+   *     (2^32 si toutes les adresses à partir de depuis sont présentes)
+   */
+  long premiereLibre(final long depuis) {
+    return premiereLibre(racine, depuis);
+  }
+
+  private static long premiereLibre(final Object p, final long depuis) {
+    if (p == null) {
+      return depuis;
+    }
+    if (!(p instanceof Noeud n)) {
+      return (((DnsItem) p).ip().toInt() & 0xFFFFFFFFL) == depuis ? depuis + 1 : depuis;
+    }
+    if (depuis < n.debut() || depuis > n.fin()) {
+      return depuis;
+    }
+    if (n.taille == n.fin() - n.debut() + 1) {
+      return n.fin() + 1;
+    }
+    final long r = premiereLibre(FILS.getAcquire(n.fils, 0), depuis);
+    final long milieu = n.debut() + (1L << n.bit);
+    return r < milieu ? r : premiereLibre(FILS.getAcquire(n.fils, 1), Math.max(r, milieu));
+  }
+
+  private void publie(final Noeud parent, final int cote, final Object p) {
+    if (parent == null) {
+      racine = p;
+    } else {
+      FILS.setRelease(parent.fils, cote, p);
+    }
+  }
+
+  private static int tailleDe(final Object p) {
+    return p instanceof Noeud n ? n.taille : 1;
+  }
+
+  /** Masque des bits strictement au-dessus d'une position. */
+  private static int masqueHaut(final int bit) {
+    return bit == 31 ? 0 : -1 << (bit + 1);
+  }
+}
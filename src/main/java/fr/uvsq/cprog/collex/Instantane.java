@@ -0,0 +1,818 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Instantané binaire de la base DNS, projeté en mémoire avec {@link FileChannel#map}.
+ *
+ * L'instantané contient des entrées déjà validées et des index déjà construits :
+ * l'ouvrir ne coûte qu'une projection du fichier et la lecture de l'en-tête,
+ * quel que soit le nombre d'entrées. Les recherches lisent directement le fichier
+ * projeté et ne créent des objets que pour l'entrée trouvée.
+ *
+ * Le fichier texte reste la référence : l'en-tête mémorise sa taille et sa date,
+ * et un instantané qui ne leur correspond plus est ignoré.
+ *
+ * Format (entiers gros-boutistes) :
+ * <pre>
+ *   en-tête     magie, version, taille et date de la base, n, nombre de domaines,
+ *               capacités des tables de hachage, positions des sections
+ *   entrées     n x (ip:int, position du nom:int, longueur du nom:short,
+ *               longueur du premier label:short), triées par (domaine, nom)
+ *   noms        octets ASCII des noms, bout à bout
+ *   hachNoms    table à adressage ouvert : numéro d'entrée + 1, 0 si vide
+ *   hachIps     idem, indexée par adresse
+ *   domaines    nombre de domaines x (première entrée, fin) dans l'ordre des domaines
+ *   ipDomaine   n numéros d'entrées : pour chaque domaine, ses entrées triées par IP
+ *   ipTriees    n numéros d'entrées triés par IP (requêtes par plage)
+ *   hierarchie  n numéros d'entrées dans l'ordre de {@link NomMachine#compareHierarchique} :
+ *               les noms d'un même sous-domaine y sont contigus
+ *   annexe      entrées IPv6 ou à durée de vie limitée, en texte (voir {@link Stockage#annexe()})
+ * </pre>
+ */
+final class Instantane implements Stockage {
+
+  private static final int MAGIE = 0x444E5353;
+  private static final int VERSION = 3;
+  private static final int TAILLE_ENTETE = 80;
+  private static final int TAILLE_ENTREE = 12;
+
+  private final ByteBuffer donnees;
+  private final int n;
+  private final int nbDomaines;
+  private final int capNoms;
+  private final int capIps;
+  private final int posEntrees;
+  private final int posNoms;
+  private final int posHachNoms;
+  private final int posHachIps;
+  private final int posDomaines;
+  private final int posIpDomaine;
+  private final int posIpTriees;
+  private final int posHierarchie;
+  private final List<DnsItem> annexe;
+
+  private Instantane(final ByteBuffer donnees) {
+    this.donnees = donnees;
+    this.n = donnees.getInt(24);
+    this.nbDomaines = donnees.getInt(28);
+    this.capNoms = donnees.getInt(32);
+    this.capIps = donnees.getInt(36);
+    this.posEntrees = donnees.getInt(40);
+    this.posNoms = donnees.getInt(44);
+    this.posHachNoms = donnees.getInt(48);
+    this.posHachIps = donnees.getInt(52);
+    this.posDomaines = donnees.getInt(56);
+    this.posIpDomaine = donnees.getInt(60);
+    this.posIpTriees = donnees.getInt(64);
+    this.posHierarchie = donnees.getInt(68);
+    this.annexe = Stockage.litAnnexe(donnees, donnees.getInt(72), donnees.getInt(76));
+  }
+
+  /**
+   * Projette un instantané s'il correspond à la base texte.
+   *
+   * @param fichier le fichier de l'instantané
+   * @param base la base texte dont il doit être à jour
+   * @return l'instantané, ou null s'il est absent, d'un autre format ou périmé
+   * @throws IOException en cas d'erreur de lecture
+   */
+  static Instantane ouvre(final Path fichier, final Path base) throws IOException {
+    if (!Files.exists(fichier) || !Files.exists(base)) {
+      return null;
+    }
+    try (FileChannel c = FileChannel.open(fichier, StandardOpenOption.READ)) {
+      if (c.size() < TAILLE_ENTETE || c.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      final MappedByteBuffer m = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+      if (m.getInt(0) != MAGIE || m.getInt(4) != VERSION
+          || m.getLong(8) != Files.size(base)
+          || m.getLong(16) != Files.getLastModifiedTime(base).toMillis()) {
+        return null;
+      }
+      return new Instantane(m);
+    }
+  }
+
+  /**
+   * Écrit l'instantané des entrées données, associé à l'état actuel de la base texte.
+   * Le fichier est écrit à côté puis renommé : un lecteur ne voit jamais un instantané partiel.
+   *
+   * @param fichier le fichier de l'instantané
+   * @param base la base texte correspondante
+   * @param entrees les entrées, sans doublon de nom ni d'adresse
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  static void ecrit(final Path fichier, final Path base, final Collection<DnsItem> entrees)
+      throws IOException {
+    final List<DnsItem> annexees = new ArrayList<>();
+    final DnsItem[] items = entrees.stream().filter(d -> {
+      if (d.ip().estIpv6() || d.expiration() != 0) {
+        annexees.add(d);
+        return false;
+      }
+      return true;
+    }).toArray(DnsItem[]::new);
+    final byte[] annexe = Stockage.ecritAnnexe(annexees);
+    Arrays.sort(items, Comparator.comparing((DnsItem d) -> d.nom().domaine())
+        .thenComparing(d -> d.nom().value()));
+    final int n = items.length;
+
+    final byte[][] noms = new byte[n][];
+    int tailleNoms = 0;
+    final List<int[]> domaines = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      noms[i] = items[i].nom().value().getBytes(StandardCharsets.US_ASCII);
+      tailleNoms += noms[i].length;
+      if (i == 0 || !items[i].nom().domaine().equals(items[i - 1].nom().domaine())) {
+        domaines.add(new int[] {i, i + 1});
+      } else {
+        domaines.get(domaines.size() - 1)[1] = i + 1;
+      }
+    }
+
+    final int capNoms = capacite(n);
+    final int capIps = capacite(n);
+    final int[] hachNoms = new int[capNoms];
+    final int[] hachIps = new int[capIps];
+    for (int i = 0; i < n; i++) {
+      int h = melange(items[i].nom().value().hashCode()) & (capNoms - 1);
+      while (hachNoms[h] != 0) {
+        h = (h + 1) & (capNoms - 1);
+      }
+      hachNoms[h] = i + 1;
+      h = melange(items[i].ip().toInt()) & (capIps - 1);
+      while (hachIps[h] != 0) {
+        h = (h + 1) & (capIps - 1);
+      }
+      hachIps[h] = i + 1;
+    }
+
+    final Integer[] parIp = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      parIp[i] = i;
+    }
+    final Comparator<Integer> ordreIp = (a, b) -> items[a].ip().compareTo(items[b].ip());
+    final Integer[] ipDomaine = parIp.clone();
+    for (int[] d : domaines) {
+      Arrays.sort(ipDomaine, d[0], d[1], ordreIp);
+    }
+    Arrays.sort(parIp, ordreIp);
+    final Integer[] hierarchie = parIp.clone();
+    Arrays.sort(hierarchie, (a, b) ->
+        NomMachine.compareHierarchique(items[a].nom().value(), items[b].nom().value()));
+
+    final long posEntrees = TAILLE_ENTETE;
+    final long posNoms = posEntrees + (long) n * TAILLE_ENTREE;
+    final long posHachNoms = posNoms + tailleNoms;
+    final long posHachIps = posHachNoms + 4L * capNoms;
+    final long posDomaines = posHachIps + 4L * capIps;
+    final long posIpDomaine = posDomaines + 8L * domaines.size();
+    final long posIpTriees = posIpDomaine + 4L * n;
+    final long posHierarchie = posIpTriees + 4L * n;
+    final long posAnnexe = posHierarchie + 4L * n;
+    if (posAnnexe + annexe.length > Integer.MAX_VALUE) {
+      throw new IOException("Base trop volumineuse pour un instantané projeté : " + n + " entrées");
+    }
+
+    final Path tmp = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIE);
+      out.writeInt(VERSION);
+      out.writeLong(Files.size(base));
+      out.writeLong(Files.getLastModifiedTime(base).toMillis());
+      out.writeInt(n);
+      out.writeInt(domaines.size());
+      out.writeInt(capNoms);
+      out.writeInt(capIps);
+      for (long pos : new long[] {posEntrees, posNoms, posHachNoms, posHachIps,
+          posDomaines, posIpDomaine, posIpTriees, posHierarchie, posAnnexe}) {
+        out.writeInt((int) pos);
+      }
+      out.writeInt(annexe.length);
+      while (out.size() < TAILLE_ENTETE) {
+        out.writeByte(0);
+      }
+
+      int pos = 0;
+      for (int i = 0; i < n; i++) {
+        final String nom = items[i].nom().value();
+        out.writeInt(items[i].ip().toInt());
+        out.writeInt(pos);
+        out.writeShort(noms[i].length);
+        out.writeShort(items[i].nom().finHote());
+        pos += noms[i].length;
+      }
+      for (byte[] nom : noms) {
+        out.write(nom);
+      }
+      for (int v : hachNoms) {
+        out.writeInt(v);
+      }
+      for (int v : hachIps) {
+        out.writeInt(v);
+      }
+      for (int[] d : domaines) {
+        out.writeInt(d[0]);
+        out.writeInt(d[1]);
+      }
+      for (Integer i : ipDomaine) {
+        out.writeInt(i);
+      }
+      for (Integer i : parIp) {
+        out.writeInt(i);
+      }
+      for (Integer i : hierarchie) {
+        out.writeInt(i);
+      }
+      out.write(annexe);
+    }
+    Files.move(tmp, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Nombre d'entrées de l'instantané.
+   *
+   * @return nombre d'entrées
+   */
+  @Override
+  public int size() {
+    return n;
+  }
+
+  /**
+   * Recherche une entrée par nom.
+   *
+   * @param fqdn le nom qualifié, en minuscules
+   * @return l'entrée, ou null si absente
+   */
+  @Override
+  public List<DnsItem> annexe() {
+    return annexe;
+  }
+
+  @Override
+  public DnsItem parNom(final String fqdn) {
+    if (n == 0) {
+      return null;
+    }
+    final int masque = capNoms - 1;
+    for (int h = melange(fqdn.hashCode()) & masque; ; h = (h + 1) & masque) {
+      final int i = donnees.getInt(posHachNoms + 4 * h) - 1;
+      if (i < 0) {
+        return null;
+      }
+      if (nomEgal(i, fqdn)) {
+        return item(i);
+      }
+    }
+  }
+
+  /**
+   * Recherche une entrée par adresse.
+   *
+   * @param ip la forme entière de l'adresse
+   * @return l'entrée, ou null si absente
+   */
+  @Override
+  public DnsItem parIp(final int ip) {
+    if (n == 0) {
+      return null;
+    }
+    final int masque = capIps - 1;
+    for (int h = melange(ip) & masque; ; h = (h + 1) & masque) {
+      final int i = donnees.getInt(posHachIps + 4 * h) - 1;
+      if (i < 0) {
+        return null;
+      }
+      if (ipDe(i) == ip) {
+        return item(i);
+      }
+    }
+  }
+
+  /**
+   * Parcourt les entrées d'un domaine dans l'ordre des noms, en lisant le fichier
+   * projeté au fur et à mesure.
+   *
+   * @param domaine le domaine, en minuscules
+   * @param apres nom à partir duquel reprendre (exclu), ou null pour commencer au début
+   * @return un itérateur sur les entrées, positionné en O(log D + log k)
+   */
+  @Override
+  public Iterator<DnsItem> suiteParNom(final String domaine, final String apres) {
+    final long plage = plageDomaine(domaine);
+    int debut = (int) (plage >>> 32);
+    final int fin = (int) plage;
+    if (apres != null) {
+      int haut = fin;
+      while (debut < haut) {
+        final int milieu = (debut + haut) >>> 1;
+        if (compareNom(milieu, apres) <= 0) {
+          debut = milieu + 1;
+        } else {
+          haut = milieu;
+        }
+      }
+    }
+    return suite(debut, fin, false);
+  }
+
+  /**
+   * Parcourt les entrées d'un domaine dans l'ordre des adresses, en lisant le fichier
+   * projeté au fur et à mesure.
+   *
+   * @param domaine le domaine, en minuscules
+   * @param apres adresse à partir de laquelle reprendre (exclue), ou null pour commencer au début
+   * @return un itérateur sur les entrées, positionné en O(log D + log k)
+   */
+  @Override
+  public Iterator<DnsItem> suiteParIp(final String domaine, final AdresseIP apres) {
+    final long plage = plageDomaine(domaine);
+    int debut = (int) (plage >>> 32);
+    final int fin = (int) plage;
+    if (apres != null) {
+      final long cle = apres.rangIpv4();
+      int haut = fin;
+      while (debut < haut) {
+        final int milieu = (debut + haut) >>> 1;
+        if ((ipDe(donnees.getInt(posIpDomaine + 4 * milieu)) & 0xFFFFFFFFL) <= cle) {
+          debut = milieu + 1;
+        } else {
+          haut = milieu;
+        }
+      }
+    }
+    return suite(debut, fin, true);
+  }
+
+  /** Itérateur sur les positions [debut, fin) de la section des entrées ou de ipDomaine. */
+  private Iterator<DnsItem> suite(final int debut, final int fin, final boolean parAdresse) {
+    return new Iterator<>() {
+      private int k = debut;
+
+      @Override
+      public boolean hasNext() {
+        return k < fin;
+      }
+
+      @Override
+      public DnsItem next() {
+        if (k >= fin) {
+          throw new NoSuchElementException();
+        }
+        final int i = k++;
+        return item(parAdresse ? donnees.getInt(posIpDomaine + 4 * i) : i);
+      }
+    };
+  }
+
+  /**
+   * Positions des entrées d'un domaine : première dans les 32 bits de poids fort,
+   * fin (exclue) dans les autres ; 0 si le domaine est absent.
+   */
+  private long plageDomaine(final String domaine) {
+    int bas = 0;
+    int haut = nbDomaines - 1;
+    while (bas <= haut) {
+      final int milieu = (bas + haut) >>> 1;
+      final int debut = donnees.getInt(posDomaines + 8 * milieu);
+      final int cmp = compareDomaine(debut, domaine);
+      if (cmp < 0) {
+        bas = milieu + 1;
+      } else if (cmp > 0) {
+        haut = milieu - 1;
+      } else {
+        return ((long) debut << 32) | donnees.getInt(posDomaines + 8 * milieu + 4);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Retourne les entrées d'une plage d'adresses, dans l'ordre des adresses.
+   *
+   * @param debut première adresse, non signée
+   * @param fin dernière adresse, incluse, non signée
+   * @return les entrées, en O(log n + k)
+   */
+  @Override
+  public List<DnsItem> plage(final long debut, final long fin) {
+    final List<DnsItem> r = new ArrayList<>();
+    for (int k = rangIp(debut); k < n; k++) {
+      final int i = donnees.getInt(posIpTriees + 4 * k);
+      if ((ipDe(i) & 0xFFFFFFFFL) > fin) {
+        break;
+      }
+      r.add(item(i));
+    }
+    return r;
+  }
+
+  /**
+   * Cherche la première adresse absente de l'instantané à partir d'une adresse donnée.
+   * Les adresses triées étant distinctes, les k suivantes sont toutes présentes si
+   * et seulement si la k-ième vaut la première plus k : la fin de la suite d'adresses
+   * consécutives se trouve par dichotomie, en O(log n).
+   *
+   * @param depuis adresse de départ, non signée
+   * @return la plus petite adresse absente non inférieure à depuis, non signée
+   *     (2^32 si toutes les adresses à partir de depuis sont présentes)
+   */
+  @Override
+  public long premiereLibre(final long depuis) {
+    final int k = rangIp(depuis);
+    if (k == n || ipTriee(k) != depuis) {
+      return depuis;
+    }
+    int bas = k;
+    int haut = n - 1;
+    while (bas < haut) {
+      final int milieu = (bas + haut + 1) >>> 1;
+      if (ipTriee(milieu) - depuis == milieu - k) {
+        bas = milieu;
+      } else {
+        haut = milieu - 1;
+      }
+    }
+    return ipTriee(bas) + 1;
+  }
+
+  /** Rang, dans l'ordre des adresses, de la première entrée d'adresse non inférieure. */
+  private int rangIp(final long ip) {
+    int bas = 0;
+    int haut = n;
+    while (bas < haut) {
+      final int milieu = (bas + haut) >>> 1;
+      if (ipTriee(milieu) < ip) {
+        bas = milieu + 1;
+      } else {
+        haut = milieu;
+      }
+    }
+    return bas;
+  }
+
+  /** Adresse non signée de l'entrée de rang k dans l'ordre des adresses. */
+  private long ipTriee(final int k) {
+    return ipDe(donnees.getInt(posIpTriees + 4 * k)) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Retourne les entrées situées sous un domaine, à toute profondeur (sans l'éventuelle
+   * entrée qui porte le nom du domaine), dans l'ordre hiérarchique.
+   *
+   * @param domaine les labels du domaine, en partant de la droite
+   * @return les entrées, en O(L log n + k) pour L labels
+   */
+  @Override
+  public List<DnsItem> sousArbre(final String[] domaine) {
+    final int[] plage = {0, n};
+    final int suffixe = restreint(domaine, 0, domaine.length, 0, plage);
+    final List<DnsItem> r = new ArrayList<>(plage[1] - plage[0]);
+    for (int k = plage[0]; k < plage[1]; k++) {
+      if (k > plage[0] || longueurNom(rangHierarchie(k)) > suffixe) {
+        r.add(item(rangHierarchie(k)));
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Retourne les entrées dont le nom correspond à un motif (voir {@link IndexHierarchie}),
+   * dans l'ordre hiérarchique. Pour un label générique, chaque label distinct présent
+   * est traité une fois, le reste de son sous-arbre étant sauté par dichotomie.
+   *
+   * @param motif les labels du motif, en partant de la droite
+   * @return les entrées
+   */
+  @Override
+  public List<DnsItem> motif(final String[] motif) {
+    final List<DnsItem> r = new ArrayList<>();
+    motif(motif, 0, 0, 0, n, r);
+    return r;
+  }
+
+  private void motif(final String[] motif, final int niveau, final int suffixe,
+                     final int bas, final int haut, final List<DnsItem> r) {
+    if (niveau == motif.length) {
+      // Le nom du domaine lui-même, s'il existe, précède ses sous-domaines
+      if (bas < haut && longueurNom(rangHierarchie(bas)) < suffixe) {
+        r.add(item(rangHierarchie(bas)));
+      }
+      return;
+    }
+    int exacts = niveau;
+    while (exacts < motif.length && !motif[exacts].endsWith("*")) {
+      exacts++;
+    }
+    if (exacts > niveau) {
+      // Labels sans générique : une seule restriction pour toute la suite
+      final int[] plage = {bas, haut};
+      final int s = restreint(motif, niveau, exacts, suffixe, plage);
+      motif(motif, exacts, s, plage[0], plage[1], r);
+      return;
+    }
+    final String label = motif[niveau];
+    final String texte = label.substring(0, label.length() - 1);
+    int k = borne(bas, haut, suffixe, texte, true, false);
+    final int fin = borne(k, haut, suffixe, texte, true, true);
+    while (k < fin) {
+      final String l = label(rangHierarchie(k), suffixe);
+      final int suivant = borne(k, fin, suffixe, l, false, true);
+      motif(motif, niveau + 1, suffixe + l.length() + 1, k, suivant, r);
+      k = suivant;
+    }
+  }
+
+  /**
+   * Parcourt, dans l'ordre, les labels présents sous un domaine et commençant par
+   * un préfixe donné.
+   *
+   * @param domaine les labels du domaine, en partant de la droite
+   * @param prefixe début des labels recherchés
+   * @param max nombre maximal de labels rendus
+   * @param action traitement de chaque label
+   */
+  @Override
+  public void labels(final String[] domaine, final String prefixe, final int max,
+                     final Consumer<String> action) {
+    final int[] plage = {0, n};
+    final int suffixe = restreint(domaine, 0, domaine.length, 0, plage);
+    int k = borne(plage[0], plage[1], suffixe, prefixe, true, false);
+    final int fin = borne(k, plage[1], suffixe, prefixe, true, true);
+    for (int reste = max; k < fin && reste > 0; reste--) {
+      final String label = label(rangHierarchie(k), suffixe);
+      action.accept(label);
+      k = borne(k, fin, suffixe, label, false, true);
+    }
+  }
+
+  /**
+   * Restreint une plage de positions, dans l'ordre hiérarchique, aux noms qui se
+   * terminent par les labels donnés.
+   *
+   * @param labels les labels, en partant de la droite
+   * @param depuis premier label considéré
+   * @param jusqua fin (exclue) des labels considérés
+   * @param suffixe longueur des labels précédents, déjà communs à la plage
+   * @param plage début et fin (exclue) de la plage, mis à jour
+   * @return la longueur des labels, avec leurs points, communs à la plage restreinte
+   *     (voir {@link #borne})
+   */
+  private int restreint(final String[] labels, final int depuis, final int jusqua,
+                        final int suffixe, final int[] plage) {
+    final IntUnaryOperator ordre = i -> {
+      int s = suffixe;
+      for (int l = depuis; l < jusqua; l++) {
+        final String label = labels[l];
+        final int cmp = compareLabel(i, s, label, false);
+        if (cmp != 0) {
+          return cmp;
+        }
+        s += label.length() + 1;
+      }
+      return 0;
+    };
+    final int b = borne(plage[0], plage[1], ordre, false);
+    plage[1] = borne(b, plage[1], ordre, true);
+    plage[0] = b;
+    int s = suffixe;
+    for (int l = depuis; l < jusqua; l++) {
+      s += labels[l].length() + 1;
+    }
+    return s;
+  }
+
+  /**
+   * Première position de [bas, haut) dans l'ordre hiérarchique dont le label suivant
+   * est supérieur ou égal (strictement supérieur si strict) au texte. Les noms de
+   * [bas, haut) partagent leurs derniers labels, qui occupent avec leurs points les
+   * suffixe derniers caractères : le label suivant se termine juste avant.
+   */
+  private int borne(final int bas, final int haut, final int suffixe, final String texte,
+                    final boolean prefixe, final boolean strict) {
+    return borne(bas, haut, i -> compareLabel(i, suffixe, texte, prefixe), strict);
+  }
+
+  /**
+   * Première position de [bas, haut) dans l'ordre hiérarchique dont l'entrée est
+   * supérieure ou égale (strictement supérieure si strict) selon un ordre donné.
+   */
+  private int borne(final int bas, final int haut, final IntUnaryOperator ordre,
+                    final boolean strict) {
+    int b = bas;
+    int h = haut;
+    while (b < h) {
+      final int milieu = (b + h) >>> 1;
+      final int cmp = ordre.applyAsInt(rangHierarchie(milieu));
+      if (cmp < 0 || (strict && cmp == 0)) {
+        b = milieu + 1;
+      } else {
+        h = milieu;
+      }
+    }
+    return b;
+  }
+
+  /**
+   * Compare au texte le label de l'entrée i qui précède ses suffixe derniers caractères.
+   * Un nom qui n'a pas ce label est avant tout texte ; en mode préfixe, un label qui
+   * commence par le texte lui est égal.
+   */
+  private int compareLabel(final int i, final int suffixe, final String texte,
+                           final boolean prefixe) {
+    final long position = positionLabel(i, suffixe);
+    if (position < 0) {
+      return -1;
+    }
+    final int debut = (int) (position >>> 32);
+    final int longueur = (int) position - debut;
+    for (int k = 0; k < Math.min(longueur, texte.length()); k++) {
+      final int diff = (donnees.get(debut + k) & 0xFF) - texte.charAt(k);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return prefixe && longueur >= texte.length() ? 0 : longueur - texte.length();
+  }
+
+  /** Label de l'entrée i qui précède ses suffixe derniers caractères ; il doit exister. */
+  private String label(final int i, final int suffixe) {
+    final long position = positionLabel(i, suffixe);
+    final byte[] label = new byte[(int) position - (int) (position >>> 32)];
+    donnees.get((int) (position >>> 32), label);
+    return new String(label, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Position du label de l'entrée i qui précède ses suffixe derniers caractères :
+   * début dans les 32 bits de poids fort, fin (exclue) dans les autres ; -1 si le nom
+   * n'est pas plus long que le suffixe.
+   */
+  private long positionLabel(final int i, final int suffixe) {
+    final int base = posEntrees + TAILLE_ENTREE * i;
+    final int debutNom = posNoms + donnees.getInt(base + 4);
+    final int fin = debutNom + donnees.getShort(base + 8) - suffixe;
+    if (fin <= debutNom) {
+      return -1;
+    }
+    int debut = fin;
+    while (debut > debutNom && donnees.get(debut - 1) != '.') {
+      debut--;
+    }
+    return ((long) debut << 32) | fin;
+  }
+
+  private int longueurNom(final int i) {
+    return donnees.getShort(posEntrees + TAILLE_ENTREE * i + 8);
+  }
+
+  private int rangHierarchie(final int k) {
+    return donnees.getInt(posHierarchie + 4 * k);
+  }
+
+  /**
+   * Parcourt toutes les entrées, dans l'ordre (domaine, nom).
+   *
+   * @param action traitement de chaque entrée
+   */
+  @Override
+  public void forEach(final Consumer<DnsItem> action) {
+    for (int i = 0; i < n; i++) {
+      action.accept(item(i));
+    }
+  }
+
+  /**
+   * Ajoute toutes les entrées à un filtre de Bloom en hachant les noms dans le fichier
+   * projeté, comme {@link String#hashCode()}, sans créer d'entrée.
+   *
+   * @param filtre le filtre à remplir
+   */
+  @Override
+  public void remplit(final FiltreBloom filtre) {
+    for (int i = 0; i < n; i++) {
+      final int base = posEntrees + TAILLE_ENTREE * i;
+      final int debut = posNoms + donnees.getInt(base + 4);
+      final int fin = debut + donnees.getShort(base + 8);
+      int h = 0;
+      for (int k = debut; k < fin; k++) {
+        h = 31 * h + donnees.get(k);
+      }
+      filtre.ajoute(h, FiltreBloom.hacheIp(donnees.getInt(base)));
+    }
+  }
+
+  /**
+   * Parcourt les domaines, dans l'ordre, avec leur nombre d'entrées.
+   *
+   * @param action reçoit chaque domaine et son nombre d'entrées
+   */
+  @Override
+  public void forEachDomaine(final ObjIntConsumer<String> action) {
+    for (int k = 0; k < nbDomaines; k++) {
+      final int debut = donnees.getInt(posDomaines + 8 * k);
+      final int fin = donnees.getInt(posDomaines + 8 * k + 4);
+      final int base = posEntrees + TAILLE_ENTREE * debut;
+      final int hote = donnees.getShort(base + 10);
+      final byte[] domaine = new byte[donnees.getShort(base + 8) - hote - 1];
+      donnees.get(posNoms + donnees.getInt(base + 4) + hote + 1, domaine);
+      action.accept(new String(domaine, StandardCharsets.US_ASCII), fin - debut);
+    }
+  }
+
+  private DnsItem item(final int i) {
+    final int base = posEntrees + TAILLE_ENTREE * i;
+    final byte[] nom = new byte[donnees.getShort(base + 8)];
+    donnees.get(posNoms + donnees.getInt(base + 4), nom);
+    return new DnsItem(NomMachine.deConfiance(new String(nom, StandardCharsets.US_ASCII)),
+        new AdresseIP(donnees.getInt(base)));
+  }
+
+  private int ipDe(final int i) {
+    return donnees.getInt(posEntrees + TAILLE_ENTREE * i);
+  }
+
+  private boolean nomEgal(final int i, final String fqdn) {
+    final int base = posEntrees + TAILLE_ENTREE * i;
+    final int longueur = donnees.getShort(base + 8);
+    if (longueur != fqdn.length()) {
+      return false;
+    }
+    final int pos = posNoms + donnees.getInt(base + 4);
+    for (int k = 0; k < longueur; k++) {
+      if (donnees.get(pos + k) != fqdn.charAt(k)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Compare le nom de l'entrée i au nom donné, dans l'ordre de {@link String}. */
+  private int compareNom(final int i, final String nom) {
+    final int base = posEntrees + TAILLE_ENTREE * i;
+    final int longueur = donnees.getShort(base + 8);
+    final int pos = posNoms + donnees.getInt(base + 4);
+    for (int k = 0; k < Math.min(longueur, nom.length()); k++) {
+      final int diff = (donnees.get(pos + k) & 0xFF) - nom.charAt(k);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return longueur - nom.length();
+  }
+
+  /** Compare le domaine de l'entrée i au domaine donné, dans l'ordre de {@link String}. */
+  private int compareDomaine(final int i, final String domaine) {
+    final int base = posEntrees + TAILLE_ENTREE * i;
+    final int longueur = donnees.getShort(base + 8);
+    final int hote = donnees.getShort(base + 10);
+    final int pos = posNoms + donnees.getInt(base + 4) + hote + 1;
+    final int l = longueur - hote - 1;
+    for (int k = 0; k < Math.min(l, domaine.length()); k++) {
+      final int diff = (donnees.get(pos + k) & 0xFF) - domaine.charAt(k);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return l - domaine.length();
+  }
+
+  /** Capacité d'une table de hachage remplie au plus à moitié (puissance de 2). */
+  private static int capacite(final int n) {
+    return Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1;
+  }
+
+  private static int melange(final int x) {
+    int h = x;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,268 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Journal d'écriture anticipée de la base DNS.
+ * Chaque ajout y est écrit sous forme d'une ligne au format de la base
+ * ("nom ip"), à la suite des précédentes, au lieu de réécrire tout le fichier.
+ *
+ * Si fsync est demandé, l'appelant n'est rendu qu'une fois sa ligne sur disque.
+ * Les appels concurrents sont regroupés : le premier à prendre le verrou de
+ * synchronisation force le fichier pour tous ceux qui ont écrit avant lui.
+ */
+final class Journal implements Closeable {
+
+  private final Path fichier;
+  private final boolean fsync;
+
+  /** Canal d'écriture, ouvert au premier ajout. */
+  private FileChannel canal;
+
+  /** Octets écrits dans le canal courant. */
+  private long ecrit;
+
+  /** Octets du canal courant déjà forcés sur disque. */
+  private volatile long synchronise;
+
+  /** Nombre d'enregistrements dans le fichier courant. */
+  private long enregistrements;
+
+  /** Sérialise les fsync ; toujours pris avant le moniteur du journal. */
+  private final Object verrouSync = new Object();
+
+  /**
+   * Crée un journal ; le fichier n'est ouvert qu'au premier ajout.
+   *
+   * @param fichier chemin du journal
+   * @param fsync true pour forcer chaque ajout sur disque
+   */
+  Journal(final Path fichier, final boolean fsync) {
+    this.fichier = fichier;
+    this.fsync = fsync;
+  }
+
+  /** Position atteinte par une écriture, à passer à {@link #force}. */
+  record Jeton(FileChannel canal, long fin) {
+  }
+
+  /**
+   * Ajoute des enregistrements au journal en une seule écriture, sans attendre
+   * qu'ils soient sur disque.
+   *
+   * @param lignes les enregistrements, sans fin de ligne
+   * @return la position atteinte, à passer à {@link #force} si fsync est demandé
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  Jeton ecrit(final List<String> lignes) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    for (String ligne : lignes) {
+      sb.append(ligne).append('\n');
+    }
+    final ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+    synchronized (this) {
+      final FileChannel c = canal();
+      while (buf.hasRemaining()) {
+        c.write(buf);
+      }
+      ecrit += buf.limit();
+      enregistrements += lignes.size();
+      return new Jeton(c, ecrit);
+    }
+  }
+
+  /**
+   * Attend qu'une écriture soit sur disque, si fsync est demandé.
+   * Un seul appelant force le fichier pour tous ceux qui ont écrit avant lui.
+   *
+   * @param jeton la position rendue par {@link #ecrit}
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  void force(final Jeton jeton) throws IOException {
+    if (!fsync || synchronise >= jeton.fin()) {
+      return;
+    }
+    synchronized (verrouSync) {
+      final long cible;
+      synchronized (this) {
+        if (jeton.canal() != canal) {
+          // Le canal a été fermé par une bascule, qui l'a forcé avant.
+          return;
+        }
+        cible = ecrit;
+      }
+      if (synchronise >= jeton.fin()) {
+        return;
+      }
+      jeton.canal().force(false);
+      synchronise = cible;
+    }
+  }
+
+  /**
+   * Indique si chaque écriture doit être forcée sur disque.
+   *
+   * @return true si fsync est demandé
+   */
+  boolean fsync() {
+    return fsync;
+  }
+
+  /**
+   * Nombre d'enregistrements écrits depuis la création ou la dernière bascule.
+   *
+   * @return nombre d'enregistrements
+   */
+  synchronized long enregistrements() {
+    return enregistrements;
+  }
+
+  /**
+   * Ferme le fichier courant et le renomme : les ajouts suivants iront dans un
+   * nouveau fichier. Utilisé par la compaction pour figer les enregistrements
+   * qu'elle va intégrer à la base.
+   *
+   * Si la cible existe déjà (segment d'une compaction qui a échoué, pas encore
+   * intégré), elle n'est pas remplacée : le fichier courant est ajouté à sa suite,
+   * après avoir retiré sa dernière ligne si elle est incomplète (jamais acquittée).
+   * Une interruption avant la suppression du fichier courant laisse ses lignes
+   * dans les deux fichiers, ce que le rejeu tolère.
+   *
+   * @param cible nouveau nom du fichier courant
+   * @throws IOException en cas d'erreur d'E/S
+   */
+  void bascule(final Path cible) throws IOException {
+    synchronized (verrouSync) {
+      synchronized (this) {
+        fermeCanal();
+        if (Files.exists(fichier)) {
+          if (Files.exists(cible)) {
+            ajouteA(cible);
+            Files.delete(fichier);
+          } else {
+            Files.move(fichier, cible);
+          }
+        }
+        enregistrements = 0;
+      }
+    }
+  }
+
+  /** Ajoute le fichier courant à la suite d'un segment, puis force le segment sur disque. */
+  private void ajouteA(final Path segment) throws IOException {
+    try (FileChannel dest = FileChannel.open(segment, StandardOpenOption.READ,
+             StandardOpenOption.WRITE);
+         FileChannel src = FileChannel.open(fichier, StandardOpenOption.READ)) {
+      long pos = finDerniereLigne(dest);
+      dest.truncate(pos);
+      final long taille = src.size();
+      long n;
+      while ((n = dest.transferFrom(src, pos, taille - src.position())) > 0) {
+        pos += n;
+      }
+      dest.force(false);
+    }
+  }
+
+  /** Position qui suit le dernier saut de ligne d'un fichier (0 s'il n'en a pas). */
+  private static long finDerniereLigne(final FileChannel c) throws IOException {
+    final ByteBuffer buf = ByteBuffer.allocate(4096);
+    long fin = c.size();
+    while (fin > 0) {
+      final long debut = Math.max(0, fin - buf.capacity());
+      buf.clear().limit((int) (fin - debut));
+      while (buf.hasRemaining()) {
+        if (c.read(buf, debut + buf.position()) < 0) {
+          break;
+        }
+      }
+      for (int i = buf.position() - 1; i >= 0; i--) {
+        if (buf.get(i) == '\n') {
+          return debut + i + 1;
+        }
+      }
+      fin = debut;
+    }
+    return 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (verrouSync) {
+      synchronized (this) {
+        fermeCanal();
+      }
+    }
+  }
+
+  /**
+   * Relit un fichier journal et transmet chaque enregistrement complet.
+   * Une dernière ligne sans fin de ligne provient d'une écriture interrompue
+   * et n'a donc jamais été acquittée : elle est ignorée.
+   *
+   * @param fichier le journal à relire (ignoré s'il n'existe pas)
+   * @param action traitement de chaque ligne
+   * @throws IOException en cas d'erreur de lecture
+   */
+  static void rejoue(final Path fichier, final Consumer<String> action) throws IOException {
+    if (!Files.exists(fichier)) {
+      return;
+    }
+    final boolean complet = finitParSautDeLigne(fichier);
+    try (BufferedReader r = Files.newBufferedReader(fichier, StandardCharsets.UTF_8)) {
+      String precedente = r.readLine();
+      String ligne;
+      while (precedente != null) {
+        ligne = r.readLine();
+        if (ligne == null && !complet) {
+          break;
+        }
+        action.accept(precedente);
+        precedente = ligne;
+      }
+    }
+  }
+
+  private static boolean finitParSautDeLigne(final Path fichier) throws IOException {
+    try (FileChannel c = FileChannel.open(fichier, StandardOpenOption.READ)) {
+      if (c.size() == 0) {
+        return true;
+      }
+      final ByteBuffer dernier = ByteBuffer.allocate(1);
+      c.read(dernier, c.size() - 1);
+      return dernier.get(0) == '\n';
+    }
+  }
+
+  private FileChannel canal() throws IOException {
+    if (canal == null) {
+      if (fichier.getParent() != null) {
+        Files.createDirectories(fichier.getParent());
+      }
+      canal = FileChannel.open(fichier, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      ecrit = canal.size();
+      synchronise = ecrit;
+    }
+    return canal;
+  }
+
+  private void fermeCanal() throws IOException {
+    if (canal != null) {
+      canal.force(false);
+      canal.close();
+      canal = null;
+    }
+  }
+}
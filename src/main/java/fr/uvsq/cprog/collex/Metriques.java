@@ -0,0 +1,231 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs d'activité d'une instance de {@link Dns} et des commandes exécutées sur elle.
+ *
+ * L'enregistrement ne prend aucun verrou : des {@link LongAdder} pour les compteurs
+ * et un {@link Histogramme} par opération pour les durées. Il peut donc rester actif
+ * en charge. Pour les recherches, de loin les plus fréquentes et les plus courtes,
+ * seul un appel sur {@link #ECHANTILLONNAGE_RECHERCHE} est chronométré : tous sont
+ * comptés, mais la lecture de l'horloge coûterait autant que la recherche elle-même.
+ * Les lectures ({@link DnsStats}) agrègent les compteurs à la demande.
+ */
+final class Metriques {
+
+  /** Un appel de recherche sur 16 est chronométré (puissance de 2). */
+  static final int ECHANTILLONNAGE_RECHERCHE = 16;
+
+  /** Valeur de {@link Mesure#debut()} pour un appel qui n'est pas chronométré. */
+  private static final long NON_CHRONOMETRE = Long.MIN_VALUE;
+
+  /** Compteurs et durées d'une opération. */
+  static final class Mesure {
+    private final LongAdder succes = new LongAdder();
+    private final LongAdder echecs = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final Histogramme durees = new Histogramme();
+
+    /** 1 pour chronométrer chaque appel, n (puissance de 2) pour un appel sur n. */
+    private final int echantillonnage;
+
+    Mesure() {
+      this(1);
+    }
+
+    Mesure(final int echantillonnage) {
+      this.echantillonnage = echantillonnage;
+    }
+
+    /**
+     * Début d'un appel.
+     *
+     * @return {@link System#nanoTime()}, ou une valeur réservée si l'appel n'est pas chronométré
+     */
+    long debut() {
+      if (echantillonnage > 1
+          && (ThreadLocalRandom.current().nextInt() & (echantillonnage - 1)) != 0) {
+        return NON_CHRONOMETRE;
+      }
+      return System.nanoTime();
+    }
+
+    /**
+     * Enregistre un appel terminé.
+     *
+     * @param debut valeur rendue par {@link #debut()} (ou {@link System#nanoTime()})
+     *     au début de l'appel
+     * @param ok true pour un succès (entrée trouvée, commande réussie...)
+     */
+    void enregistre(final long debut, final boolean ok) {
+      if (debut == NON_CHRONOMETRE) {
+        compte(ok);
+      } else {
+        enregistreDuree(System.nanoTime() - debut, ok);
+      }
+    }
+
+    /**
+     * Enregistre un appel dont la durée a été mesurée ailleurs.
+     *
+     * @param duree durée de l'appel, en nanosecondes
+     * @param ok true pour un succès
+     */
+    void enregistreDuree(final long duree, final boolean ok) {
+      (ok ? succes : echecs).increment();
+      nanos.add(duree * echantillonnage);
+      durees.enregistre(duree);
+    }
+
+    /**
+     * Compte un appel sans le chronométrer.
+     *
+     * @param ok true pour un succès
+     */
+    void compte(final boolean ok) {
+      (ok ? succes : echecs).increment();
+    }
+
+    long appels() {
+      return succes.sum() + echecs.sum();
+    }
+
+    long succes() {
+      return succes.sum();
+    }
+
+    long echecs() {
+      return echecs.sum();
+    }
+
+    /** Durée totale des appels, extrapolée des appels chronométrés. */
+    long nanos() {
+      return nanos.sum();
+    }
+
+    /** Percentiles p50, p99 et p999, en nanosecondes. */
+    long[] percentiles() {
+      return durees.percentiles(0.50, 0.99, 0.999);
+    }
+  }
+
+  /** Recherches par nom : succès = entrée trouvée. */
+  final Mesure rechercheNom = new Mesure(ECHANTILLONNAGE_RECHERCHE);
+
+  /** Recherches par adresse : succès = entrée trouvée. */
+  final Mesure rechercheIp = new Mesure(ECHANTILLONNAGE_RECHERCHE);
+
+  /**
+   * Recherches (par nom ou par adresse IPv4) absentes du tas, en mode instantané,
+   * disque ou colonnes : succès = écartée par le filtre de Bloom du stockage, échec =
+   * stockage consulté (faux positif, ou filtre pas encore prêt).
+   */
+  final Mesure absence = new Mesure(ECHANTILLONNAGE_RECHERCHE);
+
+  /** Listes d'un domaine : succès = domaine non vide. */
+  final Mesure liste = new Mesure();
+
+  /** Listes d'une plage d'adresses : succès = plage non vide. */
+  final Mesure plage = new Mesure();
+
+  /** Listes récursives et par motif : succès = au moins une entrée. */
+  final Mesure hierarchie = new Mesure();
+
+  /** Recherches d'adresse libre : succès = adresse trouvée. */
+  final Mesure libre = new Mesure();
+
+  /** Ajouts (une entrée ou un lot) : succès = ajout accepté. */
+  final Mesure ajout = new Mesure();
+
+  /** Réécritures de la base (compactions). */
+  final Mesure sauvegarde = new Mesure();
+
+  /** Consultations du cache du stockage sur disque : succès = entrée en cache. */
+  final Mesure cacheDisque = new Mesure();
+
+  /** Lectures d'un bloc du stockage sur disque. */
+  final Mesure lectureDisque = new Mesure();
+
+  /** Rechargements de la base modifiée : succès = fichier accepté ou inchangé. */
+  final Mesure rechargement = new Mesure();
+
+  /** Passages de la roue d'expiration qui ont retiré au moins une entrée. */
+  final Mesure expiration = new Mesure();
+
+  /**
+   * Changements appliqués par une réplique : la durée mesurée est le retard entre leur
+   * validation sur le maître et leur application.
+   */
+  final Mesure replication = new Mesure();
+
+  /** Nombre total d'entrées expirées. */
+  private final LongAdder expirees = new LongAdder();
+
+  /** Durée du dernier chargement. */
+  private volatile long chargementNanos;
+
+  /** Dernier changement publié (maître) ou appliqué (réplique), -1 sans réplication. */
+  private volatile long sequenceReplication = -1;
+
+  /** Dernier rechargement accepté (null s'il n'y en a pas eu). */
+  private volatile Dns.Rechargement dernierRechargement;
+
+  private final Map<String, Mesure> commandes = new ConcurrentHashMap<>();
+
+  /**
+   * Retourne la mesure d'une commande, créée à sa première exécution.
+   *
+   * @param nom nom de la commande (ex : "ls")
+   * @return la mesure
+   */
+  Mesure commande(final String nom) {
+    final Mesure m = commandes.get(nom);
+    return m != null ? m : commandes.computeIfAbsent(nom, n -> new Mesure());
+  }
+
+  /**
+   * Mesures des commandes exécutées, par nom.
+   *
+   * @return copie triée par nom
+   */
+  Map<String, Mesure> commandes() {
+    return new TreeMap<>(commandes);
+  }
+
+  void chargement(final long nanos) {
+    chargementNanos = nanos;
+  }
+
+  long chargementNanos() {
+    return chargementNanos;
+  }
+
+  void rechargement(final Dns.Rechargement r) {
+    dernierRechargement = r;
+  }
+
+  Dns.Rechargement dernierRechargement() {
+    return dernierRechargement;
+  }
+
+  void expiration(final int entrees) {
+    expirees.add(entrees);
+  }
+
+  long expirees() {
+    return expirees.sum();
+  }
+
+  void sequenceReplication(final long sequence) {
+    sequenceReplication = sequence;
+  }
+
+  long sequenceReplication() {
+    return sequenceReplication;
+  }
+}
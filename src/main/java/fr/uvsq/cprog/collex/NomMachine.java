@@ -1,47 +1,148 @@
 package fr.uvsq.cprog.collex;
 
 import java.util.Locale;
-import java.util.Objects;
 
 
 public final class NomMachine {
+    /** Longueur maximale d'un nom qualifié, en caractères (RFC 1035, sans le point final). */
+    static final int LONGUEUR_MAX = 253;
+
     private final String fqdn;
 
+    /** Position du premier point : le domaine commence juste après. */
+    private final int point;
+
+    /** Domaine, calculé au premier appel de {@link #domaine()}. */
+    private String domaine;
+
     public NomMachine(final String fqdn) {
-        if (!isValidFqdn(fqdn)) {
+        if (fqdn == null || !estValide(fqdn, 0, fqdn.length())) {
             throw new IllegalArgumentException("Nom de machine invalide : " + fqdn);
         }
         this.fqdn = fqdn.trim().toLowerCase(Locale.ROOT);
+        this.point = this.fqdn.indexOf('.');
     }
 
-    private static boolean isValidFqdn(final String s) {
-        if (s == null) {
-            return false;
+    /** Construit un nom déjà validé et normalisé (relu d'un fichier écrit par l'application). */
+    private NomMachine(final String fqdn, final boolean dejaValide) {
+        this.fqdn = fqdn;
+        this.point = fqdn.indexOf('.');
+    }
+
+    /**
+     * Reconstruit un nom sans le revalider.
+     *
+     * @param fqdn un nom qualifié valide, en minuscules
+     * @return le nom
+     */
+    static NomMachine deConfiance(final String fqdn) {
+        return new NomMachine(fqdn, true);
+    }
+
+    /**
+     * Vérifie un nom qualifié en une seule passe, sans allocation.
+     * Les blancs qui l'entourent sont ignorés. Il faut au moins deux labels de 1 à 63
+     * caractères [A-Za-z0-9-], qui ne commencent ni ne finissent par un tiret, et au plus
+     * {@link #LONGUEUR_MAX} caractères en tout : le nom tient alors dans une réponse DNS.
+     *
+     * @param s le texte contenant le nom
+     * @param debut début du nom dans le texte
+     * @param fin fin (exclue) du nom dans le texte
+     * @return true si le nom est valide
+     */
+    static boolean estValide(final CharSequence s, final int debut, final int fin) {
+        int i = debut;
+        int j = fin;
+        while (i < j && s.charAt(i) <= ' ') {
+            i++;
+        }
+        while (j > i && s.charAt(j - 1) <= ' ') {
+            j--;
         }
-        final String t = s.trim();
-        if (t.isEmpty() || t.startsWith(".") || t.endsWith(".") || !t.contains(".") || t.contains("..")) {
+        if (j - i > LONGUEUR_MAX) {
             return false;
         }
-        final String[] labels = t.split("\\.");
-        for (String label : labels) {
-            if (label.isEmpty()
-                || label.startsWith("-")
-                || label.endsWith("-")
-                || !label.matches("[A-Za-z0-9-]{1,63}")) {
+        int labels = 0;
+        int longueur = 0;
+        char precedent = '.';
+        for (; i <= j; i++) {
+            final char c = i == j ? '.' : s.charAt(i);
+            if (c == '.') {
+                if (longueur == 0 || precedent == '-') {
+                    return false;
+                }
+                labels++;
+                longueur = 0;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || (c == '-' && longueur > 0)) {
+                if (++longueur > 63) {
+                    return false;
+                }
+            } else {
                 return false;
             }
+            precedent = c;
         }
-        return true;
+        return labels >= 2;
     }
 
     public String value() {
         return fqdn;
     }
 
-    
+    /**
+     * Retourne le domaine, c'est-à-dire le nom privé de son premier label.
+     *
+     * @return le domaine (ex : "uvsq.fr" pour "www.uvsq.fr")
+     */
     public String domaine() {
-        final int i = fqdn.indexOf('.');
-        return fqdn.substring(i + 1);
+        String d = domaine;
+        if (d == null) {
+            d = fqdn.substring(point + 1);
+            domaine = d;
+        }
+        return d;
+    }
+
+    /**
+     * Position du premier point dans {@link #value()}.
+     *
+     * @return longueur du premier label
+     */
+    int finHote() {
+        return point;
+    }
+
+    /**
+     * Compare deux noms dans l'ordre hiérarchique : label par label en partant de la droite,
+     * un nom venant avant ses sous-domaines (uvsq.fr, a.uvsq.fr, b.a.uvsq.fr, b.uvsq.fr).
+     * Dans cet ordre, les noms d'un même sous-arbre sont contigus.
+     *
+     * @param a un nom qualifié, en minuscules
+     * @param b un nom qualifié, en minuscules
+     * @return un entier négatif, nul ou positif si a est avant, égal ou après b
+     */
+    static int compareHierarchique(final String a, final String b) {
+        int fa = a.length();
+        int fb = b.length();
+        while (fa > 0 && fb > 0) {
+            final int da = a.lastIndexOf('.', fa - 1) + 1;
+            final int db = b.lastIndexOf('.', fb - 1) + 1;
+            final int la = fa - da;
+            final int lb = fb - db;
+            for (int k = 0; k < Math.min(la, lb); k++) {
+                final int diff = a.charAt(da + k) - b.charAt(db + k);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            if (la != lb) {
+                return la - lb;
+            }
+            fa = da - 1;
+            fb = db - 1;
+        }
+        return Boolean.compare(fa > 0, fb > 0);
     }
 
     @Override
@@ -56,7 +157,7 @@ public final class NomMachine {
 
     @Override
     public int hashCode() {
-        return Objects.hash(fqdn);
+        return fqdn.hashCode();
     }
 }
 
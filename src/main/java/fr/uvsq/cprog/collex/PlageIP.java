@@ -0,0 +1,95 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Plage d'adresses IPv4 contiguës, bornes incluses : un réseau en notation CIDR
+ * (193.51.0.0/16) ou deux adresses quelconques.
+ */
+public final class PlageIP {
+
+  private final AdresseIP debut;
+  private final AdresseIP fin;
+
+  /** Longueur du préfixe pour un réseau CIDR, -1 pour une plage quelconque. */
+  private final int prefixe;
+
+  /**
+   * Plage entre deux adresses.
+   *
+   * @param debut première adresse
+   * @param fin dernière adresse, incluse
+   * @throws IllegalArgumentException si une borne est nulle ou si debut est après fin
+   */
+  public PlageIP(final AdresseIP debut, final AdresseIP fin) {
+    this(debut, fin, -1);
+  }
+
+  private PlageIP(final AdresseIP debut, final AdresseIP fin, final int prefixe) {
+    if (debut == null || fin == null) {
+      throw new IllegalArgumentException("Borne de plage nulle");
+    }
+    if (debut.compareTo(fin) > 0) {
+      throw new IllegalArgumentException("Plage vide : " + debut + " est après " + fin);
+    }
+    this.debut = debut;
+    this.fin = fin;
+    this.prefixe = prefixe;
+  }
+
+  /**
+   * Analyse un réseau en notation CIDR. Les bits d'hôte de l'adresse sont ignorés :
+   * 193.51.31.90/24 désigne 193.51.31.0/24.
+   *
+   * @param cidr le réseau (ex : "193.51.0.0/16")
+   * @return la plage du réseau
+   * @throws IllegalArgumentException si le texte n'est pas un réseau CIDR valide
+   */
+  public static PlageIP cidr(final String cidr) {
+    final int barre = cidr == null ? -1 : cidr.indexOf('/');
+    if (barre < 0) {
+      throw new IllegalArgumentException("Réseau CIDR invalide : " + cidr);
+    }
+    final long ip = AdresseIP.analyse(cidr, 0, barre);
+    final String suffixe = cidr.substring(barre + 1);
+    final int longueur = !suffixe.isEmpty() && suffixe.length() <= 2
+        && suffixe.chars().allMatch(c -> c >= '0' && c <= '9') ? Integer.parseInt(suffixe) : -1;
+    if (ip < 0 || longueur < 0 || longueur > 32) {
+      throw new IllegalArgumentException("Réseau CIDR invalide : " + cidr);
+    }
+    final int masque = longueur == 0 ? 0 : -1 << (32 - longueur);
+    final int reseau = (int) ip & masque;
+    return new PlageIP(new AdresseIP(reseau), new AdresseIP(reseau | ~masque), longueur);
+  }
+
+  public AdresseIP debut() {
+    return debut;
+  }
+
+  public AdresseIP fin() {
+    return fin;
+  }
+
+  /**
+   * Première adresse attribuable à une machine : l'adresse du réseau est exclue
+   * pour un réseau CIDR d'au moins 4 adresses.
+   *
+   * @return l'adresse, non signée
+   */
+  long premiereHote() {
+    return (debut.toInt() & 0xFFFFFFFFL) + (prefixe >= 0 && prefixe <= 30 ? 1 : 0);
+  }
+
+  /**
+   * Dernière adresse attribuable à une machine : l'adresse de diffusion est exclue
+   * pour un réseau CIDR d'au moins 4 adresses.
+   *
+   * @return l'adresse, non signée
+   */
+  long derniereHote() {
+    return (fin.toInt() & 0xFFFFFFFFL) - (prefixe >= 0 && prefixe <= 30 ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    return prefixe >= 0 ? debut + "/" + prefixe : debut + "-" + fin;
+  }
+}
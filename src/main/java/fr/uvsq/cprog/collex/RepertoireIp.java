@@ -0,0 +1,150 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Répertoire des adresses de toutes les partitions d'un {@link DnsPartitionne} : il
+ * garantit l'unicité des adresses entre partitions, chacune n'en connaissant que les
+ * siennes, et dit dans quelle partition chercher une adresse.
+ *
+ * Le répertoire est lui-même découpé en {@link #PARTIES} parts selon un hachage de
+ * l'adresse, chacune formée d'un {@link IndexIp} et d'un {@link IndexIp6} avec son
+ * propre verrou d'écriture : les écrivains de partitions différentes ne se gênent que
+ * s'ils réservent au même instant des adresses de la même part. Les lectures ne prennent
+ * aucun verrou.
+ *
+ * Une réservation est d'abord en attente : l'entrée n'est pas encore dans sa partition
+ * (ajout, journal et fsync en cours). Elle est confirmée quand l'ajout réussit et
+ * libérée s'il échoue ; entre-temps, aucune autre réservation ne peut la prendre.
+ *
+ * Les entrées expirées ne sont pas retirées du répertoire : une adresse confirmée pour
+ * une entrée expirée est reprise par la réservation suivante.
+ */
+final class RepertoireIp {
+
+  /** Nombre de parts (puissance de 2). */
+  static final int PARTIES = 64;
+
+  private final Part[] parts = new Part[PARTIES];
+
+  /** Une part du répertoire : ses adresses et le verrou de ses écrivains. */
+  private static final class Part {
+    final IndexIp ipv4 = new IndexIp();
+    final IndexIp6 ipv6 = new IndexIp6();
+    final ReentrantLock verrou = new ReentrantLock();
+    /** Réservations en attente de confirmation, comparées par identité (sous le verrou). */
+    final Set<DnsItem> enAttente = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    DnsItem get(final AdresseIP ip) {
+      return ip.estIpv6() ? ipv6.get(ip.haut(), ip.bas()) : ipv4.get(ip.toInt());
+    }
+  }
+
+  RepertoireIp() {
+    for (int i = 0; i < PARTIES; i++) {
+      parts[i] = new Part();
+    }
+  }
+
+  private Part part(final AdresseIP ip) {
+    final long h = ip.estIpv6() ? ip.haut() * 31 + ip.bas() : ip.toInt();
+    return parts[(int) ((h * 0x9E3779B97F4A7C15L) >>> 58) & (PARTIES - 1)];
+  }
+
+  /**
+   * Entrée qui a réservé une adresse.
+   *
+   * @param ip l'adresse
+   * @return l'entrée, ou null si l'adresse est libre
+   */
+  DnsItem get(final AdresseIP ip) {
+    return part(ip).get(ip);
+  }
+
+  /**
+   * Réserve, en attente, l'adresse d'une entrée, si elle est libre ou si l'entrée qui
+   * la tenait a expiré. Une réservation en attente n'est jamais reprise.
+   *
+   * @param item l'entrée
+   * @param maintenant l'instant, en secondes depuis l'époque Unix
+   * @return true si l'adresse est réservée pour l'entrée
+   */
+  boolean reserve(final DnsItem item, final long maintenant) {
+    final Part p = part(item.ip());
+    p.verrou.lock();
+    try {
+      final DnsItem tenante = p.get(item.ip());
+      if (tenante != null && (p.enAttente.contains(tenante) || !tenante.estExpiree(maintenant))) {
+        return false;
+      }
+      put(p, item);
+      p.enAttente.add(item);
+      return true;
+    } finally {
+      p.verrou.unlock();
+    }
+  }
+
+  /**
+   * Confirme la réservation d'une entrée désormais présente dans sa partition.
+   *
+   * @param item l'entrée
+   */
+  void confirme(final DnsItem item) {
+    final Part p = part(item.ip());
+    p.verrou.lock();
+    try {
+      p.enAttente.remove(item);
+    } finally {
+      p.verrou.unlock();
+    }
+  }
+
+  /**
+   * Enregistre l'adresse d'une entrée déjà présente dans une partition (chargement).
+   *
+   * @param item l'entrée
+   */
+  void ajoute(final DnsItem item) {
+    final Part p = part(item.ip());
+    p.verrou.lock();
+    try {
+      put(p, item);
+    } finally {
+      p.verrou.unlock();
+    }
+  }
+
+  /**
+   * Libère l'adresse d'une entrée dont l'ajout a échoué, si elle la tient encore.
+   *
+   * @param item l'entrée
+   */
+  void libere(final DnsItem item) {
+    final Part p = part(item.ip());
+    p.verrou.lock();
+    try {
+      p.enAttente.remove(item);
+      if (p.get(item.ip()) == item) {
+        if (item.ip().estIpv6()) {
+          p.ipv6.supprime(item.ip().haut(), item.ip().bas());
+        } else {
+          p.ipv4.supprime(item.ip().toInt());
+        }
+      }
+    } finally {
+      p.verrou.unlock();
+    }
+  }
+
+  private static void put(final Part p, final DnsItem item) {
+    if (item.ip().estIpv6()) {
+      p.ipv6.put(item);
+    } else {
+      p.ipv4.put(item.ip().toInt(), item);
+    }
+  }
+}
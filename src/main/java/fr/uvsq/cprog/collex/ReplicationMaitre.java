@@ -0,0 +1,260 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Publie les ajouts d'une instance de {@link Dns} (le maître) vers des répliques
+ * ({@link ReplicationSuiveur}) qui servent les lectures.
+ *
+ * Chaque entrée rendue visible par un ajout reçoit un numéro de séquence croissant, sous
+ * le verrou des écrivains, et est gardée dans un historique circulaire des derniers
+ * changements ({@link DnsConfig#historiqueReplication()}). Une réplique se connecte en
+ * indiquant le dernier changement qu'elle a appliqué : si l'historique le contient
+ * encore, seuls les changements suivants lui sont envoyés ; sinon (première connexion,
+ * retard trop grand, maître redémarré ou base rechargée), elle reçoit d'abord un
+ * instantané de la base, puis la suite. Un thread par réplique envoie les changements
+ * par lots, dans l'ordre des numéros.
+ *
+ * Protocole (flux binaire de {@link DataOutputStream}) :
+ *   - réplique -> maître : identifiant de l'historique connu (long), dernier changement
+ *     appliqué (long)
+ *   - maître -> réplique : 'I', identifiant de l'historique (long), numéro du dernier
+ *     changement compris (long), nombre d'entrées (int), entrées au format de la base
+ *     (UTF) : instantané
+ *   - maître -> réplique : 'C', numéro (long), instant de validation en microsecondes
+ *     depuis l'époque Unix (long), entrée au format de la base (UTF) : changement
+ *
+ * Les expirations ne sont pas transmises : une entrée à durée de vie porte son instant
+ * d'expiration, et chaque réplique la retire elle-même à cet instant.
+ */
+public final class ReplicationMaitre implements Closeable {
+
+  /** Type du message d'instantané. */
+  static final int INSTANTANE = 'I';
+
+  /** Type du message de changement. */
+  static final int CHANGEMENT = 'C';
+
+  /** Nombre maximal de changements envoyés avant de vider le tampon d'envoi. */
+  private static final int LOT = 1024;
+
+  private final Dns dns;
+  private final ServerSocket ecoute;
+  private final Thread accepteur;
+  private final Set<Socket> repliques = ConcurrentHashMap.newKeySet();
+  private volatile boolean ferme;
+
+  /** Derniers changements, rangés à l'indice numéro % longueur (sous le moniteur). */
+  private final DnsItem[] historique;
+
+  /** Instants de validation des changements de l'historique, en microsecondes. */
+  private final long[] instants;
+
+  /** Numéro du dernier changement publié, 0 avant le premier (sous le moniteur). */
+  private long sequence;
+
+  /**
+   * Identifiant de l'historique, tiré au hasard au démarrage et à chaque rechargement
+   * de la base : les numéros d'un autre historique ne valent rien ici (sous le moniteur).
+   */
+  private long identifiant = nouvelIdentifiant();
+
+  /**
+   * Publie les ajouts d'une base.
+   *
+   * @param dns la base du maître
+   * @param adresse adresse d'écoute des répliques (port 0 pour un port libre)
+   * @param historique nombre de changements gardés pour les répliques en retard
+   * @throws IOException si l'adresse ne peut pas être liée
+   */
+  public ReplicationMaitre(final Dns dns, final InetSocketAddress adresse, final int historique)
+      throws IOException {
+    if (historique < 1) {
+      throw new IllegalArgumentException("Historique de réplication invalide : " + historique);
+    }
+    this.dns = dns;
+    this.historique = new DnsItem[historique];
+    this.instants = new long[historique];
+    this.ecoute = new ServerSocket();
+    ecoute.bind(adresse);
+    dns.metriques().sequenceReplication(0);
+    dns.publie(this);
+    this.accepteur = new Thread(this::accepte, "dns-replication");
+    accepteur.setDaemon(true);
+    accepteur.start();
+  }
+
+  /**
+   * Retourne l'adresse effectivement liée.
+   *
+   * @return adresse d'écoute des répliques
+   */
+  public InetSocketAddress adresse() {
+    return (InetSocketAddress) ecoute.getLocalSocketAddress();
+  }
+
+  /**
+   * Nombre de répliques actuellement connectées.
+   *
+   * @return répliques connectées
+   */
+  public int repliques() {
+    return repliques.size();
+  }
+
+  /**
+   * Numérote et garde un changement, puis réveille les threads d'envoi. Appelé par
+   * {@link Dns} sous le verrou des écrivains, une fois l'entrée visible.
+   */
+  synchronized void publie(final DnsItem item) {
+    sequence++;
+    final int i = (int) (sequence % historique.length);
+    historique[i] = item;
+    instants[i] = microsecondes();
+    dns.metriques().sequenceReplication(sequence);
+    notifyAll();
+  }
+
+  /**
+   * Change d'historique après le remplacement de la base ({@link Dns#recharge()}) :
+   * chaque réplique reçoit un nouvel instantané.
+   */
+  synchronized void reinitialise() {
+    identifiant = nouvelIdentifiant();
+    notifyAll();
+  }
+
+  private static long nouvelIdentifiant() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while (id == 0);
+    return id;
+  }
+
+  /** Instant présent, en microsecondes depuis l'époque Unix. */
+  static long microsecondes() {
+    final Instant t = Instant.now();
+    return t.getEpochSecond() * 1_000_000 + t.getNano() / 1000;
+  }
+
+  private void accepte() {
+    int numero = 0;
+    while (!ferme) {
+      try {
+        final Socket s = ecoute.accept();
+        s.setTcpNoDelay(true);
+        repliques.add(s);
+        final Thread t = new Thread(() -> sert(s), "dns-replication-" + numero++);
+        t.setDaemon(true);
+        t.start();
+      } catch (IOException e) {
+        // Écoute fermée, ou connexion interrompue : on continue d'accepter les suivantes
+      }
+    }
+  }
+
+  /** Envoie à une réplique un instantané si nécessaire, puis chaque nouveau changement. */
+  private void sert(final Socket s) {
+    try (s;
+         DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+         DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(s.getOutputStream(), 1 << 16))) {
+      long connu = in.readLong();
+      long derniere = in.readLong();
+      final DnsItem[] lot = new DnsItem[LOT];
+      final long[] instantsLot = new long[LOT];
+      while (true) {
+        int n = 0;
+        boolean instantane;
+        synchronized (this) {
+          while (!ferme && connu == identifiant && derniere == sequence) {
+            wait();
+          }
+          if (ferme) {
+            return;
+          }
+          instantane = connu != identifiant || derniere > sequence
+              || sequence - derniere > historique.length;
+          if (!instantane) {
+            n = (int) Math.min(LOT, sequence - derniere);
+            for (int k = 0; k < n; k++) {
+              final int i = (int) ((derniere + 1 + k) % historique.length);
+              lot[k] = historique[i];
+              instantsLot[k] = instants[i];
+            }
+          } else {
+            connu = identifiant;
+            derniere = sequence;
+          }
+        }
+        if (instantane) {
+          // Les entrées numérotées jusqu'à derniere sont déjà visibles ; les suivantes
+          // peuvent l'être aussi et seront renvoyées : la réplique ignore les doublons
+          final List<DnsItem> items = dns.items();
+          out.writeByte(INSTANTANE);
+          out.writeLong(connu);
+          out.writeLong(derniere);
+          out.writeInt(items.size());
+          for (DnsItem item : items) {
+            out.writeUTF(item.toString());
+          }
+        }
+        for (int k = 0; k < n; k++) {
+          out.writeByte(CHANGEMENT);
+          out.writeLong(++derniere);
+          out.writeLong(instantsLot[k]);
+          out.writeUTF(lot[k].toString());
+          lot[k] = null;
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // Réplique déconnectée : elle reprendra là où elle en était
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      repliques.remove(s);
+    }
+  }
+
+  /** Cesse la publication, ferme l'écoute et les connexions des répliques. */
+  @Override
+  public void close() {
+    ferme = true;
+    dns.publie(null);
+    synchronized (this) {
+      notifyAll();
+    }
+    try {
+      ecoute.close();
+    } catch (IOException ignored) {
+      // Déjà fermée
+    }
+    for (Socket s : repliques) {
+      try {
+        s.close();
+      } catch (IOException ignored) {
+        // Déjà fermée
+      }
+    }
+    try {
+      accepteur.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Fait d'une instance de {@link Dns} sans fichier une réplique en lecture seule d'un
+ * maître ({@link ReplicationMaitre}) : ses index reçoivent les ajouts du maître, dans
+ * l'ordre, et servent les lectures comme ceux de n'importe quelle instance.
+ *
+ * Un thread dédié se connecte au maître et applique ses messages. À la première
+ * connexion, la réplique reçoit un instantané de la base, qui remplace ses index d'un
+ * bloc ; ensuite chaque changement est appliqué dès sa réception. Si la connexion est
+ * perdue, la réplique se reconnecte toutes les {@link #ATTENTE_MS} ms en indiquant le
+ * dernier changement appliqué, et ne reçoit que la suite tant que le maître la garde
+ * dans son historique. Les ajouts sur la réplique sont refusés.
+ *
+ * Le retard de chaque changement (de sa validation sur le maître à son application)
+ * est mesuré par l'opération "replication" des statistiques ; il suppose que le maître
+ * et la réplique partagent la même horloge, par exemple sur une même machine.
+ */
+public final class ReplicationSuiveur implements Closeable {
+
+  /** Délai entre deux tentatives de connexion au maître, en millisecondes. */
+  static final long ATTENTE_MS = 1000;
+
+  private final Dns dns;
+  private final InetSocketAddress maitre;
+  private final Consumer<String> compteRendu;
+  private final Thread fil;
+  private volatile boolean ferme;
+  private volatile Socket socket;
+
+  /** Identifiant de l'historique du maître d'où viennent les index (0 : aucun). */
+  private long identifiant;
+
+  /** Numéro du dernier changement appliqué. */
+  private long derniere;
+
+  /**
+   * Démarre la réplication d'un maître.
+   *
+   * @param dns l'instance à tenir à jour, sans fichier de base
+   * @param maitre adresse de réplication du maître
+   * @param compteRendu reçoit les connexions au maître et leurs interruptions
+   */
+  public ReplicationSuiveur(final Dns dns, final InetSocketAddress maitre,
+                            final Consumer<String> compteRendu) {
+    if (dns.getDbPath() != null) {
+      throw new IllegalArgumentException("Une réplique n'a pas de fichier de base");
+    }
+    this.dns = dns;
+    this.maitre = maitre;
+    this.compteRendu = compteRendu;
+    dns.devientReplique();
+    this.fil = new Thread(this::suit, "dns-replique");
+    fil.setDaemon(true);
+    fil.start();
+  }
+
+  private void suit() {
+    while (!ferme) {
+      try (Socket s = new Socket()) {
+        socket = s;
+        if (ferme) {
+          return;
+        }
+        s.setTcpNoDelay(true);
+        s.connect(maitre);
+        final DataOutputStream out = new DataOutputStream(s.getOutputStream());
+        out.writeLong(identifiant);
+        out.writeLong(derniere);
+        out.flush();
+        compteRendu.accept("Réplique de " + maitre + " à partir du changement " + derniere);
+        applique(new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16)));
+      } catch (EOFException e) {
+        if (!ferme) {
+          compteRendu.accept("ERREUR : Connexion au maître " + maitre + " fermée");
+        }
+      } catch (IOException | RuntimeException e) {
+        if (!ferme) {
+          compteRendu.accept("ERREUR : Réplication de " + maitre + " interrompue : "
+              + e.getMessage());
+        }
+      }
+      try {
+        Thread.sleep(ATTENTE_MS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /** Applique les messages du maître jusqu'à la fin de la connexion. */
+  private void applique(final DataInputStream in) throws IOException {
+    while (true) {
+      final int type = in.readUnsignedByte();
+      if (type == ReplicationMaitre.INSTANTANE) {
+        final long id = in.readLong();
+        final long sequence = in.readLong();
+        final int n = in.readInt();
+        final List<DnsItem> items = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          items.add(DnsItem.analyse(in.readUTF()));
+        }
+        dns.remplaceReplique(items, sequence);
+        identifiant = id;
+        derniere = sequence;
+      } else if (type == ReplicationMaitre.CHANGEMENT) {
+        final long sequence = in.readLong();
+        final long instant = in.readLong();
+        final DnsItem item = DnsItem.analyse(in.readUTF());
+        dns.appliqueReplique(item, sequence);
+        derniere = sequence;
+        final long retard = ReplicationMaitre.microsecondes() - instant;
+        dns.metriques().replication.enregistreDuree(Math.max(0, retard) * 1000, true);
+      } else {
+        throw new IOException("Message de réplication inconnu : " + type);
+      }
+    }
+  }
+
+  /** Arrête la réplication ; la réplique garde ses index et reste en lecture seule. */
+  @Override
+  public void close() {
+    ferme = true;
+    final Socket s = socket;
+    if (s != null) {
+      try {
+        s.close();
+      } catch (IOException ignored) {
+        // Déjà fermée
+      }
+    }
+    fil.interrupt();
+    try {
+      fil.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
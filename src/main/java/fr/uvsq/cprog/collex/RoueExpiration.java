@@ -0,0 +1,154 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Échéancier des entrées à durée de vie limitée : roue temporelle hiérarchique
+ * au pas d'une seconde.
+ *
+ * La roue compte {@link #NIVEAUX} niveaux de {@link #CASES} cases. Une case du niveau
+ * k couvre 64^k secondes : le niveau 0 couvre la minute qui vient, le niveau 1 l'heure,
+ * le niveau 2 les trois jours, le niveau 3 environ six mois (une échéance plus lointaine
+ * est rangée dans la dernière case du niveau 3 puis replacée). Planifier une entrée
+ * l'ajoute à la case de son échéance, en O(1). À chaque seconde, la case courante du
+ * niveau 0 est vidée ; toutes les 64 secondes, la case suivante du niveau 1 est
+ * redistribuée dans le niveau 0, et ainsi de suite : chaque entrée est déplacée au plus
+ * {@link #NIVEAUX} fois, quel que soit le nombre d'entrées planifiées. Aucun parcours
+ * de l'ensemble des entrées n'est nécessaire.
+ *
+ * Une entrée n'est jamais retirée de la roue : l'appelant ignore celles qui ne sont plus
+ * dans la base quand leur échéance arrive. La roue n'est pas synchronisée : elle est
+ * protégée par le verrou des écrivains de {@link Dns}.
+ */
+final class RoueExpiration {
+
+  /** Nombre de niveaux. */
+  static final int NIVEAUX = 4;
+
+  /** Bits d'indice d'une case dans un niveau. */
+  private static final int BITS = 6;
+
+  /** Nombre de cases par niveau. */
+  static final int CASES = 1 << BITS;
+
+  private static final int MASQUE = CASES - 1;
+
+  /** Cases de chaque niveau, créées au premier ajout. */
+  private final List<List<DnsItem>> cases = new ArrayList<>(NIVEAUX * CASES);
+
+  /** Prochaine seconde à traiter : toutes les échéances antérieures ont été rendues. */
+  private long courant;
+
+  /** Nombre d'entrées planifiées. */
+  private int taille;
+
+  /**
+   * Crée une roue vide.
+   *
+   * @param maintenant l'instant de départ, en secondes depuis l'époque Unix
+   */
+  RoueExpiration(final long maintenant) {
+    this.courant = maintenant;
+    for (int i = 0; i < NIVEAUX * CASES; i++) {
+      cases.add(null);
+    }
+  }
+
+  /**
+   * Planifie l'expiration d'une entrée, à son instant d'expiration.
+   *
+   * @param item l'entrée, avec une expiration
+   */
+  void planifie(final DnsItem item) {
+    range(item);
+    taille++;
+  }
+
+  /** Range une entrée dans la case de son échéance, par rapport à {@link #courant}. */
+  private void range(final DnsItem item) {
+    final long echeance = Math.max(item.expiration(), courant);
+    final long delai = echeance - courant;
+    int niveau = 0;
+    while (niveau < NIVEAUX - 1 && delai >= 1L << (BITS * (niveau + 1))) {
+      niveau++;
+    }
+    // Au-delà du dernier niveau : dernière case atteignable, puis replacée
+    final long horizon = courant + (1L << (BITS * NIVEAUX)) - 1;
+    final long c = Math.min(echeance, horizon) >>> (BITS * niveau);
+    final int indice = niveau * CASES + (int) (c & MASQUE);
+    List<DnsItem> l = cases.get(indice);
+    if (l == null) {
+      l = new ArrayList<>();
+      cases.set(indice, l);
+    }
+    l.add(item);
+  }
+
+  /**
+   * Avance la roue jusqu'à un instant et rend les entrées arrivées à échéance,
+   * dans l'ordre de leurs échéances.
+   *
+   * @param maintenant l'instant atteint, en secondes depuis l'époque Unix
+   * @param expiree reçoit chaque entrée arrivée à échéance
+   * @return nombre d'entrées rendues
+   */
+  int avance(final long maintenant, final Consumer<DnsItem> expiree) {
+    int n = 0;
+    while (courant <= maintenant) {
+      if (taille == 0) {
+        courant = maintenant + 1;
+        break;
+      }
+      if ((courant & MASQUE) == 0) {
+        redistribue(1);
+      }
+      final List<DnsItem> l = vide(0, (int) (courant & MASQUE));
+      if (l != null) {
+        taille -= l.size();
+        n += l.size();
+        l.forEach(expiree);
+      }
+      courant++;
+    }
+    return n;
+  }
+
+  /**
+   * Redistribue dans les niveaux inférieurs la case du niveau donné qui commence
+   * à l'instant courant, après celle du niveau supérieur si elle commence aussi.
+   */
+  private void redistribue(final int niveau) {
+    if (niveau >= NIVEAUX) {
+      return;
+    }
+    final int indice = (int) ((courant >>> (BITS * niveau)) & MASQUE);
+    if (indice == 0) {
+      redistribue(niveau + 1);
+    }
+    final List<DnsItem> l = vide(niveau, indice);
+    if (l != null) {
+      l.forEach(this::range);
+    }
+  }
+
+  /** Retire et rend le contenu d'une case (null si elle est vide). */
+  private List<DnsItem> vide(final int niveau, final int indice) {
+    final List<DnsItem> l = cases.get(niveau * CASES + indice);
+    if (l == null || l.isEmpty()) {
+      return null;
+    }
+    cases.set(niveau * CASES + indice, null);
+    return l;
+  }
+
+  /**
+   * Nombre d'entrées planifiées, y compris celles qui ne sont plus dans la base.
+   *
+   * @return nombre d'entrées
+   */
+  int size() {
+    return taille;
+  }
+}
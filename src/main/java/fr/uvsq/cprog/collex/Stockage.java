@@ -0,0 +1,218 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Base figée servie sans objet par entrée, consultée par {@link Dns} en plus de ses
+ * index : un instantané projeté en mémoire ({@link Instantane}), un stockage sur disque
+ * lu par blocs ({@link StockageDisque}) ou des colonnes de tableaux primitifs
+ * ({@link StockageColonnes}). Les entrées ne changent pas une fois le stockage ouvert ;
+ * les ajouts restent dans les index du tas.
+ *
+ * Les noms et domaines sont en minuscules, les adresses non signées sont des
+ * {@code long} ; les parcours rendent les entrées dans l'ordre indiqué, sans
+ * doublon, pour être fusionnés avec ceux des index du tas.
+ *
+ * Les formats compacts ne représentent que les adresses IPv4 des entrées permanentes :
+ * les entrées IPv6 et celles qui ont une durée de vie sont rangées à part, dans une
+ * annexe texte ({@link #annexe()}) relue à l'ouverture et servie par les index du tas
+ * (où les entrées peuvent expirer). Les autres méthodes les ignorent.
+ */
+interface Stockage extends Closeable {
+
+  /**
+   * Nombre d'entrées du stockage, hors annexe.
+   *
+   * @return nombre d'entrées
+   */
+  int size();
+
+  /**
+   * Recherche une entrée par nom.
+   *
+   * @param fqdn le nom qualifié, en minuscules
+   * @return l'entrée, ou null si absente
+   */
+  DnsItem parNom(String fqdn);
+
+  /**
+   * Recherche une entrée par adresse.
+   *
+   * @param ip la forme entière de l'adresse
+   * @return l'entrée, ou null si absente
+   */
+  DnsItem parIp(int ip);
+
+  /**
+   * Retourne les entrées d'un domaine dans l'ordre demandé.
+   *
+   * @param domaine le domaine, en minuscules
+   * @param parAdresse true pour l'ordre des IP, false pour l'ordre des noms
+   * @return les entrées
+   */
+  default List<DnsItem> domaine(final String domaine, final boolean parAdresse) {
+    final List<DnsItem> r = new ArrayList<>();
+    (parAdresse ? suiteParIp(domaine, null) : suiteParNom(domaine, null)).forEachRemaining(r::add);
+    return r;
+  }
+
+  /**
+   * Parcourt les entrées d'un domaine dans l'ordre des noms.
+   *
+   * @param domaine le domaine, en minuscules
+   * @param apres nom à partir duquel reprendre (exclu), ou null pour commencer au début
+   * @return un itérateur sur les entrées
+   */
+  Iterator<DnsItem> suiteParNom(String domaine, String apres);
+
+  /**
+   * Parcourt les entrées d'un domaine dans l'ordre des adresses.
+   *
+   * @param domaine le domaine, en minuscules
+   * @param apres adresse à partir de laquelle reprendre (exclue), ou null pour commencer au début
+   * @return un itérateur sur les entrées
+   */
+  Iterator<DnsItem> suiteParIp(String domaine, AdresseIP apres);
+
+  /**
+   * Retourne les entrées d'une plage d'adresses, dans l'ordre des adresses.
+   *
+   * @param debut première adresse, non signée
+   * @param fin dernière adresse, incluse, non signée
+   * @return les entrées
+   */
+  List<DnsItem> plage(long debut, long fin);
+
+  /**
+   * Cherche la première adresse absente du stockage à partir d'une adresse donnée.
+   *
+   * @param depuis adresse de départ, non signée
+   * @return la plus petite adresse absente non inférieure à depuis, non signée
+   *     (2^32 si toutes les adresses à partir de depuis sont présentes)
+   */
+  long premiereLibre(long depuis);
+
+  /**
+   * Retourne les entrées situées sous un domaine, à toute profondeur (sans l'éventuelle
+   * entrée qui porte le nom du domaine), dans l'ordre hiérarchique.
+   *
+   * @param domaine les labels du domaine, en partant de la droite
+   * @return les entrées
+   */
+  List<DnsItem> sousArbre(String[] domaine);
+
+  /**
+   * Retourne les entrées dont le nom correspond à un motif (voir {@link IndexHierarchie}),
+   * dans l'ordre hiérarchique.
+   *
+   * @param motif les labels du motif, en partant de la droite
+   * @return les entrées
+   */
+  List<DnsItem> motif(String[] motif);
+
+  /**
+   * Parcourt, dans l'ordre, les labels présents sous un domaine et commençant par
+   * un préfixe donné.
+   *
+   * @param domaine les labels du domaine, en partant de la droite
+   * @param prefixe début des labels recherchés
+   * @param max nombre maximal de labels rendus
+   * @param action traitement de chaque label
+   */
+  void labels(String[] domaine, String prefixe, int max, Consumer<String> action);
+
+  /**
+   * Parcourt toutes les entrées, dans l'ordre (domaine, nom).
+   *
+   * @param action traitement de chaque entrée
+   */
+  void forEach(Consumer<DnsItem> action);
+
+  /**
+   * Parcourt toutes les entrées, hors annexe, dans l'ordre (domaine, nom), au fur et à
+   * mesure. Par défaut, les entrées sont d'abord copiées dans une liste.
+   *
+   * @return un itérateur sur les entrées
+   */
+  default Iterator<DnsItem> parcours() {
+    final List<DnsItem> r = new ArrayList<>(size());
+    forEach(r::add);
+    return r.iterator();
+  }
+
+  /**
+   * Ajoute toutes les entrées, hors annexe, à un filtre de Bloom. Par défaut, les entrées
+   * sont parcourues une à une ; un format qui lit ses noms sans créer d'objet peut les
+   * hacher directement.
+   *
+   * @param filtre le filtre à remplir
+   */
+  default void remplit(final FiltreBloom filtre) {
+    forEach(filtre::ajoute);
+  }
+
+  /**
+   * Parcourt les domaines, dans l'ordre, avec leur nombre d'entrées.
+   *
+   * @param action reçoit chaque domaine et son nombre d'entrées
+   */
+  void forEachDomaine(ObjIntConsumer<String> action);
+
+  /**
+   * Entrées que le format du stockage ne représente pas (adresses IPv6, durées de vie),
+   * à indexer dans le tas.
+   *
+   * @return les entrées de l'annexe
+   */
+  default List<DnsItem> annexe() {
+    return List.of();
+  }
+
+  /**
+   * Écrit une annexe : une entrée par ligne, sous la forme de la base texte.
+   *
+   * @param entrees les entrées de l'annexe
+   * @return les octets ASCII de l'annexe
+   */
+  static byte[] ecritAnnexe(final Collection<DnsItem> entrees) {
+    final StringBuilder sb = new StringBuilder();
+    for (DnsItem item : entrees) {
+      sb.append(item).append('\n');
+    }
+    return sb.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Relit une annexe écrite par {@link #ecritAnnexe}.
+   *
+   * @param b le tampon contenant l'annexe
+   * @param pos position de l'annexe
+   * @param taille taille de l'annexe, en octets
+   * @return les entrées de l'annexe
+   */
+  static List<DnsItem> litAnnexe(final ByteBuffer b, final int pos, final int taille) {
+    if (taille == 0) {
+      return List.of();
+    }
+    final byte[] octets = new byte[taille];
+    b.get(pos, octets);
+    final List<DnsItem> r = new ArrayList<>();
+    for (String ligne : new String(octets, StandardCharsets.US_ASCII).split("\n")) {
+      r.add(DnsItem.analyse(ligne));
+    }
+    return List.copyOf(r);
+  }
+
+  /** Libère les ressources du stockage ; par défaut, rien à libérer. */
+  @Override
+  default void close() {
+  }
+}
@@ -0,0 +1,539 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Base figée rangée en colonnes dans le tas, pour les grandes bases
+ * ({@code stockage = colonnes}) : aucun objet par entrée, seulement des tableaux
+ * primitifs, et des {@link DnsItem} créés à la demande pour les entrées rendues.
+ *
+ * Les domaines sont stockés une seule fois, dans un dictionnaire trié : le domaine
+ * d'une entrée est le rang de son domaine dans ce dictionnaire. Les entrées étant triées
+ * par (domaine, nom), celles d'un même domaine sont contiguës et ce rang n'a pas besoin
+ * d'être stocké : il se retrouve par dichotomie dans le tableau des débuts de domaine.
+ * Le premier label de chaque nom est rangé dans une seule zone d'octets ASCII, où
+ * l'entrée i occupe les octets compris entre la fin de l'entrée i - 1 et la sienne.
+ *
+ * Colonnes (n entrées) :
+ * <pre>
+ *   finsLabels  fin du label de chaque entrée dans la zone des labels
+ *   ips         adresse de chaque entrée
+ *   ipsTriees   adresses triées (non signées), pour les recherches par adresse et par plage
+ *   parIp       numéro de l'entrée de chaque adresse triée
+ *   ipDomaine   pour chaque domaine, ses numéros d'entrées triés par adresse
+ *   hierarchie  numéros d'entrées dans l'ordre de {@link NomMachine#compareHierarchique}
+ * </pre>
+ * soit 24 octets par entrée plus son label, au lieu de plusieurs objets et nœuds de
+ * tables par entrée et par index en mode mémoire.
+ *
+ * Le stockage est construit au chargement depuis la base texte et n'a pas de fichier ;
+ * comme pour les autres stockages, les ajouts suivants restent dans les index du tas,
+ * et les entrées IPv6 ou à durée de vie sont rangées dans l'annexe.
+ */
+final class StockageColonnes implements Stockage {
+
+  private final int n;
+  private final String[] domaines;
+  private final int[] debuts;
+  private final byte[] labels;
+  private final int[] finsLabels;
+  private final int[] ips;
+  private final int[] ipsTriees;
+  private final int[] parIp;
+  private final int[] ipDomaine;
+  private final int[] hierarchie;
+  private final List<DnsItem> annexe;
+
+  private StockageColonnes(final DnsItem[] items, final List<DnsItem> annexe) {
+    this.n = items.length;
+    this.annexe = Collections.unmodifiableList(annexe);
+
+    final List<String> dictionnaire = new ArrayList<>();
+    final int[] premieres = new int[n + 1];
+    long tailleLabels = 0;
+    for (int i = 0; i < n; i++) {
+      final NomMachine nom = items[i].nom();
+      if (i == 0 || !nom.domaine().equals(items[i - 1].nom().domaine())) {
+        premieres[dictionnaire.size()] = i;
+        dictionnaire.add(nom.domaine());
+      } else if (nom.equals(items[i - 1].nom())) {
+        throw new RuntimeException("Doublon de nom détecté : " + nom.value());
+      }
+      tailleLabels += nom.finHote();
+    }
+    if (tailleLabels > Integer.MAX_VALUE - 8) {
+      throw new RuntimeException("Base trop volumineuse pour le stockage en colonnes : "
+          + n + " entrées");
+    }
+    this.domaines = dictionnaire.toArray(new String[0]);
+    premieres[domaines.length] = n;
+    this.debuts = Arrays.copyOf(premieres, domaines.length + 1);
+
+    this.labels = new byte[(int) tailleLabels];
+    this.finsLabels = new int[n];
+    this.ips = new int[n];
+    int pos = 0;
+    for (int i = 0; i < n; i++) {
+      final String nom = items[i].nom().value();
+      for (int k = 0, fin = items[i].nom().finHote(); k < fin; k++) {
+        labels[pos++] = (byte) nom.charAt(k);
+      }
+      finsLabels[i] = pos;
+      ips[i] = items[i].ip().toInt();
+    }
+
+    // Adresse non signée dans les 32 bits de poids fort, numéro d'entrée dans les autres
+    final long[] cles = new long[n];
+    for (int i = 0; i < n; i++) {
+      cles[i] = (Integer.toUnsignedLong(ips[i]) << 31) | i;
+    }
+    this.ipDomaine = new int[n];
+    for (int d = 0; d < domaines.length; d++) {
+      Arrays.sort(cles, debuts[d], debuts[d + 1]);
+    }
+    for (int k = 0; k < n; k++) {
+      ipDomaine[k] = (int) (cles[k] & Integer.MAX_VALUE);
+    }
+    Arrays.sort(cles);
+    this.ipsTriees = new int[n];
+    this.parIp = new int[n];
+    for (int k = 0; k < n; k++) {
+      ipsTriees[k] = (int) (cles[k] >>> 31);
+      parIp[k] = (int) (cles[k] & Integer.MAX_VALUE);
+      if (k > 0 && ipsTriees[k] == ipsTriees[k - 1]) {
+        throw new RuntimeException("Doublon d'adresse IP détecté : "
+            + new AdresseIP(ipsTriees[k]).value());
+      }
+    }
+
+    final Integer[] ordre = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      ordre[i] = i;
+    }
+    Arrays.sort(ordre, (a, b) ->
+        NomMachine.compareHierarchique(items[a].nom().value(), items[b].nom().value()));
+    this.hierarchie = new int[n];
+    for (int k = 0; k < n; k++) {
+      hierarchie[k] = ordre[k];
+    }
+  }
+
+  /**
+   * Range des entrées en colonnes ; les entrées IPv6 ou à durée de vie vont dans l'annexe.
+   *
+   * @param entrees les entrées, dans un ordre quelconque
+   * @return le stockage
+   * @throws RuntimeException si deux entrées rangées en colonnes ont le même nom ou la
+   *     même adresse
+   */
+  static StockageColonnes construit(final Collection<DnsItem> entrees) {
+    final List<DnsItem> annexe = new ArrayList<>();
+    final DnsItem[] items = entrees.stream().filter(d -> {
+      if (d.ip().estIpv6() || d.expiration() != 0) {
+        annexe.add(d);
+        return false;
+      }
+      return true;
+    }).toArray(DnsItem[]::new);
+    Arrays.sort(items, Comparator.comparing((DnsItem d) -> d.nom().domaine())
+        .thenComparing(d -> d.nom().value()));
+    return new StockageColonnes(items, annexe);
+  }
+
+  @Override
+  public int size() {
+    return n;
+  }
+
+  @Override
+  public List<DnsItem> annexe() {
+    return annexe;
+  }
+
+  @Override
+  public DnsItem parNom(final String fqdn) {
+    final int point = fqdn.indexOf('.');
+    if (point <= 0) {
+      return null;
+    }
+    final int d = domaine(fqdn, point + 1);
+    if (d < 0) {
+      return null;
+    }
+    int bas = debuts[d];
+    int haut = debuts[d + 1] - 1;
+    while (bas <= haut) {
+      final int milieu = (bas + haut) >>> 1;
+      final int cmp = compareLabel(milieu, fqdn, point);
+      if (cmp < 0) {
+        bas = milieu + 1;
+      } else if (cmp > 0) {
+        haut = milieu - 1;
+      } else {
+        return item(milieu, d);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public DnsItem parIp(final int ip) {
+    final int k = rangIp(Integer.toUnsignedLong(ip));
+    return k < n && ipsTriees[k] == ip ? item(parIp[k]) : null;
+  }
+
+  @Override
+  public Iterator<DnsItem> suiteParNom(final String domaine, final String apres) {
+    final int d = domaine(domaine, 0);
+    if (d < 0) {
+      return Collections.emptyIterator();
+    }
+    int debut = debuts[d];
+    final int fin = debuts[d + 1];
+    if (apres != null) {
+      int haut = fin;
+      while (debut < haut) {
+        final int milieu = (debut + haut) >>> 1;
+        if (compareNom(milieu, d, apres) <= 0) {
+          debut = milieu + 1;
+        } else {
+          haut = milieu;
+        }
+      }
+    }
+    return suite(debut, fin, d, false);
+  }
+
+  @Override
+  public Iterator<DnsItem> suiteParIp(final String domaine, final AdresseIP apres) {
+    final int d = domaine(domaine, 0);
+    if (d < 0) {
+      return Collections.emptyIterator();
+    }
+    int debut = debuts[d];
+    final int fin = debuts[d + 1];
+    if (apres != null) {
+      final long cle = apres.rangIpv4();
+      int haut = fin;
+      while (debut < haut) {
+        final int milieu = (debut + haut) >>> 1;
+        if (Integer.toUnsignedLong(ips[ipDomaine[milieu]]) <= cle) {
+          debut = milieu + 1;
+        } else {
+          haut = milieu;
+        }
+      }
+    }
+    return suite(debut, fin, d, true);
+  }
+
+  /** Itérateur sur les positions [debut, fin) des entrées ou de ipDomaine, dans le domaine d. */
+  private Iterator<DnsItem> suite(final int debut, final int fin, final int d,
+                                  final boolean parAdresse) {
+    return new Iterator<>() {
+      private int k = debut;
+
+      @Override
+      public boolean hasNext() {
+        return k < fin;
+      }
+
+      @Override
+      public DnsItem next() {
+        if (k >= fin) {
+          throw new NoSuchElementException();
+        }
+        final int i = k++;
+        return item(parAdresse ? ipDomaine[i] : i, d);
+      }
+    };
+  }
+
+  @Override
+  public List<DnsItem> plage(final long debut, final long fin) {
+    final List<DnsItem> r = new ArrayList<>();
+    for (int k = rangIp(debut); k < n && Integer.toUnsignedLong(ipsTriees[k]) <= fin; k++) {
+      r.add(item(parIp[k]));
+    }
+    return r;
+  }
+
+  /**
+   * Cherche la première adresse absente à partir d'une adresse donnée, par dichotomie
+   * sur la suite d'adresses consécutives qui commence à cette adresse (voir
+   * {@link Instantane#premiereLibre}).
+   */
+  @Override
+  public long premiereLibre(final long depuis) {
+    final int k = rangIp(depuis);
+    if (k == n || Integer.toUnsignedLong(ipsTriees[k]) != depuis) {
+      return depuis;
+    }
+    int bas = k;
+    int haut = n - 1;
+    while (bas < haut) {
+      final int milieu = (bas + haut + 1) >>> 1;
+      if (Integer.toUnsignedLong(ipsTriees[milieu]) - depuis == milieu - k) {
+        bas = milieu;
+      } else {
+        haut = milieu - 1;
+      }
+    }
+    return Integer.toUnsignedLong(ipsTriees[bas]) + 1;
+  }
+
+  /** Rang, dans l'ordre des adresses, de la première adresse non inférieure. */
+  private int rangIp(final long ip) {
+    int bas = 0;
+    int haut = n;
+    while (bas < haut) {
+      final int milieu = (bas + haut) >>> 1;
+      if (Integer.toUnsignedLong(ipsTriees[milieu]) < ip) {
+        bas = milieu + 1;
+      } else {
+        haut = milieu;
+      }
+    }
+    return bas;
+  }
+
+  @Override
+  public List<DnsItem> sousArbre(final String[] domaine) {
+    final String d = StockageDisque.nom(domaine);
+    final String suffixe = "." + d;
+    final List<DnsItem> r = new ArrayList<>();
+    for (int k = borne(0, nom -> NomMachine.compareHierarchique(nom, d) <= 0); k < n; k++) {
+      final String nom = nom(hierarchie[k]);
+      if (!nom.endsWith(suffixe)) {
+        break;
+      }
+      r.add(new DnsItem(NomMachine.deConfiance(nom), new AdresseIP(ips[hierarchie[k]])));
+    }
+    return r;
+  }
+
+  /**
+   * Pour un label générique, les labels présents sont énumérés un à un (voir
+   * {@link #labels}) ; un nom sans générique est cherché directement.
+   */
+  @Override
+  public List<DnsItem> motif(final String[] motif) {
+    final List<DnsItem> r = new ArrayList<>();
+    motif(motif, 0, "", r);
+    return r;
+  }
+
+  private void motif(final String[] motif, final int niveau, final String domaine,
+                     final List<DnsItem> r) {
+    if (niveau == motif.length) {
+      final DnsItem item = parNom(domaine);
+      if (item != null) {
+        r.add(item);
+      }
+      return;
+    }
+    final String label = motif[niveau];
+    if (!label.endsWith("*")) {
+      motif(motif, niveau + 1, StockageDisque.sousDomaine(label, domaine), r);
+      return;
+    }
+    labels(domaine, label.substring(0, label.length() - 1), Integer.MAX_VALUE,
+        l -> motif(motif, niveau + 1, StockageDisque.sousDomaine(l, domaine), r));
+  }
+
+  @Override
+  public void labels(final String[] domaine, final String prefixe, final int max,
+                     final Consumer<String> action) {
+    labels(StockageDisque.nom(domaine), prefixe, max, action);
+  }
+
+  /**
+   * Énumère les labels situés juste sous un domaine et commençant par un préfixe, en
+   * sautant par dichotomie le sous-arbre de chacun.
+   */
+  private void labels(final String domaine, final String prefixe, final int max,
+                      final Consumer<String> action) {
+    int k = borne(0, nom -> StockageDisque.position(nom, domaine, prefixe) < 0);
+    for (int reste = max; reste > 0 && k < n; reste--) {
+      final String label = StockageDisque.labelSous(nom(hierarchie[k]), domaine);
+      if (label == null || !label.startsWith(prefixe)) {
+        return;
+      }
+      action.accept(label);
+      k = borne(k, nom -> StockageDisque.position(nom, domaine, label) <= 0);
+    }
+  }
+
+  /**
+   * Première position, à partir de bas dans l'ordre hiérarchique, dont le nom n'est
+   * plus avant la borne ; les noms avant la borne doivent précéder les autres.
+   */
+  private int borne(final int bas, final Predicate<String> avant) {
+    int b = bas;
+    int h = n;
+    while (b < h) {
+      final int milieu = (b + h) >>> 1;
+      if (avant.test(nom(hierarchie[milieu]))) {
+        b = milieu + 1;
+      } else {
+        h = milieu;
+      }
+    }
+    return b;
+  }
+
+  @Override
+  public void forEach(final Consumer<DnsItem> action) {
+    for (int d = 0; d < domaines.length; d++) {
+      for (int i = debuts[d]; i < debuts[d + 1]; i++) {
+        action.accept(item(i, d));
+      }
+    }
+  }
+
+  @Override
+  public void remplit(final FiltreBloom filtre) {
+    for (int d = 0; d < domaines.length; d++) {
+      final String domaine = domaines[d];
+      for (int i = debuts[d]; i < debuts[d + 1]; i++) {
+        // Hachage de label + "." + domaine, comme String.hashCode(), sans construire le nom
+        int h = 0;
+        for (int k = debutLabel(i); k < finsLabels[i]; k++) {
+          h = 31 * h + labels[k];
+        }
+        h = 31 * h + '.';
+        for (int k = 0; k < domaine.length(); k++) {
+          h = 31 * h + domaine.charAt(k);
+        }
+        filtre.ajoute(h, FiltreBloom.hacheIp(ips[i]));
+      }
+    }
+  }
+
+  @Override
+  public void forEachDomaine(final ObjIntConsumer<String> action) {
+    for (int d = 0; d < domaines.length; d++) {
+      action.accept(domaines[d], debuts[d + 1] - debuts[d]);
+    }
+  }
+
+  /**
+   * Rang d'un domaine dans le dictionnaire.
+   *
+   * @param texte texte dont la fin, à partir de debut, est le domaine cherché
+   * @param debut début du domaine dans le texte
+   * @return le rang, ou -1 si le domaine est absent
+   */
+  private int domaine(final String texte, final int debut) {
+    int bas = 0;
+    int haut = domaines.length - 1;
+    while (bas <= haut) {
+      final int milieu = (bas + haut) >>> 1;
+      final int cmp = compareFin(domaines[milieu], texte, debut);
+      if (cmp < 0) {
+        bas = milieu + 1;
+      } else if (cmp > 0) {
+        haut = milieu - 1;
+      } else {
+        return milieu;
+      }
+    }
+    return -1;
+  }
+
+  /** Compare un domaine à la fin d'un texte, dans l'ordre de {@link String}. */
+  private static int compareFin(final String domaine, final String texte, final int debut) {
+    final int l = texte.length() - debut;
+    for (int k = 0; k < Math.min(domaine.length(), l); k++) {
+      final int diff = domaine.charAt(k) - texte.charAt(debut + k);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return domaine.length() - l;
+  }
+
+  /**
+   * Compare le label de l'entrée i au début d'un nom de même domaine, dont le premier
+   * label finit à la position fin : les deux sont suivis d'un point, ce qui donne
+   * l'ordre des noms complets.
+   */
+  private int compareLabel(final int i, final String nom, final int fin) {
+    final int debut = debutLabel(i);
+    final int l = finsLabels[i] - debut;
+    for (int k = 0; k < Math.min(l, fin); k++) {
+      final int diff = labels[debut + k] - nom.charAt(k);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    if (l == fin) {
+      return 0;
+    }
+    return l < fin ? '.' - nom.charAt(l) : labels[debut + fin] - '.';
+  }
+
+  /** Compare le nom de l'entrée i, du domaine d, au nom donné, dans l'ordre de {@link String}. */
+  private int compareNom(final int i, final int d, final String nom) {
+    final int debut = debutLabel(i);
+    final int l = finsLabels[i] - debut;
+    final String domaine = domaines[d];
+    final int longueur = l + 1 + domaine.length();
+    for (int k = 0; k < Math.min(longueur, nom.length()); k++) {
+      final int c = k < l ? labels[debut + k] : k == l ? '.' : domaine.charAt(k - l - 1);
+      final int diff = c - nom.charAt(k);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return longueur - nom.length();
+  }
+
+  private int debutLabel(final int i) {
+    return i == 0 ? 0 : finsLabels[i - 1];
+  }
+
+  /** Rang du domaine de l'entrée i : le dernier domaine qui commence avant elle. */
+  private int domaineDe(final int i) {
+    int bas = 0;
+    int haut = domaines.length - 1;
+    while (bas < haut) {
+      final int milieu = (bas + haut + 1) >>> 1;
+      if (debuts[milieu] <= i) {
+        bas = milieu;
+      } else {
+        haut = milieu - 1;
+      }
+    }
+    return bas;
+  }
+
+  private String nom(final int i) {
+    return nom(i, domaineDe(i));
+  }
+
+  private String nom(final int i, final int d) {
+    final int debut = debutLabel(i);
+    return new String(labels, debut, finsLabels[i] - debut, StandardCharsets.US_ASCII)
+        + "." + domaines[d];
+  }
+
+  private DnsItem item(final int i) {
+    return item(i, domaineDe(i));
+  }
+
+  private DnsItem item(final int i, final int d) {
+    return new DnsItem(NomMachine.deConfiance(nom(i, d)), new AdresseIP(ips[i]));
+  }
+}
@@ -0,0 +1,798 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Stockage de la base sur disque, pour les bases plus grandes que le tas : seuls un
+ * index clairsemé et un cache des entrées récemment lues restent en mémoire.
+ *
+ * Le fichier contient quatre sections, les mêmes entrées triées dans quatre ordres :
+ * par (domaine, nom), par adresse, par (domaine, adresse) et dans l'ordre de
+ * {@link NomMachine#compareHierarchique}. Chaque section est découpée en blocs de
+ * {@link #PAR_BLOC} entrées, et son index garde la position et la première entrée de
+ * chaque bloc. Une recherche fait une dichotomie dans l'index puis une seule lecture
+ * positionnée d'un bloc (quelques Kio) ; un parcours lit ensuite les blocs suivants
+ * au fur et à mesure. Le tas occupé est donc de l'ordre de n / {@link #PAR_BLOC}
+ * entrées par section, plus le cache.
+ *
+ * Les recherches par nom et par adresse passent d'abord par un cache LRU borné
+ * ({@link CacheLru}) : une entrée fréquente est servie sans lecture. Les succès du
+ * cache et la durée des lectures de blocs sont suivis dans les {@link Metriques}.
+ *
+ * Comme l'instantané, le fichier mémorise la taille et la date de la base texte et
+ * n'est ouvert que s'il leur correspond encore.
+ *
+ * Format (entiers gros-boutistes) :
+ * <pre>
+ *   en-tête     magie, version, taille et date de la base, n, entrées par bloc,
+ *               nombre de domaines, position des domaines, puis pour chaque
+ *               section la position et la taille de son index, puis la position
+ *               et la taille de l'annexe
+ *   sections    pour chacun des quatre ordres, les n entrées bout à bout :
+ *               ip:int, longueur du nom:short, octets ASCII du nom
+ *   index       par section : nombre de blocs b, b + 1 positions (la dernière est
+ *               la fin de la section), puis la première entrée de chaque bloc
+ *   domaines    par domaine, dans l'ordre : longueur:short, octets, nombre d'entrées:int
+ *   annexe      entrées IPv6 ou à durée de vie limitée, en texte (voir {@link Stockage#annexe()})
+ * </pre>
+ */
+final class StockageDisque implements Stockage {
+
+  private static final int MAGIE = 0x444E5344;
+  private static final int VERSION = 2;
+  private static final int TAILLE_ENTETE = 112;
+
+  /** Nombre d'entrées par bloc. */
+  static final int PAR_BLOC = 128;
+
+  /** Nombre d'entrées triées en mémoire à la fois pendant l'écriture ({@link TriExterne}). */
+  static final int PAR_TRI = 1 << 16;
+
+  private static final int NOMS = 0;
+  private static final int IPS = 1;
+  private static final int IP_DOMAINE = 2;
+  private static final int HIERARCHIE = 3;
+
+  /** Ordre des entrées de chaque section. */
+  private static final List<Comparator<DnsItem>> ORDRES = List.of(
+      Comparator.comparing((DnsItem d) -> d.nom().domaine()).thenComparing(d -> d.nom().value()),
+      Comparator.comparing(DnsItem::ip),
+      Comparator.comparing((DnsItem d) -> d.nom().domaine()).thenComparing(DnsItem::ip),
+      (a, b) -> NomMachine.compareHierarchique(a.nom().value(), b.nom().value()));
+
+  private final FileChannel canal;
+  private final int n;
+  private final int parBloc;
+  private final int nbDomaines;
+  private final long posDomaines;
+  private final Section[] sections = new Section[ORDRES.size()];
+  private final List<DnsItem> annexe;
+
+  /** Entrées récemment trouvées, sous le nom ou l'adresse qui a servi à les chercher. */
+  private final CacheLru<Object, DnsItem> cache;
+
+  private final Metriques metriques;
+
+  private StockageDisque(final FileChannel canal, final ByteBuffer entete, final int tailleCache,
+                         final Metriques metriques) throws IOException {
+    this.canal = canal;
+    this.n = entete.getInt(24);
+    this.parBloc = entete.getInt(28);
+    this.nbDomaines = entete.getInt(32);
+    this.posDomaines = entete.getLong(36);
+    for (int s = 0; s < sections.length; s++) {
+      sections[s] = new Section(lit(canal, entete.getLong(44 + 12 * s), entete.getInt(52 + 12 * s)));
+    }
+    final int tailleAnnexe = entete.getInt(104);
+    this.annexe = Stockage.litAnnexe(lit(canal, entete.getLong(96), tailleAnnexe), 0, tailleAnnexe);
+    this.cache = new CacheLru<>(tailleCache);
+    this.metriques = metriques;
+  }
+
+  /**
+   * Ouvre un stockage sur disque s'il correspond à la base texte.
+   *
+   * @param fichier le fichier du stockage
+   * @param base la base texte dont il doit être à jour
+   * @param tailleCache nombre maximal d'entrées gardées en cache
+   * @param metriques compteurs où suivre le cache et les lectures
+   * @return le stockage, ou null s'il est absent, d'un autre format ou périmé
+   * @throws IOException en cas d'erreur de lecture
+   */
+  static StockageDisque ouvre(final Path fichier, final Path base, final int tailleCache,
+                              final Metriques metriques) throws IOException {
+    if (!Files.exists(fichier) || !Files.exists(base)) {
+      return null;
+    }
+    final FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ);
+    StockageDisque r = null;
+    try {
+      if (canal.size() >= TAILLE_ENTETE) {
+        final ByteBuffer e = lit(canal, 0, TAILLE_ENTETE);
+        if (e.getInt(0) == MAGIE && e.getInt(4) == VERSION
+            && e.getLong(8) == Files.size(base)
+            && e.getLong(16) == Files.getLastModifiedTime(base).toMillis()) {
+          r = new StockageDisque(canal, e, tailleCache, metriques);
+        }
+      }
+      return r;
+    } finally {
+      if (r == null) {
+        canal.close();
+      }
+    }
+  }
+
+  /**
+   * Écrit le stockage des entrées données, associé à l'état actuel de la base texte.
+   * Le fichier est écrit à côté puis renommé : un lecteur ne voit jamais un fichier partiel.
+   * Les entrées sont reçues dans un ordre quelconque et triées par {@link TriExterne} :
+   * la base n'est jamais entièrement dans le tas.
+   *
+   * @param fichier le fichier du stockage
+   * @param base la base texte correspondante
+   * @param entrees les entrées, parcourues une seule fois
+   * @throws IOException en cas d'erreur d'écriture
+   * @throws RuntimeException si un nom ou une adresse apparaît deux fois
+   */
+  static void ecrit(final Path fichier, final Path base, final Source entrees)
+      throws IOException {
+    ecrit(fichier, base, entrees, PAR_BLOC, PAR_TRI);
+  }
+
+  /**
+   * Écrit le stockage avec des blocs et des paquets de tri de la taille donnée (voir
+   * {@link #ecrit(Path, Path, Source)}).
+   */
+  static void ecrit(final Path fichier, final Path base, final Source entrees,
+                    final int parBloc, final int parTri) throws IOException {
+    final List<DnsItem> annexees = new ArrayList<>();
+    final List<List<Long>> positions = new ArrayList<>();
+    final List<List<DnsItem>> premiers = new ArrayList<>();
+    final List<String> domaines = new ArrayList<>();
+    final List<Integer> tailles = new ArrayList<>();
+    int n = 0;
+    long finNoms = 0;
+
+    final Path tmp = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+    final Path paquets = fichier.resolveSibling(fichier.getFileName() + ".tri");
+    boolean ecrit = false;
+    try (FileChannel canal = FileChannel.open(tmp, StandardOpenOption.CREATE,
+             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+             StandardOpenOption.WRITE);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+             Channels.newOutputStream(canal), 1 << 16))) {
+      out.write(new byte[TAILLE_ENTETE]);
+      long pos = TAILLE_ENTETE;
+      for (int s = 0; s < ORDRES.size(); s++) {
+        final List<Long> p = new ArrayList<>();
+        final List<DnsItem> premiersSection = new ArrayList<>();
+        try (TriExterne tri = new TriExterne(paquets, ORDRES.get(s), parTri)) {
+          if (s == NOMS) {
+            parcourt(entrees, d -> {
+              if (d.ip().estIpv6() || d.expiration() != 0) {
+                annexees.add(d);
+              } else {
+                tri.ajoute(d);
+              }
+            });
+          } else {
+            // Les sections suivantes relisent la première, déjà sur disque
+            out.flush();
+            final Iterator<DnsItem> section =
+                new TriExterne.Lecteur(canal, TAILLE_ENTETE, finNoms, 1 << 16);
+            while (section.hasNext()) {
+              tri.ajoute(section.next());
+            }
+          }
+          final Iterator<DnsItem> tries = tri.trie();
+          DnsItem precedent = null;
+          for (int i = 0; tries.hasNext(); i++) {
+            final DnsItem item = tries.next();
+            if (i % parBloc == 0) {
+              p.add(pos);
+              premiersSection.add(item);
+            }
+            pos += ecritEntree(out, item);
+            if (s == NOMS) {
+              if (precedent != null && precedent.nom().equals(item.nom())) {
+                throw new RuntimeException("Doublon de nom détecté : " + item.nom().value());
+              }
+              final String d = item.nom().domaine();
+              if (i == 0 || !d.equals(domaines.get(domaines.size() - 1))) {
+                domaines.add(d);
+                tailles.add(1);
+              } else {
+                tailles.set(tailles.size() - 1, tailles.get(tailles.size() - 1) + 1);
+              }
+              n = i + 1;
+            } else if (s == IPS && precedent != null && precedent.ip().equals(item.ip())) {
+              throw new RuntimeException("Doublon d'adresse IP détecté : " + item.ip().value());
+            }
+            precedent = item;
+          }
+        }
+        p.add(pos);
+        if (s == NOMS) {
+          finNoms = pos;
+        }
+        positions.add(p);
+        premiers.add(premiersSection);
+      }
+      final int nbBlocs = (n + parBloc - 1) / parBloc;
+      final byte[] annexe = Stockage.ecritAnnexe(annexees);
+
+      final ByteBuffer entete = ByteBuffer.allocate(TAILLE_ENTETE);
+      for (int s = 0; s < ORDRES.size(); s++) {
+        final long debut = pos;
+        out.writeInt(nbBlocs);
+        for (long q : positions.get(s)) {
+          out.writeLong(q);
+        }
+        pos += 4 + 8L * (nbBlocs + 1);
+        for (DnsItem premier : premiers.get(s)) {
+          pos += ecritEntree(out, premier);
+        }
+        entete.putLong(44 + 12 * s, debut);
+        entete.putInt(52 + 12 * s, Math.toIntExact(pos - debut));
+      }
+      entete.putLong(36, pos);
+      for (int k = 0; k < domaines.size(); k++) {
+        final byte[] d = domaines.get(k).getBytes(StandardCharsets.US_ASCII);
+        out.writeShort(d.length);
+        out.write(d);
+        out.writeInt(tailles.get(k));
+        pos += 6 + d.length;
+      }
+      entete.putLong(96, pos);
+      entete.putInt(104, annexe.length);
+      out.write(annexe);
+      out.flush();
+
+      entete.putInt(0, MAGIE);
+      entete.putInt(4, VERSION);
+      entete.putLong(8, Files.size(base));
+      entete.putLong(16, Files.getLastModifiedTime(base).toMillis());
+      entete.putInt(24, n);
+      entete.putInt(28, parBloc);
+      entete.putInt(32, domaines.size());
+      while (entete.hasRemaining()) {
+        canal.write(entete, entete.position());
+      }
+      ecrit = true;
+    } finally {
+      if (!ecrit) {
+        Files.deleteIfExists(tmp);
+      }
+    }
+    Files.move(tmp, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Parcourt une source en remettant chaque entrée à une cible qui écrit. */
+  private static void parcourt(final Source entrees, final Cible cible) throws IOException {
+    try {
+      entrees.parcourt(d -> {
+        try {
+          cible.accepte(d);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Source des entrées d'un stockage à écrire, parcourue une seule fois. */
+  @FunctionalInterface
+  interface Source {
+    /**
+     * Remet chaque entrée à une cible.
+     *
+     * @param cible reçoit les entrées, dans un ordre quelconque
+     * @throws IOException en cas d'erreur de lecture
+     */
+    void parcourt(Consumer<DnsItem> cible) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface Cible {
+    void accepte(DnsItem item) throws IOException;
+  }
+
+  /** Écrit une entrée ; renvoie le nombre d'octets écrits. */
+  static int ecritEntree(final DataOutputStream out, final DnsItem item)
+      throws IOException {
+    final byte[] nom = item.nom().value().getBytes(StandardCharsets.US_ASCII);
+    out.writeInt(item.ip().toInt());
+    out.writeShort(nom.length);
+    out.write(nom);
+    return 6 + nom.length;
+  }
+
+  /** Lit l'entrée à la position courante du tampon. */
+  static DnsItem litEntree(final ByteBuffer b) {
+    final int ip = b.getInt();
+    final byte[] nom = new byte[b.getShort() & 0xFFFF];
+    b.get(nom);
+    return new DnsItem(NomMachine.deConfiance(new String(nom, StandardCharsets.US_ASCII)),
+        new AdresseIP(ip));
+  }
+
+  /** Lit taille octets à partir d'une position, par lectures positionnées. */
+  private static ByteBuffer lit(final FileChannel canal, final long pos, final int taille)
+      throws IOException {
+    final ByteBuffer b = ByteBuffer.allocate(taille);
+    while (b.hasRemaining()) {
+      if (canal.read(b, pos + b.position()) < 0) {
+        throw new EOFException("Stockage tronqué à la position " + (pos + b.position()));
+      }
+    }
+    return b.flip();
+  }
+
+  @Override
+  public int size() {
+    return n;
+  }
+
+  @Override
+  public List<DnsItem> annexe() {
+    return annexe;
+  }
+
+  @Override
+  public DnsItem parNom(final String fqdn) {
+    final DnsItem enCache = cache.get(fqdn);
+    metriques.cacheDisque.compte(enCache != null);
+    if (enCache != null) {
+      return enCache;
+    }
+    final Section s = sections[NOMS];
+    if (s.vide()) {
+      return null;
+    }
+    final String domaine = fqdn.substring(fqdn.indexOf('.') + 1);
+    final ByteBuffer b = s.lit(s.bloc(it -> {
+      final int cmp = it.nom().domaine().compareTo(domaine);
+      return cmp < 0 || cmp == 0 && it.nom().value().compareTo(fqdn) <= 0;
+    }));
+    while (b.hasRemaining()) {
+      final int ip = b.getInt();
+      final int longueur = b.getShort() & 0xFFFF;
+      if (egal(b, longueur, fqdn)) {
+        final DnsItem item = new DnsItem(NomMachine.deConfiance(fqdn), new AdresseIP(ip));
+        cache.put(fqdn, item);
+        return item;
+      }
+      b.position(b.position() + longueur);
+    }
+    return null;
+  }
+
+  @Override
+  public DnsItem parIp(final int ip) {
+    final DnsItem enCache = cache.get(ip);
+    metriques.cacheDisque.compte(enCache != null);
+    if (enCache != null) {
+      return enCache;
+    }
+    final Section s = sections[IPS];
+    if (s.vide()) {
+      return null;
+    }
+    final ByteBuffer b = s.lit(s.bloc(it -> Integer.compareUnsigned(it.ip().toInt(), ip) <= 0));
+    while (b.hasRemaining()) {
+      if (b.getInt(b.position()) == ip) {
+        final DnsItem item = litEntree(b);
+        cache.put(ip, item);
+        return item;
+      }
+      b.position(b.position() + 6 + (b.getShort(b.position() + 4) & 0xFFFF));
+    }
+    return null;
+  }
+
+  /** Compare les longueur octets suivants du tampon à un nom, sans les consommer. */
+  private static boolean egal(final ByteBuffer b, final int longueur, final String nom) {
+    if (longueur != nom.length()) {
+      return false;
+    }
+    final int pos = b.position();
+    for (int k = 0; k < longueur; k++) {
+      if (b.get(pos + k) != nom.charAt(k)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Iterator<DnsItem> suiteParNom(final String domaine, final String apres) {
+    final Curseur c = sections[NOMS].depuis(it -> {
+      final int cmp = it.nom().domaine().compareTo(domaine);
+      return cmp < 0 || cmp == 0 && apres != null && it.nom().value().compareTo(apres) <= 0;
+    }, null);
+    return tantQue(c, it -> it.nom().domaine().equals(domaine));
+  }
+
+  @Override
+  public Iterator<DnsItem> suiteParIp(final String domaine, final AdresseIP apres) {
+    final Curseur c = sections[IP_DOMAINE].depuis(it -> {
+      final int cmp = it.nom().domaine().compareTo(domaine);
+      return cmp < 0 || cmp == 0 && apres != null && it.ip().compareTo(apres) <= 0;
+    }, null);
+    return tantQue(c, it -> it.nom().domaine().equals(domaine));
+  }
+
+  @Override
+  public List<DnsItem> plage(final long debut, final long fin) {
+    final List<DnsItem> r = new ArrayList<>();
+    tantQue(sections[IPS].depuis(it -> nonSigne(it) < debut, null), it -> nonSigne(it) <= fin)
+        .forEachRemaining(r::add);
+    return r;
+  }
+
+  /**
+   * Cherche la première adresse absente à partir d'une adresse donnée. Sur une suite
+   * d'adresses consécutives, l'adresse moins le rang est constante : le dernier bloc
+   * qui commence dans la suite se trouve par dichotomie dans l'index, et seul ce bloc
+   * est parcouru.
+   */
+  @Override
+  public long premiereLibre(final long depuis) {
+    final Section s = sections[IPS];
+    final Curseur c = s.depuis(it -> nonSigne(it) < depuis, null);
+    if (!c.hasNext() || nonSigne(c.courant()) != depuis) {
+      return depuis;
+    }
+    final long ecart = depuis - c.rang;
+    int bas = c.bloc;
+    int haut = s.premiers.length - 1;
+    while (bas < haut) {
+      final int milieu = (bas + haut + 1) >>> 1;
+      if (nonSigne(s.premiers[milieu]) - (long) milieu * parBloc == ecart) {
+        bas = milieu;
+      } else {
+        haut = milieu - 1;
+      }
+    }
+    final Curseur d = bas == c.bloc ? c : new Curseur(s, bas);
+    long derniere = depuis;
+    while (d.hasNext() && nonSigne(d.courant()) - d.rang <= ecart) {
+      derniere = nonSigne(d.next());
+    }
+    return derniere + 1;
+  }
+
+  @Override
+  public List<DnsItem> sousArbre(final String[] domaine) {
+    final String d = nom(domaine);
+    final String suffixe = "." + d;
+    final List<DnsItem> r = new ArrayList<>();
+    final Curseur c = sections[HIERARCHIE].depuis(
+        it -> NomMachine.compareHierarchique(it.nom().value(), d) <= 0, null);
+    tantQue(c, it -> it.nom().value().endsWith(suffixe)).forEachRemaining(r::add);
+    return r;
+  }
+
+  /**
+   * Pour un label générique, les labels présents sont énumérés un à un (voir
+   * {@link #labels}) ; un nom sans générique est cherché directement.
+   */
+  @Override
+  public List<DnsItem> motif(final String[] motif) {
+    final List<DnsItem> r = new ArrayList<>();
+    motif(motif, 0, "", r);
+    return r;
+  }
+
+  private void motif(final String[] motif, final int niveau, final String domaine,
+                     final List<DnsItem> r) {
+    if (niveau == motif.length) {
+      final DnsItem item = parNom(domaine);
+      if (item != null) {
+        r.add(item);
+      }
+      return;
+    }
+    final String label = motif[niveau];
+    if (!label.endsWith("*")) {
+      motif(motif, niveau + 1, sousDomaine(label, domaine), r);
+      return;
+    }
+    enumere(domaine, label.substring(0, label.length() - 1), Integer.MAX_VALUE,
+        l -> motif(motif, niveau + 1, sousDomaine(l, domaine), r));
+  }
+
+  @Override
+  public void labels(final String[] domaine, final String prefixe, final int max,
+                     final Consumer<String> action) {
+    enumere(nom(domaine), prefixe, max, action);
+  }
+
+  /**
+   * Énumère les labels situés juste sous un domaine et commençant par un préfixe.
+   * Chaque label est suivi d'un saut par-dessus son sous-arbre : le coût dépend du
+   * nombre de labels, pas de la taille des sous-arbres.
+   */
+  private void enumere(final String domaine, final String prefixe, final int max,
+                       final Consumer<String> action) {
+    final Section s = sections[HIERARCHIE];
+    Curseur c = s.depuis(it -> position(it.nom().value(), domaine, prefixe) < 0, null);
+    for (int reste = max; reste > 0 && c.hasNext(); reste--) {
+      final String label = labelSous(c.courant().nom().value(), domaine);
+      if (label == null || !label.startsWith(prefixe)) {
+        return;
+      }
+      action.accept(label);
+      c = s.depuis(it -> position(it.nom().value(), domaine, label) <= 0, c);
+    }
+  }
+
+  /**
+   * Position d'un nom, dans l'ordre hiérarchique, par rapport aux noms situés
+   * sous un domaine dont le label suivant est donné : négative avant, nulle pour
+   * ceux qui ont ce label, positive après.
+   */
+  static int position(final String nom, final String domaine, final String label) {
+    final String l = labelSous(nom, domaine);
+    if (l == null) {
+      return nom.equals(domaine) ? -1 : Integer.signum(NomMachine.compareHierarchique(nom, domaine));
+    }
+    return NomMachine.compareHierarchique(l, label);
+  }
+
+  /** Label d'un nom situé juste avant un domaine, ou null si le nom n'est pas sous le domaine. */
+  static String labelSous(final String nom, final String domaine) {
+    final int fin;
+    if (domaine.isEmpty()) {
+      fin = nom.length();
+    } else {
+      fin = nom.length() - domaine.length() - 1;
+      if (fin <= 0 || nom.charAt(fin) != '.' || !nom.endsWith(domaine)) {
+        return null;
+      }
+    }
+    return nom.substring(nom.lastIndexOf('.', fin - 1) + 1, fin);
+  }
+
+  /** Nom formé d'un label suivi d'un domaine, éventuellement vide. */
+  static String sousDomaine(final String label, final String domaine) {
+    return domaine.isEmpty() ? label : label + "." + domaine;
+  }
+
+  /** Nom d'un domaine donné par ses labels, en partant de la droite. */
+  static String nom(final String[] labels) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = labels.length - 1; i >= 0; i--) {
+      sb.append(labels[i]);
+      if (i > 0) {
+        sb.append('.');
+      }
+    }
+    return sb.toString();
+  }
+
+  private static long nonSigne(final DnsItem item) {
+    return item.ip().toInt() & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void forEach(final Consumer<DnsItem> action) {
+    parcours().forEachRemaining(action);
+  }
+
+  /** Lit la section des noms bloc par bloc, au fur et à mesure du parcours. */
+  @Override
+  public Iterator<DnsItem> parcours() {
+    return sections[NOMS].depuis(it -> false, null);
+  }
+
+  @Override
+  public void forEachDomaine(final ObjIntConsumer<String> action) {
+    final ByteBuffer b = ByteBuffer.allocate(1 << 17);
+    b.limit(0);
+    long pos = posDomaines;
+    try {
+      for (int k = 0; k < nbDomaines; k++) {
+        if (b.remaining() < 2 || b.remaining() < 6 + (b.getShort(b.position()) & 0xFFFF)) {
+          b.compact();
+          while (b.hasRemaining()) {
+            final int lus = canal.read(b, pos);
+            if (lus < 0) {
+              break;
+            }
+            pos += lus;
+          }
+          b.flip();
+        }
+        final byte[] d = new byte[b.getShort() & 0xFFFF];
+        b.get(d);
+        action.accept(new String(d, StandardCharsets.US_ASCII), b.getInt());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      canal.close();
+    } catch (IOException ignored) {
+      // Fichier ouvert en lecture seule : rien à perdre
+    }
+  }
+
+  /** Itérateur sur les entrées qui vérifient une condition, à partir de la position d'un curseur. */
+  private static Iterator<DnsItem> tantQue(final Curseur c, final Predicate<DnsItem> dedans) {
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return c.hasNext() && dedans.test(c.courant());
+      }
+
+      @Override
+      public DnsItem next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return c.next();
+      }
+    };
+  }
+
+  /** Une section : ses blocs sur disque et son index clairsemé en mémoire. */
+  private final class Section {
+    /** Position de chaque bloc, puis fin de la section. */
+    private final long[] positions;
+    /** Première entrée de chaque bloc. */
+    private final DnsItem[] premiers;
+
+    Section(final ByteBuffer index) {
+      final int nb = index.getInt();
+      positions = new long[nb + 1];
+      for (int j = 0; j <= nb; j++) {
+        positions[j] = index.getLong();
+      }
+      premiers = new DnsItem[nb];
+      for (int j = 0; j < nb; j++) {
+        premiers[j] = litEntree(index);
+      }
+    }
+
+    boolean vide() {
+      return premiers.length == 0;
+    }
+
+    /**
+     * Bloc où commencer pour atteindre la première entrée qui n'est pas avant une cible :
+     * le dernier bloc dont la première entrée est avant la cible (ou le premier bloc).
+     *
+     * @param avant vrai pour les entrées situées avant la cible, qui précèdent toutes les autres
+     */
+    int bloc(final Predicate<DnsItem> avant) {
+      int bas = 0;
+      int haut = premiers.length;
+      while (bas < haut) {
+        final int milieu = (bas + haut) >>> 1;
+        if (avant.test(premiers[milieu])) {
+          bas = milieu + 1;
+        } else {
+          haut = milieu;
+        }
+      }
+      return Math.max(0, bas - 1);
+    }
+
+    /** Lit un bloc en entier, d'une seule lecture positionnée. */
+    ByteBuffer lit(final int bloc) {
+      final long debut = System.nanoTime();
+      boolean ok = false;
+      try {
+        final ByteBuffer b = StockageDisque.lit(canal, positions[bloc],
+            (int) (positions[bloc + 1] - positions[bloc]));
+        ok = true;
+        return b;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        metriques.lectureDisque.enregistre(debut, ok);
+      }
+    }
+
+    /**
+     * Place un curseur sur la première entrée qui n'est pas avant une cible. Un curseur
+     * déjà placé dans la section avant la cible est avancé, sans relire son bloc, si
+     * la cible n'est pas dans un bloc suivant.
+     *
+     * @param avant vrai pour les entrées situées avant la cible
+     * @param courant curseur à réutiliser, ou null
+     * @return le curseur placé
+     */
+    Curseur depuis(final Predicate<DnsItem> avant, final Curseur courant) {
+      final int j = bloc(avant);
+      final Curseur c = courant != null && courant.bloc >= j ? courant : new Curseur(this, j);
+      c.saute(avant);
+      return c;
+    }
+  }
+
+  /** Parcours d'une section à partir d'un bloc, qui lit les blocs à mesure qu'il avance. */
+  private final class Curseur implements Iterator<DnsItem> {
+    private final Section section;
+    private int bloc;
+    private ByteBuffer donnees;
+    /** Rang, dans la section, de la prochaine entrée. */
+    private long rang;
+    private DnsItem suivant;
+
+    Curseur(final Section section, final int bloc) {
+      this.section = section;
+      this.bloc = bloc;
+      this.rang = (long) bloc * parBloc - 1;
+      this.donnees = section.vide() ? ByteBuffer.allocate(0) : section.lit(bloc);
+      avance();
+    }
+
+    private void avance() {
+      while (!donnees.hasRemaining()) {
+        if (bloc + 1 >= section.premiers.length) {
+          suivant = null;
+          return;
+        }
+        donnees = section.lit(++bloc);
+      }
+      suivant = litEntree(donnees);
+      rang++;
+    }
+
+    /** Avance tant que la prochaine entrée est avant la cible. */
+    void saute(final Predicate<DnsItem> avant) {
+      while (suivant != null && avant.test(suivant)) {
+        avance();
+      }
+    }
+
+    /** Prochaine entrée, sans avancer. */
+    DnsItem courant() {
+      return suivant;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return suivant != null;
+    }
+
+    @Override
+    public DnsItem next() {
+      if (suivant == null) {
+        throw new NoSuchElementException();
+      }
+      final DnsItem r = suivant;
+      avance();
+      return r;
+    }
+  }
+}
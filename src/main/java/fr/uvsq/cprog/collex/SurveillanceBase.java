@@ -0,0 +1,118 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Surveille le fichier de base d'une instance de {@link Dns} et la recharge
+ * ({@link Dns#recharge()}) quand un autre programme le modifie.
+ *
+ * Le dossier de la base est suivi par un {@link WatchService}, dans un thread dédié.
+ * Un éditeur écrit souvent un fichier en plusieurs fois : la base n'est relue
+ * qu'après {@link #APAISEMENT_MS} ms sans nouvel événement. Les réécritures faites
+ * par l'instance elle-même (compactions) sont reconnues par {@link Dns#recharge()},
+ * qui ne relit alors rien.
+ */
+public final class SurveillanceBase implements Closeable {
+
+  /** Délai sans modification du dossier avant de relire la base, en millisecondes. */
+  static final long APAISEMENT_MS = 200;
+
+  private final Dns dns;
+  private final Consumer<String> compteRendu;
+  private final Path nomFichier;
+  private final WatchService service;
+  private final Thread fil;
+
+  /**
+   * Démarre la surveillance de la base.
+   *
+   * @param dns l'instance à recharger (avec un fichier de base)
+   * @param compteRendu reçoit le résultat de chaque rechargement, ou son erreur
+   * @throws IOException si le dossier de la base ne peut pas être surveillé
+   */
+  public SurveillanceBase(final Dns dns, final Consumer<String> compteRendu) throws IOException {
+    if (dns.getDbPath() == null) {
+      throw new IllegalArgumentException("Base sans fichier");
+    }
+    final Path base = dns.getDbPath().toAbsolutePath();
+    this.dns = dns;
+    this.compteRendu = compteRendu;
+    this.nomFichier = base.getFileName();
+    this.service = base.getFileSystem().newWatchService();
+    try {
+      // Création : remplacement atomique du fichier (renommage d'un fichier temporaire)
+      base.getParent().register(service,
+          StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException e) {
+      service.close();
+      throw e;
+    }
+    this.fil = new Thread(this::surveille, "dns-surveillance");
+    fil.setDaemon(true);
+    fil.start();
+  }
+
+  private void surveille() {
+    try {
+      while (true) {
+        if (!concerneBase(service.take())) {
+          continue;
+        }
+        WatchKey suivante;
+        while ((suivante = service.poll(APAISEMENT_MS, TimeUnit.MILLISECONDS)) != null) {
+          concerneBase(suivante);
+        }
+        recharge();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Fin de la surveillance
+    }
+  }
+
+  /** Vide les événements d'une clé et indique si l'un d'eux peut concerner la base. */
+  private boolean concerneBase(final WatchKey cle) {
+    boolean r = false;
+    for (WatchEvent<?> evenement : cle.pollEvents()) {
+      r |= evenement.kind() == StandardWatchEventKinds.OVERFLOW
+          || nomFichier.equals(evenement.context());
+    }
+    cle.reset();
+    return r;
+  }
+
+  private void recharge() {
+    try {
+      final Dns.Rechargement r = dns.recharge();
+      if (r != null) {
+        compteRendu.accept("Base rechargée : " + r);
+      }
+    } catch (RuntimeException e) {
+      compteRendu.accept("ERREUR : Base refusée, l'ancienne version reste servie : "
+          + e.getMessage());
+    }
+  }
+
+  /** Arrête la surveillance, après la fin du rechargement en cours éventuel. */
+  @Override
+  public void close() {
+    try {
+      service.close();
+    } catch (IOException ignored) {
+      // Ignorée : le service ne sert plus
+    }
+    try {
+      fil.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
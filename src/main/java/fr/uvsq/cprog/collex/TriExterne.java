@@ -0,0 +1,222 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Tri externe d'entrées IPv4 permanentes, pour écrire un {@link StockageDisque} sans
+ * garder la base dans le tas : les entrées sont triées en mémoire par paquets de taille
+ * bornée, chaque paquet trié est écrit dans un fichier temporaire (au format des
+ * sections du stockage), puis les paquets sont fusionnés à la lecture. Le tas n'occupe
+ * qu'un paquet, puis un tampon de lecture par paquet écrit.
+ *
+ * Si toutes les entrées tiennent dans un seul paquet, rien n'est écrit.
+ */
+final class TriExterne implements Closeable {
+
+  /** Taille du tampon de lecture de chaque paquet pendant la fusion. */
+  private static final int TAMPON = 16 << 10;
+
+  private final Path fichier;
+  private final Comparator<DnsItem> ordre;
+  private final int parPaquet;
+  private final List<DnsItem> paquet = new ArrayList<>();
+
+  /** Position du début de chaque paquet écrit. */
+  private final List<Long> debuts = new ArrayList<>();
+  private FileChannel canal;
+  private DataOutputStream sortie;
+  private long position;
+
+  /**
+   * Prépare un tri.
+   *
+   * @param fichier fichier temporaire des paquets, supprimé à la fermeture
+   * @param ordre l'ordre du tri
+   * @param parPaquet nombre d'entrées triées en mémoire à la fois
+   */
+  TriExterne(final Path fichier, final Comparator<DnsItem> ordre, final int parPaquet) {
+    if (parPaquet <= 0) {
+      throw new IllegalArgumentException("Taille de paquet invalide : " + parPaquet);
+    }
+    this.fichier = fichier;
+    this.ordre = ordre;
+    this.parPaquet = parPaquet;
+  }
+
+  /**
+   * Ajoute une entrée ; un paquet plein est trié puis écrit.
+   *
+   * @param item l'entrée (IPv4, sans durée de vie)
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  void ajoute(final DnsItem item) throws IOException {
+    paquet.add(item);
+    if (paquet.size() >= parPaquet) {
+      ecritPaquet();
+    }
+  }
+
+  private void ecritPaquet() throws IOException {
+    if (canal == null) {
+      canal = FileChannel.open(fichier, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      sortie = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal),
+          1 << 16));
+    }
+    paquet.sort(ordre);
+    debuts.add(position);
+    for (DnsItem item : paquet) {
+      position += StockageDisque.ecritEntree(sortie, item);
+    }
+    paquet.clear();
+  }
+
+  /**
+   * Termine les ajouts et rend les entrées dans l'ordre, lues au fur et à mesure.
+   *
+   * @return un itérateur sur les entrées triées, valable jusqu'à la fermeture
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  Iterator<DnsItem> trie() throws IOException {
+    if (canal == null) {
+      paquet.sort(ordre);
+      return paquet.iterator();
+    }
+    if (!paquet.isEmpty()) {
+      ecritPaquet();
+    }
+    sortie.flush();
+    final PriorityQueue<Tete> tetes = new PriorityQueue<>(debuts.size(),
+        (a, b) -> ordre.compare(a.item, b.item));
+    for (int k = 0; k < debuts.size(); k++) {
+      final long fin = k + 1 < debuts.size() ? debuts.get(k + 1) : position;
+      final Lecteur l = new Lecteur(canal, debuts.get(k), fin, TAMPON);
+      if (l.hasNext()) {
+        tetes.add(new Tete(l));
+      }
+    }
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return !tetes.isEmpty();
+      }
+
+      @Override
+      public DnsItem next() {
+        final Tete t = tetes.poll();
+        if (t == null) {
+          throw new NoSuchElementException();
+        }
+        final DnsItem r = t.item;
+        if (t.lecteur.hasNext()) {
+          t.item = t.lecteur.next();
+          tetes.add(t);
+        }
+        return r;
+      }
+    };
+  }
+
+  /** Ferme et supprime le fichier des paquets. */
+  @Override
+  public void close() throws IOException {
+    paquet.clear();
+    if (canal != null) {
+      canal.close();
+    }
+    Files.deleteIfExists(fichier);
+  }
+
+  /** Paquet en cours de fusion et sa prochaine entrée. */
+  private static final class Tete {
+    final Lecteur lecteur;
+    DnsItem item;
+
+    Tete(final Lecteur lecteur) {
+      this.lecteur = lecteur;
+      this.item = lecteur.next();
+    }
+  }
+
+  /**
+   * Lecture séquentielle des entrées écrites entre deux positions d'un fichier, au
+   * format des sections de {@link StockageDisque}, par lectures positionnées.
+   */
+  static final class Lecteur implements Iterator<DnsItem> {
+    private final FileChannel canal;
+    private final long fin;
+    /** Position du fichier où reprendre la lecture. */
+    private long pos;
+    private ByteBuffer b;
+
+    Lecteur(final FileChannel canal, final long debut, final long fin, final int tampon) {
+      this.canal = canal;
+      this.fin = fin;
+      this.pos = debut;
+      this.b = ByteBuffer.allocate(tampon).limit(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return b.hasRemaining() || pos < fin;
+    }
+
+    @Override
+    public DnsItem next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      disponible(6);
+      disponible(6 + (b.getShort(b.position() + 4) & 0xFFFF));
+      return StockageDisque.litEntree(b);
+    }
+
+    /** Complète le tampon pour qu'il contienne au moins n octets. */
+    private void disponible(final int n) {
+      if (b.remaining() >= n) {
+        return;
+      }
+      if (b.capacity() < n) {
+        // Entrée plus grande que le tampon
+        b = ByteBuffer.allocate(n).put(b);
+      } else {
+        b.compact();
+      }
+      try {
+        while (b.hasRemaining() && pos < fin) {
+          final int limite = b.limit();
+          b.limit(b.position() + (int) Math.min(b.remaining(), fin - pos));
+          final int lus = canal.read(b, pos);
+          b.limit(limite);
+          if (lus < 0) {
+            break;
+          }
+          pos += lus;
+        }
+        b.flip();
+        if (b.remaining() < n) {
+          throw new EOFException("Entrée tronquée avant la position " + pos);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
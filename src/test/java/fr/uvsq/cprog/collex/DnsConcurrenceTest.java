@@ -0,0 +1,139 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests de charge multi-threads : unicité sous écritures concurrentes et
+ * cohérence des lectures pendant les ajouts. Le débit des lectures selon le nombre
+ * de threads se mesure dans le module bench (LectureConcurrenteBench).
+ */
+public class DnsConcurrenceTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static AdresseIP ip(final int i) {
+    return new AdresseIP(0x0A000000 | i);
+  }
+
+  private static NomMachine nom(final int i) {
+    return new NomMachine("h" + i + ".d" + (i % 16) + ".stress.fr");
+  }
+
+  @Test
+  public void testEcrituresConcurrentes_uniciteMaintenue() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("dns.txt");
+    Properties props = new Properties();
+    props.setProperty("journal.fsync", "true");
+    props.setProperty("journal.compaction.seuil", "500");
+    final int threads = 8;
+    final int essais = 2_000;
+    final AtomicInteger ajouts = new AtomicInteger();
+
+    try (Dns dns = new Dns(db, DnsConfig.depuis(props))) {
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      CountDownLatch depart = new CountDownLatch(1);
+      List<Future<?>> taches = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int decalage = t;
+        taches.add(pool.submit(() -> {
+          depart.await();
+          for (int i = 0; i < essais; i++) {
+            // Les threads se disputent les mêmes noms et, avec un décalage, les mêmes IP
+            try {
+              dns.addItem(ip((i + decalage) % essais), nom(i));
+              ajouts.incrementAndGet();
+            } catch (RuntimeException e) {
+              assertTrue(e.getMessage().startsWith("ERREUR"));
+            }
+          }
+          return null;
+        }));
+      }
+      depart.countDown();
+      for (Future<?> f : taches) {
+        f.get(1, TimeUnit.MINUTES);
+      }
+      pool.shutdown();
+
+      assertEquals(ajouts.get(), dns.size());
+      for (int i = 0; i < essais; i++) {
+        DnsItem parNom = dns.getItem(nom(i));
+        if (parNom != null) {
+          assertSame(parNom, dns.getItem(parNom.ip()));
+        }
+      }
+      dns.compacte();
+    }
+    assertEquals(ajouts.get(), new Dns(db).size());
+  }
+
+  @Test
+  public void testLecturesPendantAjouts_resultatsCoherents() throws Exception {
+    final int n = 50_000;
+    final int ajouts = 5_000;
+    List<DnsItem> lot = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      lot.add(new DnsItem(nom(i), ip(i)));
+    }
+    final Dns dns = new Dns(null);
+    dns.addItems(lot);
+    // Dernier ajout acquitté : tout lecteur qui le lit ensuite doit voir l'entrée
+    final AtomicInteger acquitte = new AtomicInteger(n - 1);
+    final AtomicBoolean stop = new AtomicBoolean();
+    final List<String> erreurs = new CopyOnWriteArrayList<>();
+
+    List<Thread> lecteurs = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int id = t;
+      Thread lecteur = new Thread(() -> {
+        int i = id;
+        while (!stop.get()) {
+          DnsItem item = dns.getItem(nom(i));
+          if (item == null || !item.ip().equals(ip(i)) || dns.getItem(item.ip()) != item) {
+            erreurs.add("entrée initiale " + i);
+          }
+          final int k = acquitte.get();
+          DnsItem ajoute = dns.getItem(nom(k));
+          if (ajoute == null || dns.getItem(ip(k)) != ajoute) {
+            erreurs.add("ajout acquitté " + k);
+          }
+          i = (i + 7) % n;
+        }
+      });
+      lecteurs.add(lecteur);
+      lecteur.start();
+    }
+    // Un écrivain ajoute des entrées pendant les lectures
+    for (int i = n; i < n + ajouts; i++) {
+      dns.addItem(ip(i), nom(i));
+      acquitte.set(i);
+    }
+    stop.set(true);
+    for (Thread lecteur : lecteurs) {
+      lecteur.join();
+    }
+    assertEquals(List.of(), erreurs);
+    assertEquals(n + ajouts, dns.size());
+    for (int i = 0; i < n + ajouts; i++) {
+      assertEquals(nom(i), dns.getItem(ip(i)).nom());
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests du serveur de commandes TCP : pipelining, ordre des réponses, commandes refusées
+ * et client de charge.
+ */
+public class DnsServeurTcpTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Dns dns;
+  private DnsServeurTcp serveur;
+
+  @Before
+  public void demarre() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("dns.txt");
+    Files.copy(Path.of("src/main/resources/data/dns.txt"), db);
+    dns = new Dns(db);
+    serveur = new DnsServeurTcp(dns, new InetSocketAddress("127.0.0.1", 0), 2);
+    serveur.demarre();
+  }
+
+  @After
+  public void arrete() throws Exception {
+    serveur.close();
+  }
+
+  /** Lit les réponses (séparées par une ligne vide) jusqu'à la fermeture de la connexion. */
+  private static List<String> reponses(final BufferedReader in) throws Exception {
+    List<String> reponses = new ArrayList<>();
+    StringBuilder courante = new StringBuilder();
+    String ligne;
+    while ((ligne = in.readLine()) != null) {
+      if (ligne.isEmpty()) {
+        reponses.add(courante.toString());
+        courante.setLength(0);
+      } else {
+        courante.append(courante.length() == 0 ? "" : "\n").append(ligne);
+      }
+    }
+    return reponses;
+  }
+
+  @Test
+  public void testCommandesPipelinees_reponsesDansLOrdre() throws Exception {
+    try (Socket s = new Socket()) {
+      s.connect(serveur.adresse());
+      s.getOutputStream().write(String.join("\r\n",
+          "www.uvsq.fr",
+          "193.51.31.90",
+          "add 10.9.9.9 tcp.uvsq.fr",
+          "import /etc/passwd",
+          "ls -a uvsq.fr",
+          "n'importe quoi",
+          "quit",
+          "www.uvsq.fr").getBytes(StandardCharsets.UTF_8));
+      s.getOutputStream().write('\n');
+      s.getOutputStream().flush();
+
+      List<String> r = reponses(new BufferedReader(
+          new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)));
+      assertEquals(7, r.size());
+      assertEquals("193.51.31.90", r.get(0));
+      assertEquals("www.uvsq.fr", r.get(1));
+      assertEquals("Commande non autorisée : add", r.get(2));
+      assertEquals("Commande non autorisée : import", r.get(3));
+      assertTrue(r.get(4).startsWith("193.51.25.12"));
+      assertEquals("Commande inconnue", r.get(5));
+      assertTrue(r.get(6).contains("Bye"));
+    }
+    assertNull(dns.getItem(new NomMachine("tcp.uvsq.fr")));
+  }
+
+  @Test
+  public void testGrandeListe_clientsLentsSansBloquerLesAutres() throws Exception {
+    // Plus de SORTIE_MAX octets de réponse pour une seule commande
+    Path db = tmp.getRoot().toPath().resolve("gros.txt");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 60_000; i++) {
+      sb.append("hote-").append(i).append(".gros.fr 10.")
+          .append(i >>> 16).append('.').append((i >>> 8) & 0xFF).append('.').append(i & 0xFF)
+          .append('\n');
+    }
+    Files.writeString(db, sb);
+    // Plus de clients lents que de threads d'exécution
+    int lents = Math.max(2, Runtime.getRuntime().availableProcessors()) + 1;
+    List<Socket> sockets = new ArrayList<>();
+    try (Dns gros = new Dns(db);
+         DnsServeurTcp srv = new DnsServeurTcp(gros, new InetSocketAddress("127.0.0.1", 0), 1)) {
+      srv.demarre();
+      for (int k = 0; k < lents; k++) {
+        Socket s = new Socket();
+        sockets.add(s);
+        s.setReceiveBufferSize(4096);
+        s.connect(srv.adresse());
+        s.getOutputStream().write("ls gros.fr\nhote-7.gros.fr\nquit\n"
+            .getBytes(StandardCharsets.UTF_8));
+        s.getOutputStream().flush();
+      }
+      // Les clients ne lisent pas tout de suite : leurs commandes sont suspendues
+      Thread.sleep(200);
+      try (Socket autre = new Socket()) {
+        autre.setSoTimeout(5000);
+        autre.connect(srv.adresse());
+        autre.getOutputStream().write("hote-9.gros.fr\nquit\n".getBytes(StandardCharsets.UTF_8));
+        List<String> r = reponses(new BufferedReader(
+            new InputStreamReader(autre.getInputStream(), StandardCharsets.UTF_8)));
+        assertEquals("10.0.0.9", r.get(0));
+      }
+      for (Socket s : sockets) {
+        List<String> r = reponses(new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)));
+        assertEquals(3, r.size());
+        assertEquals(60_000, r.get(0).split("\n").length);
+        assertEquals("10.0.0.7", r.get(1));
+        assertTrue(r.get(2).contains("Bye"));
+      }
+    } finally {
+      for (Socket s : sockets) {
+        s.close();
+      }
+    }
+  }
+
+  @Test
+  public void testClientDeCharge() throws Exception {
+    DnsBancTcp.Resultat res = DnsBancTcp.lance(serveur.adresse(), dns.items(),
+        200, 2, 8, Duration.ofMillis(300));
+    assertTrue(res.requetes() > 0);
+    assertEquals(200, res.connexions());
+  }
+}
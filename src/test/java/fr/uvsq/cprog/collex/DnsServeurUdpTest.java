@@ -0,0 +1,124 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Tests du serveur DNS UDP : encodage des réponses et échange sur la boucle locale.
+ */
+public class DnsServeurUdpTest {
+
+  private Dns dns;
+  private DnsServeurUdp serveur;
+
+  @Before
+  public void demarre() throws Exception {
+    dns = new Dns(Path.of("src/main/resources/data/dns.txt"));
+    serveur = new DnsServeurUdp(dns, new InetSocketAddress("127.0.0.1", 0), 60);
+    Thread fil = new Thread(serveur);
+    fil.setDaemon(true);
+    fil.start();
+  }
+
+  @After
+  public void arrete() throws Exception {
+    serveur.close();
+  }
+
+  private ByteBuffer interroge(final String nom, final int type) throws Exception {
+    byte[] q = DnsBancUdp.requete(nom, type);
+    q[0] = 0x12;
+    q[1] = 0x34;
+    try (DatagramSocket socket = new DatagramSocket()) {
+      socket.setSoTimeout(2000);
+      socket.send(new DatagramPacket(q, q.length, serveur.adresse()));
+      DatagramPacket p = new DatagramPacket(new byte[512], 512);
+      socket.receive(p);
+      ByteBuffer r = ByteBuffer.wrap(p.getData(), 0, p.getLength());
+      assertEquals(0x1234, r.getShort(0));
+      assertTrue((r.getShort(2) & 0x8000) != 0);
+      return r;
+    }
+  }
+
+  @Test
+  public void testRequeteA() throws Exception {
+    ByteBuffer r = interroge("WWW.uvsq.fr", DnsServeurUdp.TYPE_A);
+    assertEquals(0, r.getShort(2) & 0xF);
+    assertEquals(1, r.getShort(6));
+    // La réponse se termine par les 4 octets de l'adresse
+    assertEquals(new AdresseIP("193.51.31.90").toInt(), r.getInt(r.limit() - 4));
+  }
+
+  @Test
+  public void testRequetePtr() throws Exception {
+    ByteBuffer r = interroge("90.31.51.193.in-addr.arpa", DnsServeurUdp.TYPE_PTR);
+    assertEquals(1, r.getShort(6));
+    byte[] attendu = new byte[13];
+    ByteBuffer b = ByteBuffer.wrap(attendu);
+    DnsServeurUdp.ecritNom(b, "www.uvsq.fr");
+    byte[] fin = new byte[13];
+    r.get(r.limit() - 13, fin);
+    assertArrayEquals(attendu, fin);
+  }
+
+  @Test
+  public void testNomTropLong_refuseEtReponseTronquee() throws Exception {
+    String label = "a".repeat(63);
+    String long8 = String.join(".", java.util.Collections.nCopies(8, label));
+    assertThrows(IllegalArgumentException.class, () -> new NomMachine(long8));
+    assertNotNull(new NomMachine(long8.substring(0, NomMachine.LONGUEUR_MAX)));
+
+    // Entrée relue d'un fichier écrit avant la limite : la réponse PTR ne tient pas
+    try (Dns memoire = new Dns(null);
+         DnsServeurUdp srv = new DnsServeurUdp(memoire, new InetSocketAddress("127.0.0.1", 0), 60)) {
+      memoire.addItems(java.util.List.of(new DnsItem(NomMachine.deConfiance(long8),
+          new AdresseIP("10.66.0.1"))));
+      ByteBuffer r = ByteBuffer.allocate(DnsServeurUdp.TAILLE_MAX);
+      assertTrue(srv.repond(ByteBuffer.wrap(
+          DnsBancUdp.requete("1.0.66.10.in-addr.arpa", DnsServeurUdp.TYPE_PTR)), r));
+      assertTrue((r.getShort(2) & DnsServeurUdp.DRAPEAU_TC) != 0);
+      assertEquals(0, r.getShort(6));
+    }
+  }
+
+  @Test
+  public void testNomInconnu_nxdomain() throws Exception {
+    ByteBuffer r = interroge("absent.uvsq.fr", DnsServeurUdp.TYPE_A);
+    assertEquals(DnsServeurUdp.RCODE_NXDOMAIN, r.getShort(2) & 0xF);
+    assertEquals(0, r.getShort(6));
+  }
+
+  @Test
+  public void testAutreType_reponseVide() throws Exception {
+    ByteBuffer r = interroge("www.uvsq.fr", 28);
+    assertEquals(0, r.getShort(2) & 0xF);
+    assertEquals(0, r.getShort(6));
+  }
+
+  @Test
+  public void testIpInverse() {
+    assertEquals(new AdresseIP("193.51.31.90").toInt(),
+        (int) DnsServeurUdp.ipInverse("90.31.51.193", 12));
+    assertEquals(-1, DnsServeurUdp.ipInverse("90.31.256.193", 12));
+    assertEquals(-1, DnsServeurUdp.ipInverse("31.51.193", 9));
+  }
+
+  @Test
+  public void testClientDeCharge() throws Exception {
+    DnsBancUdp.Resultat res =
+        DnsBancUdp.lance(serveur.adresse(), dns.items(), 2, Duration.ofMillis(300));
+    assertTrue(res.reponses() > 0);
+    assertTrue(res.p99Micros() >= res.p50Micros());
+  }
+}
@@ -7,8 +7,21 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Tests unitaires et d'intégration pour le projet DNS.
@@ -61,8 +74,10 @@ public class DnsTest {
     assertNotNull(item);
     assertEquals(ip, item.ip().value());
 
-    String contenu = Files.readString(db);
-    assertTrue(contenu.contains(fqdn + " " + ip));
+    // L'ajout est journalisé, puis retrouvé au rechargement
+    String journal = Files.readString(db.resolveSibling("dns.txt.journal"));
+    assertTrue(journal.contains(fqdn + " " + ip));
+    assertNotNull(new Dns(db).getItem(new NomMachine(fqdn)));
   }
 
   @Test(expected = RuntimeException.class)
@@ -78,6 +93,1140 @@ public class DnsTest {
     dns.addItem(new AdresseIP(ip2), new NomMachine(fqdn)); // Doit lever RuntimeException
   }
 
+  @Test
+  public void testGetItems_indexDomaine_suitLesAjouts() throws IOException {
+    Path db = copieDb();
+    Dns dns = new Dns(db);
+
+    dns.addItem(new AdresseIP("193.51.25.24"), new NomMachine("pikachu.uvsq.fr"));
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("a.autre.fr"));
+
+    List<DnsItem> parNom = dns.getItems("UVSQ.fr", false);
+    assertEquals(5, parNom.size());
+    assertEquals("ecampus.uvsq.fr", parNom.get(0).nom().value());
+    assertEquals("pikachu.uvsq.fr", parNom.get(1).nom().value());
+    assertEquals("www.uvsq.fr", parNom.get(4).nom().value());
+
+    List<DnsItem> parIp = dns.getItems("uvsq.fr", true);
+    assertEquals("193.51.25.12", parIp.get(0).ip().value());
+    assertEquals("193.51.25.24", parIp.get(1).ip().value());
+
+    assertEquals(1, dns.getItems("autre.fr", false).size());
+    assertTrue(dns.getItems("inconnu.fr", false).isEmpty());
+  }
+
+  @Test
+  public void testGetItems_triParAdresse_numerique() {
+    Dns dns = new Dns(Path.of("src/main/resources/data/dns.txt"));
+
+    List<DnsItem> parIp = dns.getItems("uvsq.fr", true);
+    assertEquals("193.51.25.12", parIp.get(0).ip().value());
+    assertEquals("193.51.31.90", parIp.get(1).ip().value());
+    assertEquals("193.51.31.154", parIp.get(2).ip().value());
+  }
+
+  @Test
+  public void testAdresseIP_formeEntiere() {
+    AdresseIP ip = new AdresseIP(" 255.0.10.1 ");
+    assertEquals(0xFF000A01, ip.toInt());
+    assertEquals("255.0.10.1", ip.value());
+    assertEquals(ip, new AdresseIP(0xFF000A01));
+    assertTrue(new AdresseIP("1.2.3.4").compareTo(ip) < 0);
+  }
+
+  @Test
+  public void testAnalyseurs_memesReglesQueLesExpressionsRegulieres() {
+    for (String ok : List.of("0.0.0.0", "01.2.3.4", "199.249.255.0", " 10.0.0.1\t")) {
+      assertTrue(ok, AdresseIP.analyse(ok) >= 0);
+    }
+    for (String ko : List.of("", "1.2.3", "1.2.3.4.5", "256.1.1.1", "001.2.3.4", "1..2.3",
+        "1.2.3.4.", "+1.2.3.4", "1.2.3.4 5")) {
+      assertEquals(ko, -1, AdresseIP.analyse(ko));
+    }
+    String label63 = "a".repeat(63);
+    for (String ok : List.of("a.b", "WWW.Uvsq.fr", "x-1.y2.fr", " h.d.fr ", label63 + ".fr")) {
+      assertTrue(ok, NomMachine.estValide(ok, 0, ok.length()));
+    }
+    for (String ko : List.of("", "fr", ".a.fr", "a.fr.", "a..fr", "-a.fr", "a-.fr", "a_b.fr",
+        "a b.fr", label63 + "a.fr")) {
+      assertFalse(ko, NomMachine.estValide(ko, 0, ko.length()));
+    }
+    NomMachine nom = new NomMachine(" Poste.UVSQ.fr ");
+    assertEquals("poste.uvsq.fr", nom.value());
+    assertEquals("uvsq.fr", nom.domaine());
+    assertSame(nom.domaine(), nom.domaine());
+
+    assertNull(DnsItem.analyse("   # commentaire"));
+    assertEquals("www.uvsq.fr 193.51.31.90",
+        DnsItem.analyse("\tWWW.uvsq.fr   193.51.31.90 ").toString());
+    assertThrows(RuntimeException.class, () -> DnsItem.analyse("www.uvsq.fr"));
+    assertThrows(IllegalArgumentException.class, () -> DnsItem.analyse("www.uvsq.fr 1.2.3"));
+  }
+
+  @Test
+  public void testIndexIp_agrandissement() {
+    IndexIp index = new IndexIp();
+    for (int i = 0; i < 10_000; i++) {
+      index.put(i * 7, new DnsItem(new NomMachine("h" + i + ".test.fr"), new AdresseIP(i * 7)));
+    }
+    assertEquals(10_000, index.size());
+    assertEquals("h1234.test.fr", index.get(1234 * 7).nom().value());
+    assertNull(index.get(1));
+  }
+
+  @Test
+  public void testJournal_compactionIntegreLesAjoutsALaBase() throws IOException {
+    Path db = copieDb();
+    Properties props = new Properties();
+    props.setProperty("journal.compaction.seuil", "2");
+    props.setProperty("journal.fsync", "true");
+
+    try (Dns dns = new Dns(db, DnsConfig.depuis(props))) {
+      dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("a.journal.fr"));
+      dns.addItem(new AdresseIP("10.0.0.2"), new NomMachine("b.journal.fr"));
+      dns.compacte();
+    }
+
+    String base = Files.readString(db);
+    assertTrue(base.contains("a.journal.fr 10.0.0.1"));
+    assertTrue(base.contains("b.journal.fr 10.0.0.2"));
+    assertFalse(Files.exists(db.resolveSibling("dns.txt.journal.compaction")));
+    assertEquals(8, new Dns(db).size());
+  }
+
+  @Test
+  public void testCompactionSurDisque_rouvreLeStockageEtLibereLeTas() throws IOException {
+    Path db = copieDb();
+    Properties props = new Properties();
+    props.setProperty("stockage", "disque");
+    DnsConfig config = DnsConfig.depuis(props);
+    try (Dns dns = new Dns(db, config)) {
+      int avant = dns.entreesTas();
+      assertEquals(annexe(dns), avant);
+      List<DnsItem> lot = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        lot.add(new DnsItem(new NomMachine("h" + i + ".compacte.fr"),
+            new AdresseIP(0x0A050000 + i)));
+      }
+      dns.addItems(lot);
+      dns.addItem(new AdresseIP("10.6.0.1"), new NomMachine("ttl.compacte.fr"), 3600);
+      assertEquals(avant + 501, dns.entreesTas());
+
+      // Seule l'entrée à durée de vie (annexe) reste dans le tas
+      dns.compacte();
+      assertEquals(avant + 1, dns.entreesTas());
+      assertEquals(507, dns.size());
+      assertEquals("h499.compacte.fr", dns.getItem(new AdresseIP("10.5.1.243")).nom().value());
+      assertEquals(501, dns.getItems("compacte.fr", true).size());
+      dns.addItem(new AdresseIP("10.6.0.2"), new NomMachine("apres.compacte.fr"));
+      assertEquals(avant + 2, dns.entreesTas());
+    }
+    // Stockage à jour de la base réécrite : ouvert sans reconstruction
+    try (Dns dns = new Dns(db, config)) {
+      assertEquals(508, dns.size());
+      assertEquals(annexe(dns) + 1, dns.entreesTas());
+    }
+  }
+
+  /** Nombre d'entrées de l'annexe parmi celles du tas (IPv6 ou à durée de vie). */
+  private static int annexe(Dns dns) {
+    return (int) dns.items().stream()
+        .filter(it -> it.ip().estIpv6() || it.expiration() != 0).count();
+  }
+
+  @Test
+  public void testJournal_segmentDejaIntegreEtLigneTronquee() throws IOException {
+    Path db = copieDb();
+    // Compaction interrompue après réécriture de la base : le segment est rejoué sans doublon
+    Files.writeString(db.resolveSibling("dns.txt.journal.compaction"), "www.uvsq.fr 193.51.31.90\n");
+    // Écriture interrompue : la dernière ligne, sans fin de ligne, n'a jamais été acquittée
+    Files.writeString(db.resolveSibling("dns.txt.journal"), "c.journal.fr 10.0.0.3\nd.jour");
+
+    Dns dns = new Dns(db);
+    assertEquals(7, dns.size());
+    assertNotNull(dns.getItem(new NomMachine("c.journal.fr")));
+    assertFalse(Files.exists(db.resolveSibling("dns.txt.journal.compaction")));
+  }
+
+  @Test
+  public void testJournal_basculeCompleteUnSegmentRestant() throws IOException {
+    Path journal = tmp.getRoot().toPath().resolve("j.journal");
+    Path segment = tmp.getRoot().toPath().resolve("j.journal.compaction");
+    // Segment laissé par une compaction qui a échoué, terminé par une ligne tronquée
+    Files.writeString(segment, "a.journal.fr 10.0.0.1\nx.journal.fr 10.0");
+    try (Journal j = new Journal(journal, true)) {
+      j.force(j.ecrit(List.of("b.journal.fr 10.0.0.2", "c.journal.fr 10.0.0.3")));
+      j.bascule(segment);
+      j.force(j.ecrit(List.of("d.journal.fr 10.0.0.4")));
+    }
+    List<String> lignes = new ArrayList<>();
+    Journal.rejoue(segment, lignes::add);
+    assertEquals(List.of("a.journal.fr 10.0.0.1", "b.journal.fr 10.0.0.2",
+        "c.journal.fr 10.0.0.3"), lignes);
+    assertEquals("d.journal.fr 10.0.0.4\n", Files.readString(journal));
+  }
+
+  @Test
+  public void testChargeurTexte_plusieursTranchesEtNumeroDeLigne() throws IOException {
+    // Environ 6 Mo : plusieurs tranches, analysées en parallèle
+    Path db = tmp.newFile("gros.txt").toPath();
+    StringBuilder sb = new StringBuilder("# base générée\n");
+    for (int i = 0; i < 200_000; i++) {
+      sb.append("hote-").append(i).append(".d").append(i % 50).append(".gros.fr 10.")
+          .append(i >>> 16).append('.').append((i >>> 8) & 0xFF).append('.').append(i & 0xFF)
+          .append('\n');
+    }
+    Files.writeString(db, sb);
+    Dns dns = new Dns(db);
+    assertEquals(200_000, dns.size());
+    assertEquals("hote-199999.d49.gros.fr", dns.getItem(new AdresseIP("10.3.13.63")).nom().value());
+    assertEquals(4000, dns.getItems("d7.gros.fr", true).size());
+
+    // Doublon en fin de fichier : signalé avec son numéro de ligne
+    sb.append("autre.gros.fr 10.0.0.1\n");
+    Files.writeString(db, sb);
+    RuntimeException e = assertThrows(RuntimeException.class, () -> new Dns(db));
+    assertTrue(e.getMessage(), e.getMessage().contains("ligne 200002 : Doublon d'adresse IP"));
+  }
+
+  @Test
+  public void testInstantane_reutiliseFusionneEtReconstruit() throws IOException {
+    Path db = copieDb();
+    Path snap = db.resolveSibling("dns.txt.snap");
+    Properties props = new Properties();
+    props.setProperty("stockage", "instantane");
+    DnsConfig config = DnsConfig.depuis(props);
+
+    try (Dns dns = new Dns(db, config)) {
+      assertTrue(Files.exists(snap));
+      assertEquals(6, dns.size());
+      dns.addItem(new AdresseIP("193.51.31.1"), new NomMachine("aaa.uvsq.fr"));
+    }
+    long date = Files.getLastModifiedTime(snap).toMillis();
+
+    // Base inchangée : l'instantané est réutilisé, le journal s'ajoute par-dessus
+    try (Dns dns = new Dns(db, config)) {
+      assertEquals(date, Files.getLastModifiedTime(snap).toMillis());
+      assertEquals(7, dns.size());
+      assertEquals("www.uvsq.fr", dns.getItem(new AdresseIP("193.51.31.90")).nom().value());
+      assertTrue(dns.containsName("ECAMPUS.uvsq.fr"));
+      List<DnsItem> parNom = dns.getItems("uvsq.fr", false);
+      assertEquals("aaa.uvsq.fr", parNom.get(0).nom().value());
+      assertEquals(new Dns(db).getItems("uvsq.fr", true), dns.getItems("uvsq.fr", true));
+      assertThrows(RuntimeException.class,
+          () -> dns.addItem(new AdresseIP("10.9.9.9"), new NomMachine("poste.uvsq.fr")));
+    }
+
+    // Base modifiée à la main : l'instantané est périmé et reconstruit
+    Files.writeString(db, "seul.exemple.fr 10.0.0.1\n");
+    Files.delete(db.resolveSibling("dns.txt.journal"));
+    try (Dns dns = new Dns(db, config)) {
+      assertEquals(1, dns.size());
+      assertNull(dns.getItem(new NomMachine("www.uvsq.fr")));
+      assertNotNull(dns.getItem(new AdresseIP("10.0.0.1")));
+    }
+  }
+
+  @Test
+  public void testIndexPlages_memesReponsesQuUnEnsembleTrie() {
+    IndexPlages index = new IndexPlages();
+    TreeSet<Long> attendu = new TreeSet<>();
+    Random r = new Random(42);
+    for (int i = 0; i < 5_000; i++) {
+      // Adresses groupées dans quelques /24 pour créer des sous-arbres pleins
+      int ip = r.nextBoolean() ? r.nextInt() : 0xC1330000 | r.nextInt(1024);
+      index.put(new DnsItem(new NomMachine("h" + i + ".test.fr"), new AdresseIP(ip)));
+      attendu.add(ip & 0xFFFFFFFFL);
+    }
+    assertEquals(attendu.size(), index.size());
+    for (int k = 0; k < 200; k++) {
+      long a = r.nextInt() & 0xFFFFFFFFL;
+      long b = Math.min(0xFFFFFFFFL, a + r.nextInt(1 << 26));
+      if (k % 2 == 0) {
+        a = 0xC1330000L + r.nextInt(1024);
+        b = a + r.nextInt(300);
+      }
+      List<Long> obtenu = new ArrayList<>();
+      index.plage((int) a, (int) b, it -> obtenu.add(it.ip().toInt() & 0xFFFFFFFFL));
+      assertEquals(new ArrayList<>(attendu.subSet(a, true, b, true)), obtenu);
+      long libre = a;
+      while (attendu.contains(libre)) {
+        libre++;
+      }
+      assertEquals(libre, index.premiereLibre(a));
+    }
+  }
+
+  @Test
+  public void testPlages_cidrOrdreEtAdresseLibre() throws IOException {
+    assertEquals("193.51.0.0/16", PlageIP.cidr("193.51.31.90/16").toString());
+    assertThrows(IllegalArgumentException.class, () -> PlageIP.cidr("193.51.0.0/33"));
+    assertThrows(IllegalArgumentException.class, () -> PlageIP.cidr("193.51.0.0"));
+    assertThrows(IllegalArgumentException.class,
+        () -> new PlageIP(new AdresseIP("10.0.0.2"), new AdresseIP("10.0.0.1")));
+
+    Path db = copieDb();
+    for (DnsConfig config : configs()) {
+      try (Dns dns = new Dns(db, config)) {
+        List<DnsItem> items = dns.getItems(PlageIP.cidr("193.51.31.64/26"));
+        assertEquals(List.of("www.uvsq.fr", "france.telecom.com"),
+            items.stream().map(it -> it.nom().value()).collect(Collectors.toList()));
+        assertEquals(1, dns.getItems(PlageIP.cidr("193.51.24.0/22")).size());
+        assertTrue(dns.getItems(PlageIP.cidr("10.0.0.0/8")).isEmpty());
+
+        // L'adresse du réseau est sautée, puis les adresses prises (base et ajouts)
+        if (!dns.containsIp("193.51.31.1")) {
+          dns.addItem(new AdresseIP("193.51.31.1"), new NomMachine("r1.uvsq.fr"));
+          dns.addItem(new AdresseIP("193.51.31.3"), new NomMachine("r3.uvsq.fr"));
+          dns.addItem(new AdresseIP("193.51.31.2"), new NomMachine("r2.uvsq.fr"));
+          dns.compacte();
+        }
+        assertEquals("193.51.31.4", dns.getAdresseLibre(PlageIP.cidr("193.51.31.0/24")).value());
+        assertEquals("193.51.31.91", dns.getAdresseLibre(
+            new PlageIP(new AdresseIP("193.51.31.90"), new AdresseIP("193.51.31.95"))).value());
+        assertNull(dns.getAdresseLibre(PlageIP.cidr("193.51.31.90/32")));
+        assertEquals(7, dns.getItems(PlageIP.cidr("193.51.31.0/24")).size());
+
+        assertEquals("193.51.31.90 www.uvsq.fr\n193.51.31.92 france.telecom.com",
+            DnsTUI.analyse("range 193.51.31.90 193.51.31.100").execute(dns));
+        assertEquals("193.52.25.31 amazon.france.com",
+            DnsTUI.analyse("ls -r 193.52.0.0/16").execute(dns));
+        assertEquals("193.51.31.4", DnsTUI.analyse("free 193.51.31.0/24").execute(dns));
+        assertTrue(DnsTUI.analyse("free 193.51.31.90/32").execute(dns).startsWith("ERREUR"));
+        assertTrue(DnsTUI.analyse("ls -r 1.2.3.4").execute(dns).contains("CIDR invalide"));
+      }
+    }
+  }
+
+  @Test
+  public void testHierarchie_sousDomainesMotifsEtCompletion() throws IOException {
+    assertTrue(NomMachine.compareHierarchique("uvsq.fr", "a.uvsq.fr") < 0);
+    assertTrue(NomMachine.compareHierarchique("b.a.uvsq.fr", "b.uvsq.fr") < 0);
+    assertTrue(NomMachine.compareHierarchique("www.uvsq.fr", "a.zz.com") > 0);
+
+    Path db = copieDb();
+    Files.writeString(db, "a.b.uvsq.fr 10.0.0.1\nb.uvsq.fr 10.0.0.2\nwww.lip6.fr 10.0.0.3\n",
+        java.nio.file.StandardOpenOption.APPEND);
+    for (DnsConfig config : configs()) {
+      try (Dns dns = new Dns(db, config)) {
+        // Ajouts après le chargement : dans le tas, à côté de l'instantané
+        if (!dns.containsName("web1.uvsq.fr")) {
+          dns.addItem(new AdresseIP("10.0.0.4"), new NomMachine("c.b.uvsq.fr"));
+          dns.addItem(new AdresseIP("10.0.0.5"), new NomMachine("web1.uvsq.fr"));
+        }
+        assertEquals(List.of("b.uvsq.fr", "a.b.uvsq.fr", "c.b.uvsq.fr", "ecampus.uvsq.fr",
+            "poste.uvsq.fr", "test.uvsq.fr", "web1.uvsq.fr", "www.uvsq.fr"),
+            noms(dns.getItemsRecursif("UVSQ.fr")));
+        assertEquals(List.of("a.b.uvsq.fr", "c.b.uvsq.fr"), noms(dns.getItemsRecursif("b.uvsq.fr")));
+        assertTrue(dns.getItemsRecursif("www.uvsq.fr").isEmpty());
+        assertEquals(11, dns.getItemsRecursif("fr").size() + dns.getItemsRecursif("com").size());
+
+        assertEquals(List.of("b.uvsq.fr", "ecampus.uvsq.fr", "poste.uvsq.fr", "test.uvsq.fr",
+            "web1.uvsq.fr", "www.uvsq.fr"), noms(dns.getItemsMotif("*.uvsq.fr")));
+        assertEquals(List.of("www.lip6.fr", "www.uvsq.fr"), noms(dns.getItemsMotif("www.*.fr")));
+        assertEquals(List.of("web1.uvsq.fr", "www.uvsq.fr"), noms(dns.getItemsMotif("w*.uvsq.fr")));
+        assertEquals(List.of("amazon.france.com", "france.telecom.com"),
+            noms(dns.getItemsMotif("*.*.com")));
+        assertEquals(List.of("b.uvsq.fr"), noms(dns.getItemsMotif("b.u*.fr")));
+        assertThrows(IllegalArgumentException.class, () -> dns.getItemsMotif("a..fr"));
+
+        assertEquals(List.of("poste.uvsq.fr"), dns.completions("po.uvsq.fr", 10));
+        assertEquals(List.of("b.uvsq.fr", "ecampus.uvsq.fr", "poste.uvsq.fr"),
+            dns.completions(".uvsq.fr", 3));
+        assertEquals(List.of("fr"), dns.completions("f", 10));
+        assertTrue(dns.completions("x.inconnu.fr", 10).isEmpty());
+
+        assertEquals("a.b.uvsq.fr 10.0.0.1\nc.b.uvsq.fr 10.0.0.4",
+            DnsTUI.analyse("ls -R b.uvsq.fr").execute(dns));
+        assertEquals("10.0.0.1 a.b.uvsq.fr\n10.0.0.4 c.b.uvsq.fr",
+            DnsTUI.analyse("ls -a *.b.uvsq.fr").execute(dns));
+        assertEquals("ecampus.uvsq.fr", DnsTUI.analyse("complete ec.uvsq.fr").execute(dns));
+        assertEquals("Domaine invalide : uvsq..fr", DnsTUI.analyse("ls -R uvsq..fr").execute(dns));
+      }
+    }
+  }
+
+  @Test
+  public void testLs_fluxPaginesDansLesDeuxOrdres() throws IOException {
+    Path db = copieDb();
+    Files.writeString(db, "b.uvsq.fr 10.0.0.2\n", java.nio.file.StandardOpenOption.APPEND);
+    for (DnsConfig config : configs()) {
+      try (Dns dns = new Dns(db, config)) {
+        if (!dns.containsName("web1.uvsq.fr")) {
+          dns.addItem(new AdresseIP("10.0.0.5"), new NomMachine("web1.uvsq.fr"));
+        }
+        assertEquals(List.of("poste.uvsq.fr", "test.uvsq.fr", "web1.uvsq.fr", "www.uvsq.fr"),
+            dns.streamItems("uvsq.fr", false, "ecampus.uvsq.fr")
+                .map(it -> it.nom().value()).collect(Collectors.toList()));
+        assertEquals(List.of("193.51.25.12", "193.51.31.90"),
+            dns.streamItems("uvsq.fr", true, "10.0.0.5").limit(2)
+                .map(it -> it.ip().value()).collect(Collectors.toList()));
+        assertEquals(noms(dns.getItems("uvsq.fr", true)),
+            noms(dns.streamItems("uvsq.fr", true, null).collect(Collectors.toList())));
+        assertEquals(0, dns.streamItems("uvsq.fr", false, "www.uvsq.fr").count());
+        assertThrows(IllegalArgumentException.class, () -> dns.streamItems("uvsq.fr", true, "x"));
+
+        assertEquals("b.uvsq.fr 10.0.0.2\necampus.uvsq.fr 193.51.25.12\n"
+            + "(suite : ls uvsq.fr limit 2 after ecampus.uvsq.fr)",
+            DnsTUI.analyse("ls uvsq.fr limit 2").execute(dns));
+        assertEquals("193.51.31.154 poste.uvsq.fr\n193.51.31.200 test.uvsq.fr",
+            DnsTUI.analyse("ls -a uvsq.fr limit 3 after 193.51.31.90").execute(dns));
+        StringBuilder sortie = new StringBuilder();
+        DnsTUI.analyse("ls uvsq.fr after web1.uvsq.fr").execute(dns, sortie);
+        assertEquals("www.uvsq.fr 193.51.31.90", sortie.toString());
+        assertEquals("Limite invalide : 0", DnsTUI.analyse("ls uvsq.fr limit 0").execute(dns));
+        assertTrue(DnsTUI.analyse("ls -R uvsq.fr limit 2").execute(dns).startsWith("Usage"));
+      }
+    }
+  }
+
+  /** Une configuration par mode de stockage : mémoire, instantané, disque, colonnes. */
+  private static DnsConfig[] configs() {
+    List<DnsConfig> r = new ArrayList<>();
+    for (String mode : new String[] {"memoire", "instantane", "disque", "colonnes"}) {
+      Properties props = new Properties();
+      props.setProperty("stockage", mode);
+      r.add(DnsConfig.depuis(props));
+    }
+    return r.toArray(new DnsConfig[0]);
+  }
+
+  @Test
+  public void testStockagesDisqueEtColonnes_memesReponsesQueLInstantane() throws IOException {
+    Path base = tmp.newFile("base.txt").toPath();
+    String[] domaines = {"uvsq.fr", "a.uvsq.fr", "b-c.uvsq.fr", "lip6.fr", "test.com"};
+    List<DnsItem> items = new ArrayList<>();
+    items.add(new DnsItem(new NomMachine("a.uvsq.fr"), new AdresseIP("10.0.0.1")));
+    TreeSet<Long> ips = new TreeSet<>(List.of(0x0A000001L));
+    Random r = new Random(7);
+    for (int i = 0; items.size() < 3_000; i++) {
+      int ip = r.nextBoolean() ? r.nextInt() : 0xC1330000 | r.nextInt(4096);
+      if (ips.add(ip & 0xFFFFFFFFL)) {
+        String label = (i % 4 == 0 ? "w" : "h") + i % 700 + (i % 3 == 0 ? "-x" + i : "." + i);
+        items.add(new DnsItem(new NomMachine(label + "." + domaines[i % domaines.length]),
+            new AdresseIP(ip)));
+      }
+    }
+    Path snap = base.resolveSibling("base.snap");
+    Path disque = base.resolveSibling("base.disque");
+    Instantane.ecrit(snap, base, items);
+    // Petits paquets de tri : les sections sont fusionnées depuis le disque
+    StockageDisque.ecrit(disque, base, items::forEach, 7, 100);
+    Metriques metriques = new Metriques();
+    try (Stockage attendu = Instantane.ouvre(snap, base);
+         Stockage obtenu = StockageDisque.ouvre(disque, base, 100, metriques)) {
+      memesReponses(attendu, obtenu, items, domaines, r);
+      memesReponses(attendu, StockageColonnes.construit(items), items, domaines, r);
+
+      // Les entrées déjà lues sont servies par le cache
+      obtenu.parNom(items.get(1).nom().value());
+      obtenu.parIp(items.get(1).ip().toInt());
+      long succes = metriques.cacheDisque.succes();
+      long lectures = metriques.lectureDisque.appels();
+      assertEquals(items.get(1), obtenu.parNom(items.get(1).nom().value()));
+      assertEquals(items.get(1), obtenu.parIp(items.get(1).ip().toInt()));
+      assertEquals(succes + 2, metriques.cacheDisque.succes());
+      assertEquals(lectures, metriques.lectureDisque.appels());
+    }
+
+    // Base modifiée : le fichier est périmé
+    Files.writeString(base, "x.fr 10.0.0.1\n");
+    assertNull(StockageDisque.ouvre(disque, base, 100, metriques));
+  }
+
+  /** Vérifie qu'un stockage donne les mêmes réponses qu'un autre, sur les mêmes entrées. */
+  private static void memesReponses(Stockage attendu, Stockage obtenu, List<DnsItem> items,
+                                    String[] domaines, Random r) {
+    assertEquals(attendu.size(), obtenu.size());
+    for (DnsItem item : items) {
+      assertEquals(item, obtenu.parNom(item.nom().value()));
+      assertEquals(item, obtenu.parIp(item.ip().toInt()));
+    }
+    assertNull(obtenu.parNom("absent.uvsq.fr"));
+    assertNull(obtenu.parIp(0x0A000002));
+    for (String d : domaines) {
+      for (boolean parAdresse : new boolean[] {false, true}) {
+        List<DnsItem> liste = attendu.domaine(d, parAdresse);
+        assertEquals(liste, obtenu.domaine(d, parAdresse));
+        DnsItem milieu = liste.get(liste.size() / 2);
+        List<DnsItem> suite = new ArrayList<>();
+        (parAdresse ? obtenu.suiteParIp(d, milieu.ip())
+            : obtenu.suiteParNom(d, milieu.nom().value())).forEachRemaining(suite::add);
+        assertEquals(liste.subList(liste.size() / 2 + 1, liste.size()), suite);
+      }
+    }
+    for (int k = 0; k < 200; k++) {
+      long a = k % 2 == 0 ? 0xC1330000L + r.nextInt(4096) : r.nextInt() & 0xFFFFFFFFL;
+      long b = Math.min(0xFFFFFFFFL, a + r.nextInt(k % 2 == 0 ? 64 : 1 << 26));
+      assertEquals(attendu.plage(a, b), obtenu.plage(a, b));
+      assertEquals(attendu.premiereLibre(a), obtenu.premiereLibre(a));
+    }
+    for (String[] domaine : List.of(new String[] {"fr"}, new String[] {"fr", "uvsq"},
+        new String[] {"fr", "uvsq", "a"}, new String[] {"com", "inconnu"})) {
+      assertEquals(attendu.sousArbre(domaine), obtenu.sousArbre(domaine));
+      for (String prefixe : new String[] {"", "h1", "w6", "a"}) {
+        List<String> l1 = new ArrayList<>();
+        List<String> l2 = new ArrayList<>();
+        attendu.labels(domaine, prefixe, 30, l1::add);
+        obtenu.labels(domaine, prefixe, 30, l2::add);
+        assertEquals(l1, l2);
+      }
+    }
+    for (String motif : new String[] {"*.uvsq.fr", "w1*.*.uvsq.fr", "*.*.*", "h*.test.com",
+        "a.uvsq.fr", "*"}) {
+      String[] labels = IndexHierarchie.analyse(motif, true);
+      assertEquals(attendu.motif(labels), obtenu.motif(labels));
+    }
+    List<DnsItem> tous1 = new ArrayList<>();
+    List<DnsItem> tous2 = new ArrayList<>();
+    attendu.forEach(tous1::add);
+    obtenu.forEach(tous2::add);
+    assertEquals(tous1, tous2);
+    List<String> d1 = new ArrayList<>();
+    List<String> d2 = new ArrayList<>();
+    attendu.forEachDomaine((d, n) -> d1.add(d + n));
+    obtenu.forEachDomaine((d, n) -> d2.add(d + n));
+    assertEquals(d1, d2);
+  }
+
+  private static List<String> noms(List<DnsItem> items) {
+    return items.stream().map(it -> it.nom().value()).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testRecharge_differencesRefusEtSurveillance() throws Exception {
+    for (DnsConfig config : configs()) {
+      Path db = tmp.newFolder().toPath().resolve("dns.txt");
+      Files.write(db, List.of("a.uvsq.fr 10.0.0.1", "b.uvsq.fr 10.0.0.2", "c.uvsq.fr 10.0.0.3"));
+      try (Dns dns = new Dns(db, config)) {
+        assertNull(dns.recharge());
+        dns.addItem(new AdresseIP("10.0.0.9"), new NomMachine("j.uvsq.fr"));
+
+        // Modifié par un autre programme : c supprimé, b déplacé, d et e ajoutés
+        Files.write(db, List.of("a.uvsq.fr 10.0.0.1", "b.uvsq.fr 10.0.1.2",
+            "d.uvsq.fr 10.0.0.4", "e.uvsq.fr 10.0.0.5"));
+        Dns.Rechargement r = dns.recharge();
+        assertEquals(List.of(2, 1, 1), List.of(r.ajouts(), r.suppressions(), r.modifications()));
+        assertEquals(List.of("a.uvsq.fr", "b.uvsq.fr", "d.uvsq.fr", "e.uvsq.fr", "j.uvsq.fr"),
+            noms(dns.getItems("uvsq.fr", false)));
+        assertEquals("b.uvsq.fr", dns.getItem(new AdresseIP("10.0.1.2")).nom().value());
+        assertNull(dns.getItem(new AdresseIP("10.0.0.3")));
+
+        // Fichier invalide, puis en conflit avec un ajout journalisé : l'ancienne version reste
+        Files.write(db, List.of("a.uvsq.fr 10.0.0.1", "z.uvsq.fr 10.0.0.1"));
+        RuntimeException e = assertThrows(RuntimeException.class, dns::recharge);
+        assertTrue(e.getMessage(), e.getMessage().contains("ligne 2 : Doublon d'adresse IP"));
+        Files.write(db, List.of("x.uvsq.fr 10.0.0.9"));
+        assertThrows(RuntimeException.class, dns::recharge);
+        assertEquals(5, dns.size());
+        assertEquals("+2 -1 ~1", new DnsStats(dns).getDernierRechargement().split(" en")[0]);
+
+        // Les réécritures de l'instance elle-même ne sont pas rechargées
+        Files.write(db, List.of("a.uvsq.fr 10.0.0.1"));
+        assertEquals(3, dns.recharge().suppressions());
+        dns.compacte();
+        assertNull(dns.recharge());
+        assertEquals(2, dns.size());
+
+        // Segment laissé par une compaction en échec : rejoué avant le journal
+        Path segment = db.resolveSibling("dns.txt.journal.compaction");
+        Files.writeString(segment, "s.uvsq.fr 10.0.0.7\n");
+        Files.write(db, List.of("a.uvsq.fr 10.0.0.1", "b.uvsq.fr 10.0.0.2"));
+        assertNotNull(dns.recharge());
+        assertEquals("s.uvsq.fr", dns.getItem(new AdresseIP("10.0.0.7")).nom().value());
+        Files.delete(segment);
+      }
+    }
+
+    // Surveillance du dossier : le rechargement suit l'écriture du fichier
+    Path db = copieDb();
+    java.util.concurrent.BlockingQueue<String> comptesRendus =
+        new java.util.concurrent.LinkedBlockingQueue<>();
+    try (Dns dns = new Dns(db);
+         SurveillanceBase surveillance = new SurveillanceBase(dns, comptesRendus::add)) {
+      Files.writeString(db, "nouveau.uvsq.fr 10.1.1.1\n", java.nio.file.StandardOpenOption.APPEND);
+      String compteRendu = comptesRendus.poll(10, java.util.concurrent.TimeUnit.SECONDS);
+      assertNotNull(compteRendu);
+      assertTrue(compteRendu, compteRendu.startsWith("Base rechargée : +1 -0 ~0"));
+      assertTrue(dns.containsName("nouveau.uvsq.fr"));
+    }
+  }
+
+  @Test
+  public void testLot_memesReponsesQueLInterfaceTexte() throws IOException {
+    StringBuilder script = new StringBuilder("# lookups, ajouts et listes mêlés\n");
+    for (int i = 0; i < 3000; i++) {
+      if (i % 500 == 250) {
+        script.append("add 10.9.0.").append(i / 500).append(" h").append(i / 500).append(".lot.fr\n");
+        script.append("ls -a lot.fr\n\n");
+      }
+      script.append(i % 3 == 0 ? "193.51.31.90" : "h" + (i % 7) + ".lot.fr").append('\n');
+    }
+    script.append("range 10.9.0.0 10.9.0.9\nnimporte quoi ici\nquit\nh1.lot.fr\n");
+
+    // Référence : les mêmes commandes, une par une, sur une copie de la base
+    Path db = copieDb();
+    Path copie = tmp.newFolder().toPath().resolve("dns.txt");
+    Files.copy(db, copie);
+    StringBuilder attendu = new StringBuilder();
+    long commandes = 0;
+    try (Dns dns = new Dns(copie)) {
+      for (String ligne : script.toString().split("\n")) {
+        if (ligne.isBlank() || ligne.startsWith("#")) {
+          continue;
+        }
+        Commande cmd = DnsTUI.analyse(ligne);
+        String r = cmd.execute(dns);
+        attendu.append(r).append(r.isEmpty() ? "" : "\n");
+        commandes++;
+        if (cmd.shouldQuit()) {
+          break;
+        }
+      }
+    }
+
+    StringWriter sortie = new StringWriter();
+    try (Dns dns = new Dns(db); DnsLot lot = new DnsLot(dns, 4)) {
+      DnsLot.Resultat r = lot.execute(new BufferedReader(new StringReader(script.toString())), sortie);
+      assertEquals(commandes, r.commandes());
+      assertTrue(dns.containsName("h5.lot.fr"));
+    }
+    assertEquals(attendu.toString(), sortie.toString());
+    assertTrue(sortie.toString().startsWith("www.uvsq.fr\nERREUR : Nom inconnu\n"));
+    assertTrue(sortie.toString().contains("10.9.0.0 h0.lot.fr\n10.9.0.1 h1.lot.fr\n"));
+  }
+
+  @Test
+  public void testIpv6_formesIndexEtServeur() throws Exception {
+    assertEquals("2001:db8::1", AdresseIP.de("2001:0DB8:0:0:0:0:0:1").value());
+    assertEquals("2001:db8::1:0:0:1", AdresseIP.de("2001:db8:0:0:1:0:0:1").value());
+    assertEquals("2001:0:0:1::1", AdresseIP.de("2001:0:0:1:0:0:0:1").value());
+    assertEquals("::", AdresseIP.de("::").value());
+    assertEquals("1::", AdresseIP.de("1::").value());
+    assertEquals("::1", AdresseIP.de("0:0:0:0:0:0:0:1").value());
+    assertEquals("64:ff9b::c000:201", AdresseIP.de("64:ff9b::192.0.2.1").value());
+    assertEquals(AdresseIP.de("fe80::1"), AdresseIP.de("FE80:0000::0001"));
+    // Une adresse IPv4 écrite en IPv6 est l'adresse IPv4
+    assertEquals(new AdresseIP("192.0.2.1"), AdresseIP.de("::ffff:192.0.2.1"));
+    assertFalse(AdresseIP.de("::ffff:c000:201").estIpv6());
+    for (String invalide : new String[] {":", ":::", "1::2::3", "1:2:3:4:5:6:7:8:9", "1:2:3",
+        "12345::", "g::", "1:2:3:4:5:6:7::8", "::1.2.3", ":1::", "1:", "::ffff:1.2.3.256"}) {
+      assertNull(invalide, AdresseIP.de(invalide, 0, invalide.length()));
+    }
+    assertEquals("1.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.8.b.d.0.1.0.0.2.ip6.arpa",
+        AdresseIP.de("2001:db8::1").nomInverse());
+    // Ordre numérique sur 128 bits, a.b.c.d à la place de ::ffff:a.b.c.d : les adresses
+    // de ::/96 précèdent toutes les adresses IPv4
+    List<AdresseIP> ordre = List.of(AdresseIP.de("::"), AdresseIP.de("::1"),
+        AdresseIP.de("::fffe:ffff:ffff"), AdresseIP.de("0.0.0.0"),
+        AdresseIP.de("255.255.255.255"), AdresseIP.de("::1:0:0:0"), AdresseIP.de("2001:db8::1"));
+    List<AdresseIP> trie = new ArrayList<>(ordre);
+    java.util.Collections.reverse(trie);
+    java.util.Collections.sort(trie);
+    assertEquals(ordre, trie);
+
+    Path db = copieDb();
+    Files.writeString(db, "v6.uvsq.fr 2001:db8::1\nlo6.uvsq.fr ::1\n",
+        java.nio.file.StandardOpenOption.APPEND);
+    for (DnsConfig config : configs()) {
+      for (int ouverture = 0; ouverture < 2; ouverture++) {
+        try (Dns dns = new Dns(db, config)) {
+          if (!dns.containsName("web6.uvsq.fr")) {
+            assertEquals("OK", DnsTUI.analyse("add 2001:DB8::a web6.uvsq.fr").execute(dns));
+            assertTrue(DnsTUI.analyse("add 2001:db8:0::A autre.uvsq.fr").execute(dns)
+                .startsWith("ERREUR : L'adresse IP existe"));
+            dns.compacte();
+          }
+          assertEquals("v6.uvsq.fr", DnsTUI.analyse("2001:0db8::0001").execute(dns));
+          assertEquals("2001:db8::a", DnsTUI.analyse("web6.uvsq.fr").execute(dns));
+          assertEquals("www.uvsq.fr", DnsTUI.analyse("::ffff:193.51.31.90").execute(dns));
+          assertEquals("ERREUR : IP inconnue", DnsTUI.analyse("2001:db8::2").execute(dns));
+          assertTrue(dns.containsIp("2001:db8::1"));
+          // ::1 précède les adresses IPv4, 2001:db8::/32 les suit
+          String ls = DnsTUI.analyse("ls -a uvsq.fr").execute(dns);
+          assertTrue(ls, ls.startsWith("::1 lo6.uvsq.fr\n193.51.25.12 ecampus.uvsq.fr\n"));
+          assertTrue(ls, ls.endsWith("193.51.31.200 test.uvsq.fr\n"
+              + "2001:db8::1 v6.uvsq.fr\n2001:db8::a web6.uvsq.fr"));
+          assertTrue(DnsTUI.analyse("ls -a uvsq.fr limit 1 after ::1").execute(dns)
+              .startsWith("193.51.25.12 ecampus.uvsq.fr\n(suite : ls -a uvsq.fr limit 1 after "));
+          assertEquals("2001:db8::a web6.uvsq.fr",
+              DnsTUI.analyse("ls -a uvsq.fr after 2001:db8::1").execute(dns));
+
+          try (DnsServeurUdp serveur =
+                   new DnsServeurUdp(dns, new InetSocketAddress("127.0.0.1", 0), 60)) {
+            ByteBuffer r = ByteBuffer.allocate(DnsServeurUdp.TAILLE_MAX);
+            assertTrue(serveur.repond(ByteBuffer.wrap(
+                DnsBancUdp.requete("web6.uvsq.fr", DnsServeurUdp.TYPE_AAAA)), r));
+            assertEquals(1, r.getShort(6));
+            assertEquals(0x20010db8_00000000L, r.getLong(r.position() - 16));
+            assertEquals(0xaL, r.getLong(r.position() - 8));
+            r.clear();
+            serveur.repond(ByteBuffer.wrap(
+                DnsBancUdp.requete("web6.uvsq.fr", DnsServeurUdp.TYPE_A)), r);
+            assertEquals(0, r.getShort(6));
+            r.clear();
+            serveur.repond(ByteBuffer.wrap(DnsBancUdp.requete(
+                AdresseIP.de("2001:db8::1").nomInverse(), DnsServeurUdp.TYPE_PTR)), r);
+            assertEquals(1, r.getShort(6));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testExpiration_roueIndexEtPersistance() throws IOException {
+    // Chaque entrée est rendue à sa seconde d'échéance, quel que soit son niveau
+    final long t0 = 1_000_000_000L;
+    RoueExpiration roue = new RoueExpiration(t0);
+    long[] delais = {0, 1, 63, 64, 65, 4095, 4096, 262_143, 300_000, (1L << 24) + 5};
+    for (long d : delais) {
+      roue.planifie(new DnsItem(NomMachine.deConfiance("d" + d + ".ttl.fr"),
+          new AdresseIP((int) d), t0 + d));
+    }
+    List<Long> rendues = new ArrayList<>();
+    long t = t0;
+    for (long d : delais) {
+      while (t < t0 + d) {
+        assertEquals(0, roue.avance(t++, it -> rendues.add(it.expiration() - t0)));
+      }
+      assertEquals(1, roue.avance(t++, it -> rendues.add(it.expiration() - t0)));
+    }
+    assertEquals(delais.length, rendues.size());
+    assertEquals(0, roue.size());
+
+    IndexIp parIp = new IndexIp();
+    DnsItem a = new DnsItem(new NomMachine("a.ttl.fr"), new AdresseIP("10.7.0.1"));
+    parIp.put(a.ip().toInt(), a);
+    assertSame(a, parIp.supprime(a.ip().toInt()));
+    assertNull(parIp.get(a.ip().toInt()));
+    assertNull(parIp.supprime(a.ip().toInt()));
+    parIp.put(a.ip().toInt(), a);
+    assertSame(a, parIp.get(a.ip().toInt()));
+    assertEquals(1, parIp.size());
+
+    IndexPlages plages = new IndexPlages();
+    for (int i = 1; i <= 3; i++) {
+      plages.put(new DnsItem(NomMachine.deConfiance("p" + i + ".ttl.fr"),
+          new AdresseIP("10.7.1." + i)));
+    }
+    assertTrue(plages.supprime(new DnsItem(NomMachine.deConfiance("p2.ttl.fr"),
+        new AdresseIP("10.7.1.2"))));
+    assertEquals(2, plages.size());
+    assertEquals(Integer.toUnsignedLong(new AdresseIP("10.7.1.2").toInt()),
+        plages.premiereLibre(Integer.toUnsignedLong(new AdresseIP("10.7.1.1").toInt())));
+
+    for (DnsConfig config : configs()) {
+      Path db = tmp.newFile().toPath();
+      Files.writeString(db, "www.ttl.fr 10.7.0.2\nold.ttl.fr 10.7.0.9 1000000000\n");
+      try (Dns dns = new Dns(db, config)) {
+        // Entrée déjà expirée dans la base : ignorée au chargement
+        assertFalse(dns.containsName("old.ttl.fr"));
+        assertEquals("OK", DnsTUI.analyse("add 10.7.0.1 t1.ttl.fr 60").execute(dns));
+        assertEquals("OK", DnsTUI.analyse("add 10.7.0.3 t2.ttl.fr 3600").execute(dns));
+        assertEquals("Durée de vie invalide : x",
+            DnsTUI.analyse("add 10.7.0.4 t3.ttl.fr x").execute(dns));
+        assertEquals("Durée de vie invalide : 0",
+            DnsTUI.analyse("add 10.7.0.4 t3.ttl.fr 0").execute(dns));
+        // Au-delà de TTL_MAX, l'expiration ne serait plus relue : refus à l'ajout
+        assertEquals("Durée de vie invalide : 999999999999999999",
+            DnsTUI.analyse("add 10.7.0.4 t3.ttl.fr 999999999999999999").execute(dns));
+        assertThrows(IllegalArgumentException.class, () -> dns.addItem(
+            new AdresseIP("10.7.0.4"), new NomMachine("t3.ttl.fr"), Long.MAX_VALUE));
+        assertEquals("OK", DnsTUI.analyse("add 10.8.0.5 t5.long.fr " + Dns.TTL_MAX).execute(dns));
+
+        long maintenant = Dns.maintenant();
+        assertEquals(0, dns.expire(maintenant + 30));
+        assertEquals("t1.ttl.fr", DnsTUI.analyse("10.7.0.1").execute(dns));
+        assertEquals(1, dns.expire(maintenant + 61));
+        assertEquals("ERREUR : IP inconnue", DnsTUI.analyse("10.7.0.1").execute(dns));
+        assertFalse(dns.containsName("t1.ttl.fr"));
+        assertEquals("t2.ttl.fr 10.7.0.3\nwww.ttl.fr 10.7.0.2",
+            DnsTUI.analyse("ls ttl.fr").execute(dns));
+        assertEquals("t2.ttl.fr 10.7.0.3\nwww.ttl.fr 10.7.0.2",
+            DnsTUI.analyse("ls -R ttl.fr").execute(dns));
+        assertEquals("10.7.0.2 www.ttl.fr\n10.7.0.3 t2.ttl.fr",
+            DnsTUI.analyse("range 10.7.0.0 10.7.0.255").execute(dns));
+        assertEquals("10.7.0.1", DnsTUI.analyse("free 10.7.0.0/24").execute(dns));
+        assertTrue(new DnsStats(dns).rapport().contains("Entrées expirées : 1"));
+        // Le nom et l'adresse sont de nouveau libres
+        assertEquals("OK", DnsTUI.analyse("add 10.7.0.1 t1.ttl.fr").execute(dns));
+      }
+      // Une ligne de journal illisible est ignorée et signalée, sans empêcher l'ouverture
+      Files.writeString(db.resolveSibling(db.getFileName() + ".journal"),
+          "b.ttl.fr 10.7.0.8 1000000001792323161\n", java.nio.file.StandardOpenOption.CREATE,
+          java.nio.file.StandardOpenOption.APPEND);
+      try (Dns dns = new Dns(db, config)) {
+        assertEquals(1, dns.lignesIgnorees().size());
+        assertEquals("t5.long.fr", DnsTUI.analyse("10.8.0.5").execute(dns));
+        assertEquals("10.7.0.3", DnsTUI.analyse("t2.ttl.fr").execute(dns));
+        assertEquals("10.7.0.1", DnsTUI.analyse("t1.ttl.fr").execute(dns));
+        dns.compacte();
+      }
+      assertTrue(Files.readString(db).contains("t2.ttl.fr 10.7.0.3 "));
+      assertFalse(Files.readString(db).contains("old.ttl.fr"));
+      try (Dns dns = new Dns(db, config)) {
+        assertEquals("t2.ttl.fr", DnsTUI.analyse("10.7.0.3").execute(dns));
+      }
+    }
+  }
+
+  @Test
+  public void testReplication_instantaneSuiteEtRechargement() throws Exception {
+    Path db = copieDb();
+    try (Dns maitre = new Dns(db);
+         ReplicationMaitre publication = new ReplicationMaitre(maitre,
+             new InetSocketAddress("127.0.0.1", 0), 1000);
+         Dns replique = new Dns(null)) {
+      maitre.addItem(new AdresseIP("10.8.0.1"), new NomMachine("avant.repl.fr"));
+      List<String> comptesRendus = new java.util.concurrent.CopyOnWriteArrayList<>();
+      try (ReplicationSuiveur suiveur =
+               new ReplicationSuiveur(replique, publication.adresse(), comptesRendus::add)) {
+        // Arrivée tardive : instantané (base et premier ajout), puis la suite
+        attendsQue(() -> replique.size() == maitre.size());
+        assertEquals("10.8.0.1", DnsTUI.analyse("avant.repl.fr").execute(replique));
+        assertEquals(1, publication.repliques());
+        maitre.addItem(new AdresseIP("10.8.0.2"), new NomMachine("apres.repl.fr"));
+        maitre.addItem(new AdresseIP("10.8.0.3"), new NomMachine("ttl.repl.fr"), 3600);
+        attendsQue(() -> replique.containsName("ttl.repl.fr"));
+        assertEquals("apres.repl.fr", DnsTUI.analyse("10.8.0.2").execute(replique));
+        assertEquals(maitre.getItem(new NomMachine("ttl.repl.fr")),
+            replique.getItem(new NomMachine("ttl.repl.fr")));
+        assertEquals("ERREUR : Réplique en lecture seule, ajout à faire sur le maître",
+            DnsTUI.analyse("add 10.8.0.4 x.repl.fr").execute(replique));
+        String rapport = new DnsStats(replique).rapport();
+        assertTrue(rapport, rapport.contains("Réplication : changement 3"));
+        assertTrue(rapport, rapport.contains("replication"));
+
+        // Base remplacée sur le maître : nouvel instantané pour la réplique
+        Files.writeString(db, "autre.repl.fr 10.8.1.1\n", java.nio.file.StandardOpenOption.APPEND);
+        assertNotNull(maitre.recharge());
+        attendsQue(() -> replique.containsName("autre.repl.fr"));
+        assertEquals(maitre.size(), replique.size());
+        assertEquals(noms(maitre.getItems("repl.fr", false)),
+            noms(replique.getItems("repl.fr", false)));
+      }
+      assertEquals(1, comptesRendus.size());
+      assertTrue(comptesRendus.get(0), comptesRendus.get(0).startsWith("Réplique de "));
+    }
+  }
+
+  @Test
+  public void testPartitions_unicitePersistanceEtConcurrence() throws Exception {
+    Path db = copieDb();
+    List<DnsItem> attendus;
+    try (Dns seul = new Dns(db)) {
+      attendus = seul.getItems("uvsq.fr", false);
+    }
+    DnsConfig config = DnsConfig.depuis(new Properties());
+    try (DnsPartitionne dns = new DnsPartitionne(db, 4, config)) {
+      assertEquals(6, dns.size());
+      assertEquals(attendus, dns.getItems("UVSQ.fr", false));
+      assertEquals(attendus, dns.getItems(" uvsq.fr ", false));
+      assertThrows(IllegalArgumentException.class, () -> dns.getItems(" ", false));
+      assertThrows(IllegalArgumentException.class, () -> dns.getItems(null, false));
+      assertEquals("193.51.31.90", dns.getItem(new NomMachine("www.uvsq.fr")).ip().value());
+      assertEquals("amazon.france.com",
+          dns.getItem(new AdresseIP("193.52.25.31")).nom().value());
+
+      // Unicité des adresses entre partitions, des noms dans la leur
+      RuntimeException e = assertThrows(RuntimeException.class, () ->
+          dns.addItem(new AdresseIP("193.51.31.90"), new NomMachine("www.ailleurs.org")));
+      assertEquals("ERREUR : L'adresse IP existe déjà !", e.getMessage());
+      e = assertThrows(RuntimeException.class, () ->
+          dns.addItem(new AdresseIP("10.9.0.1"), new NomMachine("www.uvsq.fr")));
+      assertEquals("ERREUR : Le nom de machine existe déjà !", e.getMessage());
+
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final int base = t * 100;
+        threads.add(new Thread(() -> {
+          for (int i = base; i < base + 100; i++) {
+            dns.addItem(new AdresseIP("10.9." + (i >> 8) + "." + (i & 0xFF)),
+                new NomMachine("m" + i + ".d" + (i % 16) + ".fr"));
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for (Thread t : threads) {
+        t.join();
+      }
+      assertEquals(406, dns.size());
+    }
+    for (int k = 0; k < 4; k++) {
+      assertTrue(Files.exists(db.resolveSibling("dns.txt.partie-" + k + "-sur-4")));
+    }
+    try (DnsPartitionne dns = new DnsPartitionne(db, 4, config)) {
+      assertEquals(406, dns.size());
+      assertEquals("m399.d15.fr", dns.getItem(new AdresseIP("10.9.1.143")).nom().value());
+    }
+
+    // Partitions incomplètes : refus plutôt qu'un nouveau découpage
+    Files.delete(db.resolveSibling("dns.txt.partie-0-sur-4"));
+    RuntimeException e = assertThrows(RuntimeException.class,
+        () -> new DnsPartitionne(db, 4, config));
+    assertTrue(e.getMessage(), e.getMessage().startsWith("ERREUR : Partitions incomplètes"));
+  }
+
+  @Test
+  public void testPartitions_adresseReserveeUneSeuleFoisEntrePartitions() throws Exception {
+    Path db = copieDb();
+    Properties props = new Properties();
+    props.setProperty("journal.fsync", "true");
+    try (DnsPartitionne dns = new DnsPartitionne(db, 8, DnsConfig.depuis(props))) {
+      // Chaque adresse est demandée en même temps par des domaines de partitions différentes
+      List<List<CompletableFuture<Void>>> ajouts = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        List<CompletableFuture<Void>> memeIp = new ArrayList<>();
+        for (int d = 0; d < 8; d++) {
+          memeIp.add(dns.ajoute(new DnsItem(new NomMachine("h" + i + ".d" + d + ".course.fr"),
+              new AdresseIP("10.7." + (i >> 8) + "." + (i & 0xFF)))));
+        }
+        ajouts.add(memeIp);
+      }
+      for (List<CompletableFuture<Void>> memeIp : ajouts) {
+        int acceptes = 0;
+        for (CompletableFuture<Void> f : memeIp) {
+          try {
+            f.join();
+            acceptes++;
+          } catch (java.util.concurrent.CompletionException e) {
+            assertEquals("ERREUR : L'adresse IP existe déjà !", e.getCause().getMessage());
+          }
+        }
+        assertEquals(1, acceptes);
+      }
+      assertEquals(6 + 200, dns.size());
+      assertNotNull(dns.getItem(new AdresseIP("10.7.0.199")));
+    }
+  }
+
+  @Test
+  public void testPartitions_adresseEchueReutilisableAvantLeTopDExpiration() throws Exception {
+    Path db = copieDb();
+    try (DnsPartitionne dns = new DnsPartitionne(db, 4, DnsConfig.depuis(new Properties()))) {
+      long expiration = Dns.maintenant() + 1;
+      dns.ajoute(new DnsItem(new NomMachine("bref.echu.fr"), new AdresseIP("10.6.0.1"),
+          expiration)).join();
+      attendsQue(() -> Dns.maintenant() > expiration);
+      // Même partition : le lot ne doit pas être refusé par l'entrée échue
+      List<CompletableFuture<Void>> lot = new ArrayList<>();
+      lot.add(dns.ajoute(new DnsItem(new NomMachine("suivant.echu.fr"),
+          new AdresseIP("10.6.0.1"))));
+      for (int i = 2; i < 50; i++) {
+        lot.add(dns.ajoute(new DnsItem(new NomMachine("m" + i + ".echu.fr"),
+            new AdresseIP("10.6.0." + i))));
+      }
+      lot.forEach(CompletableFuture::join);
+      assertEquals("suivant.echu.fr", dns.getItem(new AdresseIP("10.6.0.1")).nom().value());
+    }
+  }
+
+  /** Attend, cinq secondes au plus, qu'une condition devienne vraie. */
+  private static void attendsQue(java.util.function.BooleanSupplier condition)
+      throws InterruptedException {
+    long limite = System.nanoTime() + 5_000_000_000L;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Délai dépassé", System.nanoTime() < limite);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testFiltreBloom_absencesEcarteesSansFauxNegatif() throws Exception {
+    FiltreBloom f = new FiltreBloom(20_000);
+    for (int i = 0; i < 20_000; i++) {
+      f.ajoute(FiltreBloom.hacheNom("h" + i + ".bloom.fr"), FiltreBloom.hacheIp(i));
+    }
+    int fauxPositifs = 0;
+    for (int i = 0; i < 20_000; i++) {
+      assertTrue(f.peutContenir(FiltreBloom.hacheNom("h" + i + ".bloom.fr")));
+      assertTrue(f.peutContenir(FiltreBloom.hacheIp(i)));
+      if (f.peutContenir(FiltreBloom.hacheNom("x" + i + ".bloom.fr"))) {
+        fauxPositifs++;
+      }
+    }
+    assertTrue("Faux positifs : " + fauxPositifs, fauxPositifs < 100);
+
+    // Hachage des noms sans construire d'entrée : même filtre que par les entrées
+    StockageColonnes colonnes = StockageColonnes.construit(List.of(
+        new DnsItem(new NomMachine("www.uvsq.fr"), new AdresseIP("193.51.31.90")),
+        new DnsItem(new NomMachine("a.b.lip6.fr"), new AdresseIP("10.0.0.1"))));
+    FiltreBloom parColonnes = new FiltreBloom(0);
+    colonnes.remplit(parColonnes);
+    assertTrue(parColonnes.peutContenir(FiltreBloom.hacheNom("a.b.lip6.fr")));
+    assertTrue(parColonnes.peutContenir(FiltreBloom.hacheIp(0x0A000001)));
+
+    Path db = copieDb();
+    for (DnsConfig config : configs()) {
+      try (Dns dns = new Dns(db, config)) {
+        boolean avecStockage = config.instantane() || config.disque() || config.colonnes();
+        if (avecStockage) {
+          // Filtre du stockage construit en tâche de fond
+          attendsQue(() -> dns.octetsFiltre() > 0);
+        }
+        // Les ajouts, absents du filtre, restent trouvés dans le tas
+        if (!dns.containsName("h0.bloom.fr")) {
+          List<DnsItem> lot = new ArrayList<>();
+          for (int i = 0; i < 200; i++) {
+            lot.add(new DnsItem(new NomMachine("h" + i + ".bloom.fr"),
+                new AdresseIP(0x0A400000 + i)));
+          }
+          dns.addItems(lot);
+        }
+        for (int i = 0; i < 200; i++) {
+          assertNotNull(dns.getItem(new NomMachine("h" + i + ".bloom.fr")));
+          assertNotNull(dns.getItem(new AdresseIP(0x0A400000 + i)));
+        }
+        for (DnsItem item : dns.getItems("uvsq.fr", false)) {
+          assertEquals(item, dns.getItem(item.nom()));
+          assertEquals(item, dns.getItem(item.ip()));
+        }
+
+        Metriques m = dns.metriques();
+        for (int i = 0; i < 1_000; i++) {
+          assertNull(dns.getItem(new NomMachine("x" + i + ".bloom.fr")));
+          assertNull(dns.getItem(new AdresseIP(0x0A500000 + i)));
+        }
+        String rapport = new DnsStats(dns).rapport();
+        if (avecStockage) {
+          assertEquals(2_000, m.absence.appels());
+          assertTrue("Faux positifs : " + m.absence.echecs(), m.absence.echecs() < 20);
+          assertTrue(rapport, rapport.contains("Filtre de Bloom : "));
+          assertTrue(rapport, rapport.contains("recherche-absente"));
+        } else {
+          assertEquals(0, m.absence.appels());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAsynchrone_regroupementEtFileBornee() throws Exception {
+    Path db = copieDb();
+    try (Dns dns = new Dns(db); DnsAsynchrone async = new DnsAsynchrone(dns, 1, 3)) {
+      // Le seul thread est occupé : les commandes suivantes attendent dans la file
+      CountDownLatch libere = new CountDownLatch(1);
+      CompletableFuture<String> occupe = async.soumet(d -> {
+        try {
+          libere.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "libre";
+      });
+      List<CompletableFuture<String>> memes = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        memes.add(async.soumet(" www.uvsq.fr "));
+      }
+      CompletableFuture<String> autre = async.offre("193.51.31.90");
+      assertNotNull(autre);
+      assertEquals(3, async.enCours());
+      // File pleine : refus, sauf pour une lecture qui rejoint une exécution en attente
+      assertNull(async.offre("ls uvsq.fr"));
+      memes.add(async.offre("www.uvsq.fr"));
+      assertEquals(3, async.regroupees());
+
+      libere.countDown();
+      assertEquals("libre", occupe.get());
+      for (CompletableFuture<String> f : memes) {
+        assertEquals("193.51.31.90", f.get());
+      }
+      assertEquals("www.uvsq.fr", autre.get());
+      assertEquals(3, async.executees());
+      assertEquals(1, dns.metriques().commande("recherche-ip").appels());
+
+      // Une lecture soumise après un ajout acquitté le voit, les erreurs sont des réponses
+      assertEquals("OK", async.soumet("add 10.9.9.9 n.async.fr").get());
+      assertEquals("10.9.9.9", async.soumet("n.async.fr").get());
+      assertTrue(async.soumet("add 10.9.9.9 m.async.fr").get().startsWith("ERREUR : "));
+      attendsQue(() -> async.enCours() == 0);
+    }
+  }
+
+  @Test
+  public void testStats_compteursPercentilesEtJmx() throws Exception {
+    Histogramme h = new Histogramme();
+    for (int i = 1; i <= 1000; i++) {
+      h.enregistre(i * 1000L);
+    }
+    long[] p = h.percentiles(0.5, 0.99, 0.999);
+    assertEquals(500_000, p[0], 500_000 / 16);
+    assertEquals(990_000, p[1], 990_000 / 16);
+    assertEquals(999_000, p[2], 999_000 / 16);
+
+    Path db = copieDb();
+    try (Dns dns = new Dns(db)) {
+      for (String ligne : List.of("www.uvsq.fr", "absent.uvsq.fr", "193.51.31.90", "ls uvsq.fr",
+          "add 10.0.0.1 www.uvsq.fr", "n'importe quoi ici")) {
+        DnsTUI.analyse(ligne).execute(dns);
+      }
+      Metriques m = dns.metriques();
+      assertEquals(1, m.rechercheNom.succes());
+      assertEquals(1, m.rechercheNom.echecs());
+      assertEquals(1, m.rechercheIp.succes());
+      assertEquals(1, m.ajout.echecs());
+      assertEquals(2, m.commande("recherche-nom").appels());
+      assertEquals(1, m.commande("add").echecs());
+      assertEquals(1, m.commande("invalide").appels());
+
+      String rapport = DnsTUI.analyse("stats").execute(dns);
+      assertTrue(rapport, rapport.contains("Entrées : 6"));
+      assertTrue(rapport, rapport.contains("commande:ls"));
+      assertTrue(rapport, rapport.matches("(?s).*uvsq\\.fr\\s+4.*"));
+
+      try (DnsStats stats = DnsStats.publie(dns)) {
+        MBeanServer serveur = ManagementFactory.getPlatformMBeanServer();
+        ObjectName nom = new ObjectName(
+            "fr.uvsq.cprog.collex:type=Dns,base=" + ObjectName.quote(db.toString()));
+        assertEquals(6, serveur.getAttribute(nom, "Entrees"));
+        assertNotNull(serveur.getAttribute(nom, "P99Micros"));
+      }
+    }
+  }
+
+  @Test
+  public void testAddItems_toutOuRien() throws IOException {
+    Path db = copieDb();
+    Dns dns = new Dns(db);
+
+    List<DnsItem> lot = List.of(
+        new DnsItem(new NomMachine("a.lot.fr"), new AdresseIP("10.1.0.1")),
+        new DnsItem(new NomMachine("b.lot.fr"), new AdresseIP("10.1.0.1")));
+    assertThrows(RuntimeException.class, () -> dns.addItems(lot));
+    assertNull(dns.getItem(new NomMachine("a.lot.fr")));
+
+    dns.addItems(List.of(
+        new DnsItem(new NomMachine("a.lot.fr"), new AdresseIP("10.1.0.1")),
+        new DnsItem(new NomMachine("b.lot.fr"), new AdresseIP("10.1.0.2"))));
+    assertEquals(2, dns.getItems("lot.fr", false).size());
+    assertEquals(8, new Dns(db).size());
+  }
+
+  @Test
+  public void testCommandeImport_rejetsEtCompteRendu() throws IOException {
+    Path db = copieDb();
+    Dns dns = new Dns(db);
+    Path fichier = tmp.newFile("import.txt").toPath();
+    Files.writeString(fichier, String.join("\n",
+        "# commentaire",
+        "h1.import.fr 10.2.0.1",
+        "www.uvsq.fr 10.2.0.2",
+        "h3.import.fr 193.51.31.90",
+        "h4.import.fr 10.2.0.1",
+        "pas une ligne valide",
+        "h5.import.fr 10.2.0.5") + "\n");
+
+    String rapport = new CommandeImport(fichier).execute(dns);
+
+    assertTrue(rapport, rapport.contains("2 ajoutée(s), 4 rejetée(s)"));
+    assertTrue(rapport.contains("ligne 3 : nom déjà présent"));
+    assertTrue(rapport.contains("ligne 4 : IP déjà présente"));
+    assertTrue(rapport.contains("ligne 5 : IP déjà présente"));
+    assertTrue(rapport.contains("ligne 6 : ligne invalide"));
+    assertNotNull(dns.getItem(new NomMachine("h5.import.fr")));
+  }
+
   /**
    * 🔄 Test d’intégration complet : simule une vraie session utilisateur
    * (add → lookup → ls → quit)